@@ -22,7 +22,6 @@ import android.nfc.tech.IsoDep;
 import com.yubico.yubikit.core.internal.Logger;
 import com.yubico.yubikit.core.Transport;
 import com.yubico.yubikit.core.smartcard.SmartCardConnection;
-import com.yubico.yubikit.core.util.StringUtils;
 
 import org.slf4j.LoggerFactory;
 
@@ -62,9 +61,14 @@ public class NfcSmartCardConnection implements SmartCardConnection {
 
     @Override
     public byte[] sendAndReceive(byte[] apdu) throws IOException {
-        Logger.trace(logger, "sent: {}", StringUtils.bytesToHex(apdu));
+        boolean trace = Logger.isTraceEnabled(logger);
+        if (trace) {
+            Logger.trace(logger, "sent: {}", Logger.hex(apdu));
+        }
         byte[] received = card.transceive(apdu);
-        Logger.trace(logger, "received: {}", StringUtils.bytesToHex(received));
+        if (trace) {
+            Logger.trace(logger, "received: {}", Logger.hex(received));
+        }
         return received;
     }
 
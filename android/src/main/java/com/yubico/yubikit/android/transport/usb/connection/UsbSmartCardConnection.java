@@ -23,7 +23,6 @@ import android.hardware.usb.UsbInterface;
 import com.yubico.yubikit.core.internal.Logger;
 import com.yubico.yubikit.core.Transport;
 import com.yubico.yubikit.core.smartcard.SmartCardConnection;
-import com.yubico.yubikit.core.util.StringUtils;
 
 import org.slf4j.LoggerFactory;
 
@@ -157,7 +156,9 @@ public class UsbSmartCardConnection extends UsbYubiKeyConnection implements Smar
         while (bytesSent < bufferOut.length || bytesSentPackage == endpointOut.getMaxPacketSize()) {
             bytesSentPackage = connection.bulkTransfer(endpointOut, bufferOut, bytesSent, bufferOut.length - bytesSent, TIMEOUT);
             if (bytesSentPackage > 0) {
-                Logger.trace(logger, "{} bytes sent over ccid: {}", bytesSentPackage, StringUtils.bytesToHex(bufferOut, bytesSent, bytesSentPackage));
+                if (Logger.isTraceEnabled(logger)) {
+                    Logger.trace(logger, "{} bytes sent over ccid: {}", bytesSentPackage, Logger.hex(bufferOut, bytesSent, bytesSentPackage));
+                }
                 bytesSent += bytesSentPackage;
             } else if (bytesSentPackage < 0) {
                 throw new IOException("Failed to send " + (bufferOut.length - bytesSent) + " bytes");
@@ -180,7 +181,9 @@ public class UsbSmartCardConnection extends UsbYubiKeyConnection implements Smar
         do {
             bytesRead = connection.bulkTransfer(endpointIn, bufferRead, bufferRead.length, TIMEOUT);
             if (bytesRead > 0) {
-                Logger.trace(logger, "{} bytes received: {}", bytesRead, StringUtils.bytesToHex(bufferRead, 0, bytesRead));
+                if (Logger.isTraceEnabled(logger)) {
+                    Logger.trace(logger, "{} bytes received: {}", bytesRead, Logger.hex(bufferRead, 0, bytesRead));
+                }
 
                 if (receivedExpectedPrefix) {
                     stream.write(bufferRead, 0, bytesRead);
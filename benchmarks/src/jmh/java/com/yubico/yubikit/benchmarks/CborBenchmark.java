@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.CborReader;
+import com.yubico.yubikit.fido.CborWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a CTAP2 makeCredential request.
+ * <p>
+ * The maps are built as HashMaps, so encoding includes sorting all keys in canonical order. The size of the
+ * excludeList is varied, as it dominates the size of real requests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CborBenchmark {
+    @Param({"0", "16"})
+    public int excludeListSize;
+
+    private Map<Integer, Object> request;
+    private byte[] encoded;
+    private final CborWriter writer = new CborWriter();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+
+        Map<String, Object> rp = new HashMap<>();
+        rp.put("id", "example.com");
+        rp.put("name", "Example");
+
+        Map<String, Object> user = new HashMap<>();
+        user.put("id", randomBytes(random, 32));
+        user.put("name", "user@example.com");
+        user.put("displayName", "Example User");
+
+        List<Map<String, Object>> params = new ArrayList<>();
+        for (int alg : new int[]{-7, -8, -257}) {
+            Map<String, Object> param = new HashMap<>();
+            param.put("type", "public-key");
+            param.put("alg", alg);
+            params.add(param);
+        }
+
+        List<Map<String, Object>> excludeList = new ArrayList<>();
+        for (int i = 0; i < excludeListSize; i++) {
+            Map<String, Object> descriptor = new HashMap<>();
+            descriptor.put("type", "public-key");
+            descriptor.put("id", randomBytes(random, 64));
+            excludeList.add(descriptor);
+        }
+
+        Map<String, Object> options = new HashMap<>();
+        options.put("rk", true);
+        options.put("uv", false);
+
+        request = new HashMap<>();
+        request.put(0x01, randomBytes(random, 32));
+        request.put(0x02, rp);
+        request.put(0x03, user);
+        request.put(0x04, params);
+        if (excludeListSize > 0) {
+            request.put(0x05, excludeList);
+        }
+        request.put(0x07, options);
+        request.put(0x08, randomBytes(random, 32));
+        request.put(0x09, 2);
+
+        encoded = Cbor.encode(request);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return Cbor.encode(request);
+    }
+
+    @Benchmark
+    public byte[] encodeReusedWriter() {
+        writer.reset();
+        return writer.writeValue(request).toByteArray();
+    }
+
+    @Benchmark
+    public Object decode() {
+        return Cbor.decode(encoded);
+    }
+
+    @Benchmark
+    public int skip() {
+        CborReader reader = new CborReader(encoded);
+        reader.skip();
+        return reader.hasNext() ? 1 : 0;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
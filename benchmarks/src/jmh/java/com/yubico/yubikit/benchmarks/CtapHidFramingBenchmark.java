@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.fido.FidoConnection;
+import com.yubico.yubikit.core.fido.FidoProtocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host side CTAPHID framing throughput, isolated from any device processing.
+ * <p>
+ * The connection echoes every report back as it is sent, which is a valid response to a PING message, so
+ * the measurement only covers splitting the payload into reports and reassembling the response. Unlike
+ * {@link FidoProtocolBenchmark}, no work is done on the device side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CtapHidFramingBenchmark {
+    private static final byte CTAPHID_PING = (byte) 0x81;
+
+    @Param({"0", "57", "1024", "7609"})
+    public int payloadLength;
+
+    private FidoProtocol protocol;
+    private int secondChannel;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        protocol = new FidoProtocol(new LoopbackConnection());
+        secondChannel = protocol.openChannel();
+        payload = new byte[payloadLength];
+        new Random(0).nextBytes(payload);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        protocol.close();
+    }
+
+    @Benchmark
+    public byte[] ping() throws IOException {
+        return protocol.sendAndReceive(CTAPHID_PING, payload, null);
+    }
+
+    /*
+     * Alternates between two channels, as when status commands are interleaved with other traffic.
+     */
+    @Benchmark
+    public byte[] pingAlternatingChannels() throws IOException {
+        protocol.sendAndReceive(secondChannel, CTAPHID_PING, payload, null);
+        return protocol.sendAndReceive(CTAPHID_PING, payload, null);
+    }
+
+    /*
+     * Echoes reports in the order they are sent, answering INIT on the broadcast channel with a new channel ID.
+     */
+    private static class LoopbackConnection implements FidoConnection {
+        private static final byte CTAPHID_INIT = (byte) 0x86;
+        // Enough reports for the largest message
+        private final byte[][] queue = new byte[129][PACKET_SIZE];
+        private int head;
+        private int size;
+        private int lastChannelId;
+
+        @Override
+        public void send(byte[] packet) {
+            byte[] report = queue[(head + size++) % queue.length];
+            System.arraycopy(packet, 0, report, 0, PACKET_SIZE);
+            if (report[4] == CTAPHID_INIT) {
+                // Keep CID, CMD and the nonce, and append the new CID, versions and capabilities
+                int channelId = ++lastChannelId;
+                report[6] = 17;
+                report[15] = (byte) (channelId >> 24);
+                report[16] = (byte) (channelId >> 16);
+                report[17] = (byte) (channelId >> 8);
+                report[18] = (byte) channelId;
+                report[19] = 2;
+                report[20] = 5;
+                report[21] = 7;
+                report[22] = 2;
+                report[23] = 0x05;
+            }
+        }
+
+        @Override
+        public void receive(byte[] packet) throws IOException {
+            if (size == 0) {
+                throw new IOException("No report to receive");
+            }
+            System.arraycopy(queue[head], 0, packet, 0, PACKET_SIZE);
+            head = (head + 1) % queue.length;
+            size--;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.fido.FidoConnection;
+import com.yubico.yubikit.core.fido.FidoProtocol;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CTAPHID framing of a PING command, sent to a {@link SimulatedYubiKey} without latency.
+ * <p>
+ * Each round trip splits the payload into an initialization packet and continuation packets, and reassembles
+ * the echoed response. The simulator does the inverse work on the device side, which is included in the
+ * measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FidoProtocolBenchmark {
+    private static final byte CTAPHID_PING = (byte) 0x81;
+
+    // An empty payload, a single packet, and a payload spanning many continuation packets
+    @Param({"0", "57", "1024", "7609"})
+    public int payloadLength;
+
+    private FidoProtocol protocol;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        protocol = new FidoProtocol(new SimulatedYubiKey().openConnection(FidoConnection.class));
+        payload = new byte[payloadLength];
+        new Random(0).nextBytes(payload);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        protocol.close();
+    }
+
+    @Benchmark
+    public byte[] ping() throws IOException {
+        return protocol.sendAndReceive(CTAPHID_PING, payload, null);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.internal.Logger;
+import com.yubico.yubikit.core.util.StringUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of trace logging an APDU when trace logging is disabled, which is the normal case in production.
+ * <p>
+ * The module runs with the SLF4J no-op binding, so nothing is ever logged. Compare the normalized allocation
+ * rate reported by the GC profiler: the guarded call should not allocate at all, while formatting the hex string
+ * eagerly allocates on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggingBenchmark {
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(LoggingBenchmark.class);
+
+    private final byte[] apdu = new byte[261];
+
+    @Setup
+    public void setup() {
+        new Random(0).nextBytes(apdu);
+    }
+
+    @Benchmark
+    public void guarded() {
+        if (Logger.isTraceEnabled(logger)) {
+            Logger.trace(logger, "{} bytes sent over SmartCard: {}", apdu.length, Logger.hex(apdu));
+        }
+    }
+
+    @Benchmark
+    public void lazyHex() {
+        Logger.trace(logger, "{} bytes sent over SmartCard: {}", apdu.length, Logger.hex(apdu));
+    }
+
+    @Benchmark
+    public void eagerHex() {
+        Logger.trace(logger, "{} bytes sent over SmartCard: {}", apdu.length, StringUtils.bytesToHex(apdu));
+    }
+}
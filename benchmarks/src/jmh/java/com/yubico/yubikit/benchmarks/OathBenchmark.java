@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.oath.Base32;
+import com.yubico.yubikit.oath.CredentialData;
+import com.yubico.yubikit.oath.ParseUriException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base32 coding of OATH secrets, and parsing of otpauth:// URIs, as done when scanning a QR code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OathBenchmark {
+    // A typical 160 bit secret, and a long SHA-512 secret
+    @Param({"20", "64"})
+    public int secretLength;
+
+    private byte[] secret;
+    private String encoded;
+    private URI uri;
+
+    @Setup
+    public void setup() {
+        secret = new byte[secretLength];
+        new Random(0).nextBytes(secret);
+        encoded = Base32.encode(secret);
+        uri = URI.create("otpauth://totp/Example:alice@example.com?secret=" + encoded
+                + "&issuer=Example&algorithm=SHA1&digits=6&period=30");
+    }
+
+    @Benchmark
+    public String base32Encode() {
+        return Base32.encode(secret);
+    }
+
+    @Benchmark
+    public byte[] base32Decode() {
+        return Base32.decode(encoded);
+    }
+
+    @Benchmark
+    public CredentialData parseUri() throws ParseUriException {
+        return CredentialData.parseUri(uri);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.core.util.Result;
+import com.yubico.yubikit.piv.KeyType;
+import com.yubico.yubikit.piv.PinPolicy;
+import com.yubico.yubikit.piv.PivSession;
+import com.yubico.yubikit.piv.Slot;
+import com.yubico.yubikit.piv.TouchPolicy;
+import com.yubico.yubikit.piv.jca.PivAlgorithmParameterSpec;
+import com.yubico.yubikit.piv.jca.PivProvider;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating a PivProvider, as done on startup by applications using the JCA, and signing with an RSA key
+ * on a {@link SimulatedYubiKey}, which includes padding the message in the Provider.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PivProviderBenchmark {
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+    private static final byte[] MESSAGE = "Hello world!".getBytes(StandardCharsets.UTF_8);
+
+    private SmartCardConnection connection;
+    private PivProvider provider;
+    private PrivateKey privateKey;
+
+    @Setup
+    public void setup() throws Exception {
+        connection = new SimulatedYubiKey().openConnection(SmartCardConnection.class);
+        PivSession session = new PivSession(connection);
+        session.authenticate(DEFAULT_MANAGEMENT_KEY);
+        provider = new PivProvider(session);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("YKPivRSA", provider);
+        generator.initialize(new PivAlgorithmParameterSpec(
+                Slot.SIGNATURE, KeyType.RSA2048, PinPolicy.NEVER, TouchPolicy.NEVER, null));
+        privateKey = generator.generateKeyPair().getPrivate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Benchmark
+    public Provider newProvider() {
+        return new PivProvider(callback -> callback.invoke(Result.failure(new UnsupportedOperationException())));
+    }
+
+    @Benchmark
+    public byte[] signRsa2048() throws Exception {
+        Signature signature = Signature.getInstance("SHA256withRSA", provider);
+        signature.initSign(privateKey);
+        signature.update(MESSAGE);
+        return signature.sign();
+    }
+}
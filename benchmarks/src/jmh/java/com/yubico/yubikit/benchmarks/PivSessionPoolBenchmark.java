@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.keys.PrivateKeyValues;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.piv.PinPolicy;
+import com.yubico.yubikit.piv.PivSession;
+import com.yubico.yubikit.piv.Slot;
+import com.yubico.yubikit.piv.TouchPolicy;
+import com.yubico.yubikit.piv.jca.PivProvider;
+import com.yubico.yubikit.piv.jca.PivSessionPool;
+import com.yubico.yubikit.simulator.LatencyModel;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing from several threads through a {@link PivSessionPool}, with the same RSA key imported on each of a
+ * number of {@link SimulatedYubiKey}s. Each signature takes 5 ms on the YubiKey, so throughput is bound by the
+ * number of YubiKeys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class PivSessionPoolBenchmark {
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+    private static final int INS_AUTHENTICATE = 0x87;
+    private static final byte[] MESSAGE = "Hello world!".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1", "2", "4"})
+    public int devices;
+
+    private PivSessionPool pool;
+    private PivProvider provider;
+    private PrivateKey privateKey;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        List<PivSession> sessions = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            SimulatedYubiKey device = new SimulatedYubiKey();
+            device.setLatencyModel(new LatencyModel(i).setCommandLatency(INS_AUTHENTICATE, 5, 0, TimeUnit.MILLISECONDS));
+            PivSession session = new PivSession(device.openConnection(SmartCardConnection.class));
+            session.authenticate(DEFAULT_MANAGEMENT_KEY);
+            session.putKey(Slot.SIGNATURE, PrivateKeyValues.fromPrivateKey(keyPair.getPrivate()), PinPolicy.NEVER, TouchPolicy.NEVER);
+            sessions.add(session);
+        }
+        pool = new PivSessionPool(sessions, 10, TimeUnit.SECONDS);
+        provider = new PivProvider(pool);
+
+        KeyStore keyStore = KeyStore.getInstance("YKPiv", provider);
+        keyStore.load(null);
+        privateKey = (PrivateKey) keyStore.getKey(Slot.SIGNATURE.getStringAlias(), null);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+    @Benchmark
+    public byte[] signRsa2048() throws Exception {
+        Signature signature = Signature.getInstance("SHA256withRSA", provider);
+        signature.initSign(privateKey);
+        signature.update(MESSAGE);
+        return signature.sign();
+    }
+}
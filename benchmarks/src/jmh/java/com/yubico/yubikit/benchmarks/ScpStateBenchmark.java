@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.smartcard.scp.ScpState;
+import com.yubico.yubikit.core.smartcard.scp.SessionKeys;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.Security;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Secure messaging of a command under an established SCP session: encrypting the command data, and
+ * calculating the C-MAC over the resulting APDU.
+ * <p>
+ * The ScpState is created once per trial, so that the reuse of its cipher and MAC engines across commands is
+ * part of what is measured. BouncyCastle provides AES-CMAC, as on Android.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScpStateBenchmark {
+    @Param({"16", "255", "2048"})
+    public int dataLength;
+
+    private ScpState state;
+    private byte[] data;
+    private byte[] apdu;
+
+    @Setup
+    public void setup() {
+        Security.removeProvider("BC");
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+
+        Random random = new Random(0);
+        SessionKeys keys = new SessionKeys(aesKey(random), aesKey(random), aesKey(random), null);
+        byte[] macChain = new byte[16];
+        random.nextBytes(macChain);
+        state = new ScpState(keys, macChain);
+
+        data = new byte[dataLength];
+        random.nextBytes(data);
+        // An extended APDU header followed by encrypted data and room for the MAC
+        apdu = new byte[7 + (dataLength / 16 + 1) * 16 + 8];
+        random.nextBytes(apdu);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return state.encrypt(data);
+    }
+
+    @Benchmark
+    public byte[] mac() {
+        return state.mac(apdu, 0, apdu.length - 8);
+    }
+
+    @Benchmark
+    public byte[] encryptAndMac() {
+        byte[] encrypted = state.encrypt(data);
+        System.arraycopy(encrypted, 0, apdu, 7, encrypted.length);
+        return state.mac(apdu, 0, apdu.length - 8);
+    }
+
+    private static SecretKey aesKey(Random random) {
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+}
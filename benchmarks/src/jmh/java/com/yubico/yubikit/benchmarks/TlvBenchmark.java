@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.benchmarks;
+
+import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvReader;
+import com.yubico.yubikit.core.util.TlvWriter;
+import com.yubico.yubikit.core.util.Tlvs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of flat lists of TLVs, using both the Tlvs helpers and TlvWriter/TlvReader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TlvBenchmark {
+    @Param({"4", "32"})
+    public int count;
+
+    @Param({"16", "300"})
+    public int valueLength;
+
+    private List<Tlv> tlvs;
+    private Map<Integer, byte[]> map;
+    private byte[] encoded;
+    private final TlvWriter writer = new TlvWriter();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        tlvs = new ArrayList<>();
+        map = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] value = new byte[valueLength];
+            random.nextBytes(value);
+            // Mix one and two byte tags
+            int tag = i % 2 == 0 ? 0x80 + i : 0x7f00 + i;
+            tlvs.add(new Tlv(tag, value));
+            map.put(tag, value);
+        }
+        encoded = Tlvs.encodeList(tlvs);
+    }
+
+    @Benchmark
+    public byte[] encodeList() {
+        return Tlvs.encodeList(tlvs);
+    }
+
+    @Benchmark
+    public byte[] encodeMap() {
+        return Tlvs.encodeMap(map);
+    }
+
+    @Benchmark
+    public byte[] encodeWriter() {
+        writer.reset();
+        for (Tlv tlv : tlvs) {
+            writer.put(tlv.getTag(), tlv.getValue());
+        }
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public List<Tlv> decodeList() {
+        return Tlvs.decodeList(encoded);
+    }
+
+    @Benchmark
+    public Map<Integer, byte[]> decodeMap() {
+        return Tlvs.decodeMap(encoded);
+    }
+
+    @Benchmark
+    public void decodeReader(Blackhole blackhole) {
+        TlvReader reader = new TlvReader(encoded);
+        while (reader.hasNext()) {
+            blackhole.consume(reader.next());
+            blackhole.consume(reader.getValueOffset());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.core.smartcard;
+
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of command APDUs by the short and extended APDU processors.
+ * <p>
+ * This benchmark lives in the smartcard package to reach the package-private processors. The connection is
+ * never used to transmit anything, formatting is measured in isolation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ApduFormatBenchmark {
+    @Param({"0", "255", "2000"})
+    public int dataLength;
+
+    private SmartCardConnection connection;
+    private ShortApduProcessor shortProcessor;
+    private ExtendedApduProcessor extendedProcessor;
+    private byte[] data;
+    private Apdu apdu;
+
+    @Setup
+    public void setup() throws IOException {
+        connection = new SimulatedYubiKey().openConnection(SmartCardConnection.class);
+        shortProcessor = new ShortApduProcessor(connection);
+        extendedProcessor = new ExtendedApduProcessor(connection, MaxApduSize.YK4_3);
+        data = new byte[dataLength];
+        new Random(0).nextBytes(data);
+        apdu = new Apdu(0x00, 0xdb, 0x3f, 0xff, data);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+    }
+
+    @Benchmark
+    public byte[] formatShort() {
+        // A single short APDU can hold at most 255 bytes, longer data is chained by formatFrames
+        return shortProcessor.formatApdu((byte) 0x00, (byte) 0xdb, (byte) 0x3f, (byte) 0xff, data, 0, Math.min(data.length, 255), 0);
+    }
+
+    @Benchmark
+    public byte[] formatExtended() {
+        return extendedProcessor.formatApdu((byte) 0x00, (byte) 0xdb, (byte) 0x3f, (byte) 0xff, data, 0, data.length, 0);
+    }
+
+    @Benchmark
+    public List<byte[]> formatShortFrames() {
+        return shortProcessor.formatFrames(apdu);
+    }
+
+    @Benchmark
+    public List<byte[]> formatExtendedFrames() {
+        return extendedProcessor.formatFrames(apdu);
+    }
+}
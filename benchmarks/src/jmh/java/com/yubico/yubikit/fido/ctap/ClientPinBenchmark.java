@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.application.CommandException;
+import com.yubico.yubikit.core.fido.FidoConnection;
+import com.yubico.yubikit.core.util.Pair;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derivation of the ClientPin shared secret against a {@link SimulatedYubiKey} without latency, with and
+ * without the shared secret cached in the session.
+ * <p>
+ * A cold derivation generates a P-256 key pair, requests the key agreement from the device, and does ECDH and the
+ * protocol KDF. A warm derivation copies the cached secret.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientPinBenchmark {
+    @Param({"1", "2"})
+    public int pinUvAuthProtocol;
+
+    private Ctap2Session session;
+    private ClientPin clientPin;
+
+    @Setup
+    public void setup() throws IOException, CommandException {
+        session = new Ctap2Session(new SimulatedYubiKey().openConnection(FidoConnection.class));
+        clientPin = new ClientPin(session, pinUvAuthProtocol == 1 ? new PinUvAuthProtocolV1() : new PinUvAuthProtocolV2());
+        clientPin.setSharedSecretCaching(true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        session.close();
+    }
+
+    @Benchmark
+    public Pair<Map<Integer, ?>, byte[]> cold() throws IOException, CommandException {
+        session.clearSharedSecrets();
+        return clientPin.getSharedSecret();
+    }
+
+    @Benchmark
+    public Pair<Map<Integer, ?>, byte[]> warm() throws IOException, CommandException {
+        return clientPin.getSharedSecret();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression and decompression of certificates, as done when storing them in PIV data objects.
+ * <p>
+ * This benchmark lives in the piv package to reach the package-private GzipUtils. The input mixes random
+ * bytes, standing in for keys and signatures, with repeated text, standing in for names and extensions,
+ * which gives compression ratios close to those of real certificates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GzipUtilsBenchmark {
+    @Param({"1024", "3072"})
+    public int certificateLength;
+
+    private byte[] certificate;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        byte[] text = "CN=Example Issuing CA,O=Example Corporation,C=SE;http://crl.example.com/ca.crl;"
+                .getBytes(StandardCharsets.US_ASCII);
+        certificate = new byte[certificateLength];
+        for (int offset = 0; offset < certificateLength; offset += 256) {
+            int length = Math.min(256, certificateLength - offset);
+            if ((offset / 256) % 2 == 0) {
+                byte[] chunk = new byte[length];
+                random.nextBytes(chunk);
+                System.arraycopy(chunk, 0, certificate, offset, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    certificate[offset + i] = text[i % text.length];
+                }
+            }
+        }
+        compressed = GzipUtils.compress(certificate);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return GzipUtils.compress(certificate);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        return GzipUtils.decompress(compressed);
+    }
+}
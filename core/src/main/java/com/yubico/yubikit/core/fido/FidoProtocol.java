@@ -16,22 +16,40 @@
 package com.yubico.yubikit.core.fido;
 
 import com.yubico.yubikit.core.internal.Logger;
+import com.yubico.yubikit.core.Transport;
 import com.yubico.yubikit.core.Version;
 import com.yubico.yubikit.core.application.CommandState;
+import com.yubico.yubikit.core.metrics.MetricsRegistry;
+import com.yubico.yubikit.core.metrics.TransportMetrics;
 import com.yubico.yubikit.core.util.RandomUtils;
-import com.yubico.yubikit.core.util.StringUtils;
 
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
+/**
+ * Implements the CTAPHID framing protocol over a {@link FidoConnection}.
+ * <p>
+ * A channel is allocated when the protocol is created, and is used by default. Additional channels can be
+ * allocated with {@link #openChannel()}, to keep separate streams of commands apart on the same connection.
+ * Messages on different channels may be exchanged from different threads: a lock is only held while a single
+ * packet is written, and packets read for another channel in use are handed over to it. Messages on the same
+ * channel are sent one at a time, and packets for channels which are not in use are ignored.
+ * <p>
+ * A single report buffer is reused for all packets sent by an instance, and each message reads its response
+ * into a report buffer of its own. Both are cleared once a message is complete.
+ */
 public class FidoProtocol implements Closeable {
 
     private static final byte TYPE_INIT = (byte) 0x80;
@@ -47,29 +65,40 @@ public class FidoProtocol implements Closeable {
     private static final byte CTAPHID_ERROR = TYPE_INIT | 0x3f;
     private static final byte CTAPHID_KEEPALIVE = TYPE_INIT | 0x3b;
 
+    private static final int BROADCAST_CID = 0xffffffff;
+
+    // CID, CMD and BCNT for initialization packets, CID and SEQ for continuation packets
+    private static final int INIT_HEADER_SIZE = 7;
+    private static final int CONT_HEADER_SIZE = 5;
+    private static final int MAX_SEQ = 0x7f;
+    private static final int MAX_PAYLOAD_SIZE = FidoConnection.PACKET_SIZE - INIT_HEADER_SIZE
+            + (MAX_SEQ + 1) * (FidoConnection.PACKET_SIZE - CONT_HEADER_SIZE);
+    private static final int MAX_LOCK_SECONDS = 10;
+
     private final CommandState defaultState = new CommandState();
 
     private final FidoConnection connection;
 
+    // Guards report, which holds the packet being sent
+    private final Object sendLock = new Object();
+    private final byte[] report = new byte[FidoConnection.PACKET_SIZE];
+
+    // Guards the fields below, the channels in use with packets read for them, and whether a thread is reading
+    private final Object receiveLock = new Object();
+    private final Map<Integer, ArrayDeque<byte[]>> pending = new HashMap<>();
+    private boolean receiving;
+
     private final Version version;
-    private int channelId;
+    private final int channelId;
+
+    private volatile TransportMetrics metrics = MetricsRegistry.getTransportMetrics();
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(FidoProtocol.class);
 
     public FidoProtocol(FidoConnection connection) throws IOException {
         this.connection = connection;
 
-        // init
-        byte[] nonce = RandomUtils.getRandomBytes(8);
-
-        channelId = 0xffffffff;
-        ByteBuffer buffer = ByteBuffer.wrap(sendAndReceive(CTAPHID_INIT, nonce, null));
-        byte[] responseNonce = new byte[nonce.length];
-        buffer.get(responseNonce);
-        if (!MessageDigest.isEqual(nonce, responseNonce)) {
-            throw new IOException("Got wrong nonce!");
-        }
-
+        ByteBuffer buffer = init();
         channelId = buffer.getInt();
         buffer.get(); // U2F HID version
         byte[] versionBytes = new byte[3];
@@ -79,67 +108,326 @@ public class FidoProtocol implements Closeable {
         Logger.debug(logger, "FIDO connection set up with channel ID: {}", String.format("0x%08x", channelId));
     }
 
+    /**
+     * Allocates an additional channel on the connection.
+     * <p>
+     * The channel can be passed to {@link #sendAndReceive(int, byte, byte[], CommandState)}, for instance to
+     * send WINK or PING commands without using the default channel. Note that while the authenticator is
+     * processing a command, commands sent on other channels are rejected with ERR_CHANNEL_BUSY.
+     *
+     * @return the ID of the new channel
+     * @throws IOException in case of a communication error
+     */
+    public int openChannel() throws IOException {
+        int allocated = init().getInt();
+        Logger.debug(logger, "Allocated FIDO channel ID: {}", String.format("0x%08x", allocated));
+        return allocated;
+    }
+
+    /**
+     * @return the ID of the channel allocated when the protocol was created, used by default
+     */
+    public int getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * Locks the authenticator to a channel, so that commands on other channels, or from other applications,
+     * are rejected until the lock is released or expires. This allows running a sequence of commands which
+     * must not be interleaved with other traffic.
+     *
+     * @param channelId the channel to lock the authenticator to
+     * @param seconds   the duration of the lock, at most 10 seconds, or 0 to release the lock
+     * @throws IOException in case of a communication error, or if another channel holds the lock
+     */
+    public void lock(int channelId, int seconds) throws IOException {
+        if (seconds < 0 || seconds > MAX_LOCK_SECONDS) {
+            throw new IllegalArgumentException("Lock duration must be between 0 and 10 seconds");
+        }
+        sendAndReceive(channelId, CTAPHID_LOCK, new byte[]{(byte) seconds}, null);
+    }
+
+    /**
+     * Sends a message on the default channel and reads the response.
+     *
+     * @param cmd     the CTAPHID command
+     * @param payload the data of the message
+     * @param state   an optional CommandState, used to handle keepalive messages and cancellation
+     * @return the data of the response
+     * @throws IOException in case of a communication error
+     */
     public byte[] sendAndReceive(byte cmd, byte[] payload, @Nullable CommandState state) throws IOException {
-        state = state != null ? state : defaultState;
-
-        ByteBuffer toSend = ByteBuffer.wrap(payload);
-        byte[] buffer = new byte[FidoConnection.PACKET_SIZE];
-        ByteBuffer packet = ByteBuffer.wrap(buffer);
-        byte seq = 0;
-
-        // Send request
-        packet.putInt(channelId).put(cmd).putShort((short) toSend.remaining());
-        do {
-            toSend.get(buffer, packet.position(), Math.min(toSend.remaining(), packet.remaining()));
-            connection.send(buffer);
-            Logger.trace(logger, "{} bytes sent over fido: {}", buffer.length, StringUtils.bytesToHex(buffer));
-            Arrays.fill(buffer, (byte) 0);
-            packet.clear();
-            packet.putInt(channelId).put((byte) (0x7f & seq++));
-        } while (toSend.hasRemaining());
-
-        // Read response
-        seq = 0;
-        ByteBuffer response = null;
-        do {
-            packet.clear();
-            if (state.waitForCancel(0)) {
-                Logger.debug(logger, "sending CTAP cancel...");
-                Arrays.fill(buffer, (byte) 0);
-                packet.putInt(channelId).put(CTAPHID_CANCEL);
-                connection.send(buffer);
-                Logger.trace(logger, "Sent over fido: {}", StringUtils.bytesToHex(buffer));
-                packet.clear();
+        return sendAndReceive(channelId, cmd, payload, state);
+    }
+
+    /**
+     * Sends a message on a channel and reads the response.
+     * <p>
+     * If another message is being exchanged on the same channel, this waits for it to complete first.
+     *
+     * @param channelId the channel to use, see {@link #openChannel()}
+     * @param cmd       the CTAPHID command
+     * @param payload   the data of the message
+     * @param state     an optional CommandState, used to handle keepalive messages and cancellation
+     * @return the data of the response
+     * @throws IOException in case of a communication error
+     */
+    public byte[] sendAndReceive(int channelId, byte cmd, byte[] payload, @Nullable CommandState state)
+            throws IOException {
+        if (payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload too large for a CTAPHID message");
+        }
+        acquireChannel(channelId);
+        try {
+            Exchange exchange = new Exchange(channelId, cmd, state != null ? state : defaultState);
+            TransportMetrics metrics = this.metrics;
+            if (metrics == TransportMetrics.NONE) {
+                return exchange.run(payload);
+            }
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                byte[] response = exchange.run(payload);
+                success = true;
+                return response;
+            } finally {
+                metrics.onCommand(Transport.USB, TransportMetrics.APPLICATION_FIDO, cmd & 0xff,
+                        exchange.packetsSent + exchange.packetsReceived,
+                        exchange.packetsSent * FidoConnection.PACKET_SIZE,
+                        exchange.packetsReceived * FidoConnection.PACKET_SIZE,
+                        System.nanoTime() - start, success);
+            }
+        } finally {
+            releaseChannel(channelId);
+        }
+    }
+
+    /*
+     * Sends INIT on the broadcast channel, returning the response positioned after the nonce.
+     */
+    private ByteBuffer init() throws IOException {
+        byte[] nonce = RandomUtils.getRandomBytes(8);
+        ByteBuffer buffer = ByteBuffer.wrap(sendAndReceive(BROADCAST_CID, CTAPHID_INIT, nonce, null));
+        byte[] responseNonce = new byte[nonce.length];
+        buffer.get(responseNonce);
+        if (!MessageDigest.isEqual(nonce, responseNonce)) {
+            throw new IOException("Got wrong nonce!");
+        }
+        return buffer;
+    }
+
+    /*
+     * Marks a channel as in use, waiting for a message being exchanged on it to complete.
+     */
+    private void acquireChannel(int channelId) throws IOException {
+        synchronized (receiveLock) {
+            while (pending.containsKey(channelId)) {
+                awaitReceiveLock();
             }
+            pending.put(channelId, new ArrayDeque<byte[]>());
+        }
+    }
 
-            connection.receive(buffer);
-            Logger.trace(logger, "Received over fido: {}", StringUtils.bytesToHex(buffer));
-            int responseChannel = packet.getInt();
-            if (responseChannel != channelId) {
-                throw new IOException(String.format("Wrong Channel ID. Expecting: %d, Got: %d", channelId, responseChannel));
+    private void releaseChannel(int channelId) {
+        synchronized (receiveLock) {
+            for (byte[] packet : pending.remove(channelId)) {
+                Arrays.fill(packet, (byte) 0);
             }
-            if (response == null) {
-                byte responseCmd = packet.get();
-                if (responseCmd == cmd) {
-                    response = ByteBuffer.allocate(packet.getShort());
-                } else if (responseCmd == CTAPHID_KEEPALIVE) {
-                    state.onKeepAliveStatus(packet.get());
-                    continue;
-                } else if (responseCmd == CTAPHID_ERROR) {
-                    throw new IOException(String.format("CTAPHID error: %02x", packet.get()));
-                } else {
-                    throw new IOException(String.format("Wrong response command. Expecting: %x, Got: %x", cmd, responseCmd));
+            receiveLock.notifyAll();
+        }
+    }
+
+    private void awaitReceiveLock() throws IOException {
+        try {
+            receiveLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the FIDO connection");
+        }
+    }
+
+    /*
+     * Reads the next packet for a channel into a buffer. A packet read earlier by another thread is taken if
+     * there is one, otherwise packets are read from the connection, unless another thread is already reading.
+     * Packets for other channels in use are queued for them.
+     */
+    private void receive(int channelId, byte[] packet) throws IOException {
+        synchronized (receiveLock) {
+            while (true) {
+                byte[] queued = pending.get(channelId).poll();
+                if (queued != null) {
+                    System.arraycopy(queued, 0, packet, 0, packet.length);
+                    Arrays.fill(queued, (byte) 0);
+                    return;
+                }
+                if (!receiving) {
+                    receiving = true;
+                    break;
+                }
+                awaitReceiveLock();
+            }
+        }
+        try {
+            while (true) {
+                connection.receive(packet);
+                if (Logger.isTraceEnabled(logger)) {
+                    Logger.trace(logger, "Received over fido: {}", Logger.hex(packet));
+                }
+                int packetChannel = getInt(packet, 0);
+                if (packetChannel == channelId) {
+                    return;
+                }
+                synchronized (receiveLock) {
+                    ArrayDeque<byte[]> queue = pending.get(packetChannel);
+                    if (queue != null) {
+                        queue.add(Arrays.copyOf(packet, packet.length));
+                        receiveLock.notifyAll();
+                    } else {
+                        Logger.debug(logger, "Ignoring packet for channel ID: {}",
+                                String.format("0x%08x", packetChannel));
+                    }
+                }
+            }
+        } finally {
+            synchronized (receiveLock) {
+                receiving = false;
+                receiveLock.notifyAll();
+            }
+        }
+    }
+
+    /*
+     * A single message and its response on a channel.
+     */
+    private class Exchange {
+        private final int channelId;
+        private final byte cmd;
+        private final CommandState state;
+        private final byte[] packet = new byte[FidoConnection.PACKET_SIZE];
+        private int packetsSent;
+        private int packetsReceived;
+
+        private Exchange(int channelId, byte cmd, CommandState state) {
+            this.channelId = channelId;
+            this.cmd = cmd;
+            this.state = state;
+        }
+
+        private byte[] run(byte[] payload) throws IOException {
+            try {
+                send(payload);
+                return readResponse();
+            } finally {
+                Arrays.fill(packet, (byte) 0);
+                synchronized (sendLock) {
+                    Arrays.fill(report, (byte) 0);
                 }
-            } else {
-                byte responseSeq = packet.get();
-                if (responseSeq != seq++) {
-                    throw new IOException(String.format("Wrong sequence number. Expecting %d, Got: %d", seq - 1, responseSeq));
+            }
+        }
+
+        private void send(byte[] payload) throws IOException {
+            int sent = 0;
+            byte seq = 0;
+            do {
+                synchronized (sendLock) {
+                    putInt(report, 0, channelId);
+                    int headerSize;
+                    if (sent == 0) {
+                        report[4] = cmd;
+                        report[5] = (byte) (payload.length >> 8);
+                        report[6] = (byte) payload.length;
+                        headerSize = INIT_HEADER_SIZE;
+                    } else {
+                        report[4] = seq++;
+                        headerSize = CONT_HEADER_SIZE;
+                    }
+                    int length = Math.min(payload.length - sent, report.length - headerSize);
+                    System.arraycopy(payload, sent, report, headerSize, length);
+                    // Every packet overwrites the header and payload, so only the tail can hold stale data
+                    Arrays.fill(report, headerSize + length, report.length, (byte) 0);
+                    sent += length;
+                    sendReport();
                 }
+            } while (sent < payload.length);
+        }
+
+        private void cancel() throws IOException {
+            Logger.debug(logger, "sending CTAP cancel...");
+            synchronized (sendLock) {
+                Arrays.fill(report, (byte) 0);
+                putInt(report, 0, channelId);
+                report[4] = CTAPHID_CANCEL;
+                sendReport();
             }
-            response.put(buffer, packet.position(), Math.min(packet.remaining(), response.remaining()));
-        } while (response == null || response.hasRemaining());
+        }
+
+        private void sendReport() throws IOException {
+            connection.send(report);
+            packetsSent++;
+            if (Logger.isTraceEnabled(logger)) {
+                Logger.trace(logger, "{} bytes sent over fido: {}", report.length, Logger.hex(report));
+            }
+        }
+
+        private byte[] readResponse() throws IOException {
+            byte seq = 0;
+            byte[] response = null;
+            int received = 0;
+            do {
+                if (state.waitForCancel(0)) {
+                    cancel();
+                }
+
+                receive(channelId, packet);
+                packetsReceived++;
+                int headerSize;
+                if (response == null) {
+                    byte responseCmd = packet[4];
+                    if (responseCmd == cmd) {
+                        response = new byte[((packet[5] & 0xff) << 8) | (packet[6] & 0xff)];
+                        headerSize = INIT_HEADER_SIZE;
+                    } else if (responseCmd == CTAPHID_KEEPALIVE) {
+                        state.onKeepAliveStatus(packet[INIT_HEADER_SIZE]);
+                        continue;
+                    } else if (responseCmd == CTAPHID_ERROR) {
+                        throw new IOException(String.format("CTAPHID error: %02x", packet[INIT_HEADER_SIZE]));
+                    } else {
+                        throw new IOException(String.format("Wrong response command. Expecting: %x, Got: %x", cmd, responseCmd));
+                    }
+                } else {
+                    byte responseSeq = packet[4];
+                    if (responseSeq != seq++) {
+                        throw new IOException(String.format("Wrong sequence number. Expecting %d, Got: %d", seq - 1, responseSeq));
+                    }
+                    headerSize = CONT_HEADER_SIZE;
+                }
+                int length = Math.min(packet.length - headerSize, response.length - received);
+                System.arraycopy(packet, headerSize, response, received, length);
+                received += length;
+            } while (response == null || received < response.length);
+            return response;
+        }
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16
+                | (buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff);
+    }
 
-        return response.array();
+    /**
+     * Set the TransportMetrics to report commands to, replacing the one from {@link MetricsRegistry}.
+     *
+     * @param metrics the TransportMetrics to use
+     */
+    public void setMetrics(TransportMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public Version getVersion() {
@@ -151,4 +439,4 @@ public class FidoProtocol implements Closeable {
         connection.close();
         Logger.debug(logger, "fido connection closed");
     }
-}
\ No newline at end of file
+}
@@ -16,6 +16,8 @@
 
 package com.yubico.yubikit.core.internal;
 
+import com.yubico.yubikit.core.util.StringUtils;
+
 import org.slf4j.event.Level;
 import org.slf4j.helpers.FormattingTuple;
 import org.slf4j.helpers.MessageFormatter;
@@ -35,6 +37,30 @@ public final class Logger {
         instance = logger;
     }
 
+    /**
+     * Returns true if trace messages are logged. Use to guard trace logging on hot paths, where even
+     * building the arguments to the trace call should be avoided.
+     */
+    public static boolean isTraceEnabled(org.slf4j.Logger logger) {
+        return instance != null || logger.isTraceEnabled();
+    }
+
+    /**
+     * Returns an argument which formats the given bytes as hex when the message is logged, and not before.
+     * The array is not copied, and must not be modified until the log call has returned.
+     */
+    public static Object hex(byte[] data) {
+        return new LazyHex(data, 0, data.length);
+    }
+
+    /**
+     * Returns an argument which formats a range of the given bytes as hex when the message is logged,
+     * and not before. The array is not copied, and must not be modified until the log call has returned.
+     */
+    public static Object hex(byte[] data, int offset, int length) {
+        return new LazyHex(data, offset, length);
+    }
+
     public static void trace(org.slf4j.Logger logger, String message) {
         log(Level.TRACE, logger, message);
     }
@@ -215,6 +241,23 @@ public final class Logger {
         }
     }
 
+    private static final class LazyHex {
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        private LazyHex(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return StringUtils.bytesToHex(data, offset, length);
+        }
+    }
+
     private static void logToInstance(Level level, FormattingTuple formattingTuple) {
         if (instance != null) {
 
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.metrics;
+
+import com.yubico.yubikit.core.Transport;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory {@link TransportMetrics} implementation, keeping counters and a {@link LatencyHistogram}
+ * per command.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * HistogramTransportMetrics metrics = new HistogramTransportMetrics();
+ * MetricsRegistry.setTransportMetrics(metrics);
+ * ...
+ * for (Map.Entry<HistogramTransportMetrics.CommandKey, HistogramTransportMetrics.CommandStats> entry : metrics.getStats().entrySet()) {
+ *     System.out.println(entry.getKey() + ": " + entry.getValue());
+ * }
+ * }</pre>
+ */
+public class HistogramTransportMetrics implements TransportMetrics {
+    private final Map<CommandKey, CommandStats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public void onCommand(Transport transport, String application, int command, int packets, int bytesSent, int bytesReceived, long durationNanos, boolean success) {
+        getOrCreate(transport, application, command).record(packets, bytesSent, bytesReceived, durationNanos, success);
+    }
+
+    @Override
+    public void onRetry(Transport transport, String application, int command) {
+        getOrCreate(transport, application, command).retries.incrementAndGet();
+    }
+
+    /**
+     * @return a live, read-only view of the statistics of each command seen so far
+     */
+    public Map<CommandKey, CommandStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Discards all statistics.
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    private CommandStats getOrCreate(Transport transport, String application, int command) {
+        CommandKey key = new CommandKey(transport, application, command);
+        CommandStats commandStats = stats.get(key);
+        if (commandStats == null) {
+            CommandStats created = new CommandStats();
+            commandStats = stats.putIfAbsent(key, created);
+            if (commandStats == null) {
+                commandStats = created;
+            }
+        }
+        return commandStats;
+    }
+
+    /**
+     * Identifies a command, see {@link TransportMetrics}.
+     */
+    public static class CommandKey {
+        private final Transport transport;
+        private final String application;
+        private final int command;
+
+        public CommandKey(Transport transport, String application, int command) {
+            this.transport = transport;
+            this.application = application;
+            this.command = command;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        public String getApplication() {
+            return application;
+        }
+
+        public int getCommand() {
+            return command;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CommandKey that = (CommandKey) o;
+            return command == that.command && transport == that.transport && application.equals(that.application);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(transport, application, command);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s/%s/%02x", transport, application, command);
+        }
+    }
+
+    /**
+     * Statistics of a single command.
+     */
+    public static class CommandStats {
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong packets = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private void record(int packets, int bytesSent, int bytesReceived, long durationNanos, boolean success) {
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            this.packets.addAndGet(packets);
+            this.bytesSent.addAndGet(bytesSent);
+            this.bytesReceived.addAndGet(bytesReceived);
+            latency.record(durationNanos);
+        }
+
+        /**
+         * @return the number of times the command was sent
+         */
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getPackets() {
+            return packets.get();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * @return a histogram of the command latency, in nanoseconds
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "count=%d, failures=%d, packets=%d, sent=%d, received=%d, retries=%d, p50=%.3fms, p99=%.3fms, max=%.3fms",
+                    getCount(), getFailures(), getPackets(), getBytesSent(), getBytesReceived(), getRetries(),
+                    latency.getValueAtPercentile(50) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6,
+                    latency.getMax() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.metrics;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds the {@link TransportMetrics} used by default by newly created protocol instances.
+ * <p>
+ * Sessions create their protocol internally, so this is the way to collect metrics for them. A protocol
+ * instance can also be given its own TransportMetrics, using its setMetrics method.
+ */
+public class MetricsRegistry {
+    private static volatile TransportMetrics transportMetrics = TransportMetrics.NONE;
+
+    /**
+     * Set the TransportMetrics to use for protocols created after this call.
+     *
+     * @param metrics the TransportMetrics to use, or null to disable metrics
+     */
+    public static void setTransportMetrics(@Nullable TransportMetrics metrics) {
+        transportMetrics = metrics != null ? metrics : TransportMetrics.NONE;
+    }
+
+    /**
+     * @return the TransportMetrics to use, {@link TransportMetrics#NONE} if not set
+     */
+    public static TransportMetrics getTransportMetrics() {
+        return transportMetrics;
+    }
+
+    private MetricsRegistry() {
+        throw new IllegalStateException();
+    }
+}
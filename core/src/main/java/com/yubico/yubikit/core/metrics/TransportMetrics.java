@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.metrics;
+
+import com.yubico.yubikit.core.Transport;
+
+/**
+ * Listener for transport level metrics, reported by the protocol classes for each command sent to a YubiKey.
+ * <p>
+ * Commands are identified by an application and a command byte:
+ * <ul>
+ * <li>SmartCardProtocol: the hex encoded AID of the selected application, and the INS of the APDU.</li>
+ * <li>FidoProtocol: {@link #APPLICATION_FIDO}, and the CTAPHID command.</li>
+ * <li>OtpProtocol: {@link #APPLICATION_OTP}, and the slot.</li>
+ * </ul>
+ * Methods are called synchronously on the thread sending the command, and should return quickly.
+ * Implementations shared between connections must be thread safe.
+ *
+ * @see MetricsRegistry
+ * @see HistogramTransportMetrics
+ */
+public interface TransportMetrics {
+    String APPLICATION_FIDO = "fido";
+    String APPLICATION_OTP = "otp";
+
+    /**
+     * A TransportMetrics which ignores all metrics.
+     */
+    TransportMetrics NONE = new TransportMetrics() {
+        @Override
+        public void onCommand(Transport transport, String application, int command, int packets, int bytesSent, int bytesReceived, long durationNanos, boolean success) {
+        }
+
+        @Override
+        public void onRetry(Transport transport, String application, int command) {
+        }
+    };
+
+    /**
+     * Called when a command has completed, or failed.
+     *
+     * @param transport     the transport used
+     * @param application   the application the command was sent to
+     * @param command       the command byte
+     * @param packets       the number of packets (APDUs or HID reports) sent and received for the command
+     * @param bytesSent     the number of bytes sent
+     * @param bytesReceived the number of bytes received
+     * @param durationNanos the time taken to send the command and receive the response, in nanoseconds
+     * @param success       true if the command completed with a successful status, false if it failed or threw
+     */
+    void onCommand(Transport transport, String application, int command, int packets, int bytesSent, int bytesReceived, long durationNanos, boolean success);
+
+    /**
+     * Called when part of a command needs to be retried, for instance when waiting for the YubiKey to be
+     * ready to receive data.
+     *
+     * @param transport   the transport used
+     * @param application the application the command was sent to
+     * @param command     the command byte
+     */
+    void onRetry(Transport transport, String application, int command);
+}
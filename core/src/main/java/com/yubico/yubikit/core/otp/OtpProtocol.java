@@ -16,11 +16,13 @@
 package com.yubico.yubikit.core.otp;
 
 import com.yubico.yubikit.core.internal.Logger;
+import com.yubico.yubikit.core.Transport;
 import com.yubico.yubikit.core.Version;
 import com.yubico.yubikit.core.application.CommandException;
 import com.yubico.yubikit.core.application.CommandState;
 import com.yubico.yubikit.core.application.TimeoutException;
-import com.yubico.yubikit.core.util.StringUtils;
+import com.yubico.yubikit.core.metrics.MetricsRegistry;
+import com.yubico.yubikit.core.metrics.TransportMetrics;
 
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +56,11 @@ public class OtpProtocol implements Closeable {
     private final OtpConnection connection;
     private final Version version;
 
+    private TransportMetrics metrics = MetricsRegistry.getTransportMetrics();
+    private int packetsSent;
+    private int packetsReceived;
+    private byte currentSlot;
+
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(OtpProtocol.class);
 
     public OtpProtocol(OtpConnection connection) throws IOException {
@@ -105,7 +112,33 @@ public class OtpProtocol implements Closeable {
         } else {
             payload = Arrays.copyOf(data, SLOT_DATA_SIZE);
         }
-        return readFrame(sendFrame(slot, payload), state != null ? state : defaultState);
+        if (metrics == TransportMetrics.NONE) {
+            return readFrame(sendFrame(slot, payload), state != null ? state : defaultState);
+        }
+
+        currentSlot = slot;
+        packetsSent = 0;
+        packetsReceived = 0;
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            byte[] response = readFrame(sendFrame(slot, payload), state != null ? state : defaultState);
+            success = true;
+            return response;
+        } finally {
+            metrics.onCommand(Transport.USB, TransportMetrics.APPLICATION_OTP, slot & 0xff, packetsSent + packetsReceived,
+                    packetsSent * FEATURE_RPT_SIZE, packetsReceived * FEATURE_RPT_SIZE,
+                    System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Set the TransportMetrics to report commands to, replacing the one from {@link MetricsRegistry}.
+     *
+     * @param metrics the TransportMetrics to use
+     */
+    public void setMetrics(TransportMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
@@ -124,14 +157,20 @@ public class OtpProtocol implements Closeable {
     private byte[] readFeatureReport() throws IOException {
         byte[] bufferRead = new byte[FEATURE_RPT_SIZE];
         connection.receive(bufferRead);
-        Logger.trace(logger, "READ FEATURE REPORT: {}", StringUtils.bytesToHex(bufferRead));
+        packetsReceived++;
+        if (Logger.isTraceEnabled(logger)) {
+            Logger.trace(logger, "READ FEATURE REPORT: {}", Logger.hex(bufferRead));
+        }
         return bufferRead;
     }
 
     /* Write a single 8 byte feature report */
     private void writeFeatureReport(byte[] buffer) throws IOException {
-        Logger.trace(logger, "WRITE FEATURE REPORT: {}", StringUtils.bytesToHex(buffer));
+        if (Logger.isTraceEnabled(logger)) {
+            Logger.trace(logger, "WRITE FEATURE REPORT: {}", Logger.hex(buffer));
+        }
         connection.send(buffer);
+        packetsSent++;
     }
 
     /* Sleep for up to ~1s waiting for the WRITE flag to be unset */
@@ -140,6 +179,7 @@ public class OtpProtocol implements Closeable {
             if ((readFeatureReport()[FEATURE_RPT_DATA_SIZE] & SLOT_WRITE_FLAG) == 0) {
                 return;
             }
+            metrics.onRetry(Transport.USB, TransportMetrics.APPLICATION_OTP, currentSlot & 0xff);
             try {
                 Thread.sleep(50);
             } catch (InterruptedException e) {
@@ -164,7 +204,9 @@ public class OtpProtocol implements Closeable {
 
     /* Packs and sends one 70 byte frame */
     private int sendFrame(byte slot, byte[] payload) throws IOException {
-        Logger.trace(logger, "Sending payload over HID to slot {}: {}", String.format("0x%02x", 0xff & slot), StringUtils.bytesToHex(payload));
+        if (Logger.isTraceEnabled(logger)) {
+            Logger.trace(logger, "Sending payload over HID to slot {}: {}", String.format("0x%02x", 0xff & slot), Logger.hex(payload));
+        }
 
         // Format Frame
         ByteBuffer buf = ByteBuffer.allocate(FRAME_SIZE)
@@ -209,7 +251,9 @@ public class OtpProtocol implements Closeable {
                     // Transmission complete
                     resetState();
                     byte[] response = stream.toByteArray();
-                    Logger.trace(logger, "{} bytes read over HID: {}", response.length, StringUtils.bytesToHex(response));
+                    if (Logger.isTraceEnabled(logger)) {
+                        Logger.trace(logger, "{} bytes read over HID: {}", response.length, Logger.hex(response));
+                    }
                     return response;
                 }
             } else if (statusByte == 0) { // Status response
@@ -220,7 +264,9 @@ public class OtpProtocol implements Closeable {
                     // Sequence updated, return status.
                     // Note that when deleting the "last" slot so no slots are valid, the programming sequence is set to 0.
                     byte[] status = Arrays.copyOfRange(report, 1, 7); // Skip first and last bytes
-                    Logger.trace(logger, "HID programming sequence updated. New status: {}", StringUtils.bytesToHex(status));
+                    if (Logger.isTraceEnabled(logger)) {
+                        Logger.trace(logger, "HID programming sequence updated. New status: {}", Logger.hex(status));
+                    }
                     return status;
                 } else if (needsTouch) {
                     throw new TimeoutException("Timed out waiting for touch");
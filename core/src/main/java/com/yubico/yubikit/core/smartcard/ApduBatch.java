@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.smartcard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sequence of APDU commands to be sent back-to-back using {@link SmartCardProtocol#sendBatch(ApduBatch)}.
+ * <p>
+ * Commands are sent in the order they were added, and one {@link ApduResponse} is returned per command sent.
+ * The {@link FailurePolicy} determines whether the remaining commands are sent after a command fails.
+ */
+public class ApduBatch {
+    /**
+     * What to do when a command in a batch fails with a status word other than {@link SW#OK}.
+     */
+    public enum FailurePolicy {
+        /**
+         * Stop after the first failing command. Its response is the last one returned.
+         */
+        FAIL_FAST,
+        /**
+         * Send all commands, regardless of failures.
+         */
+        CONTINUE
+    }
+
+    private final List<Apdu> commands = new ArrayList<>();
+    private final FailurePolicy policy;
+
+    /**
+     * Creates a new, empty batch.
+     *
+     * @param policy how to handle failing commands
+     */
+    public ApduBatch(FailurePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Creates a new, empty batch which stops at the first failing command.
+     */
+    public ApduBatch() {
+        this(FailurePolicy.FAIL_FAST);
+    }
+
+    /**
+     * Adds a command to the end of the batch.
+     *
+     * @param command the command to add
+     * @return this batch
+     */
+    public ApduBatch add(Apdu command) {
+        commands.add(command);
+        return this;
+    }
+
+    /**
+     * Adds several commands to the end of the batch.
+     *
+     * @param commands the commands to add, in order
+     * @return this batch
+     */
+    public ApduBatch addAll(List<Apdu> commands) {
+        this.commands.addAll(commands);
+        return this;
+    }
+
+    /**
+     * @return the commands of the batch, in order
+     */
+    public List<Apdu> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    /**
+     * @return the number of commands in the batch
+     */
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * @return the policy used for failing commands
+     */
+    public FailurePolicy getFailurePolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns true if no more commands should be sent after receiving the given response.
+     */
+    boolean shouldStop(ApduResponse response) {
+        return policy == FailurePolicy.FAIL_FAST && response.getSw() != SW.OK;
+    }
+}
@@ -16,10 +16,18 @@
 
 package com.yubico.yubikit.core.smartcard;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 abstract class ApduFormatProcessor implements ApduProcessor {
     protected final SmartCardConnection connection;
+    private int transmitCount = 0;
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
 
     ApduFormatProcessor(SmartCardConnection connection) {
         this.connection = connection;
@@ -27,10 +35,99 @@ abstract class ApduFormatProcessor implements ApduProcessor {
 
     abstract byte[] formatApdu(byte cla, byte ins, byte p1, byte p2, byte[] data, int offset, int length, int le);
 
+    /**
+     * Formats an APDU into the frames to send to the connection. More than one frame is returned if
+     * the command needs to be split using command chaining.
+     */
+    List<byte[]> formatFrames(Apdu apdu) {
+        byte[] data = apdu.getData();
+        return Collections.singletonList(formatApdu(apdu.getCla(), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, 0, data.length, apdu.getLe()));
+    }
+
+    /**
+     * Sends frames created by {@link #formatFrames(Apdu)}, stopping early if a chained frame fails.
+     */
+    ApduResponse sendFrames(List<byte[]> frames) throws IOException {
+        int last = frames.size() - 1;
+        for (int i = 0; i < last; i++) {
+            byte[] response = transmit(frames.get(i));
+            if (ApduResponse.readSw(response) != SW.OK) {
+                return ApduResponse.wrap(response);
+            }
+        }
+        return ApduResponse.wrap(transmit(frames.get(last)));
+    }
+
+    /**
+     * Sends a command with data read from a stream. By default the data is read in full and sent as a
+     * single APDU, subclasses supporting command chaining may send it as it is read.
+     */
+    ApduResponse sendStream(byte cla, byte ins, byte p1, byte p2, InputStream data, int length) throws IOException {
+        byte[] buffer = readFully(data, length);
+        try {
+            return ApduResponse.wrap(transmit(formatApdu(cla, ins, p1, p2, buffer, 0, length, 0)));
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    /**
+     * Sends a single formatted frame to the connection.
+     */
+    byte[] transmit(byte[] frame) throws IOException {
+        transmitCount++;
+        bytesSent += frame.length;
+        byte[] response = connection.sendAndReceive(frame);
+        bytesReceived += response.length;
+        return response;
+    }
+
+    /**
+     * Returns the total number of frames sent by this processor.
+     */
+    int getTransmitCount() {
+        return transmitCount;
+    }
+
+    /**
+     * Returns the total number of bytes sent by this processor.
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the total number of bytes received by this processor.
+     */
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
     @Override
     public ApduResponse sendApdu(Apdu apdu) throws IOException {
-        byte[] data = apdu.getData();
-        byte[] payload = formatApdu(apdu.getCla(), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, 0, data.length, apdu.getLe());
-        return new ApduResponse(connection.sendAndReceive(payload));
+        return sendFrames(formatFrames(apdu));
+    }
+
+    /**
+     * Reads exactly length bytes from a stream into a new array.
+     */
+    static byte[] readFully(InputStream stream, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        readFully(stream, buffer, 0, length);
+        return buffer;
+    }
+
+    /**
+     * Reads exactly length bytes from a stream into a range of an array.
+     */
+    static void readFully(InputStream stream, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = stream.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException("Command data ended " + length + " bytes early");
+            }
+            offset += read;
+            length -= read;
+        }
     }
 }
@@ -16,13 +16,17 @@
 
 package com.yubico.yubikit.core.smartcard;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * An APDU response from a YubiKey, comprising response data, and a status code.
  */
 public class ApduResponse {
+    // Holds the response data, optionally followed by the SW bytes
     private final byte[] bytes;
+    private final int dataLength;
+    private final short sw;
 
     /**
      * Creates a new response from a key
@@ -30,30 +34,97 @@ public class ApduResponse {
      * @param bytes data received from key within session/service provider
      */
     public ApduResponse(byte[] bytes) {
+        this(Arrays.copyOf(checkLength(bytes), bytes.length - 2), bytes.length - 2, readSw(bytes));
+    }
+
+    /**
+     * Creates a response which takes ownership of the given data array, without copying it.
+     *
+     * @param data the response data, without the SW
+     * @param sw   the status word
+     */
+    ApduResponse(byte[] data, short sw) {
+        this(data, data.length, sw);
+    }
+
+    private ApduResponse(byte[] bytes, int dataLength, short sw) {
+        this.bytes = bytes;
+        this.dataLength = dataLength;
+        this.sw = sw;
+    }
+
+    /**
+     * Wraps raw response bytes received from a connection, without copying them.
+     *
+     * @param bytes data received from the connection, ending with the SW
+     * @return a response backed by the given array
+     */
+    static ApduResponse wrap(byte[] bytes) {
+        return new ApduResponse(checkLength(bytes), bytes.length - 2, readSw(bytes));
+    }
+
+    private static byte[] checkLength(byte[] bytes) {
         if (bytes.length < 2) {
             throw new IllegalArgumentException("Invalid APDU response data");
         }
-        this.bytes = Arrays.copyOf(bytes, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Reads the SW from the end of raw response bytes, without wrapping them.
+     */
+    static short readSw(byte[] bytes) {
+        checkLength(bytes);
+        return (short) (((0xff & bytes[bytes.length - 2]) << 8) | (0xff & bytes[bytes.length - 1]));
     }
 
     /**
      * @return the SW from a key response (see {@link SW}).
      */
     public short getSw() {
-        return (short) (((0xff & bytes[bytes.length - 2]) << 8) | (0xff & bytes[bytes.length - 1]));
+        return sw;
     }
 
     /**
      * @return the data from a key response without the SW.
      */
     public byte[] getData() {
-        return Arrays.copyOfRange(bytes, 0, bytes.length - 2);
+        return Arrays.copyOf(bytes, dataLength);
+    }
+
+    /**
+     * @return a read-only view of the data from a key response without the SW, backed by the response.
+     */
+    public ByteBuffer getDataBuffer() {
+        return ByteBuffer.wrap(bytes, 0, dataLength).slice().asReadOnlyBuffer();
     }
 
     /**
      * @return raw data from a key response
      */
     public byte[] getBytes() {
-        return Arrays.copyOf(bytes, bytes.length);
+        return ByteBuffer.allocate(dataLength + 2).put(bytes, 0, dataLength).putShort(sw).array();
+    }
+
+    /**
+     * Returns the length of the response data, without the SW.
+     */
+    int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Returns the response data, avoiding a copy when the backing array holds exactly the data.
+     * The returned array must not be modified while this response is still in use.
+     */
+    byte[] getDataUnsafe() {
+        return bytes.length == dataLength ? bytes : Arrays.copyOf(bytes, dataLength);
+    }
+
+    /**
+     * Copies the response data into the given buffer.
+     */
+    void copyDataTo(ByteBuffer buffer) {
+        buffer.put(bytes, 0, dataLength);
     }
 }
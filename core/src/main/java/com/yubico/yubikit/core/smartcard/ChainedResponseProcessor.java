@@ -16,41 +16,244 @@
 
 package com.yubico.yubikit.core.smartcard;
 
+import com.yubico.yubikit.core.Transport;
 import com.yubico.yubikit.core.application.BadResponseException;
+import com.yubico.yubikit.core.metrics.TransportMetrics;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 class ChainedResponseProcessor implements ApduProcessor {
     private static final byte SW1_HAS_MORE_DATA = 0x61;
+    private static final int INITIAL_READ_BUFFER_SIZE = 1024;
+    // The maximal extended Le, encoded as 0x0000
+    private static final int EXTENDED_MAX_LE = 0x10000;
 
-    private final SmartCardConnection connection;
     protected final ApduFormatProcessor processor;
+    private final byte insSendRemaining;
+    private final boolean extendedLe;
     private final byte[] getData;
+    private final Transport transport;
+
+    private TransportMetrics metrics = TransportMetrics.NONE;
+    private String application = "";
+
+    // State of the command being sent
+    private int startTransmitCount;
+    private long startBytesSent;
+    private long startBytesReceived;
+    private long startTime;
+    private int lastRoundTrips = 0;
+
+    // Reused between commands to collect chained responses, grown as needed
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
 
     ChainedResponseProcessor(SmartCardConnection connection, boolean extendedApdus, int maxApduSize, byte insSendRemaining) {
-        this.connection = connection;
         if (extendedApdus) {
             processor = new ExtendedApduProcessor(connection, maxApduSize);
         } else {
             processor = new ShortApduProcessor(connection);
         }
-        getData = processor.formatApdu((byte)0, insSendRemaining, (byte)0, (byte)0, new byte[0], 0, 0, 0);
+        this.insSendRemaining = insSendRemaining;
+        this.transport = connection.getTransport();
+        // With extended length support, ask for as much of the remaining data as possible in each exchange
+        extendedLe = extendedApdus && connection.isExtendedLengthApduSupported();
+        getData = formatGetData(extendedLe ? EXTENDED_MAX_LE : 0);
+    }
+
+    /**
+     * Sets the TransportMetrics to report commands to.
+     *
+     * @param metrics     the metrics listener
+     * @param application the hex encoded AID of the selected application
+     */
+    void setMetrics(TransportMetrics metrics, String application) {
+        this.metrics = metrics;
+        this.application = application;
     }
 
     @Override
     public ApduResponse sendApdu(Apdu apdu) throws IOException, BadResponseException {
-        ApduResponse response = processor.sendApdu(apdu);
+        beginCommand();
+        ApduResponse response = null;
+        try {
+            response = readFullResponse(processor.sendApdu(apdu));
+            return response;
+        } finally {
+            endCommand(apdu.getIns(), response);
+        }
+    }
+
+    /**
+     * Sends a command with data read from a stream, and reads the full response.
+     */
+    ApduResponse sendStream(byte cla, byte ins, byte p1, byte p2, InputStream data, int length) throws IOException, BadResponseException {
+        beginCommand();
+        ApduResponse response = null;
+        try {
+            response = readFullResponse(processor.sendStream(cla, ins, p1, p2, data, length));
+            return response;
+        } finally {
+            endCommand(ins, response);
+        }
+    }
+
+    /**
+     * Sends a command with data read from a stream using {@link #sendApdu(Apdu)}, for subclasses which need
+     * the full command data before sending it.
+     */
+    final ApduResponse sendStreamAsApdu(byte cla, byte ins, byte p1, byte p2, InputStream data, int length) throws IOException, BadResponseException {
+        byte[] buffer = ApduFormatProcessor.readFully(data, length);
+        try {
+            return sendApdu(new Apdu(cla & 0xff, ins & 0xff, p1 & 0xff, p2 & 0xff, buffer));
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    /**
+     * Sends an already formatted APDU and reads the full response.
+     */
+    ApduResponse sendFormatted(byte[] apdu) throws IOException {
+        beginCommand();
+        ApduResponse response = null;
+        try {
+            response = readFullResponse(ApduResponse.wrap(processor.transmit(apdu)));
+            return response;
+        } finally {
+            endCommand(apdu[1], response);
+        }
+    }
+
+    /**
+     * Returns the number of exchanges with the connection needed for the latest command, including
+     * command chaining and requests for remaining response data.
+     */
+    int getLastRoundTrips() {
+        return lastRoundTrips;
+    }
+
+    /**
+     * Sends a batch of APDUs back-to-back. All commands are formatted before the first one is sent,
+     * so that nothing but transmission happens between commands.
+     */
+    List<ApduResponse> sendBatch(ApduBatch batch) throws IOException, BadResponseException {
+        List<List<byte[]>> formatted = new ArrayList<>(batch.size());
+        for (Apdu apdu : batch.getCommands()) {
+            formatted.add(processor.formatFrames(apdu));
+        }
+
+        List<ApduResponse> responses = new ArrayList<>(batch.size());
+        for (List<byte[]> frames : formatted) {
+            beginCommand();
+            ApduResponse response = null;
+            try {
+                response = readFullResponse(processor.sendFrames(frames));
+            } finally {
+                endCommand(frames.get(0)[1], response);
+            }
+            responses.add(response);
+            if (batch.shouldStop(response)) {
+                break;
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Sends a batch of APDUs one at a time using {@link #sendApdu(Apdu)}, for subclasses which need to
+     * process each command right before it is sent.
+     */
+    final List<ApduResponse> sendEach(ApduBatch batch) throws IOException, BadResponseException {
+        List<ApduResponse> responses = new ArrayList<>(batch.size());
+        for (Apdu apdu : batch.getCommands()) {
+            ApduResponse response = sendApdu(apdu);
+            responses.add(response);
+            if (batch.shouldStop(response)) {
+                break;
+            }
+        }
+        return responses;
+    }
+
+    private void beginCommand() {
+        startTransmitCount = processor.getTransmitCount();
+        if (metrics != TransportMetrics.NONE) {
+            startBytesSent = processor.getBytesSent();
+            startBytesReceived = processor.getBytesReceived();
+            startTime = System.nanoTime();
+        }
+    }
+
+    private void endCommand(byte ins, @Nullable ApduResponse response) {
+        lastRoundTrips = processor.getTransmitCount() - startTransmitCount;
+        if (metrics != TransportMetrics.NONE) {
+            metrics.onCommand(
+                    transport,
+                    application,
+                    ins & 0xff,
+                    lastRoundTrips * 2,
+                    (int) (processor.getBytesSent() - startBytesSent),
+                    (int) (processor.getBytesReceived() - startBytesReceived),
+                    System.nanoTime() - startTime,
+                    response != null && response.getSw() == SW.OK);
+        }
+    }
+
+    private ApduResponse readFullResponse(ApduResponse response) throws IOException {
+        if (response.getSw() >> 8 != SW1_HAS_MORE_DATA) {
+            // Single response, no need to copy
+            return response;
+        }
+
         // Read full response
-        ByteArrayOutputStream readBuffer = new ByteArrayOutputStream();
+        readBuffer.clear();
         while (response.getSw() >> 8 == SW1_HAS_MORE_DATA) {
-            readBuffer.write(response.getData());
-            response = new ApduResponse(connection.sendAndReceive(getData));
+            appendData(response);
+            response = ApduResponse.wrap(processor.transmit(getRemaining(response.getSw() & 0xff)));
+        }
+        appendData(response);
+
+        byte[] data = Arrays.copyOf(readBuffer.array(), readBuffer.position());
+        Arrays.fill(readBuffer.array(), 0, readBuffer.position(), (byte) 0);
+        return new ApduResponse(data, response.getSw());
+    }
+
+    /*
+     * Returns the command to get remaining response data. SW2 holds the number of remaining bytes,
+     * or 0 if at least 256 bytes remain.
+     */
+    private byte[] getRemaining(int remaining) {
+        if (remaining == 0) {
+            return getData;
+        }
+        return formatGetData(remaining);
+    }
+
+    private byte[] formatGetData(int le) {
+        return processor.formatApdu((byte) 0, insSendRemaining, (byte) 0, (byte) 0, new byte[0], 0, 0, le);
+    }
+
+    private void appendData(ApduResponse response) {
+        int length = response.getDataLength();
+        if (readBuffer.remaining() < length) {
+            int capacity = readBuffer.capacity();
+            while (capacity - readBuffer.position() < length) {
+                capacity *= 2;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            readBuffer.flip();
+            grown.put(readBuffer);
+            Arrays.fill(readBuffer.array(), (byte) 0);
+            readBuffer = grown;
         }
-        readBuffer.write(response.getData());
-        readBuffer.write(response.getSw() >> 8);
-        readBuffer.write(response.getSw() & 0xff);
-        return new ApduResponse(readBuffer.toByteArray());
+        response.copyDataTo(readBuffer);
     }
 
     @Override
@@ -29,14 +29,14 @@ class ExtendedApduProcessor extends ApduFormatProcessor {
 
     @Override
     byte[] formatApdu(byte cla, byte ins, byte p1, byte p2, byte[] data, int offset, int length, int le) {
-        ByteBuffer buf = ByteBuffer.allocate(5 + (data.length > 0 ? 2 : 0) + data.length + (le > 0 ? 2 : 0))
+        ByteBuffer buf = ByteBuffer.allocate(5 + (length > 0 ? 2 : 0) + length + (le > 0 ? 2 : 0))
                 .put(cla)
                 .put(ins)
                 .put(p1)
                 .put(p2)
                 .put((byte) 0x00);
-        if (data.length > 0) {
-            buf.putShort((short) data.length).put(data);
+        if (length > 0) {
+            buf.putShort((short) length).put(data, offset, length);
         }
         if (le > 0) {
             buf.putShort((short) le);
@@ -20,8 +20,9 @@ import com.yubico.yubikit.core.application.BadResponseException;
 import com.yubico.yubikit.core.smartcard.scp.ScpState;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.List;
 
 public class ScpProcessor extends ChainedResponseProcessor {
     private final ScpState state;
@@ -36,6 +37,19 @@ public class ScpProcessor extends ChainedResponseProcessor {
         return sendApdu(apdu, true);
     }
 
+    @Override
+    List<ApduResponse> sendBatch(ApduBatch batch) throws IOException, BadResponseException {
+        // Each command is wrapped right before it is sent, as the C-MAC chains on the previous command,
+        // and commands which are never sent, due to an earlier failure, must not advance the session.
+        return sendEach(batch);
+    }
+
+    @Override
+    ApduResponse sendStream(byte cla, byte ins, byte p1, byte p2, InputStream data, int length) throws IOException, BadResponseException {
+        // The full command data is needed to encrypt it
+        return sendStreamAsApdu(cla, ins, p1, p2, data, length);
+    }
+
     public ApduResponse sendApdu(Apdu apdu, boolean encrypt) throws IOException, BadResponseException {
         byte[] data = apdu.getData();
         if (encrypt) {
@@ -43,15 +57,16 @@ public class ScpProcessor extends ChainedResponseProcessor {
         }
         byte cla = (byte) (apdu.getCla() | 0x04);
 
-        // Calculate and add MAC to data
-        byte[] macedData = new byte[data.length + 8];
-        System.arraycopy(data, 0, macedData, 0, data.length);
-        byte[] apduData = processor.formatApdu(cla, apdu.getIns(), apdu.getP1(), apdu.getP2(), macedData, 0, macedData.length, 0);
-        byte[] mac = state.mac(Arrays.copyOf(apduData, apduData.length - 8));
-        System.arraycopy(mac, 0, macedData, macedData.length - 8, 8);
+        // Format the APDU once, with room for the MAC, then fill in the MAC in place.
+        // The MAC covers the header and data, but not the (extended) Le field.
+        int le = apdu.getLe();
+        byte[] apduData = processor.formatApdu(cla, apdu.getIns(), apdu.getP1(), apdu.getP2(), Arrays.copyOf(data, data.length + 8), 0, data.length + 8, le);
+        int macOffset = apduData.length - 8 - (le > 0 ? 2 : 0);
+        byte[] mac = state.mac(apduData, 0, macOffset);
+        System.arraycopy(mac, 0, apduData, macOffset, 8);
 
-        ApduResponse resp = super.sendApdu(new Apdu(cla, apdu.getIns(), apdu.getP1(), apdu.getP2(), macedData, apdu.getLe()));
-        byte[] respData = resp.getData();
+        ApduResponse resp = sendFormatted(apduData);
+        byte[] respData = resp.getDataUnsafe();
 
         // Un-MAC and decrypt, if needed
         if (respData.length > 0) {
@@ -61,6 +76,6 @@ public class ScpProcessor extends ChainedResponseProcessor {
             respData = state.decrypt(respData);
         }
 
-        return new ApduResponse(ByteBuffer.allocate(respData.length + 2).put(respData).putShort(resp.getSw()).array());
+        return new ApduResponse(respData, resp.getSw());
     }
 }
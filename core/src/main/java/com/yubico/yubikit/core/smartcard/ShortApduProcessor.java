@@ -17,10 +17,21 @@
 package com.yubico.yubikit.core.smartcard;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 class ShortApduProcessor extends ApduFormatProcessor {
     private static final int SHORT_APDU_MAX_CHUNK = 0xff;
+    private static final int DATA_OFFSET = 5;
+    private static final byte CLA_CHAINING = 0x10;
+
+    // Reused for the intermediate frames of chained commands, which all carry a full chunk
+    @Nullable
+    private byte[] chainFrame;
 
     ShortApduProcessor(SmartCardConnection connection) {
         super(connection);
@@ -35,35 +46,118 @@ class ShortApduProcessor extends ApduFormatProcessor {
             throw new IllegalArgumentException("Le must be between 0 and " + SHORT_APDU_MAX_CHUNK);
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(4 + (length > 0 ? 1 : 0) + length + (le > 0 ? 1 : 0))
-                .put(cla)
-                .put(ins)
-                .put(p1)
-                .put(p2);
+        byte[] frame = new byte[frameLength(length, le)];
+        writeHeader(frame, cla, ins, p1, p2, length, le);
         if (length > 0) {
-            buf.put((byte) length).put(data, offset, length);
+            System.arraycopy(data, offset, frame, DATA_OFFSET, length);
         }
-        if (le > 0) {
-            buf.put((byte) le);
+        return frame;
+    }
+
+    @Override
+    List<byte[]> formatFrames(Apdu apdu) {
+        byte[] data = apdu.getData();
+        List<byte[]> frames = new ArrayList<>(1 + data.length / SHORT_APDU_MAX_CHUNK);
+        int offset = 0;
+        while (data.length - offset > SHORT_APDU_MAX_CHUNK) {
+            frames.add(formatApdu((byte) (apdu.getCla() | CLA_CHAINING), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, offset, SHORT_APDU_MAX_CHUNK, apdu.getLe()));
+            offset += SHORT_APDU_MAX_CHUNK;
         }
-        return buf.array();
+        frames.add(formatApdu(apdu.getCla(), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, offset, data.length - offset, apdu.getLe()));
+        return frames;
     }
 
+    /**
+     * Sends an APDU, using command chaining if needed. Unlike {@link #formatFrames(Apdu)}, all intermediate
+     * frames are written into the same reused buffer, just before each is sent.
+     */
     @Override
     public ApduResponse sendApdu(Apdu apdu) throws IOException {
         byte[] data = apdu.getData();
         int offset = 0;
-        while (data.length - offset > SHORT_APDU_MAX_CHUNK) {
-            ApduResponse response = new ApduResponse(connection.sendAndReceive(formatApdu((byte) (apdu.getCla() | 0x10), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, offset, SHORT_APDU_MAX_CHUNK, apdu.getLe())));
-            if (response.getSw() != SW.OK) {
-                return response;
+        if (data.length > SHORT_APDU_MAX_CHUNK) {
+            byte[] frame = getChainFrame(apdu.getCla(), apdu.getIns(), apdu.getP1(), apdu.getP2(), apdu.getLe());
+            try {
+                while (data.length - offset > SHORT_APDU_MAX_CHUNK) {
+                    System.arraycopy(data, offset, frame, DATA_OFFSET, SHORT_APDU_MAX_CHUNK);
+                    byte[] response = transmit(frame);
+                    if (ApduResponse.readSw(response) != SW.OK) {
+                        return ApduResponse.wrap(response);
+                    }
+                    offset += SHORT_APDU_MAX_CHUNK;
+                }
+            } finally {
+                Arrays.fill(frame, DATA_OFFSET, DATA_OFFSET + SHORT_APDU_MAX_CHUNK, (byte) 0);
             }
-            offset += SHORT_APDU_MAX_CHUNK;
         }
-        return new ApduResponse(connection.sendAndReceive(formatApdu(apdu.getCla(), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, offset, data.length - offset, apdu.getLe())));
+        return ApduResponse.wrap(transmit(formatApdu(apdu.getCla(), apdu.getIns(), apdu.getP1(), apdu.getP2(), data, offset, data.length - offset, apdu.getLe())));
+    }
+
+    /**
+     * Sends a command with data read from a stream, one chunk at a time, so that no more than a single
+     * chunk of the data is held in memory.
+     */
+    @Override
+    ApduResponse sendStream(byte cla, byte ins, byte p1, byte p2, InputStream data, int length) throws IOException {
+        int remaining = length;
+        if (remaining > SHORT_APDU_MAX_CHUNK) {
+            byte[] frame = getChainFrame(cla, ins, p1, p2, 0);
+            try {
+                while (remaining > SHORT_APDU_MAX_CHUNK) {
+                    readFully(data, frame, DATA_OFFSET, SHORT_APDU_MAX_CHUNK);
+                    byte[] response = transmit(frame);
+                    if (ApduResponse.readSw(response) != SW.OK) {
+                        return ApduResponse.wrap(response);
+                    }
+                    remaining -= SHORT_APDU_MAX_CHUNK;
+                }
+            } finally {
+                Arrays.fill(frame, DATA_OFFSET, DATA_OFFSET + SHORT_APDU_MAX_CHUNK, (byte) 0);
+            }
+        }
+        byte[] frame = new byte[frameLength(remaining, 0)];
+        writeHeader(frame, cla, ins, p1, p2, remaining, 0);
+        readFully(data, frame, DATA_OFFSET, remaining);
+        try {
+            return ApduResponse.wrap(transmit(frame));
+        } finally {
+            Arrays.fill(frame, (byte) 0);
+        }
     }
 
     @Override
     public void close() throws IOException {
     }
+
+    private byte[] getChainFrame(byte cla, byte ins, byte p1, byte p2, int le) {
+        if (le < 0 || le > SHORT_APDU_MAX_CHUNK) {
+            throw new IllegalArgumentException("Le must be between 0 and " + SHORT_APDU_MAX_CHUNK);
+        }
+        int frameLength = frameLength(SHORT_APDU_MAX_CHUNK, le);
+        if (chainFrame == null || chainFrame.length != frameLength) {
+            chainFrame = new byte[frameLength];
+        }
+        writeHeader(chainFrame, (byte) (cla | CLA_CHAINING), ins, p1, p2, SHORT_APDU_MAX_CHUNK, le);
+        return chainFrame;
+    }
+
+    private static int frameLength(int length, int le) {
+        return 4 + (length > 0 ? 1 : 0) + length + (le > 0 ? 1 : 0);
+    }
+
+    /*
+     * Writes the header, Lc and Le of a frame, leaving room for the data.
+     */
+    private static void writeHeader(byte[] frame, byte cla, byte ins, byte p1, byte p2, int length, int le) {
+        frame[0] = cla;
+        frame[1] = ins;
+        frame[2] = p1;
+        frame[3] = p2;
+        if (length > 0) {
+            frame[4] = (byte) length;
+        }
+        if (le > 0) {
+            frame[frame.length - 1] = (byte) le;
+        }
+    }
 }
@@ -20,15 +20,21 @@ import com.yubico.yubikit.core.Transport;
 import com.yubico.yubikit.core.Version;
 import com.yubico.yubikit.core.application.ApplicationNotAvailableException;
 import com.yubico.yubikit.core.application.BadResponseException;
+import com.yubico.yubikit.core.metrics.MetricsRegistry;
+import com.yubico.yubikit.core.metrics.TransportMetrics;
 import com.yubico.yubikit.core.smartcard.scp.DataEncryptor;
 import com.yubico.yubikit.core.smartcard.scp.Scp03KeyParams;
 import com.yubico.yubikit.core.smartcard.scp.Scp11KeyParams;
 import com.yubico.yubikit.core.smartcard.scp.ScpKeyParams;
 import com.yubico.yubikit.core.smartcard.scp.ScpState;
 import com.yubico.yubikit.core.util.Pair;
+import com.yubico.yubikit.core.util.StringUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -52,7 +58,12 @@ public class SmartCardProtocol implements Closeable {
 
     private int maxApduSize = MaxApduSize.NEO;
 
-    private ApduProcessor processor;
+    private ChainedResponseProcessor processor;
+
+    private TransportMetrics metrics = MetricsRegistry.getTransportMetrics();
+
+    // Hex encoded AID of the selected application, used to tag metrics
+    private String application = "";
 
     /**
      * Create new instance of {@link SmartCardProtocol}
@@ -68,15 +79,17 @@ public class SmartCardProtocol implements Closeable {
         this.connection = connection;
         this.insSendRemaining = insSendRemaining;
         processor = new ChainedResponseProcessor(connection, false, maxApduSize, insSendRemaining);
+        processor.setMetrics(metrics, application);
     }
 
-    private void resetProcessor(@Nullable ApduProcessor processor) throws IOException {
+    private void resetProcessor(@Nullable ChainedResponseProcessor processor) throws IOException {
         this.processor.close();
         if (processor != null) {
             this.processor = processor;
         } else {
             this.processor = new ChainedResponseProcessor(connection, extendedApdus, maxApduSize, insSendRemaining);
         }
+        this.processor.setMetrics(metrics, application);
     }
 
     @Override
@@ -167,6 +180,16 @@ public class SmartCardProtocol implements Closeable {
         }
     }
 
+    /**
+     * Set the TransportMetrics to report commands to, replacing the one from {@link MetricsRegistry}.
+     *
+     * @param metrics the TransportMetrics to use
+     */
+    public void setMetrics(TransportMetrics metrics) {
+        this.metrics = metrics;
+        processor.setMetrics(metrics, application);
+    }
+
     /**
      * @return the underlying connection
      */
@@ -183,6 +206,7 @@ public class SmartCardProtocol implements Closeable {
      * @throws ApplicationNotAvailableException in case the AID doesn't match an available application
      */
     public byte[] select(byte[] aid) throws IOException, ApplicationNotAvailableException {
+        application = StringUtils.bytesToHex(aid).replace(" ", "");
         resetProcessor(null);
         try {
             return sendAndReceive(new Apdu(0, INS_SELECT, P1_SELECT, P2_SELECT, aid));
@@ -210,12 +234,96 @@ public class SmartCardProtocol implements Closeable {
             if (response.getSw() != SW.OK) {
                 throw new ApduException(response.getSw());
             }
-            return response.getData();
+            return response.getDataUnsafe();
         } catch (BadResponseException e) {
             throw new IOException(e);
         }
     }
 
+    /**
+     * Sends an APDU command with data read from a stream, and receives the response.
+     * <p>
+     * When short APDUs are used, the data is read one chunk at a time as each chained command is sent, so that
+     * large command data never needs to be held in memory in full. With extended APDUs, or Secure Messaging,
+     * the data is read in full before the command is sent.
+     *
+     * @param cla    the instruction class
+     * @param ins    the instruction code
+     * @param p1     the first instruction parameter
+     * @param p2     the second instruction parameter
+     * @param data   the stream to read the command data from, which is not closed
+     * @param length the number of bytes of command data to read from the stream
+     * @return the response data
+     * @throws IOException   in case of connection and communication error, or if the stream ends early
+     * @throws ApduException in case if received error in APDU response
+     */
+    public byte[] sendAndReceive(int cla, int ins, int p1, int p2, InputStream data, int length) throws IOException, ApduException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length must not be negative");
+        }
+        try {
+            ApduResponse response = processor.sendStream((byte) cla, (byte) ins, (byte) p1, (byte) p2, data, length);
+            if (response.getSw() != SW.OK) {
+                throw new ApduException(response.getSw());
+            }
+            return response.getDataUnsafe();
+        } catch (BadResponseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Sends a batch of APDU commands back-to-back, returning the response to each command sent.
+     * <p>
+     * All commands are encoded before the first one is sent. When Secure Messaging is in use, each command
+     * is wrapped in order, right before it is sent. Responses with a status word other than {@link SW#OK} are
+     * returned, not thrown, and the {@link ApduBatch.FailurePolicy} of the batch determines whether to continue
+     * after such a response.
+     *
+     * @param batch the commands to send
+     * @return one response per command sent, in order
+     * @throws IOException in case of connection and communication error
+     */
+    public List<ApduResponse> sendBatch(ApduBatch batch) throws IOException {
+        try {
+            return processor.sendBatch(batch);
+        } catch (BadResponseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Sends a list of APDU commands back-to-back, stopping at the first failing command.
+     *
+     * @param commands the commands to send
+     * @return the response data of each command, in order
+     * @throws IOException   in case of connection and communication error
+     * @throws ApduException in case a command fails, in which case no further commands are sent
+     * @see #sendBatch(ApduBatch)
+     */
+    public List<byte[]> sendBatch(List<Apdu> commands) throws IOException, ApduException {
+        List<ApduResponse> responses = sendBatch(new ApduBatch(ApduBatch.FailurePolicy.FAIL_FAST).addAll(commands));
+        List<byte[]> data = new ArrayList<>(responses.size());
+        for (ApduResponse response : responses) {
+            if (response.getSw() != SW.OK) {
+                throw new ApduException(response.getSw());
+            }
+            data.add(response.getDataUnsafe());
+        }
+        return data;
+    }
+
+    /**
+     * Returns the number of exchanges with the connection needed for the latest command sent, including
+     * command chaining and requests for remaining response data. For a batch, this is the number needed for
+     * the last command sent.
+     *
+     * @return the number of round trips of the latest command
+     */
+    public int getLastRoundTrips() {
+        return processor.getLastRoundTrips();
+    }
+
     public @Nullable DataEncryptor initScp(ScpKeyParams keyParams) throws IOException, ApduException, BadResponseException {
         try {
             ScpState state;
@@ -243,6 +351,7 @@ public class SmartCardProtocol implements Closeable {
     private ScpState initScp03(Scp03KeyParams keyParams) throws IOException, ApduException, BadResponseException {
         Pair<ScpState, byte[]> pair = ScpState.scp03Init(processor, keyParams, null);
         ScpProcessor processor = new ScpProcessor(connection, pair.first, MaxApduSize.YK4_3, insSendRemaining);
+        processor.setMetrics(metrics, application);
 
         // Send EXTERNAL AUTHENTICATE
         // P1 = C-DECRYPTION, R-ENCRYPTION, C-MAC, and R-MAC
@@ -19,6 +19,8 @@ package com.yubico.yubikit.core.smartcard;
 import com.yubico.yubikit.core.application.BadResponseException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 class TouchWorkaroundProcessor extends ChainedResponseProcessor {
     private long lastLongResponse = 0;
@@ -35,7 +37,7 @@ class TouchWorkaroundProcessor extends ChainedResponseProcessor {
         }
         ApduResponse response = super.sendApdu(apdu);
 
-        if (response.getBytes().length > 54) {
+        if (response.getDataLength() + 2 > 54) {
             lastLongResponse = System.currentTimeMillis();
         } else {
             lastLongResponse = 0;
@@ -43,4 +45,16 @@ class TouchWorkaroundProcessor extends ChainedResponseProcessor {
 
         return response;
     }
+
+    @Override
+    ApduResponse sendStream(byte cla, byte ins, byte p1, byte p2, InputStream data, int length) throws IOException, BadResponseException {
+        // Extended APDUs are never chained, and the workaround applies to each command
+        return sendStreamAsApdu(cla, ins, p1, p2, data, length);
+    }
+
+    @Override
+    List<ApduResponse> sendBatch(ApduBatch batch) throws IOException, BadResponseException {
+        // The workaround depends on the timing of each response
+        return sendEach(batch);
+    }
 }
@@ -26,9 +26,8 @@ import com.yubico.yubikit.core.smartcard.ApduResponse;
 import com.yubico.yubikit.core.smartcard.SW;
 import com.yubico.yubikit.core.util.Pair;
 import com.yubico.yubikit.core.util.RandomUtils;
-import com.yubico.yubikit.core.util.StringUtils;
-import com.yubico.yubikit.core.util.Tlv;
-import com.yubico.yubikit.core.util.Tlvs;
+import com.yubico.yubikit.core.util.TlvReader;
+import com.yubico.yubikit.core.util.TlvWriter;
 
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +56,7 @@ import javax.crypto.KeyAgreement;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -70,9 +70,36 @@ public class ScpState {
     private byte[] macChain;
     private int encCounter = 1;
 
+    // Engines are initialized once per session and reused for every APDU
+    private final Cipher ecbCipher;
+    private final Cipher cbcCipher;
+    private final Mac cmac;
+    private final Mac rmac;
+
+    // Counter block used to derive the ICV, and the buffer the ICV is written to
+    private final byte[] counterBlock = new byte[16];
+    private final byte[] iv = new byte[16];
+
+    @SuppressWarnings("GetInstance")
     public ScpState(SessionKeys keys, byte[] macChain) {
         this.keys = keys;
         this.macChain = macChain;
+        try {
+            ecbCipher = Cipher.getInstance("AES/ECB/NoPadding");
+            ecbCipher.init(Cipher.ENCRYPT_MODE, keys.senc);
+            cbcCipher = Cipher.getInstance("AES/CBC/NoPadding");
+        } catch (InvalidKeyException | NoSuchPaddingException | NoSuchAlgorithmException e) {
+            //This should never happen
+            throw new RuntimeException(e);
+        }
+        try {
+            cmac = Mac.getInstance("AESCMAC");
+            cmac.init(keys.smac);
+            rmac = Mac.getInstance("AESCMAC");
+            rmac.init(keys.srmac);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new UnsupportedOperationException("Cryptography provider does not support AESCMAC", e);
+        }
     }
 
     public @Nullable DataEncryptor getDataEncryptor() {
@@ -82,26 +109,38 @@ public class ScpState {
         return data -> cbcEncrypt(keys.dek, data);
     }
 
+    /**
+     * Computes the ICV for the given counter value, as the encryption of the counter block.
+     *
+     * @param response true to compute the ICV for a response, false for a command
+     * @param counter  the encryption counter
+     * @return an IvParameterSpec holding the ICV
+     */
+    private IvParameterSpec nextIv(boolean response, int counter) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        counterBlock[0] = response ? (byte) 0x80 : 0x00;
+        counterBlock[12] = (byte) (counter >> 24);
+        counterBlock[13] = (byte) (counter >> 16);
+        counterBlock[14] = (byte) (counter >> 8);
+        counterBlock[15] = (byte) counter;
+        ecbCipher.doFinal(counterBlock, 0, 16, iv, 0);
+        return new IvParameterSpec(iv);
+    }
+
     public byte[] encrypt(byte[] data) {
         // Pad the data
-        Logger.trace(logger, "Plaintext data: {}", StringUtils.bytesToHex(data));
+        if (Logger.isTraceEnabled(logger)) {
+            Logger.trace(logger, "Plaintext data: {}", Logger.hex(data));
+        }
         int padLen = 16 - (data.length % 16);
         byte[] padded = Arrays.copyOf(data, data.length + padLen);
         padded[data.length] = (byte) 0x80;
 
         // Encrypt
         try {
-            @SuppressWarnings("GetInstance") Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, keys.senc);
-            byte[] ivData = ByteBuffer.allocate(16).put(new byte[12]).putInt(encCounter++).array();
-            byte[] iv = cipher.doFinal(ivData);
-
-            cipher = Cipher.getInstance("AES/CBC/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, keys.senc, new IvParameterSpec(iv));
-            return cipher.doFinal(padded);
-        } catch (InvalidKeyException | NoSuchPaddingException | NoSuchAlgorithmException |
-                 IllegalBlockSizeException | BadPaddingException |
-                 InvalidAlgorithmParameterException e) {
+            cbcCipher.init(Cipher.ENCRYPT_MODE, keys.senc, nextIv(false, encCounter++));
+            return cbcCipher.doFinal(padded);
+        } catch (InvalidKeyException | ShortBufferException | IllegalBlockSizeException |
+                 BadPaddingException | InvalidAlgorithmParameterException e) {
             //This should never happen
             throw new RuntimeException(e);
         } finally {
@@ -113,28 +152,21 @@ public class ScpState {
         // Decrypt
         byte[] decrypted = null;
         try {
-            @SuppressWarnings("GetInstance")
-            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, keys.senc);
-            byte[] ivData = ByteBuffer.allocate(16).put((byte) 0x80).put(new byte[11])
-                    .putInt(encCounter - 1).array();
-            byte[] iv = cipher.doFinal(ivData);
-
-            cipher = Cipher.getInstance("AES/CBC/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, keys.senc, new IvParameterSpec(iv));
-            decrypted = cipher.doFinal(encrypted);
+            cbcCipher.init(Cipher.DECRYPT_MODE, keys.senc, nextIv(true, encCounter - 1));
+            decrypted = cbcCipher.doFinal(encrypted);
             for (int i = decrypted.length - 1; i > 0; i--) {
                 if (decrypted[i] == (byte) 0x80) {
-                    Logger.trace(logger, "Plaintext resp: {}", StringUtils.bytesToHex(decrypted));
+                    if (Logger.isTraceEnabled(logger)) {
+                        Logger.trace(logger, "Plaintext resp: {}", Logger.hex(decrypted, 0, i));
+                    }
                     return Arrays.copyOf(decrypted, i);
                 } else if (decrypted[i] != 0x00) {
                     break;
                 }
             }
             throw new BadResponseException("Bad padding");
-        } catch (InvalidKeyException | NoSuchPaddingException | NoSuchAlgorithmException |
-                 IllegalBlockSizeException | BadPaddingException |
-                 InvalidAlgorithmParameterException e) {
+        } catch (InvalidKeyException | ShortBufferException | IllegalBlockSizeException |
+                 BadPaddingException | InvalidAlgorithmParameterException e) {
             //This should never happen
             throw new RuntimeException(e);
         } finally {
@@ -145,34 +177,39 @@ public class ScpState {
     }
 
     public byte[] mac(byte[] data) {
-        try {
-            Mac mac = Mac.getInstance("AESCMAC");
-            mac.init(keys.smac);
-            mac.update(macChain);
-            macChain = mac.doFinal(data);
-            return Arrays.copyOf(macChain, 8);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new UnsupportedOperationException("Cryptography provider does not support AESCMAC", e);
-        }
+        return mac(data, 0, data.length);
     }
 
-    public byte[] unmac(byte[] data, short sw) throws BadResponseException {
-        byte[] msg = ByteBuffer.allocate(data.length - 8 + 2).put(data, 0, data.length - 8)
-                .putShort(sw).array();
-
-        try {
-            Mac mac = Mac.getInstance("AESCMAC");
-            mac.init(keys.srmac);
-            mac.update(macChain);
+    /**
+     * Calculates the C-MAC over a range of the given data, updating the MAC chaining value.
+     *
+     * @param data   the data to MAC
+     * @param offset the offset in data where the range begins
+     * @param length the length of the range
+     * @return the 8 byte C-MAC
+     */
+    public byte[] mac(byte[] data, int offset, int length) {
+        cmac.update(macChain);
+        cmac.update(data, offset, length);
+        macChain = cmac.doFinal();
+        return Arrays.copyOf(macChain, 8);
+    }
 
-            byte[] rmac = Arrays.copyOf(mac.doFinal(msg), 8);
-            if (MessageDigest.isEqual(rmac, Arrays.copyOfRange(data, data.length - 8, data.length))) {
-                return Arrays.copyOf(msg, msg.length - 2);
-            }
-            throw new BadResponseException("Wrong MAC");
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new UnsupportedOperationException("Cryptography provider does not support AESCMAC", e);
+    public byte[] unmac(byte[] data, short sw) throws BadResponseException {
+        if (data.length < 8) {
+            throw new BadResponseException("Response too short to contain R-MAC");
         }
+        int length = data.length - 8;
+        rmac.update(macChain);
+        rmac.update(data, 0, length);
+        rmac.update((byte) (sw >> 8));
+        rmac.update((byte) sw);
+
+        byte[] rmacBytes = Arrays.copyOf(rmac.doFinal(), 8);
+        if (MessageDigest.isEqual(rmacBytes, Arrays.copyOfRange(data, length, data.length))) {
+            return Arrays.copyOf(data, length);
+        }
+        throw new BadResponseException("Wrong MAC");
     }
 
     public static Pair<ScpState, byte[]> scp03Init(ApduProcessor processor, Scp03KeyParams keyParams, @Nullable byte[] hostChallenge) throws BadResponseException, IOException, ApduException {
@@ -263,25 +300,15 @@ public class ScpState {
             PublicKeyValues.Ec epkOceEcka = (PublicKeyValues.Ec) PublicKeyValues.fromPublicKey(ephemeralOceEcka.getPublic());
 
             // GPC v2.3 Amendment F (SCP11) v1.4 §7.6.2.3
-            byte[] data = Tlvs.encodeList(
-                    Arrays.asList(
-                            new Tlv(
-                                    0xA6,
-                                    Tlvs.encodeList(
-                                            Arrays.asList(
-                                                    new Tlv(0x90, new byte[]{0x11, params}),
-                                                    new Tlv(0x95, keyUsage),
-                                                    new Tlv(0x80, keyType),
-                                                    new Tlv(0x81, keyLen)
-                                            )
-                                    )
-                            ),
-                            new Tlv(
-                                    0x5F49,
-                                    epkOceEcka.getEncodedPoint()
-                            )
-                    )
-            );
+            byte[] data = new TlvWriter()
+                    .begin(0xA6)
+                    .put(0x90, new byte[]{0x11, params})
+                    .put(0x95, keyUsage)
+                    .put(0x80, keyType)
+                    .put(0x81, keyLen)
+                    .end()
+                    .put(0x5F49, epkOceEcka.getEncodedPoint())
+                    .toByteArray();
 
             // Static host key (SCP11a/c), or ephemeral key again (SCP11b)
             PrivateKey skOceEcka = keyParams.skOceEcka != null ? keyParams.skOceEcka : ephemeralOceEcka.getPrivate();
@@ -292,16 +319,15 @@ public class ScpState {
             if (resp.getSw() != SW.OK) {
                 throw new ApduException(resp.getSw());
             }
-            List<Tlv> tlvs = Tlvs.decodeList(resp.getData());
-            Tlv epkSdEckaTlv = tlvs.get(0);
-            byte[] epkSdEckaEncodedPoint = Tlvs.unpackValue(0x5F49, epkSdEckaTlv.getBytes());
-            byte[] receipt = Tlvs.unpackValue(0x86, tlvs.get(1).getBytes());
+            TlvReader reader = new TlvReader(resp.getData());
+            reader.expect(0x5F49);
+            byte[] epkSdEckaEncodedPoint = reader.getValueBytes();
+            ByteBuffer keyAgreementData = ByteBuffer.allocate(data.length + reader.getTlvLength())
+                    .put(data)
+                    .put(reader.getArray(), reader.getTlvOffset(), reader.getTlvLength());
+            byte[] receipt = reader.expect(0x86).getValueBytes();
 
             // GPC v2.3 Amendment F (SCP11) v1.3 §3.1.2 Key Derivation
-            byte[] keyAgreementData = ByteBuffer.allocate(data.length + epkSdEckaTlv.getBytes().length)
-                    .put(data)
-                    .put(epkSdEckaTlv.getBytes())
-                    .array();
             byte[] sharedInfo = ByteBuffer.allocate(keyUsage.length + keyType.length + keyLen.length)
                     .put(keyUsage)
                     .put(keyType)
@@ -341,7 +367,7 @@ public class ScpState {
             SecretKey key = keys.get(0);
             Mac mac = Mac.getInstance("AESCMAC");
             mac.init(key);
-            byte[] genReceipt = mac.doFinal(keyAgreementData);
+            byte[] genReceipt = mac.doFinal(keyAgreementData.array());
             if (!MessageDigest.isEqual(receipt, genReceipt)) {
                 throw new BadResponseException("Receipt does not match");
             }
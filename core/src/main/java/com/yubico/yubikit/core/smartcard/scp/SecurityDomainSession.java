@@ -30,8 +30,9 @@ import com.yubico.yubikit.core.smartcard.AppId;
 import com.yubico.yubikit.core.smartcard.SW;
 import com.yubico.yubikit.core.smartcard.SmartCardConnection;
 import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
-import com.yubico.yubikit.core.util.StringUtils;
 import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvReader;
+import com.yubico.yubikit.core.util.TlvWriter;
 import com.yubico.yubikit.core.util.Tlvs;
 
 import org.slf4j.LoggerFactory;
@@ -135,8 +136,9 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
 
     public Map<KeyRef, Map<Byte, Byte>> getKeyInformation() throws ApduException, IOException, BadResponseException {
         Map<KeyRef, Map<Byte, Byte>> keys = new HashMap<>();
-        for (Tlv tlv : Tlvs.decodeList(getData(TAG_KEY_INFORMATION, null))) {
-            ByteBuffer data = ByteBuffer.wrap(Tlvs.unpackValue(0xC0, tlv.getBytes()));
+        TlvReader reader = new TlvReader(getData(TAG_KEY_INFORMATION, null));
+        while (reader.hasNext()) {
+            ByteBuffer data = reader.expect(0xC0).getValue();
             KeyRef keyRef = new KeyRef(data.get(), data.get());
             Map<Byte, Byte> components = new HashMap<>();
             while (data.hasRemaining()) {
@@ -151,12 +153,19 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
         Logger.debug(logger, "Getting certificate bundle for key={}", keyRef);
         List<X509Certificate> certificates = new ArrayList<>();
         try {
-            byte[] resp = getData(TAG_CERTIFICATE_STORE, new Tlv(0xA6, new Tlv(0x83, keyRef.getBytes()).getBytes()).getBytes());
+            byte[] resp = getData(TAG_CERTIFICATE_STORE, new TlvWriter()
+                    .begin(0xA6)
+                    .put(0x83, keyRef.getBytes())
+                    .end()
+                    .toByteArray());
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            for (Tlv der : Tlvs.decodeList(resp)) {
-                InputStream stream = new ByteArrayInputStream(der.getBytes());
+            TlvReader reader = new TlvReader(resp);
+            while (reader.hasNext()) {
+                reader.next();
+                InputStream stream = new ByteArrayInputStream(resp, reader.getTlvOffset(), reader.getTlvLength());
                 certificates.add((X509Certificate) cf.generateCertificate(stream));
             }
+
         } catch (ApduException e) {
             // On REFERENCED_DATA_NOT_FOUND return empty list
             if (e.getSw() != SW.REFERENCED_DATA_NOT_FOUND) {
@@ -190,11 +199,14 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
                 }
             }
         }
-        List<Tlv> tlvs = Tlvs.decodeList(data.toByteArray());
+        TlvReader reader = new TlvReader(data.toByteArray());
         Map<KeyRef, byte[]> identifiers = new HashMap<>();
-        for (int i = 0; i < tlvs.size(); i += 2) {
-            ByteBuffer ref = ByteBuffer.wrap(tlvs.get(i + 1).getValue());
-            identifiers.put(new KeyRef(ref.get(), ref.get()), tlvs.get(i).getValue());
+        while (reader.hasNext()) {
+            reader.next();
+            byte[] identifier = reader.getValueBytes();
+            reader.next();
+            ByteBuffer ref = reader.getValue();
+            identifiers.put(new KeyRef(ref.get(), ref.get()), identifier);
         }
         return identifiers;
     }
@@ -203,6 +215,23 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
         protocol.sendAndReceive(new Apdu(0, INS_STORE_DATA, 0x90, 0x00, data));
     }
 
+    /**
+     * Sends several STORE DATA commands back-to-back, each with the same parameters as {@link #storeData(byte[])}.
+     * <p>
+     * The commands are sent in order, stopping at the first failure.
+     *
+     * @param dataObjects the data of each command
+     * @throws ApduException in case of an error response from the YubiKey
+     * @throws IOException   in case of connection error
+     */
+    public void storeData(List<byte[]> dataObjects) throws ApduException, IOException {
+        List<Apdu> commands = new ArrayList<>(dataObjects.size());
+        for (byte[] data : dataObjects) {
+            commands.add(new Apdu(0, INS_STORE_DATA, 0x90, 0x00, data));
+        }
+        protocol.sendBatch(commands);
+    }
+
     /**
      * Store the certificate chain for a given key.
      * Requires off-card entity verification.
@@ -213,18 +242,19 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
      */
     public void storeCertificateBundle(KeyRef keyRef, List<X509Certificate> certificates) throws ApduException, IOException {
         Logger.debug(logger, "Storing certificate bundle for {}", keyRef);
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        TlvWriter data = new TlvWriter()
+                .begin(0xA6)
+                .put(0x83, keyRef.getBytes())
+                .end()
+                .begin(TAG_CERTIFICATE_STORE);
         for (X509Certificate cert : certificates) {
             try {
-                data.write(cert.getEncoded());
+                data.putRaw(cert.getEncoded());
             } catch (CertificateEncodingException e) {
                 throw new IllegalArgumentException("Failed to get encoded version of certificate", e);
             }
         }
-        storeData(Tlvs.encodeList(Arrays.asList(
-                new Tlv(0xA6, new Tlv(0x83, keyRef.getBytes()).getBytes()),
-                new Tlv(TAG_CERTIFICATE_STORE, data.toByteArray())
-        )));
+        storeData(data.end().toByteArray());
         Logger.info(logger, "Certificate bundle stored");
     }
 
@@ -238,14 +268,15 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
      */
     public void storeAllowlist(KeyRef keyRef, List<BigInteger> serials) throws ApduException, IOException {
         Logger.debug(logger, "Storing serial allowlist for {}", keyRef);
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        TlvWriter data = new TlvWriter()
+                .begin(0xA6)
+                .put(0x83, keyRef.getBytes())
+                .end()
+                .begin(0x70);
         for (BigInteger serial : serials) {
-            data.write(new Tlv(0x93, serial.toByteArray()).getBytes());
+            data.put(0x93, serial.toByteArray());
         }
-        storeData(Tlvs.encodeList(Arrays.asList(
-                new Tlv(0xA6, new Tlv(0x83, keyRef.getBytes()).getBytes()),
-                new Tlv(0x70, data.toByteArray())
-        )));
+        storeData(data.end().toByteArray());
         Logger.info(logger, "Serial allowlist stored");
     }
 
@@ -257,7 +288,7 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
      * @param ski    the Subject Key Identifier to store
      */
     public void storeCaIssuer(KeyRef keyRef, byte[] ski) throws ApduException, IOException {
-        Logger.debug(logger, "Storing CA issuer SKI for {}: {}", keyRef, StringUtils.bytesToHex(ski));
+        Logger.debug(logger, "Storing CA issuer SKI for {}: {}", keyRef, Logger.hex(ski));
         byte klcc = 0;
         switch (keyRef.getKid()) {
             case ScpKid.SCP11a:
@@ -265,11 +296,13 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
             case ScpKid.SCP11c:
                 klcc = 1;
         }
-        storeData(new Tlv(0xA6, Tlvs.encodeList(Arrays.asList(
-                new Tlv(0x80, new byte[]{klcc}),
-                new Tlv(0x42, ski),
-                new Tlv(0x83, keyRef.getBytes())
-        ))).getBytes());
+        storeData(new TlvWriter()
+                .begin(0xA6)
+                .put(0x80, new byte[]{klcc})
+                .put(0x42, ski)
+                .put(0x83, keyRef.getBytes())
+                .end()
+                .toByteArray());
         Logger.info(logger, "CA issuer SKI stored");
     }
 
@@ -296,14 +329,14 @@ public class SecurityDomainSession extends ApplicationSession<SecurityDomainSess
             }
         }
         Logger.debug(logger, "Deleting keys matching {}", keyRef);
-        List<Tlv> tlvs = new ArrayList<>();
+        TlvWriter data = new TlvWriter();
         if (kid != 0) {
-            tlvs.add(new Tlv(0xD0, new byte[]{kid}));
+            data.put(0xD0, new byte[]{kid});
         }
         if (kvn != 0) {
-            tlvs.add(new Tlv(0xD2, new byte[]{kvn}));
+            data.put(0xD2, new byte[]{kvn});
         }
-        protocol.sendAndReceive(new Apdu(0x80, INS_DELETE, 0, deleteLast ? 1 : 0, Tlvs.encodeList(tlvs)));
+        protocol.sendAndReceive(new Apdu(0x80, INS_DELETE, 0, deleteLast ? 1 : 0, data.toByteArray()));
         Logger.info(logger, "Keys deleted");
     }
 
@@ -20,6 +20,8 @@ package com.yubico.yubikit.core.util;
  * Utility methods for Strings.
  */
 public class StringUtils {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Helper method that convert byte array into string for logging
      *
@@ -39,11 +41,14 @@ public class StringUtils {
      * @return string representation of byte array
      */
     public static String bytesToHex(byte[] byteArray, int offset, int size) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = offset; i < size; i++) {
-            sb.append(String.format("%02x ", byteArray[i]));
+        char[] chars = new char[size * 3];
+        for (int i = 0; i < size; i++) {
+            int b = byteArray[offset + i] & 0xff;
+            chars[i * 3] = HEX_DIGITS[b >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[b & 0x0f];
+            chars[i * 3 + 2] = ' ';
         }
-        return sb.toString();
+        return new String(chars);
     }
 
     private StringUtils() {
@@ -16,9 +16,6 @@
 
 package com.yubico.yubikit.core.util;
 
-import java.io.ByteArrayOutputStream;
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -39,27 +36,22 @@ public class Tlv {
      */
     public Tlv(int tag, @Nullable byte[] value) {
         this.tag = tag;
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-
-        byte[] tagBytes = BigInteger.valueOf(tag).toByteArray();
-        int stripLeading = tagBytes[0] == 0 ? 1 : 0;
-        stream.write(tagBytes, stripLeading, tagBytes.length - stripLeading);
-
         length = value == null ? 0 : value.length;
-        if (length < 0x80) {
-            stream.write(length);
-        } else {
-            byte[] lnBytes = BigInteger.valueOf(length).toByteArray();
-            stripLeading = lnBytes[0] == 0 ? 1 : 0;
-            stream.write(0x80 | lnBytes.length - stripLeading);
-            stream.write(lnBytes, stripLeading, lnBytes.length - stripLeading);
-        }
-
-        offset = stream.size();
+        bytes = new byte[TlvWriter.encodedLength(tag, length)];
+        offset = TlvWriter.encodeLength(bytes, TlvWriter.encodeTag(bytes, 0, tag), length);
         if (value != null) {
-            stream.write(value, 0, length);
+            System.arraycopy(value, 0, bytes, offset, length);
         }
-        bytes = stream.toByteArray();
+    }
+
+    /**
+     * Creates a Tlv from its complete encoding, which is not copied.
+     */
+    Tlv(int tag, int length, byte[] bytes, int offset) {
+        this.tag = tag;
+        this.length = length;
+        this.bytes = bytes;
+        this.offset = offset;
     }
 
     /**
@@ -90,6 +82,13 @@ public class Tlv {
         return Arrays.copyOf(bytes, bytes.length);
     }
 
+    /**
+     * Writes the encoded Tlv to a TlvWriter, without an intermediate copy.
+     */
+    void writeTo(TlvWriter writer) {
+        writer.putRaw(bytes, 0, bytes.length);
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.ROOT, "Tlv(0x%x, %d, %s)", tag, length, StringUtils.bytesToHex(getValue()));
@@ -104,12 +103,12 @@ public class Tlv {
      * @return The parsed Tlv
      */
     public static Tlv parse(byte[] data, int offset, int length) {
-        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
-        Tlv tlv = parseFrom(buffer);
-        if (buffer.hasRemaining()) {
+        TlvReader reader = new TlvReader(data, offset, length);
+        reader.next();
+        if (reader.hasNext()) {
             throw new IllegalArgumentException("Extra data remaining");
         }
-        return tlv;
+        return reader.toTlv();
     }
 
     /**
@@ -121,29 +120,4 @@ public class Tlv {
     public static Tlv parse(byte[] data) {
         return parse(data, 0, data.length);
     }
-
-    static Tlv parseFrom(ByteBuffer buffer) {
-        int tag = buffer.get() & 0xFF;
-        if ((tag & 0x1F) == 0x1F) { // Long form tag
-            tag = (tag << 8) | (buffer.get() & 0xFF);
-            while ((tag & 0x80) == 0x80) {
-                tag = (tag << 8) | (buffer.get() & 0xFF);
-            }
-        }
-
-        int length = buffer.get() & 0xFF;
-        if (length == 0x80) {
-            throw new IllegalArgumentException("Indefinite length not supported");
-        } else if (length > 0x80) {
-            int lengthLn = length - 0x80;
-            length = 0;
-            for (int i = 0; i < lengthLn; i++) {
-                length = (length << 8) | (buffer.get() & 0xff);
-            }
-        }
-
-        byte[] value = new byte[length];
-        buffer.get(value);
-        return new Tlv(tag, value);
-    }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.util;
+
+import com.yubico.yubikit.core.application.BadResponseException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cursor based reader of a sequence of BER-TLV encoded values with determinate length.
+ * <p>
+ * The reader does not copy the underlying data. Each call to {@link #next()} parses the header of the
+ * next TLV, after which its tag, length and value can be accessed as offsets into the underlying data,
+ * or as views of it. Only the {@code *Bytes} methods copy data.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * TlvReader reader = new TlvReader(data);
+ * while (reader.hasNext()) {
+ *     switch (reader.next()) {
+ *         case 0x80:
+ *             version = reader.getValueBytes();
+ *             break;
+ *         case 0xA1:
+ *             parseInner(reader.nested());
+ *             break;
+ *     }
+ * }
+ * }</pre>
+ */
+public class TlvReader {
+    private final byte[] data;
+    private final int end;
+    private int position;
+
+    private int tlvOffset = -1;
+    private int tag;
+    private int valueOffset;
+    private int length;
+
+    /**
+     * Creates a reader over a range of a byte array.
+     *
+     * @param data   the TLV encoded data.
+     * @param offset the offset in data where the first TLV begins.
+     * @param length the length of the TLV encoded data.
+     */
+    public TlvReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("Invalid offset/length");
+        }
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Creates a reader over a byte array.
+     *
+     * @param data the TLV encoded data (and nothing more).
+     */
+    public TlvReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Creates a reader over the remaining bytes of an array backed ByteBuffer.
+     * The position of the buffer is not modified.
+     *
+     * @param buffer a buffer holding the TLV encoded data.
+     */
+    public TlvReader(ByteBuffer buffer) {
+        this(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Returns true if there is at least one more TLV to read.
+     */
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    /**
+     * Advances to the next TLV, parsing its header.
+     *
+     * @return the tag of the TLV
+     * @throws BufferUnderflowException if the data is truncated
+     * @throws IllegalArgumentException if the TLV uses indefinite length encoding
+     */
+    public int next() {
+        int offset = position;
+        int tag = read() & 0xFF;
+        if ((tag & 0x1F) == 0x1F) { // Long form tag
+            tag = (tag << 8) | (read() & 0xFF);
+            while ((tag & 0x80) == 0x80) {
+                tag = (tag << 8) | (read() & 0xFF);
+            }
+        }
+
+        int length = read() & 0xFF;
+        if (length == 0x80) {
+            throw new IllegalArgumentException("Indefinite length not supported");
+        } else if (length > 0x80) {
+            int lengthLn = length - 0x80;
+            length = 0;
+            for (int i = 0; i < lengthLn; i++) {
+                length = (length << 8) | (read() & 0xFF);
+            }
+        }
+
+        if (length < 0 || length > end - position) {
+            throw new BufferUnderflowException();
+        }
+
+        this.tlvOffset = offset;
+        this.tag = tag;
+        this.valueOffset = position;
+        this.length = length;
+        position += length;
+        return tag;
+    }
+
+    /**
+     * Advances to the next TLV and checks its tag.
+     *
+     * @param expectedTag the expected tag of the next TLV
+     * @return this reader, positioned at the TLV
+     * @throws BadResponseException if the tag differs from expectedTag, or if no more data is available
+     */
+    public TlvReader expect(int expectedTag) throws BadResponseException {
+        if (!hasNext()) {
+            throw new BadResponseException(String.format("Expected tag: %02x, got end of data", expectedTag));
+        }
+        int tag = next();
+        if (tag != expectedTag) {
+            throw new BadResponseException(String.format("Expected tag: %02x, got %02x", expectedTag, tag));
+        }
+        return this;
+    }
+
+    /**
+     * Advances past TLVs until one with the given tag is found.
+     *
+     * @param tag the tag to look for
+     * @return true if a TLV with the tag was found, in which case the reader is positioned on it
+     */
+    public boolean find(int tag) {
+        while (hasNext()) {
+            if (next() == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the tag of the current TLV.
+     */
+    public int getTag() {
+        checkCurrent();
+        return tag;
+    }
+
+    /**
+     * Returns the length of the value of the current TLV.
+     */
+    public int getLength() {
+        checkCurrent();
+        return length;
+    }
+
+    /**
+     * Returns the offset of the current TLV, including its tag and length, within the underlying array.
+     */
+    public int getTlvOffset() {
+        checkCurrent();
+        return tlvOffset;
+    }
+
+    /**
+     * Returns the length of the complete encoding of the current TLV, including its tag and length.
+     */
+    public int getTlvLength() {
+        checkCurrent();
+        return valueOffset + length - tlvOffset;
+    }
+
+    /**
+     * Returns the offset of the value of the current TLV, within the underlying array.
+     */
+    public int getValueOffset() {
+        checkCurrent();
+        return valueOffset;
+    }
+
+    /**
+     * Returns the underlying array, which {@link #getValueOffset()} refers to.
+     */
+    public byte[] getArray() {
+        return data;
+    }
+
+    /**
+     * Returns a read-only view of the value of the current TLV.
+     */
+    public ByteBuffer getValue() {
+        checkCurrent();
+        return ByteBuffer.wrap(data, valueOffset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a copy of the value of the current TLV.
+     */
+    public byte[] getValueBytes() {
+        checkCurrent();
+        return Arrays.copyOfRange(data, valueOffset, valueOffset + length);
+    }
+
+    /**
+     * Returns a copy of the complete encoding of the current TLV, including its tag and length.
+     */
+    public byte[] getBytes() {
+        checkCurrent();
+        return Arrays.copyOfRange(data, tlvOffset, valueOffset + length);
+    }
+
+    /**
+     * Returns the value of the current TLV as an unsigned big-endian integer.
+     *
+     * @throws IllegalStateException if the value is longer than 4 bytes
+     */
+    public int getValueInt() {
+        checkCurrent();
+        if (length > 4) {
+            throw new IllegalStateException("Value too long to be read as an int");
+        }
+        int value = 0;
+        for (int i = valueOffset; i < valueOffset + length; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Returns a reader over the value of the current TLV, sharing the underlying array.
+     */
+    public TlvReader nested() {
+        checkCurrent();
+        return new TlvReader(data, valueOffset, length);
+    }
+
+    /**
+     * Returns a parsed {@link Tlv} for the current TLV. This copies the encoded TLV.
+     */
+    public Tlv toTlv() {
+        checkCurrent();
+        return new Tlv(tag, length, getBytes(), valueOffset - tlvOffset);
+    }
+
+    private byte read() {
+        if (position >= end) {
+            throw new BufferUnderflowException();
+        }
+        return data[position++];
+    }
+
+    private void checkCurrent() {
+        if (tlvOffset < 0) {
+            throw new IllegalStateException("next() has not been called");
+        }
+    }
+}
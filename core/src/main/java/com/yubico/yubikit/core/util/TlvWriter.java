@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.util;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes BER-TLV encoded data into a single growable buffer.
+ * <p>
+ * Nested structures are written by calling {@link #begin(int)}, writing the inner TLVs, and then
+ * calling {@link #end()}, which fills in the length of the constructed value in place.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * byte[] data = new TlvWriter()
+ *         .begin(0xA6)
+ *         .put(0x90, new byte[]{0x11, 0x00})
+ *         .put(0x95, keyUsage)
+ *         .end()
+ *         .put(0x5F49, encodedPoint)
+ *         .toByteArray();
+ * }</pre>
+ */
+public class TlvWriter {
+    private static final int MAX_NESTING = 8;
+
+    private byte[] buffer;
+    private int size = 0;
+
+    // Offsets of the value of each open constructed TLV, the length byte precedes it
+    private final int[] open = new int[MAX_NESTING];
+    private int depth = 0;
+
+    /**
+     * Creates a new writer with a default initial capacity.
+     */
+    public TlvWriter() {
+        this(64);
+    }
+
+    /**
+     * Creates a new writer.
+     *
+     * @param initialCapacity the initial size of the buffer, in bytes.
+     */
+    public TlvWriter(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Writes a TLV with the given tag and value.
+     *
+     * @param tag   the tag
+     * @param value the value, or null for an empty value
+     * @return this writer
+     */
+    public TlvWriter put(int tag, @Nullable byte[] value) {
+        return value == null ? put(tag, new byte[0], 0, 0) : put(tag, value, 0, value.length);
+    }
+
+    /**
+     * Writes a TLV with the given tag and a value taken from a range of a byte array.
+     *
+     * @param tag    the tag
+     * @param value  an array holding the value
+     * @param offset the offset in value where the value begins
+     * @param length the length of the value
+     * @return this writer
+     */
+    public TlvWriter put(int tag, byte[] value, int offset, int length) {
+        ensureCapacity(encodedLength(tag, length));
+        size = encodeTag(buffer, size, tag);
+        size = encodeLength(buffer, size, length);
+        System.arraycopy(value, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Writes an already encoded Tlv.
+     *
+     * @param tlv the Tlv to write
+     * @return this writer
+     */
+    public TlvWriter put(Tlv tlv) {
+        tlv.writeTo(this);
+        return this;
+    }
+
+    /**
+     * Writes already encoded data, as-is.
+     *
+     * @param encoded TLV encoded data
+     * @return this writer
+     */
+    public TlvWriter putRaw(byte[] encoded) {
+        return putRaw(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Writes a range of already encoded data, as-is.
+     *
+     * @param encoded an array holding TLV encoded data
+     * @param offset  the offset in encoded where the data begins
+     * @param length  the length of the data
+     * @return this writer
+     */
+    public TlvWriter putRaw(byte[] encoded, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(encoded, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Writes only the tag and length of a TLV. The value must be appended by the caller, either with
+     * {@link #putRaw(byte[])} or by sending it separately, such as when it is streamed.
+     *
+     * @param tag    the tag
+     * @param length the length of the value which follows
+     * @return this writer
+     */
+    public TlvWriter putHeader(int tag, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length must not be negative");
+        }
+        ensureCapacity(tagLength(tag) + lengthLength(length));
+        size = encodeTag(buffer, size, tag);
+        size = encodeLength(buffer, size, length);
+        return this;
+    }
+
+    /**
+     * Starts a constructed TLV with the given tag. All TLVs written until the matching call to
+     * {@link #end()} become part of its value.
+     *
+     * @param tag the tag
+     * @return this writer
+     */
+    public TlvWriter begin(int tag) {
+        if (depth == MAX_NESTING) {
+            throw new IllegalStateException("Maximum nesting depth exceeded");
+        }
+        ensureCapacity(tagLength(tag) + 1);
+        size = encodeTag(buffer, size, tag);
+        // Reserve a single byte for the length, expanded if needed in end()
+        size++;
+        open[depth++] = size;
+        return this;
+    }
+
+    /**
+     * Ends the constructed TLV started by the latest call to {@link #begin(int)}.
+     *
+     * @return this writer
+     */
+    public TlvWriter end() {
+        if (depth == 0) {
+            throw new IllegalStateException("No constructed TLV to end");
+        }
+        int valueOffset = open[--depth];
+        int length = size - valueOffset;
+        int extra = lengthLength(length) - 1;
+        if (extra > 0) {
+            ensureCapacity(extra);
+            System.arraycopy(buffer, valueOffset, buffer, valueOffset + extra, length);
+            size += extra;
+        }
+        encodeLength(buffer, valueOffset - 1, length);
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Discards all written data, keeping the allocated buffer for reuse.
+     */
+    public void reset() {
+        Arrays.fill(buffer, 0, size, (byte) 0);
+        size = 0;
+        depth = 0;
+    }
+
+    /**
+     * Returns a copy of the encoded data.
+     *
+     * @throws IllegalStateException if a constructed TLV has not been ended
+     */
+    public byte[] toByteArray() {
+        if (depth != 0) {
+            throw new IllegalStateException("Constructed TLV has not been ended");
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer.length - size < extra) {
+            int capacity = buffer.length;
+            while (capacity - size < extra) {
+                capacity *= 2;
+            }
+            byte[] grown = Arrays.copyOf(buffer, capacity);
+            Arrays.fill(buffer, (byte) 0);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the given tag.
+     * <p>
+     * Negative tags, typically from a byte cast such as {@code (byte) 0xac}, are encoded in their shortest
+     * two's complement form, so that {@code (byte) 0xac} is encoded the same as {@code 0xac}.
+     */
+    static int tagLength(int tag) {
+        if (tag < 0) {
+            return (40 - Integer.numberOfLeadingZeros(~tag)) / 8;
+        }
+        return Math.max(1, (39 - Integer.numberOfLeadingZeros(tag)) / 8);
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the given length.
+     */
+    static int lengthLength(int length) {
+        if (length < 0x80) {
+            return 1;
+        }
+        return 1 + (39 - Integer.numberOfLeadingZeros(length)) / 8;
+    }
+
+    /**
+     * Returns the total number of bytes needed to encode a TLV with the given tag and value length.
+     */
+    static int encodedLength(int tag, int length) {
+        return tagLength(tag) + lengthLength(length) + length;
+    }
+
+    /**
+     * Writes the tag into dst at the given offset.
+     *
+     * @return the offset following the tag
+     */
+    static int encodeTag(byte[] dst, int offset, int tag) {
+        for (int i = tagLength(tag) - 1; i >= 0; i--) {
+            dst[offset++] = (byte) (tag >>> (8 * i));
+        }
+        return offset;
+    }
+
+    /**
+     * Writes the length into dst at the given offset.
+     *
+     * @return the offset following the length
+     */
+    static int encodeLength(byte[] dst, int offset, int length) {
+        if (length < 0x80) {
+            dst[offset++] = (byte) length;
+        } else {
+            int lengthLn = lengthLength(length) - 1;
+            dst[offset++] = (byte) (0x80 | lengthLn);
+            for (int i = lengthLn - 1; i >= 0; i--) {
+                dst[offset++] = (byte) (length >>> (8 * i));
+            }
+        }
+        return offset;
+    }
+}
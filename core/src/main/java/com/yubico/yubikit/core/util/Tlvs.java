@@ -18,8 +18,6 @@ package com.yubico.yubikit.core.util;
 
 import com.yubico.yubikit.core.application.BadResponseException;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -37,11 +35,11 @@ public class Tlvs {
      * @return list of Tlvs
      */
     public static List<Tlv> decodeList(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
+        TlvReader reader = new TlvReader(data);
         List<Tlv> tlvs = new ArrayList<>();
-        while (buffer.hasRemaining()) {
-            Tlv tlv = Tlv.parseFrom(buffer);
-            tlvs.add(tlv);
+        while (reader.hasNext()) {
+            reader.next();
+            tlvs.add(reader.toTlv());
         }
         return tlvs;
     }
@@ -55,11 +53,10 @@ public class Tlvs {
      * @return map of Tag-Value pairs
      */
     public static Map<Integer, byte[]> decodeMap(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
+        TlvReader reader = new TlvReader(data);
         Map<Integer, byte[]> tlvs = new LinkedHashMap<>();
-        while (buffer.hasRemaining()) {
-            Tlv tlv = Tlv.parseFrom(buffer);
-            tlvs.put(tlv.getTag(), tlv.getValue());
+        while (reader.hasNext()) {
+            tlvs.put(reader.next(), reader.getValueBytes());
         }
         return tlvs;
     }
@@ -71,12 +68,11 @@ public class Tlvs {
      * @return the data encoded as a sequence of TLV values
      */
     public static byte[] encodeList(Iterable<? extends Tlv> list) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        TlvWriter writer = new TlvWriter();
         for (Tlv tlv : list) {
-            byte[] tlvBytes = tlv.getBytes();
-            stream.write(tlvBytes, 0, tlvBytes.length);
+            writer.put(tlv);
         }
-        return stream.toByteArray();
+        return writer.toByteArray();
     }
 
     /**
@@ -87,13 +83,11 @@ public class Tlvs {
      * @return the data encoded as a sequence of TLV values
      */
     public static byte[] encodeMap(Map<Integer, byte[]> map) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        TlvWriter writer = new TlvWriter();
         for (Map.Entry<Integer, byte[]> entry : map.entrySet()) {
-            Tlv tlv = new Tlv(entry.getKey(), entry.getValue());
-            byte[] tlvBytes = tlv.getBytes();
-            stream.write(tlvBytes, 0, tlvBytes.length);
+            writer.put(entry.getKey(), entry.getValue());
         }
-        return stream.toByteArray();
+        return writer.toByteArray();
     }
 
     /**
@@ -105,10 +99,14 @@ public class Tlvs {
      * @throws BadResponseException if the TLV tag differs from expectedTag
      */
     public static byte[] unpackValue(int expectedTag, byte[] tlvData) throws BadResponseException {
-        Tlv tlv = Tlv.parse(tlvData, 0, tlvData.length);
-        if (tlv.getTag() != expectedTag) {
-            throw new BadResponseException(String.format("Expected tag: %02x, got %02x", expectedTag, tlv.getTag()));
+        TlvReader reader = new TlvReader(tlvData);
+        int tag = reader.next();
+        if (reader.hasNext()) {
+            throw new IllegalArgumentException("Extra data remaining");
         }
-        return tlv.getValue();
+        if (tag != expectedTag) {
+            throw new BadResponseException(String.format("Expected tag: %02x, got %02x", expectedTag, tag));
+        }
+        return reader.getValueBytes();
     }
 }
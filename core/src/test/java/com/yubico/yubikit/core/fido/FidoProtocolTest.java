@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.fido;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+public class FidoProtocolTest {
+    private static final byte CTAPHID_PING = (byte) 0x81;
+    private static final byte CTAPHID_LOCK = (byte) 0x84;
+    private static final byte CTAPHID_INIT = (byte) 0x86;
+    private static final byte CTAPHID_ERROR = (byte) 0xbf;
+
+    @Test
+    public void testFragmentation() throws IOException {
+        FakeHidConnection connection = new FakeHidConnection();
+        FidoProtocol protocol = new FidoProtocol(connection);
+        connection.sent.clear();
+        byte[] payload = randomBytes(1024);
+
+        Assert.assertArrayEquals(payload, protocol.sendAndReceive(CTAPHID_PING, payload, null));
+
+        // 57 bytes in the initialization packet, and 59 in each continuation packet
+        Assert.assertEquals(18, connection.sent.size());
+        byte[] init = connection.sent.get(0);
+        Assert.assertEquals(CTAPHID_PING, init[4]);
+        Assert.assertEquals(1024, ((init[5] & 0xff) << 8) | (init[6] & 0xff));
+        for (int i = 1; i < connection.sent.size(); i++) {
+            Assert.assertEquals(protocol.getChannelId(), getChannel(connection.sent.get(i)));
+            Assert.assertEquals(i - 1, connection.sent.get(i)[4]);
+        }
+        // The unused tail of the last packet is cleared
+        byte[] last = connection.sent.get(17);
+        int used = 1024 - 57 - 16 * 59;
+        Assert.assertArrayEquals(new byte[59 - used], Arrays.copyOfRange(last, 5 + used, last.length));
+    }
+
+    @Test
+    public void testPayloadSize() throws IOException {
+        FidoProtocol protocol = new FidoProtocol(new FakeHidConnection());
+        Assert.assertArrayEquals(new byte[0], protocol.sendAndReceive(CTAPHID_PING, new byte[0], null));
+
+        byte[] payload = randomBytes(57 + 128 * 59);
+        Assert.assertArrayEquals(payload, protocol.sendAndReceive(CTAPHID_PING, payload, null));
+
+        try {
+            protocol.sendAndReceive(CTAPHID_PING, new byte[payload.length + 1], null);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Does not fit in 128 continuation packets
+        }
+    }
+
+    @Test
+    public void testPacketsForOtherChannelsAreIgnored() throws IOException {
+        FakeHidConnection connection = new FakeHidConnection();
+        FidoProtocol protocol = new FidoProtocol(connection);
+        connection.handler = (channelId, cmd, data) -> {
+            connection.respond(0x12345678, CTAPHID_PING, randomBytes(100));
+            connection.respond(channelId, cmd, data);
+        };
+        byte[] payload = randomBytes(100);
+
+        Assert.assertArrayEquals(payload, protocol.sendAndReceive(CTAPHID_PING, payload, null));
+        Assert.assertTrue(connection.received.isEmpty());
+    }
+
+    @Test
+    public void testOpenChannel() throws IOException {
+        FakeHidConnection connection = new FakeHidConnection();
+        FidoProtocol protocol = new FidoProtocol(connection);
+        int other = protocol.openChannel();
+        Assert.assertNotEquals(protocol.getChannelId(), other);
+
+        connection.sent.clear();
+        byte[] payload = randomBytes(100);
+        Assert.assertArrayEquals(payload, protocol.sendAndReceive(other, CTAPHID_PING, payload, null));
+        Assert.assertEquals(other, getChannel(connection.sent.get(0)));
+    }
+
+    @Test
+    public void testLock() throws IOException {
+        FakeHidConnection connection = new FakeHidConnection();
+        FidoProtocol protocol = new FidoProtocol(connection);
+        int other = protocol.openChannel();
+        connection.sent.clear();
+
+        protocol.lock(other, 5);
+        Assert.assertEquals(1, connection.sent.size());
+        byte[] lock = connection.sent.get(0);
+        Assert.assertEquals(other, getChannel(lock));
+        Assert.assertEquals(CTAPHID_LOCK, lock[4]);
+        Assert.assertEquals(1, lock[6]);
+        Assert.assertEquals(5, lock[7]);
+
+        try {
+            protocol.lock(other, 11);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(1, connection.sent.size());
+        }
+
+        // A channel busy error for another channel holding the lock
+        connection.handler = (channelId, cmd, data) -> connection.respond(channelId, CTAPHID_ERROR, new byte[]{0x06});
+        try {
+            protocol.lock(protocol.getChannelId(), 5);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertEquals("CTAPHID error: 06", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentChannels() throws Exception {
+        FakeHidConnection connection = new FakeHidConnection();
+        FidoProtocol protocol = new FidoProtocol(connection);
+        int other = protocol.openChannel();
+        byte[] first = randomBytes(200);
+        byte[] second = randomBytes(300);
+
+        // The response on the default channel is only sent after the message on the other channel
+        CountDownLatch firstSent = new CountDownLatch(1);
+        connection.handler = (channelId, cmd, data) -> {
+            if (channelId == protocol.getChannelId()) {
+                firstSent.countDown();
+            } else {
+                connection.respond(channelId, cmd, data);
+                connection.respond(protocol.getChannelId(), cmd, first);
+            }
+        };
+
+        List<Throwable> errors = new ArrayList<>();
+        Thread thread = new Thread(() -> {
+            try {
+                Assert.assertArrayEquals(first, protocol.sendAndReceive(CTAPHID_PING, first, null));
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        thread.start();
+        Assert.assertTrue(firstSent.await(5, TimeUnit.SECONDS));
+
+        Assert.assertArrayEquals(second, protocol.sendAndReceive(other, CTAPHID_PING, second, null));
+        thread.join(5000);
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int getChannel(byte[] packet) {
+        return (packet[0] & 0xff) << 24 | (packet[1] & 0xff) << 16 | (packet[2] & 0xff) << 8 | (packet[3] & 0xff);
+    }
+
+    private interface Handler {
+        void handle(int channelId, byte cmd, byte[] data);
+    }
+
+    /*
+     * Reassembles the messages sent to it, answers INIT with a new channel, and passes other messages to a
+     * handler, which echoes them by default.
+     */
+    private static class FakeHidConnection implements FidoConnection {
+        private final List<byte[]> sent = new ArrayList<>();
+        private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        private Handler handler = this::respond;
+        private int lastChannelId;
+
+        @Nullable
+        private byte[] message;
+        private int messageLength;
+        private byte messageCmd;
+
+        @Override
+        public synchronized void send(byte[] packet) {
+            sent.add(Arrays.copyOf(packet, PACKET_SIZE));
+            int headerSize;
+            if ((packet[4] & 0x80) != 0) {
+                messageCmd = packet[4];
+                message = new byte[((packet[5] & 0xff) << 8) | (packet[6] & 0xff)];
+                messageLength = 0;
+                headerSize = 7;
+            } else {
+                headerSize = 5;
+            }
+            byte[] data = message;
+            if (data == null) {
+                throw new IllegalStateException("Continuation packet without a message");
+            }
+            int length = Math.min(PACKET_SIZE - headerSize, data.length - messageLength);
+            System.arraycopy(packet, headerSize, data, messageLength, length);
+            messageLength += length;
+            if (messageLength == data.length) {
+                message = null;
+                if (messageCmd == CTAPHID_INIT) {
+                    byte[] response = Arrays.copyOf(data, 17);
+                    int channelId = ++lastChannelId;
+                    response[8] = (byte) (channelId >> 24);
+                    response[9] = (byte) (channelId >> 16);
+                    response[10] = (byte) (channelId >> 8);
+                    response[11] = (byte) channelId;
+                    response[12] = 2;
+                    response[13] = 5;
+                    response[14] = 7;
+                    response[15] = 2;
+                    respond(getChannel(packet), messageCmd, response);
+                } else {
+                    handler.handle(getChannel(packet), messageCmd, data);
+                }
+            }
+        }
+
+        void respond(int channelId, byte cmd, byte[] data) {
+            int offset = 0;
+            int seq = 0;
+            do {
+                byte[] packet = new byte[PACKET_SIZE];
+                packet[0] = (byte) (channelId >> 24);
+                packet[1] = (byte) (channelId >> 16);
+                packet[2] = (byte) (channelId >> 8);
+                packet[3] = (byte) channelId;
+                int headerSize;
+                if (offset == 0) {
+                    packet[4] = cmd;
+                    packet[5] = (byte) (data.length >> 8);
+                    packet[6] = (byte) data.length;
+                    headerSize = 7;
+                } else {
+                    packet[4] = (byte) seq++;
+                    headerSize = 5;
+                }
+                int length = Math.min(PACKET_SIZE - headerSize, data.length - offset);
+                System.arraycopy(data, offset, packet, headerSize, length);
+                offset += length;
+                received.add(packet);
+            } while (offset < data.length);
+        }
+
+        @Override
+        public void receive(byte[] packet) throws IOException {
+            try {
+                byte[] next = received.poll(5, TimeUnit.SECONDS);
+                if (next == null) {
+                    throw new IOException("No packet to receive");
+                }
+                System.arraycopy(next, 0, packet, 0, PACKET_SIZE);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.internal;
+
+import com.yubico.yubikit.core.util.StringUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+public class LoggerTest {
+
+    @Test
+    public void testHex() {
+        byte[] data = new byte[]{0x00, 0x7f, (byte) 0x80, (byte) 0xff};
+        Assert.assertEquals("00 7f 80 ff ", Logger.hex(data).toString());
+        Assert.assertEquals("7f 80 ", Logger.hex(data, 1, 2).toString());
+        Assert.assertEquals("80 ff ", StringUtils.bytesToHex(data, 2, 2));
+    }
+
+    @Test
+    public void testHexIsLazy() {
+        byte[] data = new byte[]{0x01};
+        Object hex = Logger.hex(data);
+        data[0] = 0x02;
+        Assert.assertEquals("02 ", hex.toString());
+    }
+
+    @Test
+    public void testTraceDisabled() {
+        Assert.assertFalse(Logger.isTraceEnabled(NOPLogger.NOP_LOGGER));
+    }
+}
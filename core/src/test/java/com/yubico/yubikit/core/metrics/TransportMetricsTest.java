@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.metrics;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.application.ApplicationNotAvailableException;
+import com.yubico.yubikit.core.fido.FidoConnection;
+import com.yubico.yubikit.core.fido.FidoProtocol;
+import com.yubico.yubikit.core.smartcard.Apdu;
+import com.yubico.yubikit.core.smartcard.ApduException;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TransportMetricsTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                Assert.assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMin());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.001);
+
+        long p50 = histogram.getValueAtPercentile(50);
+        Assert.assertTrue(p50 >= 500000 && p50 <= 500000 + 500000 / 16);
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmartCardMetrics() throws IOException, ApduException, ApplicationNotAvailableException {
+        HistogramTransportMetrics metrics = new HistogramTransportMetrics();
+        SmartCardProtocol protocol = new SmartCardProtocol(new EchoConnection());
+        protocol.setMetrics(metrics);
+
+        protocol.select(new byte[]{(byte) 0xa0, 0x00, 0x00, 0x03, 0x08});
+        protocol.sendAndReceive(new Apdu(0, 0xcb, 0x3f, 0xff, new byte[]{1, 2, 3}));
+        protocol.sendAndReceive(new Apdu(0, 0xcb, 0x3f, 0xff, new byte[]{1, 2, 3}));
+
+        HistogramTransportMetrics.CommandStats stats = metrics.getStats().get(
+                new HistogramTransportMetrics.CommandKey(Transport.USB, "a000000308", 0xcb));
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(2, stats.getCount());
+        Assert.assertEquals(0, stats.getFailures());
+        Assert.assertEquals(4, stats.getPackets());
+        Assert.assertEquals(2 * 8, stats.getBytesSent());
+        Assert.assertEquals(2 * 5, stats.getBytesReceived());
+        Assert.assertEquals(2, metrics.getStats().size());
+    }
+
+    @Test
+    public void testFidoMetrics() throws IOException {
+        HistogramTransportMetrics metrics = new HistogramTransportMetrics();
+        FidoProtocol protocol = new FidoProtocol(new ShortReplyFidoConnection());
+        protocol.setMetrics(metrics);
+
+        // A payload spanning two packets, answered by a single packet
+        protocol.sendAndReceive((byte) 0x81, new byte[100], null);
+
+        HistogramTransportMetrics.CommandStats stats = metrics.getStats().get(
+                new HistogramTransportMetrics.CommandKey(Transport.USB, TransportMetrics.APPLICATION_FIDO, 0x81));
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(1, stats.getCount());
+        Assert.assertEquals(3, stats.getPackets());
+        Assert.assertEquals(2 * FidoConnection.PACKET_SIZE, stats.getBytesSent());
+        Assert.assertEquals(FidoConnection.PACKET_SIZE, stats.getBytesReceived());
+    }
+
+    private static class EchoConnection implements SmartCardConnection {
+        @Override
+        public byte[] sendAndReceive(byte[] apdu) {
+            int length = apdu.length > 5 ? apdu[4] & 0xff : 0;
+            byte[] response = new byte[length + 2];
+            System.arraycopy(apdu, 5, response, 0, length);
+            response[length] = (byte) 0x90;
+            return response;
+        }
+
+        @Override
+        public Transport getTransport() {
+            return Transport.USB;
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return false;
+        }
+
+        @Override
+        public byte[] getAtr() {
+            return new byte[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /*
+     * Answers INIT, and any other message once fully received with a single byte of the same command.
+     */
+    private static class ShortReplyFidoConnection implements FidoConnection {
+        private final byte[] reply = new byte[PACKET_SIZE];
+        private int remaining;
+
+        @Override
+        public void send(byte[] packet) {
+            if ((packet[4] & 0x80) == 0) {
+                remaining -= PACKET_SIZE - 5;
+            } else if (packet[4] == (byte) 0x86) {
+                System.arraycopy(packet, 0, reply, 0, 15);
+                reply[6] = 17;
+                reply[18] = 1; // Channel ID 0x00000001
+                reply[19] = 2;
+                reply[20] = 5;
+                reply[21] = 7;
+                reply[22] = 2;
+                remaining = 0;
+            } else {
+                Arrays.fill(reply, (byte) 0);
+                System.arraycopy(packet, 0, reply, 0, 5);
+                reply[6] = 1;
+                remaining = (((packet[5] & 0xff) << 8) | (packet[6] & 0xff)) - (PACKET_SIZE - 7);
+            }
+        }
+
+        @Override
+        public void receive(byte[] packet) throws IOException {
+            if (remaining > 0) {
+                throw new IOException("Message not complete");
+            }
+            System.arraycopy(reply, 0, packet, 0, PACKET_SIZE);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
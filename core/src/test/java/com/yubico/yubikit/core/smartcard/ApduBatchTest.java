@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.smartcard;
+
+import com.yubico.yubikit.core.Transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ApduBatchTest {
+
+    @Test
+    public void testFailFast() throws IOException {
+        RecordingConnection connection = new RecordingConnection(0x01);
+        SmartCardProtocol protocol = new SmartCardProtocol(connection);
+        List<ApduResponse> responses = protocol.sendBatch(new ApduBatch(ApduBatch.FailurePolicy.FAIL_FAST)
+                .add(new Apdu(0, 0xdb, 0, 0, new byte[]{0}))
+                .add(new Apdu(0, 0xdb, 0, 1, new byte[]{1}))
+                .add(new Apdu(0, 0xdb, 0, 2, new byte[]{2})));
+
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals(SW.OK, responses.get(0).getSw());
+        Assert.assertEquals(SW.FILE_NOT_FOUND, responses.get(1).getSw());
+        Assert.assertEquals(2, connection.commands.size());
+    }
+
+    @Test
+    public void testContinue() throws IOException {
+        RecordingConnection connection = new RecordingConnection(0x01);
+        SmartCardProtocol protocol = new SmartCardProtocol(connection);
+        List<ApduResponse> responses = protocol.sendBatch(new ApduBatch(ApduBatch.FailurePolicy.CONTINUE)
+                .add(new Apdu(0, 0xdb, 0, 0, new byte[]{0}))
+                .add(new Apdu(0, 0xdb, 0, 1, new byte[]{1}))
+                .add(new Apdu(0, 0xdb, 0, 2, new byte[]{2})));
+
+        Assert.assertEquals(3, responses.size());
+        Assert.assertEquals(SW.FILE_NOT_FOUND, responses.get(1).getSw());
+        Assert.assertEquals(SW.OK, responses.get(2).getSw());
+        Assert.assertArrayEquals(new byte[]{2}, responses.get(2).getData());
+    }
+
+    @Test
+    public void testChainedCommands() throws IOException, ApduException {
+        RecordingConnection connection = new RecordingConnection(-1);
+        SmartCardProtocol protocol = new SmartCardProtocol(connection);
+        byte[] data = new byte[600];
+        List<byte[]> responses = protocol.sendBatch(Arrays.asList(
+                new Apdu(0, 0xdb, 0, 0, data),
+                new Apdu(0, 0xdb, 0, 1, new byte[]{1})));
+
+        Assert.assertEquals(2, responses.size());
+        // 600 bytes are sent as 3 short APDUs, followed by the second command
+        Assert.assertEquals(4, connection.commands.size());
+        Assert.assertEquals(0x10, connection.commands.get(0)[0]);
+        Assert.assertEquals(0x00, connection.commands.get(2)[0]);
+    }
+
+    @Test(expected = ApduException.class)
+    public void testListThrowsOnFailure() throws IOException, ApduException {
+        SmartCardProtocol protocol = new SmartCardProtocol(new RecordingConnection(0x00));
+        protocol.sendBatch(Arrays.asList(
+                new Apdu(0, 0xdb, 0, 0, new byte[]{0}),
+                new Apdu(0, 0xdb, 0, 1, new byte[]{1})));
+    }
+
+    /**
+     * Echoes the data of each command, failing commands with a given P2.
+     */
+    private static class RecordingConnection implements SmartCardConnection {
+        private final List<byte[]> commands = new ArrayList<>();
+        private final int failP2;
+
+        RecordingConnection(int failP2) {
+            this.failP2 = failP2;
+        }
+
+        @Override
+        public byte[] sendAndReceive(byte[] apdu) {
+            commands.add(apdu);
+            if (apdu[3] == failP2) {
+                return new byte[]{0x6a, (byte) 0x82};
+            }
+            byte[] response = Arrays.copyOf(Arrays.copyOfRange(apdu, 5, 5 + (apdu[4] & 0xff)), (apdu[4] & 0xff) + 2);
+            response[response.length - 2] = (byte) 0x90;
+            return response;
+        }
+
+        @Override
+        public Transport getTransport() {
+            return Transport.USB;
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return false;
+        }
+
+        @Override
+        public byte[] getAtr() {
+            return new byte[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.core.smartcard;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.application.BadResponseException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+public class ChainedResponseProcessorTest {
+
+    @Test
+    public void testSingleResponse() throws IOException, BadResponseException {
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(
+                new ChunkedConnection(new byte[]{1, 2, 3}, 256), false, MaxApduSize.NEO, (byte) 0xc0);
+        ApduResponse response = processor.sendApdu(new Apdu(0, 0xcb, 0, 0, null));
+        Assert.assertEquals(SW.OK, response.getSw());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, response.getData());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, (byte) 0x90, 0x00}, response.getBytes());
+    }
+
+    @Test
+    public void testChainedResponse() throws IOException, BadResponseException {
+        byte[] expected = new byte[3000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(
+                new ChunkedConnection(expected, 256), false, MaxApduSize.NEO, (byte) 0xc0);
+        for (int i = 0; i < 2; i++) {
+            ApduResponse response = processor.sendApdu(new Apdu(0, 0xcb, 0, 0, null));
+            Assert.assertEquals(SW.OK, response.getSw());
+            Assert.assertArrayEquals(expected, response.getData());
+            Assert.assertEquals(expected.length, response.getDataBuffer().remaining());
+        }
+    }
+
+    @Test
+    public void testDataBufferIsReadOnlyView() {
+        ApduResponse response = new ApduResponse(new byte[]{1, 2, (byte) 0x90, 0x00});
+        ByteBuffer buffer = response.getDataBuffer();
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(2, buffer.remaining());
+        Assert.assertEquals(1, buffer.get(0));
+        Assert.assertEquals(2, buffer.get(1));
+    }
+
+    @Test
+    public void testExtendedGetResponse() throws IOException, BadResponseException {
+        byte[] expected = new byte[4096];
+        LeConnection connection = new LeConnection(expected, true);
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(connection, true, MaxApduSize.YK4_3, (byte) 0xc0);
+        ApduResponse response = processor.sendApdu(new Apdu(0, 0xcb, 0, 0, null));
+        Assert.assertEquals(SW.OK, response.getSw());
+        Assert.assertEquals(expected.length, response.getDataLength());
+        Assert.assertEquals(2, processor.getLastRoundTrips());
+    }
+
+    @Test
+    public void testShortGetResponseUsesRemainingHint() throws IOException, BadResponseException {
+        byte[] expected = new byte[256 * 3 + 100];
+        LeConnection connection = new LeConnection(expected, false);
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(connection, false, MaxApduSize.NEO, (byte) 0xc0);
+        ApduResponse response = processor.sendApdu(new Apdu(0, 0xcb, 0, 0, null));
+        Assert.assertEquals(expected.length, response.getDataLength());
+        Assert.assertEquals(4, processor.getLastRoundTrips());
+        // The final GET RESPONSE asks for exactly the remaining 100 bytes
+        Assert.assertEquals(100, connection.lastLe);
+    }
+
+    @Test
+    public void testChainedCommand() throws IOException, BadResponseException {
+        byte[] data = new byte[600];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        RecordingConnection connection = new RecordingConnection();
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(connection, false, MaxApduSize.NEO, (byte) 0xc0);
+        processor.sendApdu(new Apdu(0, 0xdb, 0x3f, 0xff, data));
+        Assert.assertEquals(3, connection.frames.size());
+        Assert.assertArrayEquals(processor.processor.formatFrames(new Apdu(0, 0xdb, 0x3f, 0xff, data)).get(1), connection.frames.get(1));
+
+        RecordingConnection streamConnection = new RecordingConnection();
+        processor = new ChainedResponseProcessor(streamConnection, false, MaxApduSize.NEO, (byte) 0xc0);
+        processor.sendStream((byte) 0, (byte) 0xdb, (byte) 0x3f, (byte) 0xff, new ByteArrayInputStream(data), data.length);
+        Assert.assertEquals(3, processor.getLastRoundTrips());
+        for (int i = 0; i < connection.frames.size(); i++) {
+            Assert.assertArrayEquals(connection.frames.get(i), streamConnection.frames.get(i));
+        }
+    }
+
+    @Test
+    public void testChainedCommandStopsOnError() throws IOException, BadResponseException {
+        RecordingConnection connection = new RecordingConnection();
+        connection.sw = SW.SECURITY_CONDITION_NOT_SATISFIED;
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(connection, false, MaxApduSize.NEO, (byte) 0xc0);
+        ApduResponse response = processor.sendApdu(new Apdu(0, 0xdb, 0x3f, 0xff, new byte[1000]));
+        Assert.assertEquals(SW.SECURITY_CONDITION_NOT_SATISFIED, response.getSw());
+        Assert.assertEquals(1, connection.frames.size());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testStreamedCommandEndsEarly() throws IOException, BadResponseException {
+        ChainedResponseProcessor processor = new ChainedResponseProcessor(new RecordingConnection(), false, MaxApduSize.NEO, (byte) 0xc0);
+        processor.sendStream((byte) 0, (byte) 0xdb, (byte) 0x3f, (byte) 0xff, new ByteArrayInputStream(new byte[300]), 600);
+    }
+
+    /**
+     * Records a copy of each frame sent, responding with a fixed SW.
+     */
+    private static class RecordingConnection implements SmartCardConnection {
+        private final List<byte[]> frames = new ArrayList<>();
+        private short sw = SW.OK;
+
+        @Override
+        public byte[] sendAndReceive(byte[] apdu) {
+            frames.add(Arrays.copyOf(apdu, apdu.length));
+            return new byte[]{(byte) (sw >> 8), (byte) sw};
+        }
+
+        @Override
+        public Transport getTransport() {
+            return Transport.USB;
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return false;
+        }
+
+        @Override
+        public byte[] getAtr() {
+            return new byte[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Returns a fixed response, 256 bytes at a time for the initial command, and then as much as
+     * requested by the Le of each GET RESPONSE.
+     */
+    private static class LeConnection implements SmartCardConnection {
+        private final byte[] response;
+        private final boolean extended;
+        private int offset = 0;
+        private int lastLe = -1;
+
+        LeConnection(byte[] response, boolean extended) {
+            this.response = response;
+            this.extended = extended;
+        }
+
+        @Override
+        public byte[] sendAndReceive(byte[] apdu) {
+            int le = 256;
+            if (apdu[1] == (byte) 0xc0) {
+                if (apdu.length == 5) {
+                    le = apdu[4] == 0 ? 256 : apdu[4] & 0xff;
+                } else if (apdu.length == 7) {
+                    le = ((apdu[5] & 0xff) << 8) | (apdu[6] & 0xff);
+                    le = le == 0 ? 0x10000 : le;
+                }
+                lastLe = le;
+            }
+            int length = Math.min(le, response.length - offset);
+            byte[] chunk = Arrays.copyOf(Arrays.copyOfRange(response, offset, offset + length), length + 2);
+            offset += length;
+            int remaining = response.length - offset;
+            if (remaining > 0) {
+                chunk[length] = 0x61;
+                chunk[length + 1] = (byte) (remaining > 0xff ? 0 : remaining);
+            } else {
+                chunk[length] = (byte) 0x90;
+            }
+            return chunk;
+        }
+
+        @Override
+        public Transport getTransport() {
+            return Transport.USB;
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return extended;
+        }
+
+        @Override
+        public byte[] getAtr() {
+            return new byte[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Returns a fixed response split into chunks, signalling remaining data with SW1=0x61.
+     */
+    private static class ChunkedConnection implements SmartCardConnection {
+        private final Queue<byte[]> chunks = new ArrayDeque<>();
+        private final byte[] response;
+        private final int chunkSize;
+
+        ChunkedConnection(byte[] response, int chunkSize) {
+            this.response = response;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public byte[] sendAndReceive(byte[] apdu) {
+            if (chunks.isEmpty()) {
+                for (int offset = 0; offset < response.length; offset += chunkSize) {
+                    int end = Math.min(offset + chunkSize, response.length);
+                    byte[] chunk = Arrays.copyOf(Arrays.copyOfRange(response, offset, end), end - offset + 2);
+                    int remaining = response.length - end;
+                    if (remaining > 0) {
+                        chunk[chunk.length - 2] = 0x61;
+                        chunk[chunk.length - 1] = (byte) Math.min(remaining, 0xff);
+                    } else {
+                        chunk[chunk.length - 2] = (byte) 0x90;
+                    }
+                    chunks.add(chunk);
+                }
+            }
+            return chunks.remove();
+        }
+
+        @Override
+        public Transport getTransport() {
+            return Transport.USB;
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return false;
+        }
+
+        @Override
+        public byte[] getAtr() {
+            return new byte[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
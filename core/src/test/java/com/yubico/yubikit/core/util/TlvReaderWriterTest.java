@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yubico.yubikit.core.util;
+
+import com.yubico.yubikit.core.application.BadResponseException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class TlvReaderWriterTest {
+    @Test
+    public void testWriterMatchesTlv() {
+        for (int length : new int[]{0, 1, 0x7f, 0x80, 0xff, 0x100, 0x10000}) {
+            byte[] value = new byte[length];
+            for (int tag : new int[]{0x01, 0x80, 0x7F49, 0x5FC105}) {
+                Assert.assertArrayEquals(
+                        new Tlv(tag, value).getBytes(),
+                        new TlvWriter().put(tag, value).toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testByteCastTag() {
+        Assert.assertArrayEquals(new byte[]{(byte) 0xac, 1, 0}, new Tlv((byte) 0xac, new byte[1]).getBytes());
+        Assert.assertArrayEquals(new byte[]{(byte) 0xff, 0}, new TlvWriter().put((byte) 0xff, null).toByteArray());
+    }
+
+    @Test
+    public void testNested() {
+        byte[] inner = new byte[300];
+        Arrays.fill(inner, (byte) 0x55);
+        byte[] expected = Tlvs.encodeList(Arrays.asList(
+                new Tlv(0xA6, Tlvs.encodeList(Arrays.asList(
+                        new Tlv(0x90, new byte[]{0x11, 0x00}),
+                        new Tlv(0x95, inner)
+                ))),
+                new Tlv(0x5F49, new byte[]{1, 2, 3})
+        ));
+
+        byte[] encoded = new TlvWriter(16)
+                .begin(0xA6)
+                .put(0x90, new byte[]{0x11, 0x00})
+                .put(0x95, inner)
+                .end()
+                .put(0x5F49, new byte[]{1, 2, 3})
+                .toByteArray();
+        Assert.assertArrayEquals(expected, encoded);
+    }
+
+    @Test
+    public void testHeader() {
+        byte[] value = new byte[300];
+        byte[] header = new TlvWriter().putHeader(0x53, value.length).toByteArray();
+        Assert.assertArrayEquals(new byte[]{0x53, (byte) 0x82, 0x01, 0x2c}, header);
+        Assert.assertArrayEquals(
+                new TlvWriter().put(0x53, value).toByteArray(),
+                new TlvWriter().putHeader(0x53, value.length).putRaw(value).toByteArray());
+    }
+
+    @Test
+    public void testReader() throws BadResponseException {
+        byte[] encoded = new TlvWriter()
+                .begin(0xA6)
+                .put(0x90, new byte[]{0x11, 0x00})
+                .end()
+                .put(0x5F49, new byte[]{1, 2, 3})
+                .put(0x02, new byte[]{0x01, 0x00})
+                .toByteArray();
+
+        TlvReader reader = new TlvReader(encoded);
+        TlvReader nested = reader.expect(0xA6).nested();
+        Assert.assertEquals(0x90, nested.next());
+        Assert.assertArrayEquals(new byte[]{0x11, 0x00}, nested.getValueBytes());
+        Assert.assertFalse(nested.hasNext());
+
+        Assert.assertEquals(0x5F49, reader.next());
+        Assert.assertEquals(3, reader.getLength());
+        ByteBuffer value = reader.getValue();
+        Assert.assertEquals(3, value.remaining());
+        Assert.assertEquals(2, value.get(1));
+        Assert.assertArrayEquals(new byte[]{0x5F, 0x49, 3, 1, 2, 3}, reader.getBytes());
+        Assert.assertSame(encoded, reader.getArray());
+
+        Assert.assertTrue(reader.find(0x02));
+        Assert.assertEquals(0x100, reader.getValueInt());
+        Assert.assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = BadResponseException.class)
+    public void testReaderUnexpectedTag() throws BadResponseException {
+        new TlvReader(new byte[]{(byte) 0x80, 0}).expect(0x81);
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void testReaderTruncated() {
+        new TlvReader(new byte[]{(byte) 0x80, 2, 0}).next();
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Pull parser of CBOR encoded data items.
+ * <p>
+ * The reader does not copy the underlying data unless asked to. Definite length byte strings can be read as
+ * read-only views of the underlying buffer using {@link #readByteBuffer()}, and any item which is not of
+ * interest can be skipped with {@link #skip()}, without decoding it.
+ * <p>
+ * All major types are supported, including 64 bit integers, floats, tags and indefinite length items.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * CborReader reader = new CborReader(response);
+ * for (int i = reader.readMapHeader(); i > 0; i--) {
+ *     switch (reader.readInt()) {
+ *         case 0x01:
+ *             versions = reader.readValue();
+ *             break;
+ *         case 0x03:
+ *             aaguid = reader.readBytes();
+ *             break;
+ *         default:
+ *             reader.skip();
+ *     }
+ * }
+ * }</pre>
+ */
+public class CborReader {
+    /**
+     * The type of a CBOR data item.
+     */
+    public enum Type {
+        UNSIGNED_INTEGER,
+        NEGATIVE_INTEGER,
+        BYTE_STRING,
+        TEXT_STRING,
+        ARRAY,
+        MAP,
+        TAG,
+        SIMPLE,
+        FLOAT,
+        BREAK
+    }
+
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a reader over the remaining bytes of a buffer. Reading advances the position of the buffer.
+     *
+     * @param buffer a buffer holding the CBOR encoded data
+     */
+    public CborReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a reader over a range of a byte array.
+     *
+     * @param data   the CBOR encoded data
+     * @param offset the offset in data where the first data item begins
+     * @param length the length of the CBOR encoded data
+     */
+    public CborReader(byte[] data, int offset, int length) {
+        this(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Creates a reader over a byte array.
+     *
+     * @param data the CBOR encoded data (and nothing more)
+     */
+    public CborReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Returns true if there is at least one more byte to read.
+     */
+    public boolean hasNext() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Returns the type of the next data item, without consuming it.
+     *
+     * @throws BufferUnderflowException if there is no more data
+     */
+    public Type peekType() {
+        int head = peekHead();
+        switch (head >> 5) {
+            case 0:
+                return Type.UNSIGNED_INTEGER;
+            case 1:
+                return Type.NEGATIVE_INTEGER;
+            case 2:
+                return Type.BYTE_STRING;
+            case 3:
+                return Type.TEXT_STRING;
+            case 4:
+                return Type.ARRAY;
+            case 5:
+                return Type.MAP;
+            case 6:
+                return Type.TAG;
+            default:
+                int info = head & 0x1f;
+                if (info == INDEFINITE) {
+                    return Type.BREAK;
+                }
+                return info >= 25 && info <= 27 ? Type.FLOAT : Type.SIMPLE;
+        }
+    }
+
+    /**
+     * Reads an integer which fits in an int.
+     *
+     * @throws IllegalArgumentException if the next item is not an integer, or does not fit in an int
+     */
+    public int readInt() {
+        long value = readLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported integer size");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads an integer which fits in a long.
+     *
+     * @throws IllegalArgumentException if the next item is not an integer, or does not fit in a long
+     */
+    public long readLong() {
+        int head = readHead();
+        int majorType = head >> 5;
+        if (majorType > 1) {
+            throw new IllegalArgumentException("Expected an integer");
+        }
+        long argument = readArgument(head);
+        if (argument < 0) {
+            throw new IllegalArgumentException("Unsupported integer size");
+        }
+        return majorType == 0 ? argument : -1 - argument;
+    }
+
+    /**
+     * Reads an integer of any size supported by CBOR, from -2^64 to 2^64-1.
+     *
+     * @throws IllegalArgumentException if the next item is not an integer
+     */
+    public BigInteger readBigInteger() {
+        int head = readHead();
+        int majorType = head >> 5;
+        if (majorType > 1) {
+            throw new IllegalArgumentException("Expected an integer");
+        }
+        BigInteger argument = toUnsigned(readArgument(head));
+        return majorType == 0 ? argument : argument.negate().subtract(BigInteger.ONE);
+    }
+
+    /**
+     * Reads a byte string into a new array, joining the chunks of an indefinite length string.
+     *
+     * @throws IllegalArgumentException if the next item is not a byte string
+     */
+    public byte[] readBytes() {
+        ByteBuffer value = readByteBuffer();
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a byte string as a read-only view of the underlying data. Indefinite length strings are joined
+     * into a new buffer.
+     *
+     * @throws IllegalArgumentException if the next item is not a byte string
+     */
+    public ByteBuffer readByteBuffer() {
+        return readString(2).asReadOnlyBuffer();
+    }
+
+    /**
+     * Reads a text string.
+     *
+     * @throws IllegalArgumentException if the next item is not a text string
+     */
+    public String readText() {
+        ByteBuffer utf8 = readString(3);
+        if (utf8.hasArray()) {
+            return new String(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining(), StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[utf8.remaining()];
+        utf8.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a boolean.
+     *
+     * @throws IllegalArgumentException if the next item is not a boolean
+     */
+    public boolean readBoolean() {
+        int head = readHead();
+        if (head == 0xf4) {
+            return false;
+        } else if (head == 0xf5) {
+            return true;
+        }
+        throw new IllegalArgumentException("Expected a boolean");
+    }
+
+    /**
+     * Reads a null value, if the next item is one.
+     *
+     * @return true if a null or undefined value was read, false if the next item is something else
+     */
+    public boolean readNull() {
+        int head = peekHead();
+        if (head == 0xf6 || head == 0xf7) {
+            buffer.get();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a simple value, other than a float or a break.
+     *
+     * @return the simple value
+     * @throws IllegalArgumentException if the next item is not a simple value
+     */
+    public int readSimple() {
+        int head = readHead();
+        int info = head & 0x1f;
+        if (head >> 5 != 7 || info > 24) {
+            throw new IllegalArgumentException("Expected a simple value");
+        }
+        return (int) readArgument(head);
+    }
+
+    /**
+     * Reads a floating point number, of half, single or double precision.
+     *
+     * @throws IllegalArgumentException if the next item is not a float
+     */
+    public double readDouble() {
+        int head = readHead();
+        switch (head) {
+            case 0xf9:
+                return fromHalf(buffer.getShort() & 0xffff);
+            case 0xfa:
+                return buffer.getFloat();
+            case 0xfb:
+                return buffer.getDouble();
+            default:
+                throw new IllegalArgumentException("Expected a float");
+        }
+    }
+
+    /**
+     * Reads a tag. The tagged data item follows.
+     *
+     * @return the tag number, as an unsigned 64 bit integer
+     * @throws IllegalArgumentException if the next item is not a tag
+     */
+    public long readTag() {
+        return readArgument(readHead(6));
+    }
+
+    /**
+     * Reads the header of an array.
+     *
+     * @return the number of items in the array, or -1 if it is of indefinite length, in which case the items
+     * are followed by a break, see {@link #readBreak()}
+     * @throws IllegalArgumentException if the next item is not an array
+     */
+    public int readArrayHeader() {
+        return readLength(readHead(4));
+    }
+
+    /**
+     * Reads the header of a map.
+     *
+     * @return the number of entries in the map, or -1 if it is of indefinite length, in which case the entries
+     * are followed by a break, see {@link #readBreak()}
+     * @throws IllegalArgumentException if the next item is not a map
+     */
+    public int readMapHeader() {
+        return readLength(readHead(5));
+    }
+
+    /**
+     * Reads the break ending an indefinite length item, if it is next.
+     *
+     * @return true if a break was read, false if the next item is something else
+     */
+    public boolean readBreak() {
+        if (peekHead() == BREAK) {
+            buffer.get();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips the next data item, including all items it contains, without decoding it.
+     */
+    public void skip() {
+        int head = readHead();
+        int majorType = head >> 5;
+        switch (majorType) {
+            case 2:
+            case 3:
+                if ((head & 0x1f) == INDEFINITE) {
+                    while (!readBreak()) {
+                        skip();
+                    }
+                } else {
+                    skipBytes(readArgument(head));
+                }
+                break;
+            case 4:
+            case 5:
+                int items = majorType == 4 ? 1 : 2;
+                if ((head & 0x1f) == INDEFINITE) {
+                    while (!readBreak()) {
+                        skip();
+                    }
+                } else {
+                    for (long i = readArgument(head) * items; i > 0; i--) {
+                        skip();
+                    }
+                }
+                break;
+            case 6:
+                readArgument(head);
+                skip();
+                break;
+            default:
+                if (head == BREAK) {
+                    throw new IllegalArgumentException("Unexpected break");
+                }
+                readArgument(head);
+        }
+    }
+
+    /**
+     * Reads the next data item as an Object.
+     * <p>
+     * Integers are read as Integer if they fit, or otherwise as Long or BigInteger. Floats are read as Double,
+     * byte strings as byte[], text strings as String, arrays as List and maps as Map. Booleans are read as
+     * Boolean, and null and undefined as null. Tags are dropped, returning the tagged item.
+     *
+     * @throws IllegalArgumentException if the data contains an unsupported simple value
+     */
+    @Nullable
+    public Object readValue() {
+        switch (peekType()) {
+            case UNSIGNED_INTEGER:
+            case NEGATIVE_INTEGER:
+                return readInteger();
+            case BYTE_STRING:
+                return readBytes();
+            case TEXT_STRING:
+                return readText();
+            case ARRAY:
+                return readList();
+            case MAP:
+                return readMap();
+            case TAG:
+                readTag();
+                return readValue();
+            case FLOAT:
+                return readDouble();
+            case BREAK:
+                throw new IllegalArgumentException("Unexpected break");
+            default:
+                if (readNull()) {
+                    return null;
+                }
+                int head = peekHead();
+                if (head == 0xf4 || head == 0xf5) {
+                    return readBoolean();
+                }
+                throw new IllegalArgumentException("Unsupported simple type: " + (head & 0x1f));
+        }
+    }
+
+    private Object readInteger() {
+        if ((peekHead() & 0x1f) < 27) {
+            return narrow(readLong());
+        }
+        BigInteger value = readBigInteger();
+        if (value.bitLength() < 64) {
+            return narrow(value.longValue());
+        }
+        return value;
+    }
+
+    private static Object narrow(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    private List<Object> readList() {
+        int length = readArrayHeader();
+        List<Object> list = new ArrayList<>(Math.max(length, 0));
+        if (length < 0) {
+            while (!readBreak()) {
+                list.add(readValue());
+            }
+        } else {
+            for (int i = length; i > 0; i--) {
+                list.add(readValue());
+            }
+        }
+        return list;
+    }
+
+    private Map<Object, Object> readMap() {
+        int length = readMapHeader();
+        Map<Object, Object> map = new HashMap<>();
+        if (length < 0) {
+            while (!readBreak()) {
+                map.put(readValue(), readValue());
+            }
+        } else {
+            for (int i = length; i > 0; i--) {
+                map.put(readValue(), readValue());
+            }
+        }
+        return map;
+    }
+
+    /*
+     * Reads a byte or text string, as a view of the underlying data if possible.
+     */
+    private ByteBuffer readString(int majorType) {
+        int head = readHead(majorType);
+        if ((head & 0x1f) != INDEFINITE) {
+            int length = readLength(head);
+            if (length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            ByteBuffer value = buffer.slice();
+            value.limit(length);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        while (!readBreak()) {
+            ByteBuffer chunk = readString(majorType);
+            if (chunk.hasArray()) {
+                joined.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            } else {
+                while (chunk.hasRemaining()) {
+                    joined.write(chunk.get());
+                }
+            }
+        }
+        return ByteBuffer.wrap(joined.toByteArray());
+    }
+
+    private int peekHead() {
+        if (!buffer.hasRemaining()) {
+            throw new BufferUnderflowException();
+        }
+        return buffer.get(buffer.position()) & 0xff;
+    }
+
+    private int readHead() {
+        return buffer.get() & 0xff;
+    }
+
+    private int readHead(int majorType) {
+        int head = peekHead();
+        if (head >> 5 != majorType) {
+            throw new IllegalArgumentException("Unexpected major type " + (head >> 5) + ", expected " + majorType);
+        }
+        return readHead();
+    }
+
+    private int readLength(int head) {
+        if ((head & 0x1f) == INDEFINITE) {
+            return -1;
+        }
+        long length = readArgument(head);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported length");
+        }
+        return (int) length;
+    }
+
+    /*
+     * Reads the argument of a data item, as an unsigned 64 bit integer.
+     */
+    private long readArgument(int head) {
+        int info = head & 0x1f;
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return buffer.get() & 0xff;
+            case 25:
+                return buffer.getShort() & 0xffff;
+            case 26:
+                return buffer.getInt() & 0xffffffffL;
+            case 27:
+                return buffer.getLong();
+            default:
+                throw new IllegalArgumentException("Unsupported additional information: " + info);
+        }
+    }
+
+    private void skipBytes(long length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + (int) length);
+    }
+
+    private static BigInteger toUnsigned(long value) {
+        BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return value < 0 ? result.setBit(63) : result;
+    }
+
+    private static double fromHalf(int half) {
+        int exponent = (half >> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent == 0x1f) {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Streaming CBOR encoder, writing data items into a growable buffer.
+ * <p>
+ * All major types are supported: unsigned and negative integers of the full 64 bit range, byte and text
+ * strings, arrays, maps, tags, floats and simple values. Integers, lengths and floats are always written
+ * in their shortest form. The entries of definite length maps are sorted into CTAP2 canonical order when
+ * the map is ended, using a single scratch buffer, so that callers may write entries in any order.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * byte[] data = new CborWriter()
+ *         .beginMap(2)
+ *         .writeInt(0x02).writeText("example.com")
+ *         .writeInt(0x01).writeBytes(clientDataHash)
+ *         .endMap()
+ *         .toByteArray();
+ * }</pre>
+ */
+public class CborWriter {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int INDEFINITE = 31;
+    private static final byte BREAK = (byte) 0xff;
+
+    private static final BigInteger UINT64_LIMIT = BigInteger.ONE.shiftLeft(64);
+
+    private byte[] buffer;
+    private int size = 0;
+
+    // Used to reorder map entries, grown as needed
+    private byte[] scratch = new byte[0];
+    private int[] order = new int[8];
+
+    // The start offset of each item written into an open container, for all open containers
+    private int[] itemOffsets = new int[16];
+    private int itemCount = 0;
+
+    // For each open container: its major type, expected item count (-1 if indefinite), and first item index
+    private int[] containerTypes = new int[8];
+    private long[] containerSizes = new long[8];
+    private int[] containerBases = new int[8];
+    private int depth = 0;
+
+    // The offset of the first of a sequence of tags, which becomes the start of the tagged item
+    private int pendingTagOffset = -1;
+
+    /**
+     * Creates a new writer with a default initial capacity.
+     */
+    public CborWriter() {
+        this(64);
+    }
+
+    /**
+     * Creates a new writer.
+     *
+     * @param initialCapacity the initial size of the buffer, in bytes.
+     */
+    public CborWriter(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Writes a signed integer.
+     *
+     * @param value the value
+     * @return this writer
+     */
+    public CborWriter writeInt(long value) {
+        beginItem();
+        if (value < 0) {
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        } else {
+            writeHead(MAJOR_UNSIGNED, value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an unsigned integer, interpreting all 64 bits of the value as unsigned.
+     *
+     * @param value the value, as an unsigned 64 bit integer
+     * @return this writer
+     */
+    public CborWriter writeUnsignedInt(long value) {
+        beginItem();
+        writeHead(MAJOR_UNSIGNED, value);
+        return this;
+    }
+
+    /**
+     * Writes an integer in the range supported by CBOR, -2^64 to 2^64-1.
+     *
+     * @param value the value
+     * @return this writer
+     * @throws IllegalArgumentException if the value is out of range
+     */
+    public CborWriter writeInt(BigInteger value) {
+        boolean negative = value.signum() < 0;
+        BigInteger magnitude = negative ? value.negate().subtract(BigInteger.ONE) : value;
+        if (magnitude.compareTo(UINT64_LIMIT) >= 0) {
+            throw new IllegalArgumentException("Integer out of range for CBOR");
+        }
+        beginItem();
+        writeHead(negative ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, magnitude.longValue());
+        return this;
+    }
+
+    /**
+     * Writes a byte string.
+     *
+     * @param value the value
+     * @return this writer
+     */
+    public CborWriter writeBytes(byte[] value) {
+        return writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * Writes a byte string taken from a range of a byte array.
+     *
+     * @param value  an array holding the value
+     * @param offset the offset in value where the value begins
+     * @param length the length of the value
+     * @return this writer
+     */
+    public CborWriter writeBytes(byte[] value, int offset, int length) {
+        beginItem();
+        writeHead(MAJOR_BYTES, length);
+        ensureCapacity(length);
+        System.arraycopy(value, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer as a byte string, without modifying its position.
+     *
+     * @param value the value
+     * @return this writer
+     */
+    public CborWriter writeBytes(ByteBuffer value) {
+        int length = value.remaining();
+        beginItem();
+        writeHead(MAJOR_BYTES, length);
+        ensureCapacity(length);
+        value.duplicate().get(buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Writes a text string.
+     *
+     * @param value the value
+     * @return this writer
+     */
+    public CborWriter writeText(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        beginItem();
+        writeHead(MAJOR_TEXT, utf8.length);
+        ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, buffer, size, utf8.length);
+        size += utf8.length;
+        return this;
+    }
+
+    /**
+     * Writes a boolean.
+     *
+     * @param value the value
+     * @return this writer
+     */
+    public CborWriter writeBoolean(boolean value) {
+        return writeSimple(value ? 21 : 20);
+    }
+
+    /**
+     * Writes a null value.
+     *
+     * @return this writer
+     */
+    public CborWriter writeNull() {
+        return writeSimple(22);
+    }
+
+    /**
+     * Writes a simple value.
+     *
+     * @param value the simple value, between 0 and 19, or between 32 and 255
+     * @return this writer
+     */
+    public CborWriter writeSimple(int value) {
+        if (value < 0 || value > 255 || (value > 23 && value < 32)) {
+            throw new IllegalArgumentException("Invalid simple value: " + value);
+        }
+        beginItem();
+        writeHead(MAJOR_SIMPLE, value);
+        return this;
+    }
+
+    /**
+     * Writes a floating point number, in the shortest of the half, single and double precision forms which
+     * preserves its value.
+     *
+     * @param value the value
+     * @return this writer
+     */
+    public CborWriter writeDouble(double value) {
+        beginItem();
+        float single = (float) value;
+        if (single == value || Double.isNaN(value)) {
+            int half = toHalf(single);
+            if (half >= 0) {
+                ensureCapacity(3);
+                buffer[size++] = (byte) (MAJOR_SIMPLE << 5 | 25);
+                writeBigEndian(half, 2);
+            } else {
+                ensureCapacity(5);
+                buffer[size++] = (byte) (MAJOR_SIMPLE << 5 | 26);
+                writeBigEndian(Float.floatToIntBits(single), 4);
+            }
+        } else {
+            ensureCapacity(9);
+            buffer[size++] = (byte) (MAJOR_SIMPLE << 5 | 27);
+            writeBigEndian(Double.doubleToLongBits(value), 8);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a tag, which applies to the next data item written.
+     *
+     * @param tag the tag number, as an unsigned 64 bit integer
+     * @return this writer
+     */
+    public CborWriter writeTag(long tag) {
+        if (pendingTagOffset < 0) {
+            pendingTagOffset = size;
+        }
+        writeHead(MAJOR_TAG, tag);
+        return this;
+    }
+
+    /**
+     * Starts an array of the given size. Exactly that many items must be written before calling {@link #endArray()}.
+     *
+     * @param length the number of items in the array
+     * @return this writer
+     */
+    public CborWriter beginArray(int length) {
+        beginItem();
+        writeHead(MAJOR_ARRAY, length);
+        openContainer(MAJOR_ARRAY, length);
+        return this;
+    }
+
+    /**
+     * Starts an array of indefinite length, terminated by {@link #endArray()}.
+     *
+     * @return this writer
+     */
+    public CborWriter beginIndefiniteArray() {
+        beginItem();
+        writeIndefiniteHead(MAJOR_ARRAY);
+        openContainer(MAJOR_ARRAY, -1);
+        return this;
+    }
+
+    /**
+     * Ends the array started by the latest call to {@link #beginArray(int)} or {@link #beginIndefiniteArray()}.
+     *
+     * @return this writer
+     */
+    public CborWriter endArray() {
+        closeContainer(MAJOR_ARRAY);
+        return this;
+    }
+
+    /**
+     * Starts a map with the given number of entries. Exactly that many keys and values must be written, in
+     * any order of keys, before calling {@link #endMap()}.
+     *
+     * @param length the number of entries in the map
+     * @return this writer
+     */
+    public CborWriter beginMap(int length) {
+        beginItem();
+        writeHead(MAJOR_MAP, length);
+        openContainer(MAJOR_MAP, 2L * length);
+        return this;
+    }
+
+    /**
+     * Starts a map of indefinite length, terminated by {@link #endMap()}. As such maps are not canonical, their
+     * entries are kept in the order they were written.
+     *
+     * @return this writer
+     */
+    public CborWriter beginIndefiniteMap() {
+        beginItem();
+        writeIndefiniteHead(MAJOR_MAP);
+        openContainer(MAJOR_MAP, -1);
+        return this;
+    }
+
+    /**
+     * Ends the map started by the latest call to {@link #beginMap(int)} or {@link #beginIndefiniteMap()},
+     * sorting its entries into canonical order if it is of definite length.
+     *
+     * @return this writer
+     */
+    public CborWriter endMap() {
+        int base = containerBases[depth - 1];
+        boolean definite = containerSizes[depth - 1] >= 0;
+        if (definite) {
+            sortEntries(base, itemCount - base);
+        }
+        closeContainer(MAJOR_MAP);
+        return this;
+    }
+
+    /**
+     * Writes an Object, which may be an Integer, Long, Short, Byte, BigInteger, Float, Double, Boolean, byte[],
+     * ByteBuffer, String, List or Map of supported objects, or null.
+     *
+     * @param value the value to write
+     * @return this writer
+     * @throws IllegalArgumentException if the value, or any object it contains, is of an unsupported type
+     */
+    public CborWriter writeValue(@Nullable Object value) {
+        if (value == null) {
+            writeNull();
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeInt(((Number) value).longValue());
+        } else if (value instanceof BigInteger) {
+            writeInt((BigInteger) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            writeInt(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            writeBytes((byte[]) value);
+        } else if (value instanceof ByteBuffer) {
+            writeBytes((ByteBuffer) value);
+        } else if (value instanceof String) {
+            writeText((String) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            beginArray(list.size());
+            for (Object item : list) {
+                writeValue(item);
+            }
+            endArray();
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            beginMap(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+            endMap();
+        } else {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Unsupported object type: %s", value.getClass()));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Discards all written data, keeping the allocated buffers for reuse.
+     */
+    public void reset() {
+        Arrays.fill(buffer, 0, size, (byte) 0);
+        size = 0;
+        itemCount = 0;
+        depth = 0;
+        pendingTagOffset = -1;
+    }
+
+    /**
+     * Returns a copy of the encoded data.
+     *
+     * @throws IllegalStateException if an array or map has not been ended
+     */
+    public byte[] toByteArray() {
+        return toByteArray(0);
+    }
+
+    /**
+     * Returns a copy of the encoded data, preceded by the given number of zero bytes, to be filled in
+     * by the caller. This avoids an extra copy when the data is sent after a command header.
+     *
+     * @param headerLength the number of bytes to reserve before the data
+     * @throws IllegalStateException if an array or map has not been ended
+     */
+    public byte[] toByteArray(int headerLength) {
+        if (depth != 0 || pendingTagOffset >= 0) {
+            throw new IllegalStateException("Data item has not been completed");
+        }
+        byte[] data = new byte[headerLength + size];
+        System.arraycopy(buffer, 0, data, headerLength, size);
+        return data;
+    }
+
+    /**
+     * Writes the encoded data to a stream.
+     *
+     * @param stream the stream to write to
+     * @throws IOException           if writing to the stream fails
+     * @throws IllegalStateException if an array or map has not been ended
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        if (depth != 0 || pendingTagOffset >= 0) {
+            throw new IllegalStateException("Data item has not been completed");
+        }
+        stream.write(buffer, 0, size);
+    }
+
+    private void beginItem() {
+        int offset = pendingTagOffset >= 0 ? pendingTagOffset : size;
+        pendingTagOffset = -1;
+        if (depth > 0) {
+            if (itemCount == itemOffsets.length) {
+                itemOffsets = Arrays.copyOf(itemOffsets, itemCount * 2);
+            }
+            itemOffsets[itemCount++] = offset;
+        }
+    }
+
+    private void openContainer(int majorType, long length) {
+        if (depth == containerTypes.length) {
+            containerTypes = Arrays.copyOf(containerTypes, depth * 2);
+            containerSizes = Arrays.copyOf(containerSizes, depth * 2);
+            containerBases = Arrays.copyOf(containerBases, depth * 2);
+        }
+        containerTypes[depth] = majorType;
+        containerSizes[depth] = length;
+        containerBases[depth] = itemCount;
+        depth++;
+    }
+
+    private void closeContainer(int majorType) {
+        if (depth == 0 || containerTypes[depth - 1] != majorType) {
+            throw new IllegalStateException(majorType == MAJOR_MAP ? "No map to end" : "No array to end");
+        }
+        if (pendingTagOffset >= 0) {
+            throw new IllegalStateException("Tag is not followed by a data item");
+        }
+        depth--;
+        int written = itemCount - containerBases[depth];
+        long expected = containerSizes[depth];
+        if (expected < 0) {
+            if (majorType == MAJOR_MAP && written % 2 != 0) {
+                throw new IllegalStateException("Map has a key without a value");
+            }
+            ensureCapacity(1);
+            buffer[size++] = BREAK;
+        } else if (written != expected) {
+            throw new IllegalStateException("Expected " + expected + " items, but " + written + " were written");
+        }
+        itemCount = containerBases[depth];
+    }
+
+    /*
+     * Sorts the entries of a map in place by their encoded keys, which correspond to the CTAP2 canonical order:
+     * https://fidoalliance.org/specs/fido-v2.0-ps-20190130/fido-client-to-authenticator-protocol-v2.0-ps-20190130.html#ctap2-canonical-cbor-encoding-form
+     */
+    private void sortEntries(int base, int items) {
+        int entries = items / 2;
+        if (entries < 2) {
+            return;
+        }
+        if (order.length < entries) {
+            order = new int[Math.max(entries, order.length * 2)];
+        }
+        boolean sorted = true;
+        for (int i = 0; i < entries; i++) {
+            // Insertion sort, as maps are small and usually close to sorted
+            int j = i;
+            while (j > 0 && compareKeys(base, order[j - 1], i) > 0) {
+                order[j] = order[j - 1];
+                j--;
+                sorted = false;
+            }
+            order[j] = i;
+        }
+        if (sorted) {
+            return;
+        }
+
+        int start = itemOffsets[base];
+        int length = size - start;
+        if (scratch.length < length) {
+            Arrays.fill(scratch, (byte) 0);
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        int position = 0;
+        for (int i = 0; i < entries; i++) {
+            int entry = order[i];
+            int entryStart = itemOffsets[base + 2 * entry];
+            int entryEnd = entryEnd(base, entry);
+            System.arraycopy(buffer, entryStart, scratch, position, entryEnd - entryStart);
+            position += entryEnd - entryStart;
+        }
+        System.arraycopy(scratch, 0, buffer, start, length);
+        Arrays.fill(scratch, 0, length, (byte) 0);
+    }
+
+    private int entryEnd(int base, int entry) {
+        int next = base + 2 * entry + 2;
+        return next < itemCount ? itemOffsets[next] : size;
+    }
+
+    private int compareKeys(int base, int entry1, int entry2) {
+        int start1 = itemOffsets[base + 2 * entry1];
+        int end1 = itemOffsets[base + 2 * entry1 + 1];
+        int start2 = itemOffsets[base + 2 * entry2];
+        int end2 = itemOffsets[base + 2 * entry2 + 1];
+        int minLength = Math.min(end1 - start1, end2 - start2);
+        for (int i = 0; i < minLength; i++) {
+            int a = 0xff & buffer[start1 + i];
+            int b = 0xff & buffer[start2 + i];
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return (end1 - start1) - (end2 - start2);
+    }
+
+    /*
+     * Writes the initial byte and argument of a data item, treating the argument as unsigned.
+     */
+    private void writeHead(int majorType, long argument) {
+        ensureCapacity(9);
+        int head = majorType << 5;
+        if (argument >= 0 && argument <= 23) {
+            buffer[size++] = (byte) (head | argument);
+        } else if (argument >= 0 && argument <= 0xff) {
+            buffer[size++] = (byte) (head | 24);
+            buffer[size++] = (byte) argument;
+        } else if (argument >= 0 && argument <= 0xffff) {
+            buffer[size++] = (byte) (head | 25);
+            writeBigEndian(argument, 2);
+        } else if (argument >= 0 && argument <= 0xffffffffL) {
+            buffer[size++] = (byte) (head | 26);
+            writeBigEndian(argument, 4);
+        } else {
+            buffer[size++] = (byte) (head | 27);
+            writeBigEndian(argument, 8);
+        }
+    }
+
+    private void writeIndefiniteHead(int majorType) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) (majorType << 5 | INDEFINITE);
+    }
+
+    private void writeBigEndian(long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            buffer[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /*
+     * Returns the IEEE 754 half precision encoding of the value, or -1 if it cannot be represented exactly.
+     */
+    private static int toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) {
+            // Infinity, or canonical NaN
+            return sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0);
+        }
+        if (exponent == 0 && mantissa == 0) {
+            return sign;
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            return -1;
+        }
+        if (halfExponent > 0) {
+            if ((mantissa & 0x1fff) != 0) {
+                return -1;
+            }
+            return sign | halfExponent << 10 | mantissa >>> 13;
+        }
+        // Subnormal half precision, the implicit leading bit becomes explicit
+        int shift = 14 - halfExponent;
+        if (shift > 24) {
+            return -1;
+        }
+        int fullMantissa = mantissa | 0x800000;
+        if ((fullMantissa & ((1 << shift) - 1)) != 0) {
+            return -1;
+        }
+        return sign | fullMantissa >>> shift;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer.length - size < extra) {
+            int capacity = buffer.length;
+            while (capacity - size < extra) {
+                capacity *= 2;
+            }
+            byte[] grown = Arrays.copyOf(buffer, capacity);
+            Arrays.fill(buffer, (byte) 0);
+            buffer = grown;
+        }
+    }
+}
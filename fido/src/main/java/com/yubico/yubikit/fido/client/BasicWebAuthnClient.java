@@ -19,6 +19,10 @@ package com.yubico.yubikit.fido.client;
 import com.yubico.yubikit.core.application.CommandException;
 import com.yubico.yubikit.core.application.CommandState;
 import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.core.internal.Logger;
+import com.yubico.yubikit.core.util.Pair;
+import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.ctap.AssertionIterator;
 import com.yubico.yubikit.fido.ctap.ClientPin;
 import com.yubico.yubikit.fido.ctap.CredentialManagement;
 import com.yubico.yubikit.fido.ctap.Ctap2Session;
@@ -29,7 +33,9 @@ import com.yubico.yubikit.fido.ctap.PinUvAuthProtocolV2;
 import com.yubico.yubikit.fido.webauthn.AttestationConveyancePreference;
 import com.yubico.yubikit.fido.webauthn.AttestationObject;
 import com.yubico.yubikit.fido.webauthn.AuthenticatorAttestationResponse;
+import com.yubico.yubikit.fido.webauthn.AuthenticatorData;
 import com.yubico.yubikit.fido.webauthn.AuthenticatorSelectionCriteria;
+import com.yubico.yubikit.fido.webauthn.Extensions;
 import com.yubico.yubikit.fido.webauthn.PublicKeyCredential;
 import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialCreationOptions;
 import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialDescriptor;
@@ -44,10 +50,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -68,7 +76,19 @@ import javax.annotation.Nullable;
  * The timeout parameter in the request options is ignored. To cancel a request pass a {@link CommandState}
  * instance to the call and use its cancel method.
  * <p>
- * No support for Extensions. Any Extensions provided will be ignored.
+ * The pinUvAuthToken is kept in a {@link PinUvAuthTokenCache}, and reused by following operations for which it
+ * is still valid.
+ * <p>
+ * An allowCredentials or excludeCredentials list which does not fit in a single request to the authenticator is
+ * split in chunks, which are probed without user presence. Only the first matching credential is then sent with
+ * the actual request. The probes carry the pinUvAuthParam of the request, if any. A request without one, such as
+ * one relying on the "uv" option of an authenticator without pinUvAuthToken support, does not find credentials
+ * created with credProtect level 3 (userVerificationRequired) while probing.
+ * <p>
+ * Client extension inputs of a request are processed by the registered {@link Extension}s, which by default
+ * support hmac-secret, credBlob, largeBlobKey, credProtect and minPinLength. Their outputs are returned by
+ * {@link PublicKeyCredential#getClientExtensionResults()}. Extensions which are not registered, or not supported
+ * by the Authenticator, are ignored.
  */
 @SuppressWarnings("unused")
 public class BasicWebAuthnClient implements Closeable {
@@ -76,20 +96,27 @@ public class BasicWebAuthnClient implements Closeable {
     private static final String OPTION_USER_VERIFICATION = "uv";
     private static final String OPTION_RESIDENT_KEY = "rk";
     private static final String OPTION_EP = "ep";
+    private static final String OPTION_USER_PRESENCE = "up";
+
+    // Space reserved in a request for the command byte, clientDataHash, options, pinUvAuthParam and extension
+    // inputs, on top of the encoded size of the other parameters that are known before the request is sent
+    static final int REQUEST_RESERVE = 256;
+
+    // Permissions of a pinToken from an authenticator without support for permissions
+    private static final int PERMISSIONS_ALL = ClientPin.PIN_PERMISSION_MC | ClientPin.PIN_PERMISSION_GA
+            | ClientPin.PIN_PERMISSION_CM | ClientPin.PIN_PERMISSION_BE | ClientPin.PIN_PERMISSION_LBW
+            | ClientPin.PIN_PERMISSION_ACFG;
 
     private final UserAgentConfiguration userAgentConfiguration = new UserAgentConfiguration();
+    private final PinUvAuthTokenCache tokenCache = new PinUvAuthTokenCache();
+    private final List<Extension> extensions;
 
     private final Ctap2Session ctap;
 
-    private final boolean pinSupported;
-    private final boolean uvSupported;
-
     private final ClientPin clientPin;
 
-    private boolean pinConfigured;
-    private final boolean uvConfigured;
-
-    final private boolean enterpriseAttestationSupported;
+    // Set when the PIN is set by this client, before the InfoData of the session reflects it
+    private boolean pinSetByClient;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(BasicWebAuthnClient.class);
 
@@ -110,38 +137,42 @@ public class BasicWebAuthnClient implements Closeable {
         private final byte[] pinUvAuthParam;
         @Nullable
         private final Integer pinUvAuthProtocol;
+        private final boolean cachedToken;
 
         AuthParams(
                 @Nullable byte[] pinUvAuthParam,
-                @Nullable Integer pinUvAuthProtocol) {
+                @Nullable Integer pinUvAuthProtocol,
+                boolean cachedToken) {
             this.pinUvAuthParam = pinUvAuthParam;
             this.pinUvAuthProtocol = pinUvAuthProtocol;
+            this.cachedToken = cachedToken;
         }
     }
 
     public BasicWebAuthnClient(Ctap2Session session) throws IOException, CommandException {
-        this.ctap = session;
-        Ctap2Session.InfoData info = ctap.getInfo();
-
-        Map<String, ?> options = info.getOptions();
-
-        final Boolean optionClientPin = (Boolean) options.get(OPTION_CLIENT_PIN);
-        pinSupported = optionClientPin != null;
-
-        this.clientPin =
-                new ClientPin(ctap, getPreferredPinUvAuthProtocol(info.getPinUvAuthProtocols()));
-
-        pinConfigured = pinSupported && Boolean.TRUE.equals(optionClientPin);
-
-        Boolean uv = (Boolean) options.get(OPTION_USER_VERIFICATION);
-        uvSupported = uv != null;
-        uvConfigured = uvSupported && uv;
+        this(session, getDefaultExtensions());
+    }
 
-        enterpriseAttestationSupported = Boolean.TRUE.equals(options.get(OPTION_EP));
+    /**
+     * Create a client using a specific set of extensions.
+     *
+     * @param session    the session with the Authenticator
+     * @param extensions the extensions to process, see {@link #getDefaultExtensions()}
+     * @throws IOException      A communication error in the transport layer
+     * @throws CommandException A communication in the protocol layer
+     */
+    public BasicWebAuthnClient(Ctap2Session session, List<Extension> extensions)
+            throws IOException, CommandException {
+        this.ctap = session;
+        this.extensions = new ArrayList<>(extensions);
+        this.clientPin = new ClientPin(
+                ctap, getPreferredPinUvAuthProtocol(ctap.getCachedInfo().getPinUvAuthProtocols()));
+        this.clientPin.setSharedSecretCaching(true);
     }
 
     @Override
     public void close() throws IOException {
+        tokenCache.clear();
         ctap.close();
     }
 
@@ -149,6 +180,30 @@ public class BasicWebAuthnClient implements Closeable {
         return userAgentConfiguration;
     }
 
+    /**
+     * Get the extensions used by clients created without an explicit list of extensions.
+     *
+     * @return a new list of the default extensions
+     */
+    public static List<Extension> getDefaultExtensions() {
+        return new ArrayList<>(Arrays.asList(
+                new HmacSecretExtension(),
+                new CredBlobExtension(),
+                new LargeBlobKeyExtension(),
+                new CredProtectExtension(),
+                new MinPinLengthExtension()
+        ));
+    }
+
+    /**
+     * Get the cache of the pinUvAuthToken, which is reused between operations using the same PIN or UV.
+     *
+     * @return the PinUvAuthTokenCache used by this client
+     */
+    public PinUvAuthTokenCache getPinUvAuthTokenCache() {
+        return tokenCache;
+    }
+
     /**
      * Create a new WebAuthn credential.
      * <p>
@@ -173,6 +228,7 @@ public class BasicWebAuthnClient implements Closeable {
             @Nullable CommandState state
     ) throws IOException, CommandException, ClientError {
         byte[] clientDataHash = hash(clientDataJson);
+        Map<String, Object> clientExtensionResults = new HashMap<>();
 
         try {
             Ctap2Session.CredentialData credential = ctapMakeCredential(
@@ -181,7 +237,8 @@ public class BasicWebAuthnClient implements Closeable {
                     effectiveDomain,
                     pin,
                     enterpriseAttestation,
-                    state
+                    state,
+                    clientExtensionResults
             );
 
             final AttestationObject attestationObject = AttestationObject.fromCredential(credential);
@@ -195,9 +252,11 @@ public class BasicWebAuthnClient implements Closeable {
             return new PublicKeyCredential(
                     Objects.requireNonNull(attestationObject.getAuthenticatorData()
                             .getAttestedCredentialData()).getCredentialId(),
-                    response
+                    response,
+                    clientExtensionResults
             );
         } catch (CtapException e) {
+            tokenCache.invalidate(e);
             if (e.getCtapError() == CtapException.ERR_PIN_INVALID) {
                 throw new PinInvalidClientError(e, clientPin.getPinRetries().getCount());
             }
@@ -230,30 +289,37 @@ public class BasicWebAuthnClient implements Closeable {
             @Nullable CommandState state
     ) throws MultipleAssertionsAvailable, IOException, CommandException, ClientError {
         byte[] clientDataHash = hash(clientDataJson);
+        List<Pair<String, Extension.Processor>> processors = new ArrayList<>();
 
         try {
-            final List<Ctap2Session.AssertionData> assertions = ctapGetAssertions(
+            // All assertions are read before returning, as the Authenticator only keeps them available for a
+            // short time, and the selection is made afterwards
+            final List<Ctap2Session.AssertionData> assertions = new ArrayList<>(ctapGetAssertionIterator(
                     clientDataHash,
                     options,
                     effectiveDomain,
                     pin,
-                    state
-            );
+                    state,
+                    processors
+            ).getAll());
 
             final List<PublicKeyCredentialDescriptor> allowCredentials = removeUnsupportedCredentials(
                     options.getAllowCredentials()
             );
 
             if (assertions.size() == 1) {
+                Ctap2Session.AssertionData assertion = assertions.get(0);
                 return PublicKeyCredential.fromAssertion(
-                        assertions.get(0),
+                        assertion,
                         clientDataJson,
-                        allowCredentials);
+                        allowCredentials,
+                        getClientExtensionResults(processors, assertion));
             } else {
-                throw new MultipleAssertionsAvailable(clientDataJson, assertions);
+                throw new MultipleAssertionsAvailable(clientDataJson, assertions, processors);
             }
 
         } catch (CtapException e) {
+            tokenCache.invalidate(e);
             if (e.getCtapError() == CtapException.ERR_PIN_INVALID) {
                 throw new PinInvalidClientError(e, clientPin.getPinRetries().getCount());
             }
@@ -267,7 +333,7 @@ public class BasicWebAuthnClient implements Closeable {
      * @return If PIN is supported.
      */
     public boolean isPinSupported() {
-        return pinSupported;
+        return getOptions().get(OPTION_CLIENT_PIN) != null;
     }
 
     /**
@@ -276,7 +342,7 @@ public class BasicWebAuthnClient implements Closeable {
      * @return If a PIN is configured.
      */
     public boolean isPinConfigured() {
-        return pinConfigured;
+        return pinSetByClient || Boolean.TRUE.equals(getOptions().get(OPTION_CLIENT_PIN));
     }
 
     /**
@@ -287,7 +353,23 @@ public class BasicWebAuthnClient implements Closeable {
      * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#sctn-feature-descriptions-enterp-attstn">Enterprise Attestation</a>
      */
     public boolean isEnterpriseAttestationSupported() {
-        return enterpriseAttestationSupported;
+        return Boolean.TRUE.equals(getOptions().get(OPTION_EP));
+    }
+
+    private boolean isUvSupported() {
+        return getOptions().get(OPTION_USER_VERIFICATION) != null;
+    }
+
+    private boolean isUvConfigured() {
+        return Boolean.TRUE.equals(getOptions().get(OPTION_USER_VERIFICATION));
+    }
+
+    /*
+     * The options are read from the current InfoData of the session, which is read again if InfoData taken from an
+     * InfoDataCache turns out to be outdated.
+     */
+    private Map<String, ?> getOptions() {
+        return ctap.getCachedInfo().getOptions();
     }
 
     /**
@@ -299,15 +381,16 @@ public class BasicWebAuthnClient implements Closeable {
      * @throws ClientError      A higher level error.
      */
     public void setPin(char[] pin) throws IOException, CommandException, ClientError {
-        if (!pinSupported) {
+        if (!isPinSupported()) {
             throw new ClientError(ClientError.Code.BAD_REQUEST, "PIN is not supported on this device");
         }
-        if (pinConfigured) {
+        if (isPinConfigured()) {
             throw new ClientError(ClientError.Code.BAD_REQUEST, "A PIN is already configured on this device");
         }
         try {
             clientPin.setPin(pin);
-            pinConfigured = true;
+            tokenCache.clear();
+            pinSetByClient = true;
         } catch (CtapException e) {
             throw ClientError.wrapCtapException(e);
         }
@@ -323,13 +406,15 @@ public class BasicWebAuthnClient implements Closeable {
      * @throws ClientError      A higher level error.
      */
     public void changePin(char[] currentPin, char[] newPin) throws IOException, CommandException, ClientError {
-        if (!pinSupported) {
+        if (!isPinSupported()) {
             throw new ClientError(ClientError.Code.BAD_REQUEST, "PIN is not supported on this device");
         }
-        if (!pinConfigured) {
+        if (!isPinConfigured()) {
             throw new ClientError(ClientError.Code.BAD_REQUEST, "No PIN currently configured on this device");
         }
         try {
+            // Changing the PIN invalidates any pinUvAuthToken
+            tokenCache.clear();
             clientPin.changePin(currentPin, newPin);
         } catch (CtapException e) {
             throw ClientError.wrapCtapException(e);
@@ -347,7 +432,7 @@ public class BasicWebAuthnClient implements Closeable {
      */
     public CredentialManager getCredentialManager(char[] pin)
             throws IOException, CommandException, ClientError {
-        if (!pinConfigured) {
+        if (!isPinConfigured()) {
             throw new ClientError(ClientError.Code.BAD_REQUEST,
                     "No PIN currently configured on this device");
         }
@@ -356,10 +441,12 @@ public class BasicWebAuthnClient implements Closeable {
                     new CredentialManagement(
                             ctap,
                             clientPin.getPinUvAuth(),
-                            clientPin.getPinToken(pin, ClientPin.PIN_PERMISSION_CM, null)
-                    )
+                            getPinUvAuthToken(pin, ClientPin.PIN_PERMISSION_CM, null).first
+                    ),
+                    tokenCache
             );
         } catch (CtapException e) {
+            tokenCache.invalidate(e);
             throw ClientError.wrapCtapException(e);
         }
     }
@@ -382,7 +469,6 @@ public class BasicWebAuthnClient implements Closeable {
      * @throws CommandException A communication in the protocol layer
      * @throws ClientError      A higher level error
      */
-    @SuppressWarnings("unchecked")
     protected Ctap2Session.CredentialData ctapMakeCredential(
             byte[] clientDataHash,
             PublicKeyCredentialCreationOptions options,
@@ -391,14 +477,32 @@ public class BasicWebAuthnClient implements Closeable {
             @Nullable Integer enterpriseAttestation,
             @Nullable CommandState state
     ) throws IOException, CommandException, ClientError {
+        return ctapMakeCredential(
+                clientDataHash,
+                options,
+                effectiveDomain,
+                pin,
+                enterpriseAttestation,
+                state,
+                new HashMap<String, Object>()
+        );
+    }
 
-        final SerializationType serializationType = SerializationType.CBOR;
+    /*
+     * Creates a new credential, adding the outputs of the processed extensions to clientExtensionResults.
+     */
+    @SuppressWarnings("unchecked")
+    private Ctap2Session.CredentialData ctapMakeCredential(
+            byte[] clientDataHash,
+            PublicKeyCredentialCreationOptions options,
+            String effectiveDomain,
+            @Nullable char[] pin,
+            @Nullable Integer enterpriseAttestation,
+            @Nullable CommandState state,
+            Map<String, Object> clientExtensionResults
+    ) throws IOException, CommandException, ClientError {
 
-        if (options.getExtensions() != null) {
-            throw new ClientError(
-                    ClientError.Code.CONFIGURATION_UNSUPPORTED,
-                    "Extensions not supported");
-        }
+        final SerializationType serializationType = SerializationType.CBOR;
 
         Map<String, ?> rp = options.getRp().toMap(serializationType);
         String rpId = options.getRp().getId();
@@ -417,7 +521,7 @@ public class BasicWebAuthnClient implements Closeable {
             String residentKeyRequirement = authenticatorSelection.getResidentKey();
             if (ResidentKeyRequirement.REQUIRED.equals(residentKeyRequirement) ||
                     (ResidentKeyRequirement.PREFERRED.equals(residentKeyRequirement) &&
-                            (pinSupported || uvSupported)
+                            (isPinSupported() || isUvSupported())
                     )
             ) {
                 ctapOptions.put(OPTION_RESIDENT_KEY, true);
@@ -431,18 +535,6 @@ public class BasicWebAuthnClient implements Closeable {
             }
         }
 
-        final AuthParams authParams = getAuthParams(
-                clientDataHash,
-                ctapOptions.containsKey(OPTION_USER_VERIFICATION),
-                pin,
-                ClientPin.PIN_PERMISSION_MC,
-                rpId);
-
-        final List<PublicKeyCredentialDescriptor> excludeCredentials =
-                removeUnsupportedCredentials(
-                        options.getExcludeCredentials()
-                );
-
         final Map<String, ?> user = options.getUser().toMap(serializationType);
 
         List<Map<String, ?>> pubKeyCredParams = new ArrayList<>();
@@ -452,6 +544,15 @@ public class BasicWebAuthnClient implements Closeable {
             }
         }
 
+        final List<PublicKeyCredentialDescriptor> excludeCredentials =
+                removeUnsupportedCredentials(
+                        options.getExcludeCredentials()
+                );
+        // The excludeList is sent with makeCredential when it fits in a single chunk
+        final List<List<Map<String, ?>>> excludeChunks = getCredentialChunks(
+                getCredentialList(excludeCredentials),
+                Cbor.encode(rp).length + Cbor.encode(user).length + Cbor.encode(pubKeyCredParams).length);
+
         @Nullable Integer validatedEnterpriseAttestation = null;
         if (isEnterpriseAttestationSupported() &&
                 AttestationConveyancePreference.ENTERPRISE.equals(options.getAttestation()) &&
@@ -461,19 +562,63 @@ public class BasicWebAuthnClient implements Closeable {
             validatedEnterpriseAttestation = enterpriseAttestation;
         }
 
-        return ctap.makeCredential(
-                clientDataHash,
-                rp,
-                user,
-                pubKeyCredParams,
-                getCredentialList(excludeCredentials),
-                null,
-                ctapOptions.isEmpty() ? null : ctapOptions,
-                authParams.pinUvAuthParam,
-                authParams.pinUvAuthProtocol,
-                validatedEnterpriseAttestation,
-                state
-        );
+        while (true) {
+            final AuthParams authParams = getAuthParams(
+                    clientDataHash,
+                    ctapOptions.containsKey(OPTION_USER_VERIFICATION),
+                    pin,
+                    // Probing the excludeList is done using getAssertion
+                    excludeChunks.size() > 1
+                            ? ClientPin.PIN_PERMISSION_MC | ClientPin.PIN_PERMISSION_GA
+                            : ClientPin.PIN_PERMISSION_MC,
+                    rpId);
+
+            try {
+                List<Map<String, ?>> excludeList = null;
+                if (excludeChunks.size() == 1) {
+                    excludeList = excludeChunks.get(0);
+                } else if (excludeChunks.size() > 1) {
+                    Map<String, ?> excluded = probeCredentials(
+                            (String) rp.get("id"), clientDataHash, excludeChunks, authParams, state);
+                    if (excluded != null) {
+                        // Let the authenticator wait for touch and reject the request
+                        excludeList = Collections.<Map<String, ?>>singletonList(excluded);
+                    }
+                }
+
+                Map<String, Object> ctapExtensions = new HashMap<>();
+                List<Pair<String, Extension.Processor>> processors =
+                        getExtensionProcessors(options.getExtensions(), true, ctapExtensions);
+
+                Ctap2Session.CredentialData credential = ctap.makeCredential(
+                        clientDataHash,
+                        rp,
+                        user,
+                        pubKeyCredParams,
+                        excludeList,
+                        ctapExtensions.isEmpty() ? null : ctapExtensions,
+                        ctapOptions.isEmpty() ? null : ctapOptions,
+                        authParams.pinUvAuthParam,
+                        authParams.pinUvAuthProtocol,
+                        validatedEnterpriseAttestation,
+                        state
+                );
+                onTokenUsed(authParams);
+
+                if (!processors.isEmpty()) {
+                    Map<String, ?> outputs = getExtensionOutputs(credential.getAuthenticatorData());
+                    for (Pair<String, Extension.Processor> processor : processors) {
+                        processor.second.processOutput(
+                                credential, outputs.get(processor.first), clientExtensionResults);
+                    }
+                }
+                return credential;
+            } catch (CtapException e) {
+                if (!shouldRetryWithNewToken(authParams, e)) {
+                    throw e;
+                }
+            }
+        }
     }
 
     /**
@@ -502,6 +647,67 @@ public class BasicWebAuthnClient implements Closeable {
             String effectiveDomain,
             @Nullable char[] pin,
             @Nullable CommandState state
+    ) throws IOException, CommandException, ClientError {
+        AssertionIterator assertions = ctapGetAssertionIterator(
+                clientDataHash,
+                options,
+                effectiveDomain,
+                pin,
+                state
+        );
+        try {
+            return assertions.getAll();
+        } catch (CtapException e) {
+            throw ClientError.wrapCtapException(e);
+        }
+    }
+
+    /**
+     * Authenticate an existing WebAuthn credential.
+     * <p>
+     * This method is used internally in YubiKit and is not part of the public API. It may be changed
+     * or removed at any time.
+     * <p>
+     * PIN is required if UV is "required", or if UV is "preferred" and a PIN is configured.
+     * If no allowCredentials list is provided (which is the case for a passwordless flow) the Authenticator may contain multiple discoverable credentials for the given RP.
+     *
+     * @param clientDataHash  Hash of client data.
+     * @param options         The options for authenticating the credential.
+     * @param effectiveDomain The effective domain for the request, which is used to validate the RP ID against.
+     * @param pin             If needed, the PIN to authorize the credential creation.
+     * @param state           If needed, the state to provide control over the ongoing operation
+     * @return the assertions, of which only the first has been read from the Authenticator.
+     * @throws IOException      A communication error in the transport layer
+     * @throws CommandException A communication in the protocol layer
+     * @throws ClientError      A higher level error
+     */
+    protected AssertionIterator ctapGetAssertionIterator(
+            byte[] clientDataHash,
+            PublicKeyCredentialRequestOptions options,
+            String effectiveDomain,
+            @Nullable char[] pin,
+            @Nullable CommandState state
+    ) throws IOException, CommandException, ClientError {
+        return ctapGetAssertionIterator(
+                clientDataHash,
+                options,
+                effectiveDomain,
+                pin,
+                state,
+                new ArrayList<Pair<String, Extension.Processor>>()
+        );
+    }
+
+    /*
+     * Gets assertions, adding the processors of the extensions sent with the request to processors.
+     */
+    private AssertionIterator ctapGetAssertionIterator(
+            byte[] clientDataHash,
+            PublicKeyCredentialRequestOptions options,
+            String effectiveDomain,
+            @Nullable char[] pin,
+            @Nullable CommandState state,
+            List<Pair<String, Extension.Processor>> processors
     ) throws IOException, CommandException, ClientError {
         String rpId = options.getRpId();
         if (rpId == null) {
@@ -514,33 +720,62 @@ public class BasicWebAuthnClient implements Closeable {
             ctapOptions.put(OPTION_USER_VERIFICATION, true);
         }
 
-        if (options.getExtensions() != null) {
-            throw new ClientError(ClientError.Code.CONFIGURATION_UNSUPPORTED, "Extensions not supported");
-        }
-
-        final AuthParams authParams = getAuthParams(
-                clientDataHash,
-                ctapOptions.containsKey(OPTION_USER_VERIFICATION),
-                pin,
-                ClientPin.PIN_PERMISSION_GA,
-                rpId);
-
         try {
             final List<PublicKeyCredentialDescriptor> allowCredentials = removeUnsupportedCredentials(
                     options.getAllowCredentials()
             );
+            final List<List<Map<String, ?>>> allowChunks =
+                    getCredentialChunks(getCredentialList(allowCredentials), Cbor.encode(rpId).length);
+            if (allowCredentials != null && !allowCredentials.isEmpty() && allowChunks.isEmpty()) {
+                // None of the credentials can be on this authenticator
+                throw new CtapException(CtapException.ERR_NO_CREDENTIALS);
+            }
 
-            return ctap.getAssertions(
-                    rpId,
-                    clientDataHash,
-                    getCredentialList(allowCredentials),
-                    null,
-                    ctapOptions.isEmpty() ? null : ctapOptions,
-                    authParams.pinUvAuthParam,
-                    authParams.pinUvAuthProtocol,
-                    state
-            );
+            while (true) {
+                final AuthParams authParams = getAuthParams(
+                        clientDataHash,
+                        ctapOptions.containsKey(OPTION_USER_VERIFICATION),
+                        pin,
+                        ClientPin.PIN_PERMISSION_GA,
+                        rpId);
+
+                try {
+                    List<Map<String, ?>> allowList = null;
+                    if (allowChunks.size() == 1) {
+                        allowList = allowChunks.get(0);
+                    } else if (allowChunks.size() > 1) {
+                        Map<String, ?> allowed = probeCredentials(
+                                rpId, clientDataHash, allowChunks, authParams, state);
+                        if (allowed == null) {
+                            throw new CtapException(CtapException.ERR_NO_CREDENTIALS);
+                        }
+                        allowList = Collections.<Map<String, ?>>singletonList(allowed);
+                    }
+
+                    Map<String, Object> ctapExtensions = new HashMap<>();
+                    processors.clear();
+                    processors.addAll(getExtensionProcessors(options.getExtensions(), false, ctapExtensions));
+
+                    AssertionIterator assertions = ctap.getAssertionIterator(
+                            rpId,
+                            clientDataHash,
+                            allowList,
+                            ctapExtensions.isEmpty() ? null : ctapExtensions,
+                            ctapOptions.isEmpty() ? null : ctapOptions,
+                            authParams.pinUvAuthParam,
+                            authParams.pinUvAuthProtocol,
+                            state
+                    );
+                    onTokenUsed(authParams);
+                    return assertions;
+                } catch (CtapException e) {
+                    if (!shouldRetryWithNewToken(authParams, e)) {
+                        throw e;
+                    }
+                }
+            }
         } catch (CtapException e) {
+            tokenCache.invalidate(e);
             if (e.getCtapError() == CtapException.ERR_PIN_INVALID) {
                 throw new PinInvalidClientError(e, clientPin.getPinRetries().getCount());
             }
@@ -554,14 +789,14 @@ public class BasicWebAuthnClient implements Closeable {
      */
     private boolean getCtapUv(String userVerification, boolean pinProvided) throws ClientError {
         if (pinProvided) {
-            if (!pinConfigured) {
+            if (!isPinConfigured()) {
                 throw new ClientError(ClientError.Code.BAD_REQUEST, "PIN provided but not configured");
             }
             // If a PIN was provided this will satisfy the UserVerification requirement regardless of what it is, without requiring uv.
             return false;
         }
 
-        boolean pinUvSupported = pinSupported || uvSupported;
+        boolean pinUvSupported = isPinSupported() || isUvSupported();
 
         // No PIN provided
         switch (userVerification) {
@@ -576,9 +811,9 @@ public class BasicWebAuthnClient implements Closeable {
                 }
                 //Fall through to REQUIRED since we have support for either PIN or uv.
             case UserVerificationRequirement.REQUIRED:
-                if (!uvConfigured) {
+                if (!isUvConfigured()) {
                     // Can't satisfy UserVerification, fail.
-                    if (pinConfigured) {
+                    if (isPinConfigured()) {
                         throw new PinRequiredClientError();
                     } else {
                         if (pinUvSupported) {
@@ -596,23 +831,23 @@ public class BasicWebAuthnClient implements Closeable {
             byte[] clientDataHash,
             boolean shouldUv,
             @Nullable char[] pin,
-            @Nullable Integer permissions,
+            int permissions,
             @Nullable String rpId
     ) throws ClientError, IOException, CommandException {
-        @Nullable byte[] authToken = null;
+        @Nullable Pair<byte[], Boolean> authToken = null;
         @Nullable byte[] authParam = null;
         @Nullable Integer authProtocolVersion = null;
 
         try {
             if (pin != null) {
-                authToken = clientPin.getPinToken(pin, permissions, rpId);
-                authParam = clientPin.getPinUvAuth().authenticate(authToken, clientDataHash);
+                authToken = getPinUvAuthToken(pin, permissions, rpId);
+                authParam = clientPin.getPinUvAuth().authenticate(authToken.first, clientDataHash);
                 authProtocolVersion = clientPin.getPinUvAuth().getVersion();
-            } else if (pinConfigured) {
-                if (shouldUv && uvConfigured) {
+            } else if (isPinConfigured()) {
+                if (shouldUv && isUvConfigured()) {
                     if (ClientPin.isTokenSupported(ctap.getCachedInfo())) {
-                        authToken = clientPin.getUvToken(permissions, rpId, null);
-                        authParam = clientPin.getPinUvAuth().authenticate(authToken, clientDataHash);
+                        authToken = getPinUvAuthToken(null, permissions, rpId);
+                        authParam = clientPin.getPinUvAuth().authenticate(authToken.first, clientDataHash);
                         authProtocolVersion = clientPin.getPinUvAuth().getVersion();
                     }
                     // no authToken is created means that internal UV is used
@@ -623,14 +858,189 @@ public class BasicWebAuthnClient implements Closeable {
             }
             return new AuthParams(
                     authParam,
-                    authProtocolVersion
+                    authProtocolVersion,
+                    authToken != null && authToken.second
             );
 
         } finally {
             if (authToken != null) {
-                Arrays.fill(authToken, (byte) 0);
+                Arrays.fill(authToken.first, (byte) 0);
+            }
+        }
+    }
+
+    /*
+     * Returns a pinUvAuthToken obtained using the PIN, or built-in UV if pin is null, and whether it was
+     * taken from the token cache. The token is a copy, which the caller should overwrite once done.
+     */
+    private Pair<byte[], Boolean> getPinUvAuthToken(
+            @Nullable char[] pin,
+            int permissions,
+            @Nullable String rpId
+    ) throws IOException, CommandException {
+        byte[] token = tokenCache.get(pin, permissions, rpId);
+        if (token != null) {
+            Logger.debug(logger, "Using cached pinUvAuthToken");
+            return new Pair<>(token, true);
+        }
+
+        token = pin != null
+                ? clientPin.getPinToken(pin, permissions, rpId)
+                : clientPin.getUvToken(permissions, rpId, null);
+        if (ClientPin.isTokenSupported(ctap.getCachedInfo())) {
+            tokenCache.put(pin, permissions, rpId, token);
+        } else {
+            // A pinToken without permissions can be used for any operation
+            tokenCache.put(pin, PERMISSIONS_ALL, null, token);
+        }
+        return new Pair<>(token, false);
+    }
+
+    /*
+     * Updates the token cache after an operation using the pinUvAuthToken succeeded.
+     */
+    private void onTokenUsed(AuthParams authParams) {
+        if (authParams.pinUvAuthParam != null && ClientPin.isTokenSupported(ctap.getCachedInfo())) {
+            // Using a token in a ceremony requiring user presence clears all of its permissions, except lbw
+            tokenCache.removePermissions(PERMISSIONS_ALL & ~ClientPin.PIN_PERMISSION_LBW);
+        }
+    }
+
+    /*
+     * Returns true if the operation should be retried with a new token, after failing with a cached one.
+     */
+    private boolean shouldRetryWithNewToken(AuthParams authParams, CtapException e) {
+        return tokenCache.invalidate(e) && authParams.cachedToken;
+    }
+
+    /*
+     * Removes the credentials with an ID longer than the authenticator supports, and splits the rest in chunks
+     * which fit in a single request, within the maximum credential count and message size of the authenticator.
+     * The parametersSize is the encoded size of the other parameters of the request the list is sent with.
+     * Returns an empty list if no credentials remain.
+     */
+    private List<List<Map<String, ?>>> getCredentialChunks(
+            @Nullable List<Map<String, ?>> credentials,
+            int parametersSize
+    ) {
+        if (credentials == null) {
+            return Collections.emptyList();
+        }
+        Ctap2Session.InfoData info = ctap.getCachedInfo();
+        Integer maxIdLength = info.getMaxCredentialIdLength();
+        Integer maxCount = info.getMaxCredentialCountInList();
+        int maxSize = info.getMaxMsgSize() - REQUEST_RESERVE - parametersSize;
+
+        List<List<Map<String, ?>>> chunks = new ArrayList<>();
+        List<Map<String, ?>> chunk = new ArrayList<>();
+        int chunkSize = 0;
+        for (Map<String, ?> credential : credentials) {
+            byte[] id = (byte[]) credential.get(PublicKeyCredentialDescriptor.ID);
+            if (maxIdLength != null && id != null && id.length > maxIdLength) {
+                continue;
             }
+            int size = Cbor.encode(credential).length;
+            if (!chunk.isEmpty()
+                    && ((maxCount != null && chunk.size() >= maxCount) || chunkSize + size > maxSize)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkSize = 0;
+            }
+            chunk.add(credential);
+            chunkSize += size;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
         }
+        return chunks;
+    }
+
+    /*
+     * Finds a credential on the authenticator, by sending a getAssertion without user presence for each chunk
+     * until one matches. Returns the matching credential, or null if there is none.
+     *
+     * Without a pinUvAuthParam the probes are sent without user verification, so the authenticator skips
+     * credentials with credProtect level 3.
+     */
+    @Nullable
+    private Map<String, ?> probeCredentials(
+            String rpId,
+            byte[] clientDataHash,
+            List<List<Map<String, ?>>> chunks,
+            AuthParams authParams,
+            @Nullable CommandState state
+    ) throws IOException, CommandException {
+        Map<String, Boolean> options = Collections.singletonMap(OPTION_USER_PRESENCE, false);
+        for (List<Map<String, ?>> chunk : chunks) {
+            try {
+                Logger.debug(logger, "Probing {} credentials", chunk.size());
+                return ctap.getAssertionIterator(
+                        rpId,
+                        clientDataHash,
+                        chunk,
+                        null,
+                        options,
+                        authParams.pinUvAuthParam,
+                        authParams.pinUvAuthProtocol,
+                        state
+                ).get(0).getCredential();
+            } catch (CtapException e) {
+                if (e.getCtapError() != CtapException.ERR_NO_CREDENTIALS) {
+                    throw e;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Gets the processors of the registered extensions used by a request, and adds their authenticator inputs to
+     * ctapExtensions. This is done for each attempt of a request, as inputs may depend on the shared secret.
+     */
+    private List<Pair<String, Extension.Processor>> getExtensionProcessors(
+            @Nullable Extensions inputs,
+            boolean create,
+            Map<String, Object> ctapExtensions
+    ) throws IOException, CommandException, ClientError {
+        List<Pair<String, Extension.Processor>> processors = new ArrayList<>();
+        if (inputs == null) {
+            return processors;
+        }
+        for (Extension extension : extensions) {
+            Extension.Processor processor = create
+                    ? extension.makeCredential(ctap, inputs, clientPin)
+                    : extension.getAssertion(ctap, inputs, clientPin);
+            if (processor != null) {
+                processors.add(new Pair<>(extension.getName(), processor));
+                Object input = processor.getInput();
+                if (input != null) {
+                    ctapExtensions.put(extension.getName(), input);
+                }
+            }
+        }
+        return processors;
+    }
+
+    /*
+     * Returns the client extension outputs of an assertion.
+     */
+    static Map<String, Object> getClientExtensionResults(
+            List<Pair<String, Extension.Processor>> processors,
+            Ctap2Session.AssertionData assertion
+    ) {
+        Map<String, Object> results = new HashMap<>();
+        if (!processors.isEmpty()) {
+            Map<String, ?> outputs = getExtensionOutputs(assertion.getAuthenticatorData());
+            for (Pair<String, Extension.Processor> processor : processors) {
+                processor.second.processOutput(assertion, outputs.get(processor.first), results);
+            }
+        }
+        return results;
+    }
+
+    private static Map<String, ?> getExtensionOutputs(byte[] authenticatorData) {
+        Map<String, ?> outputs = AuthenticatorData.parseFrom(ByteBuffer.wrap(authenticatorData)).getExtensions();
+        return outputs != null ? outputs : Collections.<String, Object>emptyMap();
     }
 
     /**
@@ -639,7 +1049,7 @@ public class BasicWebAuthnClient implements Closeable {
      * supported protocols.
      */
     private PinUvAuthProtocol getPreferredPinUvAuthProtocol(List<Integer> pinUvAuthProtocols) {
-        if (pinSupported) {
+        if (isPinSupported()) {
             for (int protocol : pinUvAuthProtocols) {
                 if (protocol == PinUvAuthProtocolV1.VERSION) {
                     return new PinUvAuthProtocolV1();
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.fido.ctap.ClientPin;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements the credBlob extension, which stores a small blob of data with a discoverable credential.
+ * <p>
+ * Inputs: {@code credBlob} as binary data when creating a credential, at most
+ * {@link Ctap2Session.InfoData#getMaxCredBlobLength()} bytes long, and {@code getCredBlob: true} when getting
+ * an assertion. Outputs: {@code credBlob} as a boolean telling if the blob was stored, and {@code getCredBlob}
+ * as binary data.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#sctn-credBlob-extension">Credential Blob Extension</a>
+ */
+public class CredBlobExtension extends Extension {
+    public static final String CRED_BLOB = "credBlob";
+    public static final String GET_CRED_BLOB = "getCredBlob";
+
+    public CredBlobExtension() {
+        super(CRED_BLOB);
+    }
+
+    @Nullable
+    @Override
+    protected Processor makeCredential(Ctap2Session ctap, Extensions inputs, ClientPin clientPin)
+            throws ClientError {
+        if (!inputs.has(CRED_BLOB) || !isSupported(ctap)) {
+            return null;
+        }
+        byte[] blob = getBytes(inputs.get(CRED_BLOB));
+        if (blob.length > ctap.getCachedInfo().getMaxCredBlobLength()) {
+            throw new ClientError(ClientError.Code.BAD_REQUEST, "credBlob is too long");
+        }
+        return new Processor(blob) {
+            @Override
+            protected void processOutput(
+                    Ctap2Session.CredentialData credential,
+                    @Nullable Object output,
+                    Map<String, Object> results) {
+                results.put(CRED_BLOB, Boolean.TRUE.equals(output));
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    protected Processor getAssertion(Ctap2Session ctap, Extensions inputs, ClientPin clientPin) {
+        if (!Boolean.TRUE.equals(inputs.get(GET_CRED_BLOB)) || !isSupported(ctap)) {
+            return null;
+        }
+        return new Processor(true) {
+            @Override
+            protected void processOutput(
+                    Ctap2Session.AssertionData assertion,
+                    @Nullable Object output,
+                    Map<String, Object> results) {
+                if (output instanceof byte[]) {
+                    results.put(GET_CRED_BLOB, output);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.fido.ctap.ClientPin;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements the credProtect extension, which sets the level of user verification required to use a new
+ * credential.
+ * <p>
+ * Inputs: {@code credentialProtectionPolicy}, one of the POLICY constants, and optionally
+ * {@code enforceCredentialProtectionPolicy: true}, to fail if the authenticator cannot apply a policy
+ * stricter than {@link #POLICY_UV_OPTIONAL}. There are no outputs.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#sctn-credProtect-extension">Credential Protection Extension</a>
+ */
+public class CredProtectExtension extends Extension {
+    public static final String POLICY = "credentialProtectionPolicy";
+    public static final String ENFORCE_POLICY = "enforceCredentialProtectionPolicy";
+
+    public static final String POLICY_UV_OPTIONAL = "userVerificationOptional";
+    public static final String POLICY_UV_OPTIONAL_WITH_LIST = "userVerificationOptionalWithCredentialIDList";
+    public static final String POLICY_UV_REQUIRED = "userVerificationRequired";
+
+    public CredProtectExtension() {
+        super("credProtect");
+    }
+
+    @Nullable
+    @Override
+    protected Processor makeCredential(Ctap2Session ctap, Extensions inputs, ClientPin clientPin)
+            throws ClientError {
+        Object policy = inputs.get(POLICY);
+        if (policy == null) {
+            return null;
+        }
+        int level;
+        if (POLICY_UV_OPTIONAL.equals(policy)) {
+            level = 1;
+        } else if (POLICY_UV_OPTIONAL_WITH_LIST.equals(policy)) {
+            level = 2;
+        } else if (POLICY_UV_REQUIRED.equals(policy)) {
+            level = 3;
+        } else {
+            throw new ClientError(ClientError.Code.BAD_REQUEST, "Invalid credentialProtectionPolicy");
+        }
+
+        if (!isSupported(ctap)) {
+            if (Boolean.TRUE.equals(inputs.get(ENFORCE_POLICY)) && level > 1) {
+                throw new ClientError(ClientError.Code.CONFIGURATION_UNSUPPORTED,
+                        "Authenticator does not support credProtect");
+            }
+            return null;
+        }
+        return new Processor(level);
+    }
+}
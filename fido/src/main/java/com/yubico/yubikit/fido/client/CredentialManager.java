@@ -38,9 +38,11 @@ import java.util.Map;
 public class CredentialManager {
     private final Map<String, byte[]> rpIdHashes = new HashMap<>();
     private final CredentialManagement credentialManagement;
+    private final PinUvAuthTokenCache tokenCache;
 
-    CredentialManager(CredentialManagement credentialManagement) {
+    CredentialManager(CredentialManagement credentialManagement, PinUvAuthTokenCache tokenCache) {
         this.credentialManagement = credentialManagement;
+        this.tokenCache = tokenCache;
     }
 
     /**
@@ -55,7 +57,7 @@ public class CredentialManager {
         try {
             return credentialManagement.getMetadata().getExistingResidentCredentialsCount();
         } catch (CtapException e) {
-            throw ClientError.wrapCtapException(e);
+            throw wrapCtapException(e);
         }
     }
 
@@ -78,7 +80,7 @@ public class CredentialManager {
             }
             return rpIds;
         } catch (CtapException e) {
-            throw ClientError.wrapCtapException(e);
+            throw wrapCtapException(e);
         }
     }
 
@@ -109,7 +111,7 @@ public class CredentialManager {
 
             return credentials;
         } catch (CtapException e) {
-            throw ClientError.wrapCtapException(e);
+            throw wrapCtapException(e);
         }
     }
 
@@ -125,7 +127,12 @@ public class CredentialManager {
         try {
             credentialManagement.deleteCredential(credential.toMap(SerializationType.CBOR));
         } catch (CtapException e) {
-            throw ClientError.wrapCtapException(e);
+            throw wrapCtapException(e);
         }
     }
+
+    private ClientError wrapCtapException(CtapException e) {
+        tokenCache.invalidate(e);
+        return ClientError.wrapCtapException(e);
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.core.application.CommandException;
+import com.yubico.yubikit.core.internal.codec.Base64;
+import com.yubico.yubikit.fido.ctap.ClientPin;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A CTAP2 extension, processed by {@link BasicWebAuthnClient} as part of a WebAuthn ceremony.
+ * <p>
+ * For each ceremony, the client asks every registered extension for a {@link Processor}, given the client
+ * extension inputs of the request. The processor provides the authenticator extension input sent with the
+ * request, and turns the response of the authenticator into client extension outputs, which are returned by
+ * {@link com.yubico.yubikit.fido.webauthn.PublicKeyCredential#getClientExtensionResults()}.
+ * <p>
+ * Extensions which are not supported by the authenticator are ignored, and produce no outputs.
+ */
+public abstract class Extension {
+    private final String name;
+
+    /**
+     * @param name the identifier of the authenticator extension
+     */
+    protected Extension(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the identifier of the authenticator extension
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks whether the authenticator supports the extension.
+     *
+     * @param ctap the session with the authenticator
+     * @return true if the extension is listed in the authenticator info
+     */
+    protected boolean isSupported(Ctap2Session ctap) {
+        return ctap.getCachedInfo().getExtensions().contains(name);
+    }
+
+    /**
+     * Prepares the extension for a makeCredential ceremony.
+     *
+     * @param ctap      the session with the authenticator
+     * @param inputs    the client extension inputs of the request
+     * @param clientPin the ClientPin used by the client, for extensions which need a shared secret
+     * @return a Processor for the ceremony, or null if the extension is not used
+     * @throws IOException      A communication error in the transport layer
+     * @throws CommandException A communication in the protocol layer
+     * @throws ClientError      If the inputs are invalid, or cannot be satisfied
+     */
+    @Nullable
+    protected Processor makeCredential(Ctap2Session ctap, Extensions inputs, ClientPin clientPin)
+            throws IOException, CommandException, ClientError {
+        return null;
+    }
+
+    /**
+     * Prepares the extension for a getAssertion ceremony.
+     *
+     * @param ctap      the session with the authenticator
+     * @param inputs    the client extension inputs of the request
+     * @param clientPin the ClientPin used by the client, for extensions which need a shared secret
+     * @return a Processor for the ceremony, or null if the extension is not used
+     * @throws IOException      A communication error in the transport layer
+     * @throws CommandException A communication in the protocol layer
+     * @throws ClientError      If the inputs are invalid, or cannot be satisfied
+     */
+    @Nullable
+    protected Processor getAssertion(Ctap2Session ctap, Extensions inputs, ClientPin clientPin)
+            throws IOException, CommandException, ClientError {
+        return null;
+    }
+
+    /**
+     * Reads a binary client extension input, given as a byte array or as a base64url encoded string.
+     *
+     * @param value the input value
+     * @return the binary value
+     * @throws ClientError if the value is not binary
+     */
+    protected static byte[] getBytes(@Nullable Object value) throws ClientError {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        } else if (value instanceof String) {
+            try {
+                return Base64.fromUrlSafeString((String) value);
+            } catch (IllegalArgumentException e) {
+                throw new ClientError(ClientError.Code.BAD_REQUEST, "Invalid extension input");
+            }
+        }
+        throw new ClientError(ClientError.Code.BAD_REQUEST, "Invalid extension input");
+    }
+
+    /**
+     * Processes an extension for a single ceremony.
+     */
+    protected static class Processor {
+        @Nullable
+        private final Object input;
+
+        /**
+         * @param input the authenticator extension input to send, or null to only process the response
+         */
+        protected Processor(@Nullable Object input) {
+            this.input = input;
+        }
+
+        @Nullable
+        Object getInput() {
+            return input;
+        }
+
+        /**
+         * Adds the client extension outputs for a new credential.
+         *
+         * @param credential the response of the authenticator
+         * @param output     the authenticator extension output, or null if there is none
+         * @param results    the client extension outputs of the ceremony
+         */
+        protected void processOutput(
+                Ctap2Session.CredentialData credential,
+                @Nullable Object output,
+                Map<String, Object> results) {
+        }
+
+        /**
+         * Adds the client extension outputs for an assertion.
+         *
+         * @param assertion the response of the authenticator
+         * @param output    the authenticator extension output, or null if there is none
+         * @param results   the client extension outputs of the ceremony
+         */
+        protected void processOutput(
+                Ctap2Session.AssertionData assertion,
+                @Nullable Object output,
+                Map<String, Object> results) {
+        }
+    }
+}
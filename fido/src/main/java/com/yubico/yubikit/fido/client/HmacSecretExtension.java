@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.core.application.CommandException;
+import com.yubico.yubikit.core.util.Pair;
+import com.yubico.yubikit.fido.ctap.ClientPin;
+import com.yubico.yubikit.fido.ctap.ClientPinInternals;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.ctap.PinUvAuthDummyProtocol;
+import com.yubico.yubikit.fido.ctap.PinUvAuthProtocol;
+import com.yubico.yubikit.fido.ctap.PinUvAuthProtocolV1;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements the hmac-secret extension, which derives symmetric secrets bound to a credential.
+ * <p>
+ * Inputs: {@code hmacCreateSecret: true} when creating a credential, and
+ * {@code hmacGetSecret: {salt1, salt2}} when getting an assertion, with 32 byte salts, of which salt2 is
+ * optional. Outputs: {@code hmacCreateSecret} as a boolean, and {@code hmacGetSecret: {output1, output2}}.
+ * <p>
+ * The salts are encrypted with the shared secret of the key agreement done by the {@link ClientPin}, which is
+ * reused from the PIN/UV exchange of the same ceremony when the shared secret is cached, so that the secrets are
+ * returned together with the assertion. The copy of the shared secret held for the ceremony is overwritten once
+ * the output has been decrypted.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#sctn-hmac-secret-extension">HMAC Secret Extension</a>
+ */
+public class HmacSecretExtension extends Extension {
+    public static final String CREATE_SECRET = "hmacCreateSecret";
+    public static final String GET_SECRET = "hmacGetSecret";
+    public static final String SALT1 = "salt1";
+    public static final String SALT2 = "salt2";
+    public static final String OUTPUT1 = "output1";
+    public static final String OUTPUT2 = "output2";
+
+    private static final int SALT_LENGTH = 32;
+
+    private static final int INPUT_KEY_AGREEMENT = 0x01;
+    private static final int INPUT_SALT_ENC = 0x02;
+    private static final int INPUT_SALT_AUTH = 0x03;
+    private static final int INPUT_PIN_UV_AUTH_PROTOCOL = 0x04;
+
+    public HmacSecretExtension() {
+        super("hmac-secret");
+    }
+
+    @Nullable
+    @Override
+    protected Processor makeCredential(Ctap2Session ctap, Extensions inputs, ClientPin clientPin) {
+        if (!Boolean.TRUE.equals(inputs.get(CREATE_SECRET)) || !isSupported(ctap)) {
+            return null;
+        }
+        return new Processor(true) {
+            @Override
+            protected void processOutput(
+                    Ctap2Session.CredentialData credential,
+                    @Nullable Object output,
+                    Map<String, Object> results) {
+                results.put(CREATE_SECRET, Boolean.TRUE.equals(output));
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    protected Processor getAssertion(Ctap2Session ctap, Extensions inputs, ClientPin clientPin)
+            throws IOException, CommandException, ClientError {
+        Object input = inputs.get(GET_SECRET);
+        final PinUvAuthProtocol pinUvAuth = clientPin.getPinUvAuth();
+        if (!(input instanceof Map) || !isSupported(ctap) || pinUvAuth instanceof PinUvAuthDummyProtocol) {
+            return null;
+        }
+
+        Map<?, ?> salts = (Map<?, ?>) input;
+        byte[] salt1 = getBytes(salts.get(SALT1));
+        byte[] salt2 = salts.containsKey(SALT2) ? getBytes(salts.get(SALT2)) : new byte[0];
+        if (salt1.length != SALT_LENGTH || (salt2.length != 0 && salt2.length != SALT_LENGTH)) {
+            throw new ClientError(ClientError.Code.BAD_REQUEST, "Invalid salt length");
+        }
+        byte[] saltValues = new byte[salt1.length + salt2.length];
+        System.arraycopy(salt1, 0, saltValues, 0, salt1.length);
+        System.arraycopy(salt2, 0, saltValues, salt1.length, salt2.length);
+
+        Pair<Map<Integer, ?>, byte[]> pair = ClientPinInternals.getSharedSecret(clientPin);
+        final byte[] sharedSecret = pair.second;
+        boolean prepared = false;
+        try {
+            byte[] saltEnc = pinUvAuth.encrypt(sharedSecret, saltValues);
+
+            Map<Integer, Object> ctapInput = new HashMap<>();
+            ctapInput.put(INPUT_KEY_AGREEMENT, pair.first);
+            ctapInput.put(INPUT_SALT_ENC, saltEnc);
+            ctapInput.put(INPUT_SALT_AUTH, pinUvAuth.authenticate(sharedSecret, saltEnc));
+            if (pinUvAuth.getVersion() != PinUvAuthProtocolV1.VERSION) {
+                ctapInput.put(INPUT_PIN_UV_AUTH_PROTOCOL, pinUvAuth.getVersion());
+            }
+
+            Processor processor = new Processor(ctapInput) {
+                @Override
+                protected void processOutput(
+                        Ctap2Session.AssertionData assertion,
+                        @Nullable Object output,
+                        Map<String, Object> results) {
+                    try {
+                        if (!(output instanceof byte[])) {
+                            return;
+                        }
+                        byte[] decrypted = pinUvAuth.decrypt(sharedSecret, (byte[]) output);
+                        Map<String, Object> secrets = new HashMap<>();
+                        secrets.put(OUTPUT1, Arrays.copyOf(decrypted, SALT_LENGTH));
+                        if (decrypted.length > SALT_LENGTH) {
+                            secrets.put(OUTPUT2, Arrays.copyOfRange(decrypted, SALT_LENGTH, decrypted.length));
+                        }
+                        Arrays.fill(decrypted, (byte) 0);
+                        results.put(GET_SECRET, secrets);
+                    } finally {
+                        // Outputs are only processed for a single assertion
+                        Arrays.fill(sharedSecret, (byte) 0);
+                    }
+                }
+            };
+            prepared = true;
+            return processor;
+        } finally {
+            Arrays.fill(saltValues, (byte) 0);
+            if (!prepared) {
+                Arrays.fill(sharedSecret, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.fido.ctap.ClientPin;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements the largeBlobKey extension, which returns the key used to encrypt the data of a discoverable
+ * credential in the large blob array of the authenticator.
+ * <p>
+ * Input: {@code largeBlobKey: true}, when creating a credential or getting an assertion. Output:
+ * {@code largeBlobKey} as binary data.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#sctn-largeBlobKey-extension">Large Blob Key Extension</a>
+ */
+public class LargeBlobKeyExtension extends Extension {
+    public static final String LARGE_BLOB_KEY = "largeBlobKey";
+
+    public LargeBlobKeyExtension() {
+        super(LARGE_BLOB_KEY);
+    }
+
+    @Nullable
+    @Override
+    protected Processor makeCredential(Ctap2Session ctap, Extensions inputs, ClientPin clientPin) {
+        if (!Boolean.TRUE.equals(inputs.get(LARGE_BLOB_KEY)) || !isSupported(ctap)) {
+            return null;
+        }
+        return new Processor(true) {
+            @Override
+            protected void processOutput(
+                    Ctap2Session.CredentialData credential,
+                    @Nullable Object output,
+                    Map<String, Object> results) {
+                putKey(credential.getLargeBlobKey(), results);
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    protected Processor getAssertion(Ctap2Session ctap, Extensions inputs, ClientPin clientPin) {
+        if (!Boolean.TRUE.equals(inputs.get(LARGE_BLOB_KEY)) || !isSupported(ctap)) {
+            return null;
+        }
+        return new Processor(true) {
+            @Override
+            protected void processOutput(
+                    Ctap2Session.AssertionData assertion,
+                    @Nullable Object output,
+                    Map<String, Object> results) {
+                putKey(assertion.getLargeBlobKey(), results);
+            }
+        };
+    }
+
+    private static void putKey(@Nullable byte[] key, Map<String, Object> results) {
+        if (key != null) {
+            results.put(LARGE_BLOB_KEY, key);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.fido.ctap.ClientPin;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements the minPinLength extension, which returns the minimum PIN length of the authenticator to RPs
+ * allowed by {@link com.yubico.yubikit.fido.ctap.Config#setMinPinLength}.
+ * <p>
+ * Input: {@code minPinLength: true} when creating a credential. Output: {@code minPinLength} as an integer,
+ * if the RP is allowed to read it.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#sctn-minpinlength-extension">Minimum PIN Length Extension</a>
+ */
+public class MinPinLengthExtension extends Extension {
+    public static final String MIN_PIN_LENGTH = "minPinLength";
+
+    public MinPinLengthExtension() {
+        super(MIN_PIN_LENGTH);
+    }
+
+    @Nullable
+    @Override
+    protected Processor makeCredential(Ctap2Session ctap, Extensions inputs, ClientPin clientPin) {
+        if (!Boolean.TRUE.equals(inputs.get(MIN_PIN_LENGTH)) || !isSupported(ctap)) {
+            return null;
+        }
+        return new Processor(true) {
+            @Override
+            protected void processOutput(
+                    Ctap2Session.CredentialData credential,
+                    @Nullable Object output,
+                    Map<String, Object> results) {
+                if (output instanceof Number) {
+                    results.put(MIN_PIN_LENGTH, ((Number) output).intValue());
+                }
+            }
+        };
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.yubico.yubikit.fido.client;
 
+import com.yubico.yubikit.core.util.Pair;
 import com.yubico.yubikit.fido.ctap.Ctap2Session;
 import com.yubico.yubikit.fido.webauthn.AuthenticatorAssertionResponse;
 import com.yubico.yubikit.fido.webauthn.PublicKeyCredential;
@@ -35,12 +36,17 @@ import java.util.Objects;
 public class MultipleAssertionsAvailable extends Throwable {
     private final byte[] clientDataJson;
     private final List<Ctap2Session.AssertionData> assertions;
+    private final List<Pair<String, Extension.Processor>> processors;
 
-    MultipleAssertionsAvailable(byte[] clientDataJson, List<Ctap2Session.AssertionData> assertions) {
+    MultipleAssertionsAvailable(
+            byte[] clientDataJson,
+            List<Ctap2Session.AssertionData> assertions,
+            List<Pair<String, Extension.Processor>> processors) {
         super("Request returned multiple assertions");
 
         this.clientDataJson = clientDataJson;
         this.assertions = assertions;
+        this.processors = processors;
     }
 
     /**
@@ -102,7 +108,8 @@ public class MultipleAssertionsAvailable extends Throwable {
                         assertion.getAuthenticatorData(),
                         assertion.getSignature(),
                         Objects.requireNonNull((byte[]) user.get(PublicKeyCredentialUserEntity.ID))
-                )
+                ),
+                BasicWebAuthnClient.getClientExtensionResults(processors, assertion)
         );
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.core.fido.CtapException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the last pinUvAuthToken obtained by a {@link BasicWebAuthnClient}, so that following operations can
+ * reuse it instead of doing a new key agreement and PIN or UV exchange with the authenticator.
+ * <p>
+ * An authenticator only holds one pinUvAuthToken at a time, so this cache holds a single token, together with
+ * the permissions and permissions RP ID it was requested for, and the PIN or built-in UV used to obtain it.
+ * A cached token is only returned for a request using the same PIN (or UV), asking for a subset of its
+ * permissions, for the same RP ID, and within the time to live. A token obtained without a permissions RP ID
+ * matches any RP ID.
+ * <p>
+ * The PIN is never stored: the cache keeps a MAC of it, using a random key created per cache. Tokens are
+ * copied in and out of the cache, and the cached copy is overwritten with zeros when it is evicted.
+ * <p>
+ * Tokens are only stored and looked up by the client itself. Applications may change the time to live, or
+ * discard the cached token, for instance when the PIN is changed outside of the client.
+ */
+public class PinUvAuthTokenCache {
+    /**
+     * The default time to live of a cached token. This matches the time in which the CTAP 2.1 specification
+     * requires a new token to be used, to not be expired by the authenticator.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 30000;
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    private final byte[] pinKey = new byte[32];
+    private long ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+
+    @Nullable
+    private byte[] token;
+    @Nullable
+    private byte[] pinMac;
+    private int permissions;
+    @Nullable
+    private String rpId;
+    private long expiresAt;
+
+    PinUvAuthTokenCache() {
+        new SecureRandom().nextBytes(pinKey);
+    }
+
+    /**
+     * Sets how long a token is reused after it was obtained. A time to live of 0 disables the cache.
+     *
+     * @param ttl  the time to live of a cached token
+     * @param unit the unit of ttl
+     */
+    public synchronized void setTtl(long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+        ttlNanos = unit.toNanos(ttl);
+        if (ttlNanos == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns a copy of the cached token, if it matches the request and has not expired.
+     *
+     * @param pin         the PIN used for the request, or null for built-in user verification
+     * @param permissions the permissions needed by the request
+     * @param rpId        the permissions RP ID of the request
+     * @return a copy of the token, which the caller should overwrite once done, or null on a cache miss
+     */
+    @Nullable
+    synchronized byte[] get(@Nullable char[] pin, int permissions, @Nullable String rpId) {
+        if (token == null) {
+            return null;
+        }
+        if (System.nanoTime() - expiresAt >= 0) {
+            clear();
+            return null;
+        }
+        if ((this.permissions & permissions) != permissions
+                || (this.rpId != null && !this.rpId.equals(rpId))) {
+            return null;
+        }
+        byte[] mac = pin != null ? macPin(pin) : null;
+        try {
+            if (mac == null ? pinMac != null : pinMac == null || !MessageDigest.isEqual(mac, pinMac)) {
+                return null;
+            }
+        } finally {
+            if (mac != null) {
+                Arrays.fill(mac, (byte) 0);
+            }
+        }
+        return Arrays.copyOf(token, token.length);
+    }
+
+    /**
+     * Stores a copy of a newly obtained token, replacing the cached one.
+     *
+     * @param pin         the PIN used to obtain the token, or null for built-in user verification
+     * @param permissions the permissions of the token
+     * @param rpId        the permissions RP ID of the token
+     * @param token       the token
+     */
+    synchronized void put(@Nullable char[] pin, int permissions, @Nullable String rpId, byte[] token) {
+        clear();
+        if (ttlNanos == 0) {
+            return;
+        }
+        this.token = Arrays.copyOf(token, token.length);
+        this.pinMac = pin != null ? macPin(pin) : null;
+        this.permissions = permissions;
+        this.rpId = rpId;
+        this.expiresAt = System.nanoTime() + ttlNanos;
+    }
+
+    /**
+     * Removes permissions from the cached token, after the authenticator has cleared them.
+     *
+     * @param permissions the permissions to remove
+     */
+    synchronized void removePermissions(int permissions) {
+        this.permissions &= ~permissions;
+        if (token != null && this.permissions == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Discards the cached token, if any.
+     */
+    public synchronized void clear() {
+        if (token != null) {
+            Arrays.fill(token, (byte) 0);
+            token = null;
+        }
+        if (pinMac != null) {
+            Arrays.fill(pinMac, (byte) 0);
+            pinMac = null;
+        }
+        permissions = 0;
+        rpId = null;
+    }
+
+    /**
+     * Discards the cached token if an error shows that it, or the PIN used to obtain it, is no longer valid.
+     *
+     * @param e an error returned by the authenticator
+     * @return true if the error was caused by an invalid or expired token
+     */
+    boolean invalidate(CtapException e) {
+        switch (e.getCtapError()) {
+            case CtapException.ERR_PIN_AUTH_INVALID:
+            case CtapException.ERR_PIN_TOKEN_EXPIRED:
+                clear();
+                return true;
+            case CtapException.ERR_PIN_INVALID:
+            case CtapException.ERR_PIN_BLOCKED:
+            case CtapException.ERR_PIN_AUTH_BLOCKED:
+            case CtapException.ERR_PIN_NOT_SET:
+            case CtapException.ERR_PIN_REQUIRED:
+            case CtapException.ERR_UV_BLOCKED:
+            case CtapException.ERR_UV_INVALID:
+                clear();
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private byte[] macPin(char[] pin) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(pin));
+        byte[] data = new byte[encoded.remaining()];
+        encoded.get(data);
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(new SecretKeySpec(pinKey, HMAC_SHA256));
+            return mac.doFinal(data);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(data, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+    }
+}
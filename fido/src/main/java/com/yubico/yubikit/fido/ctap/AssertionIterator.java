@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.application.CommandException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The assertions produced by a getAssertion command, read from the authenticator as they are needed.
+ * <p>
+ * Only the first assertion is part of the getAssertion response. The following ones are read in order using
+ * authenticatorGetNextAssertion, the first time they are accessed. The authenticator only keeps them available
+ * until it receives another command, or for 30 seconds, so any needed assertions must be read before the session is
+ * used for anything else.
+ * <p>
+ * Use {@link Ctap2Session#getAssertionIterator} to get one. {@link Ctap2Session#getAssertions} and the WebAuthn client
+ * read all assertions up front instead.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#authenticatorGetNextAssertion">authenticatorGetNextAssertion</a>
+ */
+public class AssertionIterator {
+    private final Ctap2Session session;
+    private final List<Ctap2Session.AssertionData> assertions = new ArrayList<>();
+    private final int count;
+    private int position = 0;
+
+    AssertionIterator(Ctap2Session session, Ctap2Session.AssertionData first, int count) {
+        this.session = session;
+        this.count = count;
+        assertions.add(first);
+    }
+
+    /**
+     * Get the number of assertions available, as reported by the authenticator.
+     *
+     * @return the number of assertions
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Check if {@link #next()} has more assertions to return.
+     *
+     * @return true if there are more assertions
+     */
+    public boolean hasNext() {
+        return position < count;
+    }
+
+    /**
+     * Get the next assertion, reading it from the authenticator if needed.
+     *
+     * @return the next assertion
+     * @throws IOException            A communication error in the transport layer.
+     * @throws CommandException       A communication in the protocol layer.
+     * @throws NoSuchElementException if there are no more assertions
+     */
+    public Ctap2Session.AssertionData next() throws IOException, CommandException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return get(position++);
+    }
+
+    /**
+     * Get an assertion by index, reading it and all assertions before it from the authenticator if needed.
+     *
+     * @param index the index of the assertion, less than {@link #getCount()}
+     * @return the assertion
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public Ctap2Session.AssertionData get(int index) throws IOException, CommandException {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Invalid assertion index: " + index);
+        }
+        while (assertions.size() <= index) {
+            assertions.add(session.getNextAssertion());
+        }
+        return assertions.get(index);
+    }
+
+    /**
+     * Get all assertions, reading the remaining ones from the authenticator.
+     *
+     * @return an unmodifiable list of all assertions
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public List<Ctap2Session.AssertionData> getAll() throws IOException, CommandException {
+        get(count - 1);
+        return Collections.unmodifiableList(assertions);
+    }
+}
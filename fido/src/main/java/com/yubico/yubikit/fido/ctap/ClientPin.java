@@ -68,6 +68,7 @@ public class ClientPin {
 
     private final Ctap2Session ctap;
     private final PinUvAuthProtocol pinUvAuth;
+    private boolean sharedSecretCaching = false;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(ClientPin.class);
 
@@ -111,7 +112,38 @@ public class ClientPin {
         return Boolean.TRUE.equals(infoData.getOptions().get("pinUvAuthToken"));
     }
 
-    private Pair<Map<Integer, ?>, byte[]> getSharedSecret() throws IOException, CommandException {
+    /**
+     * Sets whether the shared secret of the key agreement with the authenticator is kept in the session and
+     * reused by following PIN/UV commands, instead of generating a new key pair and requesting the key agreement
+     * from the YubiKey each time. The cached secret is discarded on reset, when the PIN is set or changed, and
+     * when the authenticator returns an error to a ClientPin command. Disabled by default.
+     * <p>
+     * The cache is held by the Ctap2Session, so the secret is only reused as long as the same session is used.
+     *
+     * @param enabled true to cache the shared secret
+     */
+    public void setSharedSecretCaching(boolean enabled) {
+        sharedSecretCaching = enabled;
+    }
+
+    /**
+     * Performs a key agreement with the authenticator, or reuses the cached result if shared secret caching is
+     * enabled. This is also used by extensions which encrypt their data, such as hmac-secret, through
+     * {@link ClientPinInternals}.
+     *
+     * @return a Pair containing the keyAgreement to send to the authenticator, and a copy of the shared secret
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    Pair<Map<Integer, ?>, byte[]> getSharedSecret() throws IOException, CommandException {
+        if (sharedSecretCaching) {
+            Pair<Map<Integer, ?>, byte[]> cached = ctap.getCachedSharedSecret(pinUvAuth.getVersion());
+            if (cached != null) {
+                Logger.debug(logger, "Using cached shared secret");
+                return new Pair<>(cached.first, Arrays.copyOf(cached.second, cached.second.length));
+            }
+        }
+
         Logger.debug(logger, "Getting shared secret");
         Map<Integer, ?> result = ctap.clientPin(
                 pinUvAuth.getVersion(),
@@ -128,7 +160,13 @@ public class ClientPin {
         @SuppressWarnings("unchecked")
         Map<Integer, ?> peerCoseKey =
                 Objects.requireNonNull((Map<Integer, ?>) result.get(RESULT_KEY_AGREEMENT));
-        return pinUvAuth.encapsulate(peerCoseKey);
+        Pair<Map<Integer, ?>, byte[]> pair = pinUvAuth.encapsulate(peerCoseKey);
+        if (sharedSecretCaching) {
+            ctap.cacheSharedSecret(
+                    pinUvAuth.getVersion(),
+                    new Pair<>(pair.first, Arrays.copyOf(pair.second, pair.second.length)));
+        }
+        return pair;
     }
 
     /**
@@ -327,6 +365,7 @@ public class ClientPin {
                 null,
                 null
         );
+        ctap.clearSharedSecrets();
         Logger.info(logger, "PIN set");
     }
 
@@ -376,6 +415,7 @@ public class ClientPin {
                     null,
                     null
             );
+            ctap.clearSharedSecrets();
             Logger.info(logger, "PIN changed");
         } catch (NoSuchAlgorithmException e) {
             Logger.error(logger, "Failure changing PIN: ", e);
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.application.CommandException;
+import com.yubico.yubikit.core.util.Pair;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Gives the client extensions of YubiKit access to the key agreement of a {@link ClientPin}.
+ * <p>
+ * Used internally in YubiKit, don't use from applications.
+ */
+public final class ClientPinInternals {
+    private ClientPinInternals() {
+    }
+
+    /**
+     * Performs a key agreement with the authenticator, or reuses the cached result if shared secret caching is
+     * enabled.
+     *
+     * @param clientPin the ClientPin to use
+     * @return a Pair containing the keyAgreement to send to the authenticator, and a copy of the shared secret,
+     * which the caller should overwrite once done
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public static Pair<Map<Integer, ?>, byte[]> getSharedSecret(ClientPin clientPin)
+            throws IOException, CommandException {
+        return clientPin.getSharedSecret();
+    }
+}
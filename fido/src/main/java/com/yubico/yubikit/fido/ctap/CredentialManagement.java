@@ -22,8 +22,11 @@ import com.yubico.yubikit.fido.Cbor;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -62,6 +65,37 @@ public class CredentialManagement {
     private final Ctap2Session ctap;
     private final PinUvAuthProtocol pinUvAuth;
     private final byte[] pinUvToken;
+    @Nullable
+    private EnumerationCache cache;
+
+    /**
+     * Receives the items of an enumeration, as they are read from the YubiKey.
+     *
+     * @param <T> the type of the items
+     */
+    public interface EnumerationCallback<T> {
+        /**
+         * Called for each item of the enumeration.
+         *
+         * @param item the item
+         * @return true to continue the enumeration, false to stop it
+         */
+        boolean onItem(T item);
+    }
+
+    /**
+     * Receives the credentials of an enumeration of all RPs, as they are read from the YubiKey.
+     */
+    public interface CredentialCallback {
+        /**
+         * Called for each credential of the enumeration.
+         *
+         * @param rp         the RP the credential belongs to
+         * @param credential the credential
+         * @return true to continue the enumeration, false to stop it
+         */
+        boolean onCredential(RpData rp, CredentialData credential);
+    }
 
     /**
      * Construct a new CredentialManagement object.
@@ -114,6 +148,19 @@ public class CredentialManagement {
         );
     }
 
+    /**
+     * Sets a cache for the results of enumerations. When set, each enumeration first reads the credential
+     * metadata from the YubiKey, and if the credential counts are the same as when the cache was filled, the
+     * cached results are returned instead of enumerating again.
+     * <p>
+     * A cache must only be used with a single YubiKey, but may be reused between sessions with it.
+     *
+     * @param cache the cache to use, or null to not cache enumerations
+     */
+    public void setEnumerationCache(@Nullable EnumerationCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Get the underlying Pin/UV Auth protocol in use.
      *
@@ -147,14 +194,107 @@ public class CredentialManagement {
      */
     public List<RpData> enumerateRps() throws IOException, CommandException {
         List<RpData> list = new ArrayList<>();
+        enumerateRps(getValidCache(), list::add);
+        return list;
+    }
+
+    /**
+     * Enumerate which RPs this YubiKey has credentials stored for, passing each to a callback as it is read.
+     *
+     * @param callback the callback to invoke for each RP, which can stop the enumeration
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public void enumerateRps(EnumerationCallback<RpData> callback) throws IOException, CommandException {
+        enumerateRps(getValidCache(), callback);
+    }
+
+    /**
+     * Enumerate credentials stored for a particular RP.
+     *
+     * @param rpIdHash The SHA-256 hash of an RP ID to enumerate for.
+     * @return A list of Credentials.
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public List<CredentialData> enumerateCredentials(byte[] rpIdHash) throws IOException, CommandException {
+        List<CredentialData> list = new ArrayList<>();
+        enumerateCredentials(getValidCache(), rpIdHash, list::add);
+        return list;
+    }
+
+    /**
+     * Enumerate credentials stored for a particular RP, passing each to a callback as it is read.
+     *
+     * @param rpIdHash The SHA-256 hash of an RP ID to enumerate for.
+     * @param callback the callback to invoke for each credential, which can stop the enumeration
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public void enumerateCredentials(byte[] rpIdHash, EnumerationCallback<CredentialData> callback)
+            throws IOException, CommandException {
+        enumerateCredentials(getValidCache(), rpIdHash, callback);
+    }
+
+    /**
+     * Enumerate all credentials stored on this YubiKey, passing each to a callback as it is read.
+     * <p>
+     * The RPs are read first, as CTAP does not allow enumerating credentials while enumerating RPs, and then the
+     * credentials of each RP in turn.
+     *
+     * @param callback the callback to invoke for each credential, which can stop the enumeration
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public void enumerateAll(CredentialCallback callback) throws IOException, CommandException {
+        EnumerationCache validCache = getValidCache();
+        List<RpData> rps = new ArrayList<>();
+        enumerateRps(validCache, rps::add);
+        for (RpData rp : rps) {
+            if (!enumerateCredentials(validCache, rp.getRpIdHash(),
+                    credential -> callback.onCredential(rp, credential))) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Returns the cache if it is still valid for the credentials on the YubiKey, or null if no cache is set.
+     */
+    @Nullable
+    private EnumerationCache getValidCache() throws IOException, CommandException {
+        EnumerationCache cache = this.cache;
+        if (cache != null) {
+            cache.validate(getMetadata());
+        }
+        return cache;
+    }
+
+    /*
+     * Returns false if the enumeration was stopped by the callback.
+     */
+    private boolean enumerateRps(@Nullable EnumerationCache cache, EnumerationCallback<RpData> callback)
+            throws IOException, CommandException {
+        if (cache != null && cache.rps != null) {
+            return replay(cache.rps, callback);
+        }
+        List<RpData> read = new ArrayList<>();
         try {
             Map<Integer, ?> first = call(CMD_ENUMERATE_RPS_BEGIN, null, true);
             Integer nRps = (Integer) first.get(RESULT_TOTAL_RPS);
 
             if (nRps != null && nRps > 0) {
-                list.add(RpData.fromData(first));
+                RpData rp = RpData.fromData(first);
+                read.add(rp);
+                if (!callback.onItem(rp)) {
+                    return false;
+                }
                 for (int i = nRps; i > 1; i--) {
-                    list.add(RpData.fromData(call(CMD_ENUMERATE_RPS_NEXT, null, false)));
+                    rp = RpData.fromData(call(CMD_ENUMERATE_RPS_NEXT, null, false));
+                    read.add(rp);
+                    if (!callback.onItem(rp)) {
+                        return false;
+                    }
                 }
             }
         } catch (CtapException e) {
@@ -162,33 +302,61 @@ public class CredentialManagement {
                 throw e;
             }
         }
-
-        return list;
+        if (cache != null) {
+            cache.rps = read;
+        }
+        return true;
     }
 
-    /**
-     * Enumerate credentials stored for a particular RP.
-     *
-     * @param rpIdHash The SHA-256 hash of an RP ID to enumerate for.
-     * @return A list of Credentials.
-     * @throws IOException      A communication error in the transport layer.
-     * @throws CommandException A communication in the protocol layer.
+    /*
+     * Returns false if the enumeration was stopped by the callback.
      */
-    public List<CredentialData> enumerateCredentials(byte[] rpIdHash) throws IOException, CommandException {
-        List<CredentialData> list = new ArrayList<>();
+    private boolean enumerateCredentials(
+            @Nullable EnumerationCache cache,
+            byte[] rpIdHash,
+            EnumerationCallback<CredentialData> callback
+    ) throws IOException, CommandException {
+        ByteBuffer key = ByteBuffer.wrap(Arrays.copyOf(rpIdHash, rpIdHash.length));
+        if (cache != null) {
+            List<CredentialData> cached = cache.credentials.get(key);
+            if (cached != null) {
+                return replay(cached, callback);
+            }
+        }
+        List<CredentialData> read = new ArrayList<>();
         try {
             Map<Integer, ?> first = call(CMD_ENUMERATE_CREDS_BEGIN, Collections.singletonMap(PARAM_RP_ID_HASH, rpIdHash), true);
-            list.add(CredentialData.fromData(first));
+            CredentialData credential = CredentialData.fromData(first);
+            read.add(credential);
+            if (!callback.onItem(credential)) {
+                return false;
+            }
             int nCreds = Objects.requireNonNull((Integer) first.get(RESULT_TOTAL_CREDENTIALS));
             for (int i = nCreds; i > 1; i--) {
-                list.add(CredentialData.fromData(call(CMD_ENUMERATE_CREDS_NEXT, null, false)));
+                credential = CredentialData.fromData(call(CMD_ENUMERATE_CREDS_NEXT, null, false));
+                read.add(credential);
+                if (!callback.onItem(credential)) {
+                    return false;
+                }
             }
         } catch (CtapException e) {
             if (e.getCtapError() != CtapException.ERR_NO_CREDENTIALS) {
                 throw e;
             }
         }
-        return list;
+        if (cache != null) {
+            cache.credentials.put(key, read);
+        }
+        return true;
+    }
+
+    private static <T> boolean replay(List<T> items, EnumerationCallback<T> callback) {
+        for (T item : items) {
+            if (!callback.onItem(item)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -199,9 +367,48 @@ public class CredentialManagement {
      * @throws CommandException A communication in the protocol layer.
      */
     public void deleteCredential(Map<String, ?> credentialId) throws IOException, CommandException {
+        EnumerationCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
         call(CMD_DELETE_CREDENTIAL, Collections.singletonMap(PARAM_CREDENTIAL_ID, credentialId), true);
     }
 
+    /**
+     * Holds the results of enumerations, see {@link #setEnumerationCache(EnumerationCache)}.
+     * <p>
+     * The cache is considered valid as long as the number of existing credentials and the number of remaining
+     * credentials reported by the YubiKey do not change. Changes which keep both counts, such as replacing a
+     * credential, can not be detected: call {@link #clear()} after modifying credentials outside of the
+     * CredentialManagement using this cache.
+     */
+    public static class EnumerationCache {
+        private int existingCount = -1;
+        private int remainingCount = -1;
+        @Nullable
+        private List<RpData> rps;
+        private final Map<ByteBuffer, List<CredentialData>> credentials = new HashMap<>();
+
+        /**
+         * Discards all cached results.
+         */
+        public void clear() {
+            existingCount = -1;
+            remainingCount = -1;
+            rps = null;
+            credentials.clear();
+        }
+
+        private void validate(Metadata metadata) {
+            if (metadata.getExistingResidentCredentialsCount() != existingCount
+                    || metadata.getMaxPossibleRemainingResidentCredentialsCount() != remainingCount) {
+                clear();
+                existingCount = metadata.getExistingResidentCredentialsCount();
+                remainingCount = metadata.getMaxPossibleRemainingResidentCredentialsCount();
+            }
+        }
+    }
+
     /**
      * CTAP2 Credential Management Metadata object.
      */
@@ -32,18 +32,22 @@ import com.yubico.yubikit.core.smartcard.AppId;
 import com.yubico.yubikit.core.smartcard.SmartCardConnection;
 import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
 import com.yubico.yubikit.core.util.Callback;
+import com.yubico.yubikit.core.util.Pair;
 import com.yubico.yubikit.core.util.Result;
 import com.yubico.yubikit.core.util.StringUtils;
 import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.CborReader;
+import com.yubico.yubikit.fido.CborWriter;
 import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialDescriptor;
 import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialParameters;
 
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -78,11 +82,21 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
 
     private final Version version;
     private final Backend<?> backend;
-    private final InfoData info;
+    // Reused to encode each request, cleared after use
+    private final CborWriter requestWriter = new CborWriter(256);
+    // Shared secrets of cached ClientPin key agreements, by PIN/UV Auth protocol version
+    private final Map<Integer, Pair<Map<Integer, ?>, byte[]>> sharedSecrets = new HashMap<>();
     @Nullable
-    private final Byte credentialManagerCommand;
+    private final InfoDataCache infoCache;
     @Nullable
-    private final Byte bioEnrollmentCommand;
+    private final InfoDataCache.Key infoKey;
+    private InfoData info;
+    // Set while info comes from the cache, and has not been read from the authenticator
+    private boolean infoFromCache;
+    @Nullable
+    private Byte credentialManagerCommand;
+    @Nullable
+    private Byte bioEnrollmentCommand;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(Ctap2Session.class);
 
@@ -109,24 +123,99 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
 
     public Ctap2Session(SmartCardConnection connection, Version version)
             throws IOException, CommandException {
-        this(version, getSmartCardBackend(connection));
+        this(version, getSmartCardBackend(connection), null, null);
+        Logger.debug(logger, "Ctap2Session session initialized for connection={}, version={}",
+                connection.getClass().getSimpleName(),
+                version);
+    }
+
+    /**
+     * Construct a new Ctap2Session, using the InfoData cached for the device instead of sending getInfo.
+     * <p>
+     * The device is identified by its AAGUID, as reported by an earlier session, and by its firmware version and
+     * serial number, which should be read using the Management application as the version is not reported over
+     * NFC. The InfoData is read from the authenticator, and stored in the cache, if there is no cached InfoData, or
+     * if a command fails with an error indicating that the cached InfoData is outdated.
+     *
+     * @param connection a SmartCardConnection to the YubiKey
+     * @param version    the firmware version of the YubiKey
+     * @param infoCache  the cache to get InfoData from, and to store InfoData in
+     * @param aaguid     the AAGUID of the YubiKey
+     * @param serial     the serial number of the YubiKey
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     * @see InfoDataCache
+     */
+    public Ctap2Session(
+            SmartCardConnection connection,
+            Version version,
+            InfoDataCache infoCache,
+            byte[] aaguid,
+            int serial
+    ) throws IOException, CommandException {
+        this(version, getSmartCardBackend(connection), infoCache, new InfoDataCache.Key(aaguid, version, serial));
         Logger.debug(logger, "Ctap2Session session initialized for connection={}, version={}",
                 connection.getClass().getSimpleName(),
                 version);
     }
 
     public Ctap2Session(FidoConnection connection) throws IOException, CommandException {
-        this(new FidoProtocol(connection));
+        this(new FidoProtocol(connection), null, null, 0);
         Logger.debug(logger, "Ctap2Session session initialized for connection={}, version={}",
                 connection.getClass().getSimpleName(),
                 version);
     }
 
-    private Ctap2Session(Version version, Backend<?> backend)
+    /**
+     * Construct a new Ctap2Session, using the InfoData cached for the device instead of sending getInfo.
+     * <p>
+     * The device is identified by its AAGUID, as reported by an earlier session, by the firmware version
+     * reported by CTAPHID, and by its serial number, which should be read using the Management application. The
+     * InfoData is read from the authenticator, and stored in the cache, if there is no cached InfoData, or if a
+     * command fails with an error indicating that the cached InfoData is outdated.
+     *
+     * @param connection a FidoConnection to the YubiKey
+     * @param infoCache  the cache to get InfoData from, and to store InfoData in
+     * @param aaguid     the AAGUID of the YubiKey
+     * @param serial     the serial number of the YubiKey
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     * @see InfoDataCache
+     */
+    public Ctap2Session(FidoConnection connection, InfoDataCache infoCache, byte[] aaguid, int serial)
             throws IOException, CommandException {
+        this(new FidoProtocol(connection), infoCache, aaguid, serial);
+        Logger.debug(logger, "Ctap2Session session initialized for connection={}, version={}",
+                connection.getClass().getSimpleName(),
+                version);
+    }
+
+    private Ctap2Session(
+            Version version,
+            Backend<?> backend,
+            @Nullable InfoDataCache infoCache,
+            @Nullable InfoDataCache.Key infoKey
+    ) throws IOException, CommandException {
         this.version = version;
         this.backend = backend;
-        this.info = getInfo();
+        this.infoCache = infoCache;
+        this.infoKey = infoKey;
+
+        InfoData cachedInfo = null;
+        if (infoCache != null && infoKey != null) {
+            cachedInfo = infoCache.get(infoKey);
+        }
+        if (cachedInfo != null) {
+            Logger.debug(logger, "Using cached Ctap2.InfoData");
+            infoFromCache = true;
+            setInfo(cachedInfo);
+        } else {
+            getInfo();
+        }
+    }
+
+    private void setInfo(InfoData info) {
+        this.info = info;
 
         final Map<String, ?> options = info.getOptions();
         if (Boolean.TRUE.equals(options.get("credMgmt"))) {
@@ -161,14 +250,19 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         };
     }
 
-    private Ctap2Session(FidoProtocol protocol) throws IOException, CommandException {
+    private Ctap2Session(
+            FidoProtocol protocol,
+            @Nullable InfoDataCache infoCache,
+            @Nullable byte[] aaguid,
+            int serial
+    ) throws IOException, CommandException {
         this(protocol.getVersion(), new Backend<FidoProtocol>(protocol) {
             @Override
             byte[] sendCbor(byte[] data, @Nullable CommandState state) throws IOException {
                 byte CTAPHID_CBOR = (byte) 0x80 | 0x10;
                 return delegate.sendAndReceive(CTAPHID_CBOR, data, state);
             }
-        });
+        }, infoCache, aaguid != null ? new InfoDataCache.Key(aaguid, protocol.getVersion(), serial) : null);
     }
 
     /**
@@ -189,26 +283,95 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
             @Nullable Object payload,
             @Nullable CommandState state
     ) throws IOException, CommandException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(command);
-        if (payload != null) {
-            Cbor.encodeTo(baos, payload);
+        byte[] request;
+        try {
+            if (payload != null) {
+                requestWriter.writeValue(payload);
+            }
+            request = requestWriter.toByteArray(1);
+        } finally {
+            requestWriter.reset();
         }
-        byte[] response = backend.sendCbor(baos.toByteArray(), state);
+        request[0] = command;
+
+        byte[] response = backend.sendCbor(request, state);
         byte status = response[0];
         if (status != 0x00) {
+            if (infoFromCache && command != CMD_GET_INFO && isInfoDependentError(status)) {
+                revalidateInfo();
+            }
             throw new CtapException(status);
         }
         if (response.length == 1) {
             return Collections.emptyMap(); // Empty response
         }
+        return decodeResponse(response);
+    }
+
+    /*
+     * Errors which may be caused by acting on outdated InfoData, such as options or extensions which are no
+     * longer supported, or a PIN which has since been set.
+     */
+    private static boolean isInfoDependentError(byte status) {
+        switch (status) {
+            case CtapException.ERR_INVALID_COMMAND:
+            case CtapException.ERR_INVALID_PARAMETER:
+            case CtapException.ERR_LIMIT_EXCEEDED:
+            case CtapException.ERR_UNSUPPORTED_EXTENSION:
+            case CtapException.ERR_UNSUPPORTED_ALGORITHM:
+            case CtapException.ERR_UNSUPPORTED_OPTION:
+            case CtapException.ERR_INVALID_OPTION:
+            case CtapException.ERR_PIN_NOT_SET:
+            case CtapException.ERR_PIN_REQUIRED:
+            case CtapException.ERR_REQUEST_TOO_LARGE:
+            case CtapException.ERR_INVALID_SUBCOMMAND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /*
+     * Replaces InfoData taken from the cache with InfoData read from the authenticator. A failure to read it is
+     * logged and ignored, as the error of the original command is more relevant to the caller.
+     */
+    private void revalidateInfo() {
+        infoFromCache = false;
+        try {
+            Logger.debug(logger, "Command failed using cached Ctap2.InfoData, reading InfoData");
+            getInfo();
+        } catch (IOException | CommandException e) {
+            Logger.debug(logger, "Failed to read InfoData: {}", e.getMessage());
+        }
+    }
 
+    /*
+     * Decodes the top level map of a response directly, checking that all keys are integers.
+     */
+    private static Map<Integer, ?> decodeResponse(byte[] response) throws BadResponseException {
         try {
-            @SuppressWarnings("unchecked")
-            Map<Integer, ?> value = (Map<Integer, ?>) Cbor.decode(response, 1, response.length - 1);
-            return value != null ? value : Collections.emptyMap();
-        } catch (ClassCastException e) {
-            throw new BadResponseException("Unexpected CBOR data in response");
+            CborReader reader = new CborReader(response, 1, response.length - 1);
+            if (reader.readNull()) {
+                return Collections.emptyMap();
+            }
+            if (reader.peekType() != CborReader.Type.MAP) {
+                throw new BadResponseException("Unexpected CBOR data in response");
+            }
+            int size = reader.readMapHeader();
+            Map<Integer, Object> value = new HashMap<>();
+            for (int i = 0; size < 0 ? !reader.readBreak() : i < size; i++) {
+                CborReader.Type keyType = reader.peekType();
+                if (keyType != CborReader.Type.UNSIGNED_INTEGER && keyType != CborReader.Type.NEGATIVE_INTEGER) {
+                    throw new BadResponseException("Unexpected CBOR data in response");
+                }
+                value.put(reader.readInt(), reader.readValue());
+            }
+            if (reader.hasNext()) {
+                throw new BadResponseException("Extraneous data in response");
+            }
+            return value;
+        } catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new BadResponseException("Invalid CBOR data in response", e);
         }
     }
 
@@ -298,6 +461,51 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
             @Nullable byte[] pinUvAuthParam,
             @Nullable Integer pinUvAuthProtocol,
             @Nullable CommandState state
+    ) throws IOException, CommandException {
+        List<AssertionData> assertions = getAssertionIterator(
+                rpId,
+                clientDataHash,
+                allowList,
+                extensions,
+                options,
+                pinUvAuthParam,
+                pinUvAuthProtocol,
+                state
+        ).getAll();
+        Logger.info(logger, "Authenticator returned {} assertions.", assertions.size());
+        return assertions;
+    }
+
+    /**
+     * This method is used by a host to request cryptographic proof of user authentication as well
+     * as user consent to a given transaction, using a previously generated credential that is bound
+     * to the authenticator and relying party identifier.
+     * <p>
+     * Only the first assertion is read by this method. Any further assertions are read on demand by the
+     * returned {@link AssertionIterator}.
+     *
+     * @param rpId              the RP ID for the request
+     * @param clientDataHash    a SHA-256 hash of the clientDataJson
+     * @param allowList         a List of Maps of already registered credentials
+     * @param extensions        a Map of CTAP extension inputs
+     * @param options           a Map of CTAP options
+     * @param pinUvAuthParam    a byte array derived from a pinToken
+     * @param pinUvAuthProtocol the PIN protocol version used for the pinUvAuthParam
+     * @param state             used to cancel a request and handle keepalive signals
+     * @return an AssertionIterator, holding the first assertion
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#authenticatorGetAssertion">authenticatorGetAssertion</a>
+     */
+    public AssertionIterator getAssertionIterator(
+            String rpId,
+            byte[] clientDataHash,
+            @Nullable List<Map<String, ?>> allowList,
+            @Nullable Map<String, ?> extensions,
+            @Nullable Map<String, ?> options,
+            @Nullable byte[] pinUvAuthParam,
+            @Nullable Integer pinUvAuthProtocol,
+            @Nullable CommandState state
     ) throws IOException, CommandException {
         Logger.debug(logger, "getAssertions for rpId={},clientDataHash={}," +
                         "allowList={},extensions={},options={},pinUvAuthParam={}," +
@@ -313,15 +521,21 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
                         pinUvAuthParam,
                         pinUvAuthProtocol),
                 state);
-        List<AssertionData> assertions = new ArrayList<>();
-        assertions.add(AssertionData.fromData(assertion));
-        Integer nCreds = (Integer) assertion.get(AssertionData.RESULT_N_CREDS);
-        int credentialCount = nCreds != null ? nCreds : 1;
-        for (int i = credentialCount; i > 1; i--) {
-            assertions.add(AssertionData.fromData(Objects.requireNonNull(sendCbor(CMD_GET_NEXT_ASSERTION, null, null))));
+        AssertionData first = AssertionData.fromData(assertion);
+        if (first.credential == null && allowList != null && allowList.size() == 1) {
+            // The credential may be omitted when the allowList holds a single credential
+            first = new AssertionData(allowList.get(0), first.user, first.signature, first.authenticatorData,
+                    first.largeBlobKey);
         }
-        Logger.info(logger, "Authenticator returned {} assertions.", credentialCount);
-        return assertions;
+        Integer nCreds = (Integer) assertion.get(AssertionData.RESULT_N_CREDS);
+        return new AssertionIterator(this, first, nCreds != null ? nCreds : 1);
+    }
+
+    /**
+     * Reads the next assertion of the last getAssertion command.
+     */
+    AssertionData getNextAssertion() throws IOException, CommandException {
+        return AssertionData.fromData(Objects.requireNonNull(sendCbor(CMD_GET_NEXT_ASSERTION, null, null)));
     }
 
     /**
@@ -329,6 +543,9 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
      * supported protocol versions and extensions, its AAGUID, and other aspects of its overall
      * capabilities. Platforms should use this information to tailor their command parameters
      * choices.
+     * <p>
+     * The result replaces the InfoData returned by {@link #getCachedInfo()}, and is stored in the
+     * {@link InfoDataCache} of the session, if any.
      *
      * @return an InfoData object with information about the YubiKey
      * @throws IOException      A communication error in the transport layer.
@@ -339,6 +556,12 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         final Map<Integer, ?> infoData = sendCbor(CMD_GET_INFO, null, null);
         final InfoData info = InfoData.fromData(infoData);
         Logger.debug(logger, "Ctap2.InfoData: {}", info);
+        infoFromCache = false;
+        setInfo(info);
+        if (infoCache != null && infoKey != null) {
+            // Stored under the key it is looked up by, which identifies the device this session is connected to
+            infoCache.put(infoKey, info);
+        }
         return info;
     }
 
@@ -374,19 +597,53 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
                         "keyAgreement={},pinUvAuthParam={},newPinEnc={},pinHashEnc={}," +
                         "permissions={},rpId={}", pinUvAuthProtocol, subCommand, keyAgreement,
                 pinUvAuthParam, newPinEnc, pinHashEnc, permissions, rpId);
-        return sendCbor(
-                CMD_CLIENT_PIN, args(
-                        pinUvAuthProtocol,
-                        subCommand,
-                        keyAgreement,
-                        pinUvAuthParam,
-                        newPinEnc,
-                        pinHashEnc,
-                        null,
-                        null,
-                        permissions,
-                        rpId
-                ), state);
+        try {
+            return sendCbor(
+                    CMD_CLIENT_PIN, args(
+                            pinUvAuthProtocol,
+                            subCommand,
+                            keyAgreement,
+                            pinUvAuthParam,
+                            newPinEnc,
+                            pinHashEnc,
+                            null,
+                            null,
+                            permissions,
+                            rpId
+                    ), state);
+        } catch (CtapException e) {
+            // The authenticator may have regenerated its key agreement key
+            clearSharedSecrets();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the cached shared secret for a PIN/UV Auth protocol version, if any.
+     */
+    @Nullable
+    Pair<Map<Integer, ?>, byte[]> getCachedSharedSecret(int pinUvAuthProtocol) {
+        return sharedSecrets.get(pinUvAuthProtocol);
+    }
+
+    /**
+     * Caches the shared secret of a key agreement, until the next reset or ClientPin error.
+     */
+    void cacheSharedSecret(int pinUvAuthProtocol, Pair<Map<Integer, ?>, byte[]> sharedSecret) {
+        Pair<Map<Integer, ?>, byte[]> previous = sharedSecrets.put(pinUvAuthProtocol, sharedSecret);
+        if (previous != null && previous != sharedSecret) {
+            Arrays.fill(previous.second, (byte) 0);
+        }
+    }
+
+    /**
+     * Discards all cached shared secrets.
+     */
+    void clearSharedSecrets() {
+        for (Pair<Map<Integer, ?>, byte[]> sharedSecret : sharedSecrets.values()) {
+            Arrays.fill(sharedSecret.second, (byte) 0);
+        }
+        sharedSecrets.clear();
     }
 
     /**
@@ -401,6 +658,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
      * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#authenticatorReset">authenticatorReset</a>
      */
     public void reset(@Nullable CommandState state) throws IOException, CommandException {
+        clearSharedSecrets();
         sendCbor(CMD_RESET, null, state);
     }
 
@@ -474,6 +732,38 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
                 null);
     }
 
+    /**
+     * This command is used by the platform to read and write the large, per-credential blobs stored
+     * by the authenticator, as fragments of the serialized large-blob array.
+     *
+     * @param offset            the byte offset of the fragment in the serialized array
+     * @param get               the number of bytes to read, or null when writing
+     * @param set               the fragment to write, or null when reading
+     * @param length            the total length of the array being written, only sent with the first fragment
+     * @param pinUvAuthParam    first 16 bytes of HMAC-SHA-256 of the fragment message using pinUvAuthToken
+     * @param pinUvAuthProtocol PIN/UV protocol version chosen by the platform
+     * @return the response map, containing the fragment read
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#authenticatorLargeBlobs">authenticatorLargeBlobs</a>
+     */
+    Map<Integer, ?> largeBlobs(
+            int offset,
+            @Nullable Integer get,
+            @Nullable byte[] set,
+            @Nullable Integer length,
+            @Nullable byte[] pinUvAuthParam,
+            @Nullable Integer pinUvAuthProtocol
+    ) throws IOException, CommandException {
+        return sendCbor(CMD_LARGE_BLOBS, args(
+                get,
+                set,
+                offset,
+                length,
+                pinUvAuthParam,
+                pinUvAuthParam != null ? pinUvAuthProtocol : null), null);
+    }
+
     /**
      * This command allows the platform to let a user select a certain authenticator by asking for
      * user presence.
@@ -516,6 +806,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
 
     @Override
     public void close() throws IOException {
+        clearSharedSecrets();
         backend.close();
     }
 
@@ -524,6 +815,16 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         return version;
     }
 
+    /**
+     * Get the InfoData of the authenticator, as read when the session was created, or by the last call to
+     * {@link #getInfo()}, or as taken from an {@link InfoDataCache}.
+     * <p>
+     * Values which change as the authenticator is used, such as the clientPin option or the number of remaining
+     * discoverable credentials, are only as current as the last getInfo command. Call {@link #getInfo()} to read
+     * them from the authenticator.
+     *
+     * @return the InfoData of the authenticator
+     */
     public InfoData getCachedInfo() {
         return info;
     }
@@ -571,6 +872,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         private final static int RESULT_REMAINING_DISCOVERABLE_CREDENTIALS = 0x14;
         private final static int RESULT_VENDOR_PROTOTYPE_CONFIG_COMMANDS = 0x15;
 
+        private final Map<Integer, ?> data;
         private final List<String> versions;
         private final List<String> extensions;
         private final byte[] aaguid;
@@ -600,6 +902,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         private final List<Integer> vendorPrototypeConfigCommands;
 
         private InfoData(
+                Map<Integer, ?> data,
                 List<String> versions,
                 List<String> extensions,
                 byte[] aaguid,
@@ -621,6 +924,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
                 Map<String, Object> certifications,
                 @Nullable Integer remainingDiscoverableCredentials,
                 @Nullable List<Integer> vendorPrototypeConfigCommands) {
+            this.data = data;
             this.versions = versions;
             this.extensions = extensions;
             this.aaguid = aaguid;
@@ -645,9 +949,41 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
 
         }
 
+        /**
+         * Parse InfoData from its CBOR encoding, as returned by {@link #getBytes()}.
+         *
+         * @param bytes the CBOR encoded InfoData
+         * @return the parsed InfoData
+         * @throws BadResponseException if the data is not valid InfoData
+         */
+        public static InfoData fromBytes(byte[] bytes) throws BadResponseException {
+            byte[] response = new byte[1 + bytes.length];
+            System.arraycopy(bytes, 0, response, 1, bytes.length);
+            Map<Integer, ?> data = decodeResponse(response);
+            if (!(data.get(RESULT_VERSIONS) instanceof List) || !(data.get(RESULT_AAGUID) instanceof byte[])) {
+                throw new BadResponseException("Invalid InfoData");
+            }
+            try {
+                return fromData(data);
+            } catch (ClassCastException | NullPointerException e) {
+                throw new BadResponseException("Invalid InfoData", e);
+            }
+        }
+
+        /**
+         * Get the CBOR encoding of the InfoData, which can be parsed by {@link #fromBytes(byte[])}. The data is
+         * encoded again from the parsed response, and may differ from the bytes sent by the authenticator.
+         *
+         * @return the CBOR encoded InfoData
+         */
+        public byte[] getBytes() {
+            return Cbor.encode(data);
+        }
+
         @SuppressWarnings("unchecked")
         private static InfoData fromData(Map<Integer, ?> data) {
             return new InfoData(
+                    data,
                     (List<String>) data.get(RESULT_VERSIONS),
                     data.containsKey(RESULT_EXTENSIONS)
                             ? (List<String>) data.get(RESULT_EXTENSIONS)
@@ -765,7 +1101,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
          * @return maximum number of credentials
          */
         @Nullable
-        Integer getMaxCredentialCountInList() {
+        public Integer getMaxCredentialCountInList() {
             return maxCredentialCountInList;
         }
 
@@ -775,7 +1111,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
          * @return maximum Credential ID length
          */
         @Nullable
-        Integer getMaxCredentialIdLength() {
+        public Integer getMaxCredentialIdLength() {
             return maxCredentialIdLength;
         }
 
@@ -1057,6 +1393,7 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         private final static int RESULT_SIGNATURE = 3;
         private final static int RESULT_USER = 4;
         private final static int RESULT_N_CREDS = 5;
+        private final static int RESULT_LARGE_BLOB_KEY = 7;
 
         @Nullable
         private final Map<String, ?> credential;
@@ -1064,12 +1401,15 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
         private final Map<String, ?> user;
         private final byte[] signature;
         private final byte[] authenticatorData;
+        @Nullable
+        private final byte[] largeBlobKey;
 
-        private AssertionData(@Nullable Map<String, ?> credential, @Nullable Map<String, ?> user, byte[] signature, byte[] authenticatorData) {
+        private AssertionData(@Nullable Map<String, ?> credential, @Nullable Map<String, ?> user, byte[] signature, byte[] authenticatorData, @Nullable byte[] largeBlobKey) {
             this.credential = credential;
             this.user = user;
             this.signature = signature;
             this.authenticatorData = authenticatorData;
+            this.largeBlobKey = largeBlobKey;
         }
 
         @SuppressWarnings("unchecked")
@@ -1078,7 +1418,8 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
                     (Map<String, ?>) data.get(RESULT_CREDENTIAL),
                     (Map<String, ?>) data.get(RESULT_USER),
                     Objects.requireNonNull((byte[]) data.get(RESULT_SIGNATURE)),
-                    Objects.requireNonNull((byte[]) data.get(RESULT_AUTH_DATA))
+                    Objects.requireNonNull((byte[]) data.get(RESULT_AUTH_DATA)),
+                    (byte[]) data.get(RESULT_LARGE_BLOB_KEY)
             );
         }
 
@@ -1121,6 +1462,16 @@ public class Ctap2Session extends ApplicationSession<Ctap2Session> {
             return authenticatorData;
         }
 
+        /**
+         * The largeBlobKey for the credential, if requested with the largeBlobKey extension.
+         *
+         * @return the largeBlobKey for the credential
+         */
+        @Nullable
+        public byte[] getLargeBlobKey() {
+            return largeBlobKey;
+        }
+
         /**
          * Helper function for obtaining credential id for AssertionData with help of allowCredentials.
          *
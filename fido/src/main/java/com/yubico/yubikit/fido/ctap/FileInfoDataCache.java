@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.application.BadResponseException;
+import com.yubico.yubikit.core.internal.Logger;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InfoDataCache} storing InfoData in a directory, so that it is kept between runs of the
+ * application.
+ * <p>
+ * Each entry is stored in a separate file, holding the InfoData encoded by {@link Ctap2Session.InfoData#getBytes()},
+ * in canonical CBOR. Files are replaced atomically where the file system supports it, and files which can not be
+ * read or parsed are treated as missing and deleted. I/O errors are logged and otherwise ignored, as the
+ * InfoData can always be read from the authenticator instead.
+ */
+public class FileInfoDataCache implements InfoDataCache {
+    private static final String SUFFIX = ".cbor";
+
+    private final File directory;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(FileInfoDataCache.class);
+
+    /**
+     * Create a cache storing InfoData in a directory. The directory is created when first written to.
+     *
+     * @param directory the directory to store InfoData in, which should not be used for anything else
+     */
+    public FileInfoDataCache(File directory) {
+        this.directory = directory;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Ctap2Session.InfoData get(Key key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream input = new FileInputStream(file)) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                data.write(buffer, 0, read);
+            }
+            return Ctap2Session.InfoData.fromBytes(data.toByteArray());
+        } catch (IOException | BadResponseException e) {
+            Logger.debug(logger, "Discarding unreadable cached InfoData {}: {}", key, e.getMessage());
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void put(Key key, Ctap2Session.InfoData info) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.debug(logger, "Unable to create directory {}", directory);
+            return;
+        }
+        File file = getFile(key);
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temp)) {
+            output.write(info.getBytes());
+        } catch (IOException e) {
+            Logger.debug(logger, "Unable to write cached InfoData {}: {}", key, e.getMessage());
+            deleteFile(temp);
+            return;
+        }
+        // Renaming over an existing file fails on some platforms
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            Logger.debug(logger, "Unable to store cached InfoData {}", key);
+            deleteFile(temp);
+        }
+    }
+
+    @Override
+    public synchronized void remove(Key key) {
+        deleteFile(getFile(key));
+    }
+
+    /**
+     * Remove all cached InfoData.
+     */
+    public synchronized void clear() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    private File getFile(Key key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.debug(logger, "Unable to delete {}", file);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.Version;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of authenticator InfoData, which lets a {@link Ctap2Session} skip the getInfo command when
+ * reconnecting to a known device, such as when a YubiKey is tapped over NFC for each operation.
+ * <p>
+ * InfoData is cached per device, identified by its serial number together with its AAGUID and firmware version,
+ * as parts of InfoData such as the clientPin option differ between devices of the same model. A session created
+ * from cached InfoData reads the InfoData again, replacing the cached entry, if a command fails with an error that
+ * may be caused by outdated InfoData. The error is still thrown, and the operation can be retried using the
+ * refreshed InfoData. Values which change as the device is used, such as the number of remaining discoverable
+ * credentials, are as current as when the InfoData was cached.
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @see MemoryInfoDataCache
+ * @see FileInfoDataCache
+ */
+public interface InfoDataCache {
+    /**
+     * Get the cached InfoData of a device.
+     *
+     * @param key identifies the device
+     * @return the cached InfoData, or null if there is none
+     */
+    @Nullable
+    Ctap2Session.InfoData get(Key key);
+
+    /**
+     * Store the InfoData of a device, replacing any cached InfoData.
+     *
+     * @param key  identifies the device
+     * @param info the InfoData to store
+     */
+    void put(Key key, Ctap2Session.InfoData info);
+
+    /**
+     * Remove the cached InfoData of a device.
+     *
+     * @param key identifies the device
+     */
+    void remove(Key key);
+
+    /**
+     * Identifies a device by its AAGUID, firmware version and serial number.
+     */
+    final class Key {
+        private final byte[] aaguid;
+        private final Version version;
+        private final int serial;
+
+        public Key(byte[] aaguid, Version version, int serial) {
+            this.aaguid = Arrays.copyOf(aaguid, aaguid.length);
+            this.version = version;
+            this.serial = serial;
+        }
+
+        public byte[] getAaguid() {
+            return Arrays.copyOf(aaguid, aaguid.length);
+        }
+
+        public Version getVersion() {
+            return version;
+        }
+
+        public int getSerial() {
+            return serial;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return serial == key.serial && Arrays.equals(aaguid, key.aaguid) && version.equals(key.version);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(aaguid);
+            result = 31 * result + version.hashCode();
+            result = 31 * result + serial;
+            return result;
+        }
+
+        /**
+         * Returns the AAGUID in hex, the firmware version and the serial number, which is also usable as a file
+         * name.
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : aaguid) {
+                builder.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+            }
+            return builder.append('-').append(version.major).append('.').append(version.minor).append('.')
+                    .append(version.micro).append('-').append(serial).toString();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.application.BadResponseException;
+import com.yubico.yubikit.core.application.CommandException;
+import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.core.internal.Logger;
+import com.yubico.yubikit.core.util.Pair;
+import com.yubico.yubikit.fido.Cbor;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Implements the authenticatorLargeBlobs command, reading and writing the serialized large-blob array, and
+ * the per-credential blobs stored in it.
+ * <p>
+ * The array is transferred in fragments bounded by the maxMsgSize of the authenticator. While reading, the
+ * fragments are hashed as they arrive and written to a single buffer, which is then parsed in place. The last
+ * array read or written is cached together with its hash: a following read first reads only the trailing
+ * hash at the cached offset, and skips reading the rest of the array if it is unchanged.
+ * <p>
+ * Writing requires a pinUvAuthToken with the {@link ClientPin#PIN_PERMISSION_LBW} permission, if the
+ * authenticator has a PIN or built-in UV configured. Blobs of a credential are encrypted with its
+ * largeBlobKey, which is returned when the largeBlobKey extension is requested.
+ *
+ * @see <a href="https://fidoalliance.org/specs/fido-v2.1-ps-20210615/fido-client-to-authenticator-protocol-v2.1-ps-errata-20220621.html#authenticatorLargeBlobs">authenticatorLargeBlobs</a>
+ */
+public class LargeBlobs {
+    private static final int RESULT_CONFIG = 0x01;
+
+    private static final int ENTRY_CIPHERTEXT = 0x01;
+    private static final int ENTRY_NONCE = 0x02;
+    private static final int ENTRY_ORIG_SIZE = 0x03;
+
+    // Space reserved for everything but the fragment in a request or response
+    private static final int FRAGMENT_OVERHEAD = 64;
+    private static final int HASH_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final byte[] ASSOCIATED_DATA_PREFIX = "blob".getBytes(StandardCharsets.US_ASCII);
+
+    private final Ctap2Session ctap;
+    @Nullable
+    private final Pair<PinUvAuthProtocol, byte[]> pinUv;
+    private final int maxFragmentLength;
+
+    // The last array read or written, without its hash, which is kept separately
+    @Nullable
+    private byte[] cachedArray;
+    private int cachedLength;
+    @Nullable
+    private byte[] cachedHash;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(LargeBlobs.class);
+
+    /**
+     * Construct a new LargeBlobs object, using a PIN/UV Auth protocol and token to authorize writes.
+     *
+     * @param ctap       an active CTAP2 connection
+     * @param pinUvAuth  the PIN/UV Auth protocol to use, or null if writes do not need authorization
+     * @param pinUvToken a pinUvAuthToken with the largeBlobWrite permission, or null
+     */
+    public LargeBlobs(
+            Ctap2Session ctap,
+            @Nullable PinUvAuthProtocol pinUvAuth,
+            @Nullable byte[] pinUvToken
+    ) {
+        if (!isSupported(ctap.getCachedInfo())) {
+            throw new IllegalStateException("Large blobs not supported");
+        }
+        this.ctap = ctap;
+        if (pinUvAuth != null && pinUvToken != null) {
+            this.pinUv = new Pair<>(pinUvAuth, pinUvToken);
+        } else {
+            this.pinUv = null;
+        }
+        this.maxFragmentLength = ctap.getCachedInfo().getMaxMsgSize() - FRAGMENT_OVERHEAD;
+    }
+
+    public static boolean isSupported(Ctap2Session.InfoData info) {
+        return Boolean.TRUE.equals(info.getOptions().get("largeBlobs"));
+    }
+
+    /**
+     * Read the entries of the large-blob array.
+     *
+     * @return the entries, each a map of ciphertext, nonce and original size
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer, or if the array has an invalid hash.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<Integer, ?>> readBlobArray() throws IOException, CommandException {
+        byte[] array = readSerializedArray();
+        return (List<Map<Integer, ?>>) Cbor.decode(array, 0, cachedLength);
+    }
+
+    /**
+     * Replace the large-blob array.
+     *
+     * @param entries the entries to write
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public void writeBlobArray(List<? extends Map<Integer, ?>> entries) throws IOException, CommandException {
+        byte[] array = Cbor.encode(entries);
+        byte[] hash = Arrays.copyOf(sha256(array, 0, array.length), HASH_LENGTH);
+        int length = array.length + HASH_LENGTH;
+        if (length > ctap.getCachedInfo().getMaxSerializedLargeBlobArray()) {
+            throw new IllegalArgumentException("Large blob array too large");
+        }
+
+        // The cached array no longer matches the authenticator, should the write fail half-way
+        clearCache();
+        for (int offset = 0; offset < length; offset += maxFragmentLength) {
+            byte[] fragment = new byte[Math.min(maxFragmentLength, length - offset)];
+            int fromArray = Math.max(0, Math.min(fragment.length, array.length - offset));
+            System.arraycopy(array, offset, fragment, 0, fromArray);
+            System.arraycopy(hash, Math.max(0, offset - array.length), fragment, fromArray,
+                    fragment.length - fromArray);
+
+            Logger.debug(logger, "Writing large blob fragment at offset {}", offset);
+            byte[] pinUvAuthParam = null;
+            Integer pinUvAuthProtocol = null;
+            if (pinUv != null) {
+                pinUvAuthParam = pinUv.first.authenticate(pinUv.second, getFragmentMessage(offset, fragment));
+                pinUvAuthProtocol = pinUv.first.getVersion();
+            }
+            ctap.largeBlobs(
+                    offset,
+                    null,
+                    fragment,
+                    offset == 0 ? length : null,
+                    pinUvAuthParam,
+                    pinUvAuthProtocol);
+        }
+        cachedArray = array;
+        cachedLength = array.length;
+        cachedHash = hash;
+    }
+
+    /**
+     * Get the blob of a credential.
+     *
+     * @param largeBlobKey the largeBlobKey of the credential
+     * @return the decrypted blob, or null if there is none
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    @Nullable
+    public byte[] getBlob(byte[] largeBlobKey) throws IOException, CommandException {
+        for (Map<Integer, ?> entry : readBlobArray()) {
+            byte[] data = unpack(largeBlobKey, entry);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store, replace or remove the blob of a credential.
+     *
+     * @param largeBlobKey the largeBlobKey of the credential
+     * @param data         the blob to store, or null to remove the blob
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public void putBlob(byte[] largeBlobKey, @Nullable byte[] data) throws IOException, CommandException {
+        List<Map<Integer, ?>> entries = new ArrayList<>();
+        boolean modified = data != null;
+        for (Map<Integer, ?> entry : readBlobArray()) {
+            if (unpack(largeBlobKey, entry) == null) {
+                entries.add(entry);
+            } else {
+                modified = true;
+            }
+        }
+        if (data != null) {
+            entries.add(pack(largeBlobKey, data));
+        }
+        if (modified) {
+            writeBlobArray(entries);
+        }
+    }
+
+    /**
+     * Remove the blob of a credential.
+     *
+     * @param largeBlobKey the largeBlobKey of the credential
+     * @throws IOException      A communication error in the transport layer.
+     * @throws CommandException A communication in the protocol layer.
+     */
+    public void deleteBlob(byte[] largeBlobKey) throws IOException, CommandException {
+        putBlob(largeBlobKey, null);
+    }
+
+    /**
+     * Discard the cached array, so that the next read gets the whole array from the authenticator.
+     */
+    public void clearCache() {
+        cachedArray = null;
+        cachedLength = 0;
+        cachedHash = null;
+    }
+
+    /*
+     * Returns a buffer holding the serialized array, without its hash, in its first cachedLength bytes.
+     */
+    private byte[] readSerializedArray() throws IOException, CommandException {
+        if (cachedArray != null && cachedHash != null) {
+            // Ask for one more byte than the hash, to detect a longer array
+            byte[] tail;
+            try {
+                tail = readFragment(cachedLength, HASH_LENGTH + 1);
+            } catch (CtapException e) {
+                // The offset is past the end of a shorter array
+                if (e.getCtapError() != CtapException.ERR_INVALID_PARAMETER) {
+                    throw e;
+                }
+                tail = new byte[0];
+            }
+            if (MessageDigest.isEqual(cachedHash, tail)) {
+                Logger.debug(logger, "Large blob array unchanged, using cached array");
+                return cachedArray;
+            }
+            clearCache();
+        }
+
+        MessageDigest digest = getSha256();
+        byte[] buffer = new byte[ctap.getCachedInfo().getMaxSerializedLargeBlobArray()];
+        int length = 0;
+        int hashed = 0;
+        while (true) {
+            byte[] fragment = readFragment(length, maxFragmentLength);
+            if (length + fragment.length > buffer.length) {
+                throw new BadResponseException("Large blob array exceeds the maximum size");
+            }
+            System.arraycopy(fragment, 0, buffer, length, fragment.length);
+            length += fragment.length;
+            // Everything but the last bytes, which may be the hash, can be hashed already
+            if (length - HASH_LENGTH > hashed) {
+                digest.update(buffer, hashed, length - HASH_LENGTH - hashed);
+                hashed = length - HASH_LENGTH;
+            }
+            if (fragment.length < maxFragmentLength) {
+                break;
+            }
+        }
+
+        if (length < HASH_LENGTH) {
+            throw new BadResponseException("Large blob array too short");
+        }
+        byte[] hash = Arrays.copyOfRange(buffer, length - HASH_LENGTH, length);
+        if (!MessageDigest.isEqual(Arrays.copyOf(digest.digest(), HASH_LENGTH), hash)) {
+            throw new BadResponseException("Large blob array hash mismatch");
+        }
+        cachedArray = buffer;
+        cachedLength = length - HASH_LENGTH;
+        cachedHash = hash;
+        return buffer;
+    }
+
+    private byte[] readFragment(int offset, int count) throws IOException, CommandException {
+        Logger.debug(logger, "Reading large blob fragment at offset {}", offset);
+        byte[] fragment = (byte[]) ctap.largeBlobs(offset, count, null, null, null, null)
+                .get(RESULT_CONFIG);
+        if (fragment == null) {
+            throw new BadResponseException("Missing large blob fragment");
+        }
+        return fragment;
+    }
+
+    /*
+     * The message authenticated for each fragment written: 32 bytes of 0xff, the command and 0x00, the offset as
+     * a little-endian uint32, and the SHA-256 of the fragment.
+     */
+    private static byte[] getFragmentMessage(int offset, byte[] fragment) {
+        byte[] header = new byte[32];
+        Arrays.fill(header, (byte) 0xff);
+        return ByteBuffer.allocate(32 + 2 + 4 + 32)
+                .put(header)
+                .put((byte) 0x0c)
+                .put((byte) 0x00)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(offset)
+                .put(sha256(fragment, 0, fragment.length))
+                .array();
+    }
+
+    /*
+     * Decrypts an entry, returning null if it is not encrypted with the key.
+     */
+    @Nullable
+    private static byte[] unpack(byte[] key, Map<Integer, ?> entry) throws BadResponseException {
+        byte[] ciphertext = (byte[]) entry.get(ENTRY_CIPHERTEXT);
+        byte[] nonce = (byte[]) entry.get(ENTRY_NONCE);
+        Number origSize = (Number) entry.get(ENTRY_ORIG_SIZE);
+        if (ciphertext == null || nonce == null || origSize == null) {
+            return null;
+        }
+
+        byte[] compressed;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH, nonce));
+            cipher.updateAAD(getAssociatedData(origSize.longValue()));
+            compressed = cipher.doFinal(ciphertext);
+        } catch (AEADBadTagException e) {
+            return null;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // The original size comes from the authenticator, so the data is inflated into a growing buffer
+        // instead of allocating that size up front, and inflating stops as soon as the size is exceeded
+        long expectedSize = origSize.longValue();
+        Inflater inflater = new Inflater(true);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            inflater.setInput(compressed);
+            byte[] buffer = new byte[256];
+            while (!inflater.finished() && data.size() <= expectedSize) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                data.write(buffer, 0, length);
+            }
+            if (!inflater.finished() || data.size() != expectedSize) {
+                throw new BadResponseException("Invalid large blob size");
+            }
+            return data.toByteArray();
+        } catch (DataFormatException e) {
+            throw new BadResponseException("Invalid large blob data");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static Map<Integer, ?> pack(byte[] key, byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[256];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        new SecureRandom().nextBytes(nonce);
+        byte[] ciphertext;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH, nonce));
+            cipher.updateAAD(getAssociatedData(data.length));
+            ciphertext = cipher.doFinal(compressed.toByteArray());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Map<Integer, Object> entry = new HashMap<>();
+        entry.put(ENTRY_CIPHERTEXT, ciphertext);
+        entry.put(ENTRY_NONCE, nonce);
+        entry.put(ENTRY_ORIG_SIZE, data.length);
+        return entry;
+    }
+
+    private static byte[] getAssociatedData(long origSize) {
+        return ByteBuffer.allocate(ASSOCIATED_DATA_PREFIX.length + 8)
+                .put(ASSOCIATED_DATA_PREFIX)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(origSize)
+                .array();
+    }
+
+    private static MessageDigest getSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] sha256(byte[] data, int offset, int length) {
+        MessageDigest digest = getSha256();
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InfoDataCache} keeping InfoData in memory, for the lifetime of the process.
+ */
+public class MemoryInfoDataCache implements InfoDataCache {
+    private final Map<Key, Ctap2Session.InfoData> entries = new ConcurrentHashMap<>();
+
+    @Nullable
+    @Override
+    public Ctap2Session.InfoData get(Key key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public void put(Key key, Ctap2Session.InfoData info) {
+        entries.put(key, info);
+    }
+
+    @Override
+    public void remove(Key key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all cached InfoData.
+     */
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -16,5 +16,58 @@
 
 package com.yubico.yubikit.fido.webauthn;
 
-public abstract class Extensions {
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The client extension inputs of a WebAuthn request, keyed by extension identifier.
+ * <p>
+ * Binary values can be given either as byte arrays, or as base64url encoded strings.
+ *
+ * @see <a href="https://www.w3.org/TR/webauthn-2/#sctn-extensions">WebAuthn Extensions</a>
+ */
+public class Extensions {
+    private final Map<String, ?> extensions;
+
+    public Extensions(Map<String, ?> extensions) {
+        this.extensions = Collections.unmodifiableMap(new HashMap<>(extensions));
+    }
+
+    /**
+     * Get the input of an extension.
+     *
+     * @param name the extension identifier
+     * @return the input, or null if the extension is not requested
+     */
+    @Nullable
+    public Object get(String name) {
+        return extensions.get(name);
+    }
+
+    public boolean has(String name) {
+        return extensions.containsKey(name);
+    }
+
+    public Map<String, ?> toMap() {
+        return extensions;
+    }
+
+    public static Extensions fromMap(Map<String, ?> map) {
+        return new Extensions(map);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return extensions.equals(((Extensions) o).extensions);
+    }
+
+    @Override
+    public int hashCode() {
+        return extensions.hashCode();
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2020-2023 Yubico.
+ * Copyright (C) 2020-2024 Yubico.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,6 +16,7 @@
 
 package com.yubico.yubikit.fido.webauthn;
 
+import static com.yubico.yubikit.fido.webauthn.SerializationUtils.deserializeBytes;
 import static com.yubico.yubikit.fido.webauthn.SerializationUtils.serializeBytes;
 
 import com.yubico.yubikit.core.internal.codec.Base64;
@@ -23,10 +24,13 @@ import com.yubico.yubikit.core.internal.codec.Base64;
 import com.yubico.yubikit.fido.ctap.Ctap2Session;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -34,11 +38,18 @@ public class PublicKeyCredential extends Credential {
     public static final String RAW_ID = "rawId";
     public static final String RESPONSE = "response";
     public static final String AUTHENTICATOR_ATTACHMENT = "authenticatorAttachment";
+    public static final String CLIENT_EXTENSION_RESULTS = "clientExtensionResults";
 
     public static final String PUBLIC_KEY_CREDENTIAL_TYPE = "public-key";
 
+    // Client extension outputs holding binary values, which are base64url encoded in JSON
+    private static final Set<String> BINARY_RESULTS = new HashSet<>(Arrays.asList(
+            "output1", "output2", "getCredBlob", "largeBlobKey"
+    ));
+
     private final byte[] rawId;
     private final AuthenticatorResponse response;
+    private final Map<String, ?> clientExtensionResults;
 
     /**
      * Constructs a new Webauthn PublicKeyCredential object
@@ -49,9 +60,14 @@ public class PublicKeyCredential extends Credential {
      * @see AuthenticatorAssertionResponse
      */
     public PublicKeyCredential(String id, AuthenticatorResponse response) {
+        this(id, response, Collections.<String, Object>emptyMap());
+    }
+
+    private PublicKeyCredential(String id, AuthenticatorResponse response, Map<String, ?> clientExtensionResults) {
         super(id, PUBLIC_KEY_CREDENTIAL_TYPE);
         this.rawId = Base64.fromUrlSafeString(id);
         this.response = response;
+        this.clientExtensionResults = clientExtensionResults;
     }
 
     /**
@@ -63,9 +79,23 @@ public class PublicKeyCredential extends Credential {
      * @see AuthenticatorAssertionResponse
      */
     public PublicKeyCredential(byte[] id, AuthenticatorResponse response) {
+        this(id, response, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Constructs a new Webauthn PublicKeyCredential object
+     *
+     * @param id                     Credential id in binary form.
+     * @param response               Operation response.
+     * @param clientExtensionResults Outputs of the client extensions processed for the operation.
+     * @see AuthenticatorAttestationResponse
+     * @see AuthenticatorAssertionResponse
+     */
+    public PublicKeyCredential(byte[] id, AuthenticatorResponse response, Map<String, ?> clientExtensionResults) {
         super(Base64.toUrlSafeString(id), PUBLIC_KEY_CREDENTIAL_TYPE);
         this.rawId = id;
         this.response = response;
+        this.clientExtensionResults = clientExtensionResults;
     }
 
     public byte[] getRawId() {
@@ -76,6 +106,18 @@ public class PublicKeyCredential extends Credential {
         return response;
     }
 
+    /**
+     * Get the outputs of the client extensions processed for the operation, keyed by extension identifier.
+     * <p>
+     * Binary outputs are byte arrays, also when read from JSON by {@link #fromMap(Map, SerializationType)}, which
+     * decodes the binary outputs of the extensions implemented by this SDK.
+     *
+     * @return the client extension outputs, empty if no extensions were processed
+     */
+    public Map<String, ?> getClientExtensionResults() {
+        return clientExtensionResults;
+    }
+
     public Map<String, ?> toMap(SerializationType serializationType) {
         Map<String, Object> map = new HashMap<>();
         map.put(ID, getId());
@@ -83,6 +125,45 @@ public class PublicKeyCredential extends Credential {
         map.put(RAW_ID, serializeBytes(getRawId(), serializationType));
         map.put(AUTHENTICATOR_ATTACHMENT, AuthenticatorAttachment.CROSS_PLATFORM);
         map.put(RESPONSE, getResponse().toMap(serializationType));
+        if (!clientExtensionResults.isEmpty()) {
+            map.put(CLIENT_EXTENSION_RESULTS, serializeResults(clientExtensionResults, serializationType));
+        }
+        return map;
+    }
+
+    /*
+     * Serializes binary values of the extension outputs, including those in nested maps.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, ?> serializeResults(Map<String, ?> results, SerializationType serializationType) {
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<String, ?> entry : results.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof byte[]) {
+                value = serializeBytes((byte[]) value, serializationType);
+            } else if (value instanceof Map) {
+                value = serializeResults((Map<String, ?>) value, serializationType);
+            }
+            map.put(entry.getKey(), value);
+        }
+        return map;
+    }
+
+    /*
+     * Deserializes the known binary values of the extension outputs, including those in nested maps.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, ?> deserializeResults(Map<String, ?> results, SerializationType serializationType) {
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<String, ?> entry : results.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                value = deserializeResults((Map<String, ?>) value, serializationType);
+            } else if (value != null && BINARY_RESULTS.contains(entry.getKey())) {
+                value = deserializeBytes(value, serializationType);
+            }
+            map.put(entry.getKey(), value);
+        }
         return map;
     }
 
@@ -108,9 +189,13 @@ public class PublicKeyCredential extends Credential {
             throw new IllegalArgumentException("Unknown AuthenticatorResponse format", e);
         }
 
+        Map<String, ?> clientExtensionResults = (Map<String, ?>) map.get(CLIENT_EXTENSION_RESULTS);
         return new PublicKeyCredential(
                 Objects.requireNonNull((String) map.get(ID)),
-                response
+                response,
+                clientExtensionResults == null
+                        ? Collections.<String, Object>emptyMap()
+                        : deserializeResults(clientExtensionResults, serializationType)
         );
     }
 
@@ -130,6 +215,23 @@ public class PublicKeyCredential extends Credential {
             Ctap2Session.AssertionData assertion,
             byte[] clientDataJson,
             @Nullable List<PublicKeyCredentialDescriptor> allowCredentials) {
+        return fromAssertion(assertion, clientDataJson, allowCredentials, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Constructs new PublicKeyCredential from AssertionData
+     *
+     * @param assertion              data base for the new credential
+     * @param clientDataJson         response client data
+     * @param allowCredentials       used for querying credential id for incomplete assertion objects
+     * @param clientExtensionResults outputs of the client extensions processed for the assertion
+     * @return new PublicKeyCredential object
+     */
+    public static PublicKeyCredential fromAssertion(
+            Ctap2Session.AssertionData assertion,
+            byte[] clientDataJson,
+            @Nullable List<PublicKeyCredentialDescriptor> allowCredentials,
+            Map<String, ?> clientExtensionResults) {
         byte[] userId = null;
         Map<String, ?> userMap = assertion.getUser();
         if (userMap != null) {
@@ -144,7 +246,8 @@ public class PublicKeyCredential extends Credential {
                         assertion.getAuthenticatorData(),
                         assertion.getSignature(),
                         userId
-                )
+                ),
+                clientExtensionResults
         );
     }
 
@@ -156,13 +259,17 @@ public class PublicKeyCredential extends Credential {
         PublicKeyCredential that = (PublicKeyCredential) o;
 
         if (!Arrays.equals(rawId, that.rawId)) return false;
-        return response.equals(that.response);
+        if (!response.equals(that.response)) return false;
+        // Compared in serialized form, as the outputs may hold byte arrays
+        return serializeResults(clientExtensionResults, SerializationType.JSON)
+                .equals(serializeResults(that.clientExtensionResults, SerializationType.JSON));
     }
 
     @Override
     public int hashCode() {
         int result = Arrays.hashCode(rawId);
         result = 31 * result + response.hashCode();
+        result = 31 * result + serializeResults(clientExtensionResults, SerializationType.JSON).hashCode();
         return result;
     }
 }
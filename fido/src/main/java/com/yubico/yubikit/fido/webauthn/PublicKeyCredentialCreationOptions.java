@@ -138,7 +138,7 @@ public class PublicKeyCredentialCreationOptions {
         }
         map.put(ATTESTATION, attestation);
         if (extensions != null) {
-            map.put(EXTENSIONS, extensions);
+            map.put(EXTENSIONS, extensions.toMap());
         }
         return map;
     }
@@ -163,6 +163,7 @@ public class PublicKeyCredentialCreationOptions {
 
         Map<String, ?> authenticatorSelection = (Map<String, ?>) map.get(AUTHENTICATOR_SELECTION);
         Number timeout = (Number) map.get(TIMEOUT);
+        Map<String, ?> extensions = (Map<String, ?>) map.get(EXTENSIONS);
 
         return new PublicKeyCredentialCreationOptions(
                 PublicKeyCredentialRpEntity.fromMap(
@@ -179,7 +180,7 @@ public class PublicKeyCredentialCreationOptions {
                         authenticatorSelection,
                         serializationType),
                 (String) map.get(ATTESTATION),
-                null  // Extensions currently ignored
+                extensions == null ? null : Extensions.fromMap(extensions)
         );
     }
 
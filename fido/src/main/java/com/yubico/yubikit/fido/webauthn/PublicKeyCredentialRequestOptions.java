@@ -105,7 +105,7 @@ public class PublicKeyCredentialRequestOptions {
         map.put(ALLOW_CREDENTIALS, allowCredentialsList);
         map.put(USER_VERIFICATION, userVerification);
         if (extensions != null) {
-            map.put(EXTENSIONS, extensions);
+            map.put(EXTENSIONS, extensions.toMap());
         }
         return map;
     }
@@ -122,6 +122,7 @@ public class PublicKeyCredentialRequestOptions {
         }
 
         Number timeout = ((Number) map.get(TIMEOUT));
+        Map<String, ?> extensions = (Map<String, ?>) map.get(EXTENSIONS);
 
         return new PublicKeyCredentialRequestOptions(
                 deserializeBytes(Objects.requireNonNull(map.get(CHALLENGE)), serializationType),
@@ -129,7 +130,7 @@ public class PublicKeyCredentialRequestOptions {
                 (String) map.get(RP_ID),
                 allowCredentials,
                 (String) map.get(USER_VERIFICATION),
-                null  // Extensions currently ignored
+                extensions == null ? null : Extensions.fromMap(extensions)
         );
     }
 
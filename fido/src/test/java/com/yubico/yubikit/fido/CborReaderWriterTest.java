@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido;
+
+import static com.yubico.yubikit.fido.TestUtils.decodeHex;
+import static com.yubico.yubikit.fido.TestUtils.encodeHex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class CborReaderWriterTest {
+
+    @Test
+    public void testFloats() {
+        // Test vectors from RFC 8949, Appendix A
+        Assert.assertEquals("f90000", encodeHex(new CborWriter().writeDouble(0.0).toByteArray()));
+        Assert.assertEquals("f93c00", encodeHex(new CborWriter().writeDouble(1.0).toByteArray()));
+        Assert.assertEquals("f97bff", encodeHex(new CborWriter().writeDouble(65504.0).toByteArray()));
+        Assert.assertEquals("f90001", encodeHex(new CborWriter().writeDouble(5.960464477539063e-8).toByteArray()));
+        Assert.assertEquals("f9c400", encodeHex(new CborWriter().writeDouble(-4.0).toByteArray()));
+        Assert.assertEquals("fa47c35000", encodeHex(new CborWriter().writeDouble(100000.0).toByteArray()));
+        Assert.assertEquals("fb3ff199999999999a", encodeHex(new CborWriter().writeDouble(1.1).toByteArray()));
+        Assert.assertEquals("f97c00", encodeHex(new CborWriter().writeDouble(Double.POSITIVE_INFINITY).toByteArray()));
+        Assert.assertEquals("f97e00", encodeHex(new CborWriter().writeDouble(Double.NaN).toByteArray()));
+
+        for (String hex : new String[]{"f90001", "f97bff", "f9c400", "fa47c35000", "fb3ff199999999999a"}) {
+            double value = new CborReader(decodeHex(hex)).readDouble();
+            Assert.assertEquals(hex, encodeHex(new CborWriter().writeDouble(value).toByteArray()));
+        }
+        Assert.assertEquals(1.5, (Double) Cbor.decode(decodeHex("f93e00")), 0);
+    }
+
+    @Test
+    public void testTags() {
+        byte[] encoded = new CborWriter().writeTag(1).writeInt(1363896240).toByteArray();
+        Assert.assertEquals("c11a514b67b0", encodeHex(encoded));
+
+        CborReader reader = new CborReader(encoded);
+        Assert.assertEquals(CborReader.Type.TAG, reader.peekType());
+        Assert.assertEquals(1, reader.readTag());
+        Assert.assertEquals(1363896240, reader.readInt());
+        Assert.assertEquals(1363896240, Cbor.decode(encoded));
+    }
+
+    @Test
+    public void testIndefiniteLength() {
+        Assert.assertEquals(Arrays.asList(1, Arrays.asList(2, 3), Arrays.asList(4, 5)),
+                Cbor.decode(decodeHex("9f018202039f0405ffff")));
+        Map<?, ?> map = (Map<?, ?>) Cbor.decode(decodeHex("bf61610161629f0203ffff"));
+        Assert.assertNotNull(map);
+        Assert.assertEquals(1, map.get("a"));
+        Assert.assertEquals(Arrays.asList(2, 3), map.get("b"));
+        Assert.assertEquals("streaming", Cbor.decode(decodeHex("7f657374726561646d696e67ff")));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, (byte[]) Cbor.decode(decodeHex("5f42010243030405ff")));
+
+        byte[] encoded = new CborWriter()
+                .beginIndefiniteMap()
+                .writeText("b").writeInt(1)
+                .writeText("a").beginIndefiniteArray().writeInt(2).endArray()
+                .endMap()
+                .toByteArray();
+        // Indefinite length maps are not sorted
+        Assert.assertEquals("bf61620161619f02ffff", encodeHex(encoded));
+    }
+
+    @Test
+    public void testNestedMapsAreSorted() {
+        byte[] encoded = new CborWriter()
+                .beginMap(2)
+                .writeInt(3)
+                .beginMap(2).writeText("bb").writeInt(1).writeText("a").writeInt(2).endMap()
+                .writeInt(1)
+                .beginArray(1).beginMap(2).writeInt(-1).writeInt(0).writeInt(1).writeInt(0).endMap().endArray()
+                .endMap()
+                .toByteArray();
+        Assert.assertEquals("a20181a20100200003a261610262626201", encodeHex(encoded));
+    }
+
+    @Test
+    public void testPullParser() {
+        byte[] encoded = new CborWriter()
+                .beginMap(3)
+                .writeInt(1).writeBytes(new byte[]{1, 2, 3})
+                .writeInt(2).beginArray(2).writeText("skipped").beginMap(1).writeInt(1).writeNull().endMap().endArray()
+                .writeInt(3).writeBoolean(true)
+                .endMap()
+                .toByteArray();
+
+        CborReader reader = new CborReader(encoded);
+        Assert.assertEquals(3, reader.readMapHeader());
+        Assert.assertEquals(1, reader.readInt());
+        ByteBuffer bytes = reader.readByteBuffer();
+        Assert.assertTrue(bytes.isReadOnly());
+        Assert.assertEquals(3, bytes.remaining());
+        Assert.assertEquals(3, bytes.get(2));
+        Assert.assertEquals(2, reader.readInt());
+        reader.skip();
+        Assert.assertEquals(3, reader.readInt());
+        Assert.assertTrue(reader.readBoolean());
+        Assert.assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testWriterReuse() {
+        CborWriter writer = new CborWriter(16);
+        byte[] large = new byte[100];
+        writer.writeValue(Arrays.asList(large, "text"));
+        Assert.assertEquals(2 + 100 + 5 + 1, writer.size());
+        writer.reset();
+        writer.writeInt(-1);
+        Assert.assertArrayEquals(new byte[]{0, 0x20}, writer.toByteArray(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongItemCount() {
+        new CborWriter().beginArray(2).writeInt(1).endArray();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnendedMap() {
+        new CborWriter().beginMap(1).writeInt(1).writeInt(2).toByteArray();
+    }
+
+    @Test
+    public void testTruncated() {
+        for (String hex : new String[]{"8201", "9f01", "a101"}) {
+            try {
+                new CborReader(decodeHex(hex)).readValue();
+                Assert.fail("Expected BufferUnderflowException for " + hex);
+            } catch (BufferUnderflowException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedSimpleValue() {
+        Cbor.decode(decodeHex("f0"));
+    }
+
+    @Test
+    public void testReadValueTypes() {
+        List<?> list = (List<?>) Cbor.decode(decodeHex("83f6f7f4"));
+        Assert.assertEquals(Arrays.asList(null, null, false), list);
+    }
+}
@@ -27,6 +27,7 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -236,9 +237,23 @@ public class CborTest {
     }
 
     public static class OtherTests {
+        @Test
+        public void testDecodeLargeInt() {
+            Assert.assertEquals(0x80000000L, Cbor.decode(decodeHex("1a80000000")));
+            Assert.assertEquals(Long.MIN_VALUE, Cbor.decode(decodeHex("3b7fffffffffffffff")));
+            Assert.assertEquals(new BigInteger("18446744073709551615"), Cbor.decode(decodeHex("1bffffffffffffffff")));
+        }
+
+        @Test
+        public void testEncodeLargeInt() {
+            assertCborEncode("1b0000000100000000", 0x100000000L);
+            assertCborEncode("3b7fffffffffffffff", Long.MIN_VALUE);
+            assertCborEncode("3bffffffffffffffff", new BigInteger("-18446744073709551616"));
+        }
+
         @Test(expected = IllegalArgumentException.class)
         public void testDecodeIntOutOfRange() {
-            Cbor.decode(decodeHex("1a80000000"));
+            new CborReader(decodeHex("1a80000000")).readInt();
         }
     }
 
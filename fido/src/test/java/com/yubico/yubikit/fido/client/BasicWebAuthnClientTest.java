@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.ctap.FakeAuthenticator;
+import com.yubico.yubikit.fido.webauthn.AuthenticatorAssertionResponse;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredential;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialCreationOptions;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialDescriptor;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialParameters;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialRequestOptions;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialRpEntity;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialType;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialUserEntity;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class BasicWebAuthnClientTest {
+    private static final String RP_ID = "example.com";
+    private static final char[] PIN = "123456".toCharArray();
+    private static final byte[] CLIENT_DATA = "{}".getBytes(StandardCharsets.UTF_8);
+
+    // makeCredential parameters
+    private static final int MC_EXCLUDE_LIST = 5;
+
+    // getAssertion parameters
+    private static final int GA_ALLOW_LIST = 3;
+    private static final int GA_OPTIONS = 5;
+    private static final int GA_PIN_UV_AUTH_PARAM = 6;
+
+    @Test
+    public void testAllowListChunkedByCount() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        authenticator.getInfo().put(0x07, 2); // maxCredentialCountInList
+        List<PublicKeyCredentialDescriptor> credentials = createCredentials(5, 32);
+        byte[] target = credentials.get(3).getId();
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> getAssertion(request, target));
+
+        PublicKeyCredential credential = getAssertion(authenticator, credentials);
+        Assert.assertArrayEquals(target, credential.getRawId());
+
+        // The first two chunks are probed without user presence, then the match is sent alone
+        List<Map<Integer, ?>> requests = authenticator.getRequests(FakeAuthenticator.CMD_GET_ASSERTION);
+        Assert.assertEquals(3, requests.size());
+        assertIds(Arrays.asList(credentials.get(0).getId(), credentials.get(1).getId()), getAllowedIds(requests.get(0)));
+        assertIds(Arrays.asList(credentials.get(2).getId(), credentials.get(3).getId()), getAllowedIds(requests.get(1)));
+        Assert.assertEquals(Boolean.FALSE, getOptions(requests.get(0)).get("up"));
+        Assert.assertEquals(Boolean.FALSE, getOptions(requests.get(1)).get("up"));
+        assertIds(Collections.singletonList(target), getAllowedIds(requests.get(2)));
+        Assert.assertNull(getOptions(requests.get(2)).get("up"));
+
+        // Probes and the final request are authorized with the same pinUvAuthParam
+        byte[] pinUvAuthParam = (byte[]) requests.get(2).get(GA_PIN_UV_AUTH_PARAM);
+        Assert.assertNotNull(pinUvAuthParam);
+        Assert.assertArrayEquals(pinUvAuthParam, (byte[]) requests.get(0).get(GA_PIN_UV_AUTH_PARAM));
+        Assert.assertArrayEquals(pinUvAuthParam, (byte[]) requests.get(1).get(GA_PIN_UV_AUTH_PARAM));
+    }
+
+    @Test
+    public void testAllowListChunkedBySize() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        List<PublicKeyCredentialDescriptor> credentials = createCredentials(3, 32);
+        // Room for two credentials, besides the space reserved for the rest of the request
+        int credentialSize = 54;
+        authenticator.getInfo().put(0x05,
+                BasicWebAuthnClient.REQUEST_RESERVE + Cbor.encode(RP_ID).length + 2 * credentialSize);
+        byte[] target = credentials.get(2).getId();
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> getAssertion(request, target));
+
+        getAssertion(authenticator, credentials);
+
+        List<Map<Integer, ?>> requests = authenticator.getRequests(FakeAuthenticator.CMD_GET_ASSERTION);
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals(2, getAllowedIds(requests.get(0)).size());
+        assertIds(Collections.singletonList(target), getAllowedIds(requests.get(1)));
+        assertIds(Collections.singletonList(target), getAllowedIds(requests.get(2)));
+    }
+
+    @Test
+    public void testExcludeListChunkedByMakeCredentialSize() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        List<PublicKeyCredentialDescriptor> credentials = createCredentials(2, 32);
+        // Both credentials would fit in a getAssertion, but not next to the user of the makeCredential
+        char[] displayName = new char[200];
+        Arrays.fill(displayName, 'a');
+        PublicKeyCredentialUserEntity user = new PublicKeyCredentialUserEntity(
+                "user", new byte[16], new String(displayName));
+        authenticator.getInfo().put(0x05,
+                BasicWebAuthnClient.REQUEST_RESERVE + Cbor.encode(RP_ID).length + 2 * 54);
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> getAssertion(request, new byte[32]));
+        authenticator.setHandler(FakeAuthenticator.CMD_MAKE_CREDENTIAL, request -> {
+            throw new CtapException(CtapException.ERR_OPERATION_DENIED);
+        });
+
+        BasicWebAuthnClient client = new BasicWebAuthnClient(new Ctap2Session(authenticator));
+        PublicKeyCredentialCreationOptions options = new PublicKeyCredentialCreationOptions(
+                new PublicKeyCredentialRpEntity(RP_ID, RP_ID),
+                user,
+                new byte[32],
+                Collections.singletonList(new PublicKeyCredentialParameters(PublicKeyCredentialType.PUBLIC_KEY, -7)),
+                null,
+                credentials,
+                null,
+                null,
+                null);
+        try {
+            client.makeCredential(CLIENT_DATA, options, RP_ID, PIN, null, null);
+            Assert.fail("Expected ClientError");
+        } catch (ClientError e) {
+            // Rejected by the handler
+        }
+
+        // Each credential is probed on its own, and none is sent with the makeCredential
+        Assert.assertEquals(2, authenticator.count(FakeAuthenticator.CMD_GET_ASSERTION));
+        List<Map<Integer, ?>> requests = authenticator.getRequests(FakeAuthenticator.CMD_MAKE_CREDENTIAL);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertNull(requests.get(0).get(MC_EXCLUDE_LIST));
+    }
+
+    @Test
+    public void testLongCredentialIdsAreDropped() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        authenticator.getInfo().put(0x08, 32); // maxCredentialIdLength
+        List<PublicKeyCredentialDescriptor> credentials = new ArrayList<>(createCredentials(1, 64));
+        credentials.addAll(createCredentials(1, 32));
+        byte[] target = credentials.get(1).getId();
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> getAssertion(request, target));
+
+        getAssertion(authenticator, credentials);
+
+        // A single chunk remains, which is sent directly
+        List<Map<Integer, ?>> requests = authenticator.getRequests(FakeAuthenticator.CMD_GET_ASSERTION);
+        Assert.assertEquals(1, requests.size());
+        assertIds(Collections.singletonList(target), getAllowedIds(requests.get(0)));
+
+        // With only over-long IDs, nothing is sent
+        authenticator.clearRequests();
+        try {
+            getAssertion(authenticator, credentials.subList(0, 1));
+            Assert.fail("Expected ClientError");
+        } catch (ClientError e) {
+            Assert.assertEquals(ClientError.Code.DEVICE_INELIGIBLE, e.getErrorCode());
+        }
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_ASSERTION));
+    }
+
+    @Test
+    public void testNoChunkMatches() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        authenticator.getInfo().put(0x07, 2);
+        List<PublicKeyCredentialDescriptor> credentials = createCredentials(5, 32);
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> getAssertion(request, new byte[32]));
+
+        try {
+            getAssertion(authenticator, credentials);
+            Assert.fail("Expected ClientError");
+        } catch (ClientError e) {
+            Assert.assertEquals(ClientError.Code.DEVICE_INELIGIBLE, e.getErrorCode());
+        }
+
+        // Each chunk is probed once, and no request with user presence is sent
+        List<Map<Integer, ?>> requests = authenticator.getRequests(FakeAuthenticator.CMD_GET_ASSERTION);
+        Assert.assertEquals(3, requests.size());
+        for (Map<Integer, ?> request : requests) {
+            Assert.assertEquals(Boolean.FALSE, getOptions(request).get("up"));
+        }
+    }
+
+    @Test
+    public void testMultipleAssertionsAreReadBeforeSelection() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        List<Map<Integer, ?>> assertions = new ArrayList<>();
+        for (String name : Arrays.asList("alice", "bob", "carol")) {
+            assertions.add(createAssertion(name.getBytes(StandardCharsets.UTF_8), name));
+        }
+        Iterator<Map<Integer, ?>> next = assertions.subList(1, assertions.size()).iterator();
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> {
+            Map<Integer, Object> first = new HashMap<>(assertions.get(0));
+            first.put(5, assertions.size()); // numberOfCredentials
+            return first;
+        });
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_NEXT_ASSERTION, request -> next.next());
+
+        Ctap2Session session = new Ctap2Session(authenticator);
+        BasicWebAuthnClient client = new BasicWebAuthnClient(session);
+        PublicKeyCredentialRequestOptions options = new PublicKeyCredentialRequestOptions(
+                new byte[32], null, RP_ID, null, null, null);
+        MultipleAssertionsAvailable available;
+        try {
+            client.getAssertion(CLIENT_DATA, options, RP_ID, PIN, null);
+            throw new AssertionError("Expected MultipleAssertionsAvailable");
+        } catch (MultipleAssertionsAvailable e) {
+            available = e;
+        }
+        Assert.assertEquals(2, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+
+        // The selection needs nothing more from the Authenticator
+        client.close();
+        authenticator.clearRequests();
+        Assert.assertEquals(3, available.getAssertionCount());
+        List<String> names = new ArrayList<>();
+        for (PublicKeyCredentialUserEntity user : available.getUsers()) {
+            names.add(user.getName());
+        }
+        Assert.assertEquals(Arrays.asList("alice", "bob", "carol"), names);
+        PublicKeyCredential credential = available.select(2);
+        Assert.assertArrayEquals("carol".getBytes(StandardCharsets.UTF_8), credential.getRawId());
+        Assert.assertArrayEquals("carol".getBytes(StandardCharsets.UTF_8),
+                ((AuthenticatorAssertionResponse) credential.getResponse()).getUserHandle());
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+
+        try {
+            available.select(0);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Only one assertion can be selected
+        }
+    }
+
+    private static PublicKeyCredential getAssertion(
+            FakeAuthenticator authenticator,
+            List<PublicKeyCredentialDescriptor> allowCredentials) throws Exception {
+        BasicWebAuthnClient client = new BasicWebAuthnClient(new Ctap2Session(authenticator));
+        PublicKeyCredentialRequestOptions options = new PublicKeyCredentialRequestOptions(
+                new byte[32], null, RP_ID, allowCredentials, null, null);
+        try {
+            return client.getAssertion(CLIENT_DATA, options, RP_ID, PIN, null);
+        } catch (MultipleAssertionsAvailable e) {
+            throw new AssertionError("Expected a single assertion", e);
+        }
+    }
+
+    private static List<PublicKeyCredentialDescriptor> createCredentials(int count, int idLength) {
+        List<PublicKeyCredentialDescriptor> credentials = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] id = new byte[idLength];
+            Arrays.fill(id, (byte) (idLength + i));
+            credentials.add(new PublicKeyCredentialDescriptor(PublicKeyCredentialType.PUBLIC_KEY, id));
+        }
+        return credentials;
+    }
+
+    /*
+     * Answers a getAssertion request with an assertion of the target credential, if it is in the allowList.
+     */
+    private static Map<Integer, ?> getAssertion(Map<Integer, ?> request, byte[] target) throws CtapException {
+        for (byte[] id : getAllowedIds(request)) {
+            if (Arrays.equals(id, target)) {
+                return createAssertion(target);
+            }
+        }
+        throw new CtapException(CtapException.ERR_NO_CREDENTIALS);
+    }
+
+    static Map<Integer, ?> createAssertion(byte[] credentialId, String userName) {
+        Map<String, Object> user = new HashMap<>();
+        user.put(PublicKeyCredentialUserEntity.ID, credentialId);
+        user.put(PublicKeyCredentialUserEntity.NAME, userName);
+        user.put(PublicKeyCredentialUserEntity.DISPLAY_NAME, userName);
+        Map<Integer, Object> assertion = new HashMap<>(createAssertion(credentialId));
+        assertion.put(4, user);
+        return assertion;
+    }
+
+    static Map<Integer, ?> createAssertion(byte[] credentialId) {
+        try {
+            byte[] authData = new byte[37];
+            System.arraycopy(MessageDigest.getInstance("SHA-256").digest(RP_ID.getBytes(StandardCharsets.UTF_8)), 0, authData, 0, 32);
+            authData[32] = 0x05; // UP and UV
+            Map<String, Object> credential = new HashMap<>();
+            credential.put(PublicKeyCredentialDescriptor.TYPE, PublicKeyCredentialType.PUBLIC_KEY);
+            credential.put(PublicKeyCredentialDescriptor.ID, credentialId);
+            Map<Integer, Object> assertion = new HashMap<>();
+            assertion.put(1, credential);
+            assertion.put(2, authData);
+            assertion.put(3, new byte[64]);
+            return assertion;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertIds(List<byte[]> expected, List<byte[]> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<byte[]> getAllowedIds(Map<Integer, ?> request) {
+        List<byte[]> ids = new ArrayList<>();
+        List<Map<String, ?>> allowList = (List<Map<String, ?>>) request.get(GA_ALLOW_LIST);
+        if (allowList != null) {
+            for (Map<String, ?> credential : allowList) {
+                ids.add((byte[]) credential.get(PublicKeyCredentialDescriptor.ID));
+            }
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, ?> getOptions(Map<Integer, ?> request) {
+        Map<String, ?> options = (Map<String, ?>) request.get(GA_OPTIONS);
+        return options != null ? options : new HashMap<String, Object>();
+    }
+}
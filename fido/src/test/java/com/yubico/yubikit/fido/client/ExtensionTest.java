@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.ctap.FakeAuthenticator;
+import com.yubico.yubikit.fido.ctap.PinUvAuthProtocol;
+import com.yubico.yubikit.fido.ctap.PinUvAuthProtocolV1;
+import com.yubico.yubikit.fido.ctap.PinUvAuthProtocolV2;
+import com.yubico.yubikit.fido.webauthn.Extensions;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredential;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialDescriptor;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialRequestOptions;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialType;
+import com.yubico.yubikit.fido.webauthn.SerializationType;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class ExtensionTest {
+    private static final String RP_ID = "example.com";
+    private static final char[] PIN = "123456".toCharArray();
+    private static final byte[] CLIENT_DATA = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CREDENTIAL_ID = new byte[32];
+    private static final byte[] CRED_RANDOM = new byte[32];
+    private static final byte[] CRED_BLOB = {1, 2, 3, 4};
+
+    static {
+        Arrays.fill(CRED_RANDOM, (byte) 0x42);
+    }
+
+    // getAssertion parameter
+    private static final int GA_EXTENSIONS = 4;
+
+    // hmac-secret inputs
+    private static final int HMAC_KEY_AGREEMENT = 0x01;
+    private static final int HMAC_SALT_ENC = 0x02;
+    private static final int HMAC_SALT_AUTH = 0x03;
+    private static final int HMAC_PIN_UV_AUTH_PROTOCOL = 0x04;
+
+    private FakeAuthenticator authenticator;
+
+    @Before
+    public void setUp() {
+        authenticator = new FakeAuthenticator();
+        authenticator.getInfo().put(0x02, Arrays.asList("credBlob", "hmac-secret"));
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, this::getAssertion);
+    }
+
+    @Test
+    public void testInputsAndOutputs() throws Exception {
+        PublicKeyCredential credential = getAssertion(
+                BasicWebAuthnClient.getDefaultExtensions(),
+                Collections.singletonMap(CredBlobExtension.GET_CRED_BLOB, true));
+
+        Assert.assertEquals(Collections.singletonMap("credBlob", true), getExtensionInputs());
+        Assert.assertEquals(Collections.singleton(CredBlobExtension.GET_CRED_BLOB),
+                credential.getClientExtensionResults().keySet());
+        Assert.assertArrayEquals(CRED_BLOB,
+                (byte[]) credential.getClientExtensionResults().get(CredBlobExtension.GET_CRED_BLOB));
+    }
+
+    @Test
+    public void testUnsupportedExtensionIsIgnored() throws Exception {
+        authenticator.getInfo().put(0x02, Collections.emptyList());
+        PublicKeyCredential credential = getAssertion(
+                BasicWebAuthnClient.getDefaultExtensions(),
+                Collections.singletonMap(CredBlobExtension.GET_CRED_BLOB, true));
+
+        Assert.assertNull(getExtensionInputs());
+        Assert.assertTrue(credential.getClientExtensionResults().isEmpty());
+    }
+
+    @Test
+    public void testUnregisteredExtensionIsIgnored() throws Exception {
+        PublicKeyCredential credential = getAssertion(
+                Collections.<Extension>singletonList(new HmacSecretExtension()),
+                Collections.singletonMap(CredBlobExtension.GET_CRED_BLOB, true));
+
+        Assert.assertNull(getExtensionInputs());
+        Assert.assertTrue(credential.getClientExtensionResults().isEmpty());
+    }
+
+    @Test
+    public void testHmacSecretV1() throws Exception {
+        authenticator.getInfo().put(0x06, Collections.singletonList(PinUvAuthProtocolV1.VERSION));
+        testHmacSecret(2);
+        Assert.assertFalse(getHmacSecretInput().containsKey(HMAC_PIN_UV_AUTH_PROTOCOL));
+    }
+
+    @Test
+    public void testHmacSecretV2() throws Exception {
+        testHmacSecret(2);
+        Assert.assertEquals(PinUvAuthProtocolV2.VERSION, getHmacSecretInput().get(HMAC_PIN_UV_AUTH_PROTOCOL));
+    }
+
+    @Test
+    public void testHmacSecretSingleSalt() throws Exception {
+        testHmacSecret(1);
+    }
+
+    @Test
+    public void testHmacSecretInvalidSalt() throws Exception {
+        try {
+            getAssertion(
+                    BasicWebAuthnClient.getDefaultExtensions(),
+                    Collections.singletonMap(HmacSecretExtension.GET_SECRET,
+                            Collections.singletonMap(HmacSecretExtension.SALT1, new byte[16])));
+            Assert.fail("Expected ClientError");
+        } catch (ClientError e) {
+            Assert.assertEquals(ClientError.Code.BAD_REQUEST, e.getErrorCode());
+        }
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_ASSERTION));
+    }
+
+    private void testHmacSecret(int saltCount) throws Exception {
+        byte[] salt1 = new byte[32];
+        byte[] salt2 = new byte[32];
+        Arrays.fill(salt1, (byte) 1);
+        Arrays.fill(salt2, (byte) 2);
+        Map<String, Object> salts = new HashMap<>();
+        salts.put(HmacSecretExtension.SALT1, salt1);
+        if (saltCount > 1) {
+            salts.put(HmacSecretExtension.SALT2, salt2);
+        }
+
+        PublicKeyCredential credential = getAssertion(
+                BasicWebAuthnClient.getDefaultExtensions(),
+                Collections.singletonMap(HmacSecretExtension.GET_SECRET, salts));
+
+        @SuppressWarnings("unchecked")
+        Map<String, ?> secrets = (Map<String, ?>) credential.getClientExtensionResults()
+                .get(HmacSecretExtension.GET_SECRET);
+        Assert.assertNotNull(secrets);
+        Assert.assertArrayEquals(hmac(salt1), (byte[]) secrets.get(HmacSecretExtension.OUTPUT1));
+        if (saltCount > 1) {
+            Assert.assertArrayEquals(hmac(salt2), (byte[]) secrets.get(HmacSecretExtension.OUTPUT2));
+        } else {
+            Assert.assertFalse(secrets.containsKey(HmacSecretExtension.OUTPUT2));
+        }
+
+        // The binary outputs survive serialization
+        Assert.assertEquals(credential, PublicKeyCredential.fromMap(
+                credential.toMap(SerializationType.JSON), SerializationType.JSON));
+        Assert.assertEquals(credential, PublicKeyCredential.fromMap(
+                credential.toMap(SerializationType.CBOR), SerializationType.CBOR));
+    }
+
+    private PublicKeyCredential getAssertion(List<Extension> extensions, Map<String, ?> inputs) throws Exception {
+        BasicWebAuthnClient client = new BasicWebAuthnClient(new Ctap2Session(authenticator), extensions);
+        PublicKeyCredentialRequestOptions options = new PublicKeyCredentialRequestOptions(
+                new byte[32],
+                null,
+                RP_ID,
+                Collections.singletonList(
+                        new PublicKeyCredentialDescriptor(PublicKeyCredentialType.PUBLIC_KEY, CREDENTIAL_ID)),
+                null,
+                new Extensions(inputs));
+        try {
+            return client.getAssertion(CLIENT_DATA, options, RP_ID, PIN, null);
+        } catch (MultipleAssertionsAvailable e) {
+            throw new AssertionError("Expected a single assertion", e);
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> getExtensionInputs() {
+        List<Map<Integer, ?>> requests = authenticator.getRequests(FakeAuthenticator.CMD_GET_ASSERTION);
+        Assert.assertEquals(1, requests.size());
+        return (Map<String, ?>) requests.get(0).get(GA_EXTENSIONS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, ?> getHmacSecretInput() {
+        return (Map<Integer, ?>) Objects.requireNonNull(getExtensionInputs()).get("hmac-secret");
+    }
+
+    /*
+     * Answers getAssertion, acting on the credBlob and hmac-secret inputs as the authenticator does.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Integer, ?> getAssertion(Map<Integer, ?> request) {
+        Map<String, Object> outputs = new HashMap<>();
+        Map<String, ?> inputs = (Map<String, ?>) request.get(GA_EXTENSIONS);
+        if (inputs != null) {
+            if (Boolean.TRUE.equals(inputs.get("credBlob"))) {
+                outputs.put("credBlob", CRED_BLOB);
+            }
+            Map<Integer, ?> hmacSecret = (Map<Integer, ?>) inputs.get("hmac-secret");
+            if (hmacSecret != null) {
+                outputs.put("hmac-secret", getHmacSecret(hmacSecret));
+            }
+        }
+
+        Map<Integer, Object> assertion = new HashMap<>(BasicWebAuthnClientTest.createAssertion(CREDENTIAL_ID, "user"));
+        if (!outputs.isEmpty()) {
+            byte[] authData = (byte[]) assertion.get(2);
+            byte[] extensions = Cbor.encode(outputs);
+            byte[] withExtensions = Arrays.copyOf(authData, authData.length + extensions.length);
+            withExtensions[32] |= (byte) 0x80; // ED
+            System.arraycopy(extensions, 0, withExtensions, authData.length, extensions.length);
+            assertion.put(2, withExtensions);
+        }
+        return assertion;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] getHmacSecret(Map<Integer, ?> input) {
+        PinUvAuthProtocol protocol = Integer.valueOf(PinUvAuthProtocolV2.VERSION)
+                .equals(input.get(HMAC_PIN_UV_AUTH_PROTOCOL))
+                ? new PinUvAuthProtocolV2()
+                : new PinUvAuthProtocolV1();
+        byte[] sharedSecret = authenticator.getSharedSecret(
+                protocol, (Map<Integer, ?>) input.get(HMAC_KEY_AGREEMENT));
+        byte[] saltEnc = (byte[]) input.get(HMAC_SALT_ENC);
+        Assert.assertArrayEquals(protocol.authenticate(sharedSecret, saltEnc), (byte[]) input.get(HMAC_SALT_AUTH));
+
+        byte[] salts = protocol.decrypt(sharedSecret, saltEnc);
+        byte[] output = new byte[salts.length];
+        for (int offset = 0; offset < salts.length; offset += 32) {
+            System.arraycopy(hmac(Arrays.copyOfRange(salts, offset, offset + 32)), 0, output, offset, 32);
+        }
+        return protocol.encrypt(sharedSecret, output);
+    }
+
+    private static byte[] hmac(byte[] salt) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(CRED_RANDOM, "HmacSHA256"));
+            return mac.doFinal(salt);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
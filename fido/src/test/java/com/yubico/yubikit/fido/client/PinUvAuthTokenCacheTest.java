@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.client;
+
+import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.fido.ctap.ClientPin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class PinUvAuthTokenCacheTest {
+    private static final char[] PIN = "123456".toCharArray();
+    private static final byte[] TOKEN = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final int MC_GA = ClientPin.PIN_PERMISSION_MC | ClientPin.PIN_PERMISSION_GA;
+
+    @Test
+    public void testPermissionsAndRpId() {
+        PinUvAuthTokenCache cache = new PinUvAuthTokenCache();
+        cache.put(PIN, MC_GA, "example.com", TOKEN);
+
+        Assert.assertArrayEquals(TOKEN, cache.get(PIN, ClientPin.PIN_PERMISSION_GA, "example.com"));
+        Assert.assertArrayEquals(TOKEN, cache.get(PIN, MC_GA, "example.com"));
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_CM, "example.com"));
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_GA, "example.org"));
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_GA, null));
+
+        cache.put(PIN, ClientPin.PIN_PERMISSION_CM, null, TOKEN);
+        Assert.assertArrayEquals(TOKEN, cache.get(PIN, ClientPin.PIN_PERMISSION_CM, "example.org"));
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_GA, "example.com"));
+    }
+
+    @Test
+    public void testPinMustMatch() {
+        PinUvAuthTokenCache cache = new PinUvAuthTokenCache();
+        cache.put(PIN, MC_GA, null, TOKEN);
+
+        Assert.assertNull(cache.get("654321".toCharArray(), ClientPin.PIN_PERMISSION_GA, null));
+        Assert.assertNull(cache.get(null, ClientPin.PIN_PERMISSION_GA, null));
+        Assert.assertArrayEquals(TOKEN, cache.get("123456".toCharArray(), ClientPin.PIN_PERMISSION_GA, null));
+
+        cache.put(null, MC_GA, null, TOKEN);
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_GA, null));
+        Assert.assertArrayEquals(TOKEN, cache.get(null, ClientPin.PIN_PERMISSION_GA, null));
+    }
+
+    @Test
+    public void testTokenIsCopied() {
+        PinUvAuthTokenCache cache = new PinUvAuthTokenCache();
+        byte[] token = TOKEN.clone();
+        cache.put(PIN, MC_GA, null, token);
+        token[0] = 0;
+
+        byte[] cached = cache.get(PIN, MC_GA, null);
+        Assert.assertArrayEquals(TOKEN, cached);
+        //noinspection ConstantConditions
+        cached[1] = 0;
+        Assert.assertArrayEquals(TOKEN, cache.get(PIN, MC_GA, null));
+    }
+
+    @Test
+    public void testEviction() {
+        PinUvAuthTokenCache cache = new PinUvAuthTokenCache();
+        cache.put(PIN, MC_GA | ClientPin.PIN_PERMISSION_LBW, null, TOKEN);
+        cache.removePermissions(MC_GA);
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_GA, null));
+        Assert.assertArrayEquals(TOKEN, cache.get(PIN, ClientPin.PIN_PERMISSION_LBW, null));
+
+        Assert.assertFalse(cache.invalidate(new CtapException(CtapException.ERR_NO_CREDENTIALS)));
+        Assert.assertArrayEquals(TOKEN, cache.get(PIN, ClientPin.PIN_PERMISSION_LBW, null));
+        Assert.assertTrue(cache.invalidate(new CtapException(CtapException.ERR_PIN_AUTH_INVALID)));
+        Assert.assertNull(cache.get(PIN, ClientPin.PIN_PERMISSION_LBW, null));
+
+        cache.put(PIN, MC_GA, null, TOKEN);
+        Assert.assertFalse(cache.invalidate(new CtapException(CtapException.ERR_PIN_INVALID)));
+        Assert.assertNull(cache.get(PIN, MC_GA, null));
+    }
+
+    @Test
+    public void testTtl() throws InterruptedException {
+        PinUvAuthTokenCache cache = new PinUvAuthTokenCache();
+        cache.setTtl(0, TimeUnit.MILLISECONDS);
+        cache.put(PIN, MC_GA, null, TOKEN);
+        Assert.assertNull(cache.get(PIN, MC_GA, null));
+
+        cache.setTtl(1, TimeUnit.MILLISECONDS);
+        cache.put(PIN, MC_GA, null, TOKEN);
+        Thread.sleep(5);
+        Assert.assertNull(cache.get(PIN, MC_GA, null));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.fido.CtapException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public class AssertionIteratorTest {
+    private static final int COUNT = 4;
+
+    private FakeAuthenticator authenticator;
+    private Ctap2Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        authenticator = new FakeAuthenticator();
+        List<Map<Integer, ?>> assertions = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            assertions.add(createAssertion(i));
+        }
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> {
+            Map<Integer, Object> first = new HashMap<>(assertions.get(0));
+            first.put(5, COUNT); // numberOfCredentials
+            return first;
+        });
+        int[] position = {1};
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_NEXT_ASSERTION, request -> {
+            if (position[0] >= COUNT) {
+                throw new CtapException(CtapException.ERR_NOT_ALLOWED);
+            }
+            return assertions.get(position[0]++);
+        });
+        session = new Ctap2Session(authenticator);
+    }
+
+    @Test
+    public void testOnlyFirstIsRead() throws Exception {
+        AssertionIterator assertions = getAssertionIterator();
+        Assert.assertEquals(COUNT, assertions.getCount());
+        Assert.assertEquals(0, getIndex(assertions.get(0)));
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+    }
+
+    @Test
+    public void testNext() throws Exception {
+        AssertionIterator assertions = getAssertionIterator();
+        for (int i = 0; i < COUNT; i++) {
+            Assert.assertTrue(assertions.hasNext());
+            Assert.assertEquals(i, getIndex(assertions.next()));
+            Assert.assertEquals(i, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+        }
+        Assert.assertFalse(assertions.hasNext());
+        try {
+            assertions.next();
+            Assert.fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // No more assertions
+        }
+    }
+
+    @Test
+    public void testGetReadsPreceding() throws Exception {
+        AssertionIterator assertions = getAssertionIterator();
+        Assert.assertEquals(2, getIndex(assertions.get(2)));
+        Assert.assertEquals(2, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+
+        // Assertions already read are not read again
+        Assert.assertEquals(1, getIndex(assertions.get(1)));
+        Assert.assertEquals(0, getIndex(assertions.next()));
+        Assert.assertEquals(2, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+    }
+
+    @Test
+    public void testGetAll() throws Exception {
+        AssertionIterator assertions = getAssertionIterator();
+        assertions.get(1);
+        List<Ctap2Session.AssertionData> all = assertions.getAll();
+        Assert.assertEquals(COUNT, all.size());
+        for (int i = 0; i < COUNT; i++) {
+            Assert.assertEquals(i, getIndex(all.get(i)));
+        }
+        Assert.assertEquals(COUNT - 1, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+    }
+
+    @Test
+    public void testGetAssertionsReadsAll() throws Exception {
+        List<Ctap2Session.AssertionData> all = session.getAssertions(
+                "example.com", new byte[32], null, null, null, null, null, null);
+        Assert.assertEquals(COUNT, all.size());
+        Assert.assertEquals(COUNT - 1, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+    }
+
+    @Test
+    public void testInvalidIndex() throws Exception {
+        AssertionIterator assertions = getAssertionIterator();
+        for (int index : new int[]{-1, COUNT}) {
+            try {
+                assertions.get(index);
+                Assert.fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException e) {
+                // Invalid index
+            }
+        }
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+    }
+
+    @Test
+    public void testSingleAssertion() throws Exception {
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> createAssertion(0));
+        AssertionIterator assertions = getAssertionIterator();
+        Assert.assertEquals(1, assertions.getCount());
+        Assert.assertEquals(1, assertions.getAll().size());
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_NEXT_ASSERTION));
+    }
+
+    private AssertionIterator getAssertionIterator() throws Exception {
+        return session.getAssertionIterator("example.com", new byte[32], null, null, null, null, null, null);
+    }
+
+    private static int getIndex(Ctap2Session.AssertionData assertion) {
+        return assertion.getSignature()[0];
+    }
+
+    private static Map<Integer, ?> createAssertion(int index) {
+        Map<Integer, Object> assertion = new HashMap<>();
+        assertion.put(1, Collections.singletonMap("id", new byte[]{(byte) index}));
+        assertion.put(2, new byte[37]);
+        assertion.put(3, new byte[]{(byte) index});
+        return assertion;
+    }
+}
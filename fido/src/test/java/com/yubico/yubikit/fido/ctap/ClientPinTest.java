@@ -16,14 +16,20 @@
 
 package com.yubico.yubikit.fido.ctap;
 
+import com.yubico.yubikit.core.fido.CtapException;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Objects;
 
 import static com.yubico.yubikit.fido.TestUtils.decodeHex;
 
 public class ClientPinTest {
+    private static final char[] PIN = "123456".toCharArray();
+    private static final int GET_KEY_AGREEMENT = 0x02;
+
     @Test
     public void testPadPin() {
         Assert.assertArrayEquals(decodeHex("31323334"), ClientPin.preparePin("1234".toCharArray(), false));
@@ -53,4 +59,93 @@ public class ClientPinTest {
     public void testTooLongPinWithPad() {
         ClientPin.preparePin("1234567890123456789012345678901234567890123456789012345678901234".toCharArray(), true);
     }
+
+    @Test
+    public void testSharedSecretIsCached() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        Ctap2Session session = new Ctap2Session(authenticator);
+        ClientPin clientPin = createCachingClientPin(session);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertArrayEquals(FakeAuthenticator.PIN_TOKEN, clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com"));
+        }
+        Assert.assertEquals(1, authenticator.countClientPin(GET_KEY_AGREEMENT));
+        Assert.assertNotNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+
+        // Without caching, each command gets a new key agreement
+        new ClientPin(session, new PinUvAuthProtocolV2()).getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com");
+        Assert.assertEquals(2, authenticator.countClientPin(GET_KEY_AGREEMENT));
+    }
+
+    @Test
+    public void testSharedSecretClearedOnError() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        Ctap2Session session = new Ctap2Session(authenticator);
+        ClientPin clientPin = createCachingClientPin(session);
+        clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com");
+
+        authenticator.setHandler(FakeAuthenticator.CMD_CLIENT_PIN, request -> {
+            throw new CtapException(CtapException.ERR_PIN_INVALID);
+        });
+        try {
+            clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com");
+            Assert.fail("Expected CtapException");
+        } catch (CtapException e) {
+            Assert.assertEquals(CtapException.ERR_PIN_INVALID, e.getCtapError());
+        }
+        Assert.assertNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+
+        authenticator.setHandler(FakeAuthenticator.CMD_CLIENT_PIN, authenticator::handleClientPin);
+        Assert.assertArrayEquals(FakeAuthenticator.PIN_TOKEN, clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com"));
+        Assert.assertEquals(2, authenticator.countClientPin(GET_KEY_AGREEMENT));
+    }
+
+    @Test
+    public void testSharedSecretClearedOnReset() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        Ctap2Session session = new Ctap2Session(authenticator);
+        ClientPin clientPin = createCachingClientPin(session);
+        clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com");
+
+        session.reset(null);
+        Assert.assertNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+
+        // The authenticator has a new key agreement key after reset, so a stale secret would give a wrong token
+        Assert.assertArrayEquals(FakeAuthenticator.PIN_TOKEN, clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com"));
+    }
+
+    @Test
+    public void testSharedSecretClearedOnPinChange() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        Ctap2Session session = new Ctap2Session(authenticator);
+        ClientPin clientPin = createCachingClientPin(session);
+
+        clientPin.setPin(PIN);
+        Assert.assertNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+
+        clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com");
+        Assert.assertNotNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+        clientPin.changePin(PIN, "654321".toCharArray());
+        Assert.assertNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+    }
+
+    @Test
+    public void testSharedSecretClearedOnClose() throws Exception {
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        Ctap2Session session = new Ctap2Session(authenticator);
+        ClientPin clientPin = createCachingClientPin(session);
+        clientPin.getPinToken(PIN, ClientPin.PIN_PERMISSION_GA, "example.com");
+        byte[] secret = Objects.requireNonNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION)).second;
+
+        session.close();
+        Assert.assertTrue(authenticator.isClosed());
+        Assert.assertNull(session.getCachedSharedSecret(PinUvAuthProtocolV2.VERSION));
+        Assert.assertArrayEquals(new byte[secret.length], secret);
+    }
+
+    private static ClientPin createCachingClientPin(Ctap2Session session) {
+        ClientPin clientPin = new ClientPin(session, new PinUvAuthProtocolV2());
+        clientPin.setSharedSecretCaching(true);
+        return clientPin;
+    }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.fido.CtapException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CredentialManagementTest {
+    private static final int GET_CREDS_METADATA = 0x01;
+    private static final int ENUMERATE_RPS_BEGIN = 0x02;
+    private static final int ENUMERATE_RPS_NEXT = 0x03;
+    private static final int ENUMERATE_CREDS_BEGIN = 0x04;
+    private static final int ENUMERATE_CREDS_NEXT = 0x05;
+    private static final int DELETE_CREDENTIAL = 0x06;
+
+    private static final int MAX_CREDENTIALS = 25;
+
+    private FakeAuthenticator authenticator;
+    private FakeCredentialStore store;
+    private CredentialManagement credentialManagement;
+
+    @Before
+    public void setUp() throws Exception {
+        authenticator = new FakeAuthenticator();
+        store = new FakeCredentialStore();
+        store.add("example.com", "alice");
+        store.add("example.com", "bob");
+        store.add("yubico.com", "carol");
+        authenticator.setHandler(FakeAuthenticator.CMD_CREDENTIAL_MANAGEMENT, store);
+        credentialManagement = new CredentialManagement(
+                new Ctap2Session(authenticator),
+                new PinUvAuthProtocolV2(),
+                FakeAuthenticator.PIN_TOKEN);
+    }
+
+    @Test
+    public void testEnumerateAllOrder() throws Exception {
+        Assert.assertEquals(
+                Arrays.asList("example.com/alice", "example.com/bob", "yubico.com/carol"),
+                enumerateAll());
+        // All RPs are read before any credentials are enumerated
+        Assert.assertEquals(Arrays.asList(
+                ENUMERATE_RPS_BEGIN,
+                ENUMERATE_RPS_NEXT,
+                ENUMERATE_CREDS_BEGIN,
+                ENUMERATE_CREDS_NEXT,
+                ENUMERATE_CREDS_BEGIN
+        ), store.subCommands);
+    }
+
+    @Test
+    public void testEnumerateAllStops() throws Exception {
+        List<String> seen = new ArrayList<>();
+        credentialManagement.enumerateAll((rp, credential) -> {
+            seen.add(describe(rp, credential));
+            return seen.size() < 2;
+        });
+        Assert.assertEquals(Arrays.asList("example.com/alice", "example.com/bob"), seen);
+        Assert.assertEquals(Arrays.asList(
+                ENUMERATE_RPS_BEGIN,
+                ENUMERATE_RPS_NEXT,
+                ENUMERATE_CREDS_BEGIN,
+                ENUMERATE_CREDS_NEXT
+        ), store.subCommands);
+    }
+
+    @Test
+    public void testEnumerateRpsStops() throws Exception {
+        List<String> seen = new ArrayList<>();
+        credentialManagement.enumerateRps(rp -> {
+            seen.add((String) rp.getRp().get("id"));
+            return false;
+        });
+        Assert.assertEquals(Collections.singletonList("example.com"), seen);
+        Assert.assertEquals(Collections.singletonList(ENUMERATE_RPS_BEGIN), store.subCommands);
+    }
+
+    @Test
+    public void testCacheIsUsed() throws Exception {
+        credentialManagement.setEnumerationCache(new CredentialManagement.EnumerationCache());
+        List<String> expected = enumerateAll();
+
+        store.subCommands.clear();
+        Assert.assertEquals(expected, enumerateAll());
+        Assert.assertEquals(Collections.singletonList(GET_CREDS_METADATA), store.subCommands);
+    }
+
+    @Test
+    public void testStoppedEnumerationIsNotCached() throws Exception {
+        credentialManagement.setEnumerationCache(new CredentialManagement.EnumerationCache());
+        credentialManagement.enumerateAll((rp, credential) -> false);
+
+        Assert.assertEquals(
+                Arrays.asList("example.com/alice", "example.com/bob", "yubico.com/carol"),
+                enumerateAll());
+    }
+
+    @Test
+    public void testCacheClearedOnDelete() throws Exception {
+        credentialManagement.setEnumerationCache(new CredentialManagement.EnumerationCache());
+        enumerateAll();
+
+        credentialManagement.deleteCredential(store.getCredentialId("example.com", "bob"));
+        // Keep the counts unchanged, so that only the delete can have cleared the cache
+        store.add("example.com", "dave");
+        store.subCommands.clear();
+
+        Assert.assertEquals(
+                Arrays.asList("example.com/alice", "example.com/dave", "yubico.com/carol"),
+                enumerateAll());
+        Assert.assertTrue(store.subCommands.contains(ENUMERATE_RPS_BEGIN));
+    }
+
+    @Test
+    public void testCacheClearedOnExistingCountChange() throws Exception {
+        credentialManagement.setEnumerationCache(new CredentialManagement.EnumerationCache());
+        enumerateAll();
+
+        store.add("yubico.com", "dave");
+        Assert.assertEquals(
+                Arrays.asList("example.com/alice", "example.com/bob", "yubico.com/carol", "yubico.com/dave"),
+                enumerateAll());
+    }
+
+    @Test
+    public void testCacheClearedOnRemainingCountChange() throws Exception {
+        credentialManagement.setEnumerationCache(new CredentialManagement.EnumerationCache());
+        enumerateAll();
+
+        store.remaining--;
+        store.subCommands.clear();
+        enumerateAll();
+        Assert.assertEquals(Arrays.asList(
+                GET_CREDS_METADATA,
+                ENUMERATE_RPS_BEGIN,
+                ENUMERATE_RPS_NEXT,
+                ENUMERATE_CREDS_BEGIN,
+                ENUMERATE_CREDS_NEXT,
+                ENUMERATE_CREDS_BEGIN
+        ), store.subCommands);
+    }
+
+    @Test
+    public void testCacheCleared() throws Exception {
+        CredentialManagement.EnumerationCache cache = new CredentialManagement.EnumerationCache();
+        credentialManagement.setEnumerationCache(cache);
+        enumerateAll();
+
+        cache.clear();
+        store.subCommands.clear();
+        enumerateAll();
+        Assert.assertTrue(store.subCommands.contains(ENUMERATE_RPS_BEGIN));
+    }
+
+    @Test
+    public void testEnumerateNoCredentials() throws Exception {
+        authenticator.setHandler(FakeAuthenticator.CMD_CREDENTIAL_MANAGEMENT, new FakeCredentialStore());
+        Assert.assertEquals(Collections.emptyList(), enumerateAll());
+        Assert.assertEquals(Collections.emptyList(), credentialManagement.enumerateRps());
+    }
+
+    private List<String> enumerateAll() throws Exception {
+        List<String> seen = new ArrayList<>();
+        credentialManagement.enumerateAll((rp, credential) -> seen.add(describe(rp, credential)));
+        return seen;
+    }
+
+    private static String describe(CredentialManagement.RpData rp, CredentialManagement.CredentialData credential) {
+        return rp.getRp().get("id") + "/" + credential.getUser().get("name");
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Handles the credential management subcommands for a set of credentials, identified by RP ID and user name.
+     */
+    private static class FakeCredentialStore implements FakeAuthenticator.Handler {
+        private final Map<String, List<String>> credentials = new LinkedHashMap<>();
+        private final List<Integer> subCommands = new ArrayList<>();
+        private int remaining = MAX_CREDENTIALS;
+        private Iterator<Map<Integer, ?>> pending = Collections.emptyIterator();
+
+        void add(String rpId, String user) {
+            List<String> users = credentials.get(rpId);
+            if (users == null) {
+                users = new ArrayList<>();
+                credentials.put(rpId, users);
+            }
+            users.add(user);
+            remaining--;
+        }
+
+        Map<String, ?> getCredentialId(String rpId, String user) {
+            Map<String, Object> credentialId = new HashMap<>();
+            credentialId.put("type", "public-key");
+            credentialId.put("id", (rpId + "/" + user).getBytes(StandardCharsets.UTF_8));
+            return credentialId;
+        }
+
+        @Override
+        public Map<Integer, ?> handle(Map<Integer, ?> request) throws CtapException {
+            int subCommand = (Integer) request.get(1);
+            subCommands.add(subCommand);
+            switch (subCommand) {
+                case GET_CREDS_METADATA:
+                    int existing = 0;
+                    for (List<String> users : credentials.values()) {
+                        existing += users.size();
+                    }
+                    Map<Integer, Object> metadata = new HashMap<>();
+                    metadata.put(0x01, existing);
+                    metadata.put(0x02, remaining);
+                    return metadata;
+                case ENUMERATE_RPS_BEGIN:
+                    List<Map<Integer, ?>> rps = new ArrayList<>();
+                    for (String rpId : credentials.keySet()) {
+                        Map<Integer, Object> rp = new HashMap<>();
+                        rp.put(0x03, Collections.singletonMap("id", rpId));
+                        rp.put(0x04, sha256(rpId));
+                        rp.put(0x05, credentials.size());
+                        rps.add(rp);
+                    }
+                    return begin(rps);
+                case ENUMERATE_CREDS_BEGIN:
+                    @SuppressWarnings("unchecked")
+                    byte[] rpIdHash = (byte[]) ((Map<Integer, ?>) request.get(2)).get(0x01);
+                    List<Map<Integer, ?>> creds = new ArrayList<>();
+                    for (Map.Entry<String, List<String>> entry : credentials.entrySet()) {
+                        if (Arrays.equals(rpIdHash, sha256(entry.getKey()))) {
+                            for (String user : entry.getValue()) {
+                                Map<Integer, Object> cred = new HashMap<>();
+                                cred.put(0x06, Collections.singletonMap("name", user));
+                                cred.put(0x07, getCredentialId(entry.getKey(), user));
+                                cred.put(0x08, Collections.singletonMap(1, 2));
+                                cred.put(0x09, entry.getValue().size());
+                                creds.add(cred);
+                            }
+                        }
+                    }
+                    return begin(creds);
+                case ENUMERATE_RPS_NEXT:
+                case ENUMERATE_CREDS_NEXT:
+                    if (!pending.hasNext()) {
+                        throw new CtapException(CtapException.ERR_NOT_ALLOWED);
+                    }
+                    return pending.next();
+                case DELETE_CREDENTIAL:
+                    @SuppressWarnings("unchecked")
+                    byte[] id = (byte[]) ((Map<String, ?>) ((Map<Integer, ?>) request.get(2)).get(0x02)).get("id");
+                    String[] parts = new String(id, StandardCharsets.UTF_8).split("/");
+                    List<String> users = credentials.get(parts[0]);
+                    if (users == null || !users.remove(parts[1])) {
+                        throw new CtapException(CtapException.ERR_NO_CREDENTIALS);
+                    }
+                    if (users.isEmpty()) {
+                        credentials.remove(parts[0]);
+                    }
+                    remaining++;
+                    return null;
+                default:
+                    throw new CtapException(CtapException.ERR_INVALID_SUBCOMMAND);
+            }
+        }
+
+        private Map<Integer, ?> begin(List<Map<Integer, ?>> items) throws CtapException {
+            if (items.isEmpty()) {
+                throw new CtapException(CtapException.ERR_NO_CREDENTIALS);
+            }
+            pending = items.subList(1, items.size()).iterator();
+            return items.get(0);
+        }
+    }
+}
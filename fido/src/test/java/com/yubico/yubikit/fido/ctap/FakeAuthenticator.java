@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.fido.Cbor;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.crypto.KeyAgreement;
+
+/**
+ * A CTAP2 authenticator reached through a SmartCardConnection, for testing sessions without a YubiKey.
+ * <p>
+ * getInfo, reset and the clientPin subcommands used by ClientPin are handled here, other commands are passed to
+ * the handlers set by the test. A PIN token is given for any PIN, and PIN/UV auth params are not checked. All
+ * commands are recorded.
+ */
+public class FakeAuthenticator implements SmartCardConnection {
+    public static final byte CMD_MAKE_CREDENTIAL = 0x01;
+    public static final byte CMD_GET_ASSERTION = 0x02;
+    public static final byte CMD_GET_INFO = 0x04;
+    public static final byte CMD_CLIENT_PIN = 0x06;
+    public static final byte CMD_RESET = 0x07;
+    public static final byte CMD_GET_NEXT_ASSERTION = 0x08;
+    public static final byte CMD_CREDENTIAL_MANAGEMENT = 0x0a;
+
+    public static final byte[] PIN_TOKEN = new byte[32];
+
+    static {
+        for (int i = 0; i < PIN_TOKEN.length; i++) {
+            PIN_TOKEN[i] = (byte) i;
+        }
+    }
+
+    private static final byte INS_SELECT = (byte) 0xa4;
+    private static final byte CLA_CHAINING = 0x10;
+
+    // clientPin subcommands
+    private static final int GET_RETRIES = 0x01;
+    private static final int GET_KEY_AGREEMENT = 0x02;
+    private static final int SET_PIN = 0x03;
+    private static final int CHANGE_PIN = 0x04;
+    private static final int GET_PIN_TOKEN = 0x05;
+    private static final int GET_TOKEN_USING_UV = 0x06;
+    private static final int GET_TOKEN_USING_PIN = 0x09;
+
+    /**
+     * Handles a CTAP2 command.
+     */
+    public interface Handler {
+        /**
+         * @param request the decoded parameters of the command, empty if there are none
+         * @return the response, or null for an empty response
+         * @throws CtapException to respond with an error status
+         */
+        @Nullable
+        Map<Integer, ?> handle(Map<Integer, ?> request) throws CtapException;
+    }
+
+    private final Map<Integer, Object> info = new HashMap<>();
+    private final Map<String, Boolean> options = new HashMap<>();
+    private final Map<Byte, Handler> handlers = new HashMap<>();
+    private final List<Byte> commands = new ArrayList<>();
+    private final List<Map<Integer, ?>> requests = new ArrayList<>();
+    private final ByteArrayOutputStream chained = new ByteArrayOutputStream();
+    private KeyPair keyAgreementKey;
+    private boolean closed = false;
+
+    public FakeAuthenticator() {
+        info.put(0x01, Arrays.asList("FIDO_2_0", "FIDO_2_1"));
+        info.put(0x02, Collections.emptyList());
+        info.put(0x03, new byte[16]);
+        info.put(0x04, options);
+        info.put(0x05, 1200);
+        info.put(0x06, Arrays.asList(PinUvAuthProtocolV2.VERSION, PinUvAuthProtocolV1.VERSION));
+        options.put("rk", true);
+        options.put("clientPin", true);
+        options.put("pinUvAuthToken", true);
+        options.put("credMgmt", true);
+        keyAgreementKey = generateKeyAgreementKey();
+    }
+
+    /**
+     * Returns the getInfo response, which may be modified by the test. Options are set with
+     * {@link #setOption(String, Boolean)}.
+     */
+    public Map<Integer, Object> getInfo() {
+        return info;
+    }
+
+    /**
+     * Sets an option reported by getInfo, or removes it if value is null.
+     */
+    public void setOption(String option, @Nullable Boolean value) {
+        if (value == null) {
+            options.remove(option);
+        } else {
+            options.put(option, value);
+        }
+    }
+
+    /**
+     * Sets the handler of a command, replacing the built-in handling of the command, if any.
+     */
+    public void setHandler(byte command, Handler handler) {
+        handlers.put(command, handler);
+    }
+
+    /**
+     * Returns the requests sent with a command, in order.
+     */
+    public List<Map<Integer, ?>> getRequests(byte command) {
+        List<Map<Integer, ?>> result = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i) == command) {
+                result.add(requests.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of times a command was sent.
+     */
+    public int count(byte command) {
+        return getRequests(command).size();
+    }
+
+    /**
+     * Returns the number of times a clientPin subcommand was sent.
+     */
+    public int countClientPin(int subCommand) {
+        int count = 0;
+        for (Map<Integer, ?> request : getRequests(CMD_CLIENT_PIN)) {
+            if (Integer.valueOf(subCommand).equals(request.get(2))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void clearRequests() {
+        commands.clear();
+        requests.clear();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The built-in handling of clientPin, which custom clientPin handlers may delegate to.
+     *
+     * @param request the clientPin parameters
+     * @return the clientPin response
+     */
+    public Map<Integer, ?> handleClientPin(Map<Integer, ?> request) throws CtapException {
+        int subCommand = (Integer) request.get(2);
+        switch (subCommand) {
+            case GET_RETRIES:
+                return Collections.singletonMap(3, 8);
+            case GET_KEY_AGREEMENT:
+                return Collections.singletonMap(1, encodeCoseKey((ECPublicKey) keyAgreementKey.getPublic()));
+            case SET_PIN:
+            case CHANGE_PIN:
+                return Collections.emptyMap();
+            case GET_PIN_TOKEN:
+            case GET_TOKEN_USING_PIN:
+            case GET_TOKEN_USING_UV:
+                PinUvAuthProtocol protocol = getProtocol(request);
+                @SuppressWarnings("unchecked")
+                byte[] sharedSecret = getSharedSecret(protocol, (Map<Integer, ?>) request.get(3));
+                return Collections.singletonMap(2, protocol.encrypt(sharedSecret, PIN_TOKEN));
+            default:
+                throw new CtapException(CtapException.ERR_INVALID_SUBCOMMAND);
+        }
+    }
+
+    /**
+     * Computes the shared secret of a key agreement sent by the platform, as the authenticator does.
+     *
+     * @param protocol    the PIN/UV Auth protocol used
+     * @param platformKey the COSE public key of the platform
+     * @return the shared secret
+     */
+    public byte[] getSharedSecret(PinUvAuthProtocol protocol, Map<Integer, ?> platformKey) {
+        try {
+            ECPublicKey authenticatorKey = (ECPublicKey) keyAgreementKey.getPublic();
+            ECPoint point = new ECPoint(
+                    new BigInteger(1, (byte[]) platformKey.get(-2)),
+                    new BigInteger(1, (byte[]) platformKey.get(-3)));
+            KeyAgreement ecdh = KeyAgreement.getInstance("ECDH");
+            ecdh.init(keyAgreementKey.getPrivate());
+            ecdh.doPhase(KeyFactory.getInstance("EC").generatePublic(
+                    new ECPublicKeySpec(point, authenticatorKey.getParams())), true);
+            return protocol.kdf(ecdh.generateSecret());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the PIN/UV Auth protocol of a request, which has it as its first parameter.
+     */
+    public static PinUvAuthProtocol getProtocol(Map<Integer, ?> request) {
+        return Integer.valueOf(PinUvAuthProtocolV1.VERSION).equals(request.get(1))
+                ? new PinUvAuthProtocolV1()
+                : new PinUvAuthProtocolV2();
+    }
+
+    @Override
+    public byte[] sendAndReceive(byte[] apdu) {
+        if (apdu[1] == INS_SELECT) {
+            return new byte[]{(byte) 0x90, 0x00};
+        }
+        int offset;
+        int length;
+        if (apdu[4] == 0 && apdu.length > 7) {
+            offset = 7;
+            length = ((apdu[5] & 0xff) << 8) | (apdu[6] & 0xff);
+        } else {
+            offset = 5;
+            length = apdu[4] & 0xff;
+        }
+        chained.write(apdu, offset, length);
+        if ((apdu[0] & CLA_CHAINING) != 0) {
+            return new byte[]{(byte) 0x90, 0x00};
+        }
+        byte[] data = chained.toByteArray();
+        chained.reset();
+        byte command = data[0];
+        @SuppressWarnings("unchecked")
+        Map<Integer, ?> request = data.length > 1
+                ? (Map<Integer, ?>) Cbor.decode(data, 1, data.length - 1)
+                : Collections.emptyMap();
+        commands.add(command);
+        requests.add(request);
+
+        byte[] encoded;
+        try {
+            Map<Integer, ?> response = handle(command, request);
+            encoded = response != null ? Cbor.encode(response) : new byte[0];
+        } catch (CtapException e) {
+            return new byte[]{e.getCtapError(), (byte) 0x90, 0x00};
+        }
+        byte[] result = new byte[encoded.length + 3];
+        System.arraycopy(encoded, 0, result, 1, encoded.length);
+        result[result.length - 2] = (byte) 0x90;
+        return result;
+    }
+
+    @Nullable
+    private Map<Integer, ?> handle(byte command, Map<Integer, ?> request) throws CtapException {
+        Handler handler = handlers.get(command);
+        if (handler != null) {
+            return handler.handle(request);
+        }
+        switch (command) {
+            case CMD_GET_INFO:
+                return info;
+            case CMD_CLIENT_PIN:
+                return handleClientPin(request);
+            case CMD_RESET:
+                keyAgreementKey = generateKeyAgreementKey();
+                return null;
+            default:
+                throw new CtapException(CtapException.ERR_INVALID_COMMAND);
+        }
+    }
+
+    @Override
+    public Transport getTransport() {
+        return Transport.USB;
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return true;
+    }
+
+    @Override
+    public byte[] getAtr() {
+        return new byte[0];
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private static KeyPair generateKeyAgreementKey() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(256);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<Integer, ?> encodeCoseKey(ECPublicKey publicKey) {
+        Map<Integer, Object> coseKey = new HashMap<>();
+        coseKey.put(1, 2);
+        coseKey.put(3, -25);
+        coseKey.put(-1, 1);
+        coseKey.put(-2, PinUvAuthProtocolV1.encodeCoordinate(publicKey.getW().getAffineX()));
+        coseKey.put(-3, PinUvAuthProtocolV1.encodeCoordinate(publicKey.getW().getAffineY()));
+        return coseKey;
+    }
+}
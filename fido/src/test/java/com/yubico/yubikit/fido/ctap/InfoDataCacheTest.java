@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.fido.ctap;
+
+import com.yubico.yubikit.core.Version;
+import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.client.BasicWebAuthnClient;
+import com.yubico.yubikit.fido.client.ClientError;
+import com.yubico.yubikit.fido.client.MultipleAssertionsAvailable;
+import com.yubico.yubikit.fido.client.PinRequiredClientError;
+import com.yubico.yubikit.fido.webauthn.PublicKeyCredentialRequestOptions;
+import com.yubico.yubikit.fido.webauthn.UserVerificationRequirement;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+public class InfoDataCacheTest {
+    private static final byte[] AAGUID = new byte[16];
+    private static final Version VERSION = new Version(5, 7, 2);
+    private static final int SERIAL = 12345678;
+    private static final InfoDataCache.Key KEY = new InfoDataCache.Key(AAGUID, VERSION, SERIAL);
+
+    private static Ctap2Session.InfoData createInfo(int maxMsgSize) throws Exception {
+        Map<Integer, Object> data = new HashMap<>();
+        data.put(0x01, Arrays.asList("FIDO_2_0", "FIDO_2_1"));
+        data.put(0x03, AAGUID);
+        data.put(0x04, Collections.singletonMap("rk", true));
+        data.put(0x05, maxMsgSize);
+        return Ctap2Session.InfoData.fromBytes(Cbor.encode(data));
+    }
+
+    @Test
+    public void testFileCache() throws Exception {
+        File directory = Files.createTempDirectory("info").toFile();
+        try {
+            FileInfoDataCache cache = new FileInfoDataCache(directory);
+            Assert.assertNull(cache.get(KEY));
+
+            cache.put(KEY, createInfo(1200));
+            cache.put(KEY, createInfo(2048));
+            Ctap2Session.InfoData info = new FileInfoDataCache(directory).get(KEY);
+            Assert.assertNotNull(info);
+            Assert.assertEquals(2048, info.getMaxMsgSize());
+            Assert.assertEquals(Boolean.TRUE, info.getOptions().get("rk"));
+            Assert.assertNull(cache.get(new InfoDataCache.Key(AAGUID, new Version(5, 7, 4), SERIAL)));
+            Assert.assertNull(cache.get(new InfoDataCache.Key(AAGUID, VERSION, SERIAL + 1)));
+
+            cache.remove(KEY);
+            Assert.assertNull(cache.get(KEY));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testFileCacheDiscardsInvalidData() throws Exception {
+        File directory = Files.createTempDirectory("info").toFile();
+        try {
+            FileInfoDataCache cache = new FileInfoDataCache(directory);
+            cache.put(KEY, createInfo(1200));
+            File[] files = directory.listFiles();
+            Assert.assertNotNull(files);
+            Assert.assertEquals(1, files.length);
+            try (OutputStream output = new FileOutputStream(files[0])) {
+                output.write(new byte[]{(byte) 0xa1, 0x01});
+            }
+
+            Assert.assertNull(cache.get(KEY));
+            Assert.assertFalse(files[0].exists());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCacheIsPerDevice() throws Exception {
+        MemoryInfoDataCache cache = new MemoryInfoDataCache();
+        cache.put(KEY, createInfo(1200));
+
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        Assert.assertEquals(1200, new Ctap2Session(authenticator, VERSION, cache, AAGUID, SERIAL)
+                .getCachedInfo().getMaxMsgSize());
+        Assert.assertEquals(0, authenticator.count(FakeAuthenticator.CMD_GET_INFO));
+
+        // Another device of the same model reads its own InfoData
+        authenticator.getInfo().put(0x05, 2048);
+        Ctap2Session session = new Ctap2Session(authenticator, VERSION, cache, AAGUID, SERIAL + 1);
+        Assert.assertEquals(2048, session.getCachedInfo().getMaxMsgSize());
+        Assert.assertEquals(1, authenticator.count(FakeAuthenticator.CMD_GET_INFO));
+        Assert.assertEquals(1200, Objects.requireNonNull(cache.get(KEY)).getMaxMsgSize());
+        Assert.assertEquals(2048, Objects.requireNonNull(
+                cache.get(new InfoDataCache.Key(AAGUID, VERSION, SERIAL + 1))).getMaxMsgSize());
+    }
+
+    @Test
+    public void testInfoIsStoredUnderLookupKey() throws Exception {
+        // The AAGUID used to look up the InfoData need not be the one reported by the authenticator
+        byte[] aaguid = new byte[16];
+        Arrays.fill(aaguid, (byte) 0x01);
+        MemoryInfoDataCache cache = new MemoryInfoDataCache();
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        new Ctap2Session(authenticator, VERSION, cache, aaguid, SERIAL);
+        Assert.assertNotNull(cache.get(new InfoDataCache.Key(aaguid, VERSION, SERIAL)));
+        Assert.assertNull(cache.get(KEY));
+
+        new Ctap2Session(authenticator, VERSION, cache, aaguid, SERIAL);
+        Assert.assertEquals(1, authenticator.count(FakeAuthenticator.CMD_GET_INFO));
+    }
+
+    @Test
+    public void testClientFollowsRefreshedInfo() throws Exception {
+        // The PIN was set after the InfoData was cached
+        FakeAuthenticator authenticator = new FakeAuthenticator();
+        authenticator.setOption("clientPin", false);
+        MemoryInfoDataCache cache = new MemoryInfoDataCache();
+        new Ctap2Session(authenticator, VERSION, cache, AAGUID, SERIAL);
+        authenticator.setOption("clientPin", true);
+        authenticator.setHandler(FakeAuthenticator.CMD_GET_ASSERTION, request -> {
+            throw new CtapException(CtapException.ERR_PIN_REQUIRED);
+        });
+
+        BasicWebAuthnClient client = new BasicWebAuthnClient(
+                new Ctap2Session(authenticator, VERSION, cache, AAGUID, SERIAL));
+        Assert.assertFalse(client.isPinConfigured());
+        authenticator.clearRequests();
+
+        try {
+            getAssertion(client, UserVerificationRequirement.DISCOURAGED);
+            Assert.fail("Expected ClientError");
+        } catch (ClientError e) {
+            Assert.assertEquals(ClientError.Code.BAD_REQUEST, e.getErrorCode());
+        }
+        Assert.assertTrue(client.isPinConfigured());
+        Assert.assertEquals(1, authenticator.count(FakeAuthenticator.CMD_GET_INFO));
+        Assert.assertEquals(Boolean.TRUE,
+                Objects.requireNonNull(cache.get(KEY)).getOptions().get("clientPin"));
+
+        // A retry asks for the PIN, now that it is known to be set
+        try {
+            getAssertion(client, UserVerificationRequirement.PREFERRED);
+            Assert.fail("Expected PinRequiredClientError");
+        } catch (PinRequiredClientError e) {
+            // PIN needed
+        }
+    }
+
+    private static void getAssertion(BasicWebAuthnClient client, String userVerification) throws Exception {
+        PublicKeyCredentialRequestOptions options = new PublicKeyCredentialRequestOptions(
+                new byte[32], null, "example.com", null, userVerification, null);
+        try {
+            client.getAssertion("{}".getBytes(StandardCharsets.UTF_8), options, "example.com", null, null);
+        } catch (MultipleAssertionsAvailable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+}
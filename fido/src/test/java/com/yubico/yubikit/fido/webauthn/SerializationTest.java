@@ -25,6 +25,8 @@ import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -417,4 +419,54 @@ public class SerializationTest {
                         SerializationType.JSON)
         );
     }
+
+    @Test
+    public void testExtensions() {
+        byte[] salt = new byte[32];
+        random.nextBytes(salt);
+        Map<String, Object> inputs = new HashMap<>();
+        inputs.put("hmacGetSecret", Collections.singletonMap("salt1", Base64.toUrlSafeString(salt)));
+        inputs.put("largeBlobKey", true);
+        Extensions extensions = new Extensions(inputs);
+
+        Assert.assertTrue(extensions.has("largeBlobKey"));
+        Assert.assertNull(extensions.get("credBlob"));
+        Assert.assertEquals(extensions, Extensions.fromMap(extensions.toMap()));
+
+        PublicKeyCredentialRequestOptions options = new PublicKeyCredentialRequestOptions(
+                salt, null, "example.com", null, UserVerificationRequirement.PREFERRED, extensions);
+        Assert.assertEquals(options,
+                PublicKeyCredentialRequestOptions.fromMap(options.toMap(SerializationType.JSON)));
+    }
+
+    @Test
+    public void testClientExtensionResults() {
+        byte[] credentialId = new byte[1 + random.nextInt(64)];
+        random.nextBytes(credentialId);
+        byte[] output = new byte[32];
+        random.nextBytes(output);
+
+        Map<String, Object> results = new HashMap<>();
+        results.put("hmacGetSecret", Collections.singletonMap("output1", output));
+        results.put("credBlob", true);
+        AuthenticatorAssertionResponse response = randomAuthenticatorAssertionResponse();
+        PublicKeyCredential credential = new PublicKeyCredential(credentialId, response, results);
+
+        Map<String, ?> cborMap = credential.toMap(SerializationType.CBOR);
+        Assert.assertSame(output, ((Map<?, ?>) ((Map<?, ?>) cborMap.get(PublicKeyCredential.CLIENT_EXTENSION_RESULTS))
+                .get("hmacGetSecret")).get("output1"));
+
+        PublicKeyCredential parsed = PublicKeyCredential.fromMap(
+                credential.toMap(SerializationType.JSON), SerializationType.JSON);
+        Assert.assertEquals(credential, parsed);
+        Assert.assertEquals(credential.hashCode(), parsed.hashCode());
+        Assert.assertArrayEquals(output,
+                (byte[]) ((Map<?, ?>) parsed.getClientExtensionResults().get("hmacGetSecret")).get("output1"));
+        Assert.assertEquals(true, parsed.getClientExtensionResults().get("credBlob"));
+        Assert.assertEquals(credential, PublicKeyCredential.fromMap(cborMap, SerializationType.CBOR));
+
+        Assert.assertNotEquals(credential, new PublicKeyCredential(credentialId, response));
+        Assert.assertTrue(new PublicKeyCredential(credentialId, randomAuthenticatorAssertionResponse())
+                .getClientExtensionResults().isEmpty());
+    }
 }
@@ -40,7 +40,7 @@ import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
 import com.yubico.yubikit.core.smartcard.scp.ScpKeyParams;
 import com.yubico.yubikit.core.util.Callback;
 import com.yubico.yubikit.core.util.Result;
-import com.yubico.yubikit.core.util.Tlvs;
+import com.yubico.yubikit.core.util.TlvReader;
 
 import org.slf4j.LoggerFactory;
 
@@ -325,13 +325,15 @@ public class ManagementSession extends ApplicationSession<ManagementSession> {
             if (encoded.length - 1 != encoded[0]) {
                 throw new BadResponseException("Invalid length");
             }
-            Map<Integer, byte[]> decoded =
-                    Tlvs.decodeMap(Arrays.copyOfRange(encoded, 1, encoded.length));
-            byte[] moreData = decoded.get(0x10); // YK_MORE_DEVICE_INFO
-            hasMoreData = moreData != null &&
-                    moreData.length == 1 &&
-                    moreData[0] == (byte) 1;
-            tlvs.putAll(decoded);
+            hasMoreData = false;
+            TlvReader reader = new TlvReader(encoded, 1, encoded.length - 1);
+            while (reader.hasNext()) {
+                int tag = reader.next();
+                if (tag == 0x10) { // YK_MORE_DEVICE_INFO
+                    hasMoreData = reader.getLength() == 1 && reader.getValueInt() == 1;
+                }
+                tlvs.put(tag, reader.getValueBytes());
+            }
             page++;
         }
         return DeviceInfo.parseTlvs(tlvs, version);
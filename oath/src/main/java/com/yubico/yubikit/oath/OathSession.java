@@ -32,6 +32,7 @@ import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
 import com.yubico.yubikit.core.smartcard.scp.ScpKeyParams;
 import com.yubico.yubikit.core.util.RandomUtils;
 import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvReader;
 import com.yubico.yubikit.core.util.Tlvs;
 
 import org.slf4j.LoggerFactory;
@@ -46,7 +47,6 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -372,10 +372,11 @@ public class OathSession extends ApplicationSession<OathSession> {
      */
     public List<Credential> getCredentials() throws IOException, ApduException {
         byte[] response = protocol.sendAndReceive(new Apdu(0, INS_LIST, 0, 0, null));
-        List<Tlv> list = Tlvs.decodeList(response);
+        TlvReader reader = new TlvReader(response);
         List<Credential> result = new ArrayList<>();
-        for (Tlv tlv : list) {
-            result.add(new Credential(deviceId, new ListResponse(tlv)));
+        while (reader.hasNext()) {
+            reader.next();
+            result.add(new Credential(deviceId, new ListResponse(reader)));
         }
         return result;
     }
@@ -419,15 +420,16 @@ public class OathSession extends ApplicationSession<OathSession> {
         Logger.info(logger, "Calculating all codes for time={}", timestamp);
 
         byte[] data = protocol.sendAndReceive(new Apdu(0, INS_CALCULATE_ALL, 0, 1, new Tlv(TAG_CHALLENGE, challenge).getBytes()));
-        Iterator<Tlv> responseTlvs = Tlvs.decodeList(data).iterator();
+        TlvReader reader = new TlvReader(data);
         Map<Credential, Code> map = new HashMap<>();
-        while (responseTlvs.hasNext()) {
-            Tlv nameTlv = responseTlvs.next();
-            if (nameTlv.getTag() != TAG_NAME) {
-                throw new BadResponseException(String.format("Unexpected tag: %02x", nameTlv.getTag()));
+        while (reader.hasNext()) {
+            int tag = reader.next();
+            if (tag != TAG_NAME) {
+                throw new BadResponseException(String.format("Unexpected tag: %02x", tag));
             }
-            byte[] credentialId = nameTlv.getValue();
-            CalculateResponse response = new CalculateResponse(responseTlvs.next());
+            byte[] credentialId = reader.getValueBytes();
+            reader.next();
+            CalculateResponse response = new CalculateResponse(reader);
 
             // parse credential properties
             Credential credential = new Credential(deviceId, credentialId, response);
@@ -516,7 +518,9 @@ public class OathSession extends ApplicationSession<OathSession> {
         requestTlv.put(TAG_NAME, credential.getId());
         requestTlv.put(TAG_CHALLENGE, challenge);
         byte[] data = protocol.sendAndReceive(new Apdu(0, INS_CALCULATE, 0, 1, Tlvs.encodeMap(requestTlv)));
-        String value = formatTruncated(new CalculateResponse(Tlv.parse(data)));
+        TlvReader reader = new TlvReader(data);
+        reader.next();
+        String value = formatTruncated(new CalculateResponse(reader));
 
         switch (credential.getOathType()) {
             case TOTP:
@@ -544,6 +548,15 @@ public class OathSession extends ApplicationSession<OathSession> {
      * @throws ApduException in case of communication error
      */
     public Credential putCredential(CredentialData credentialData, boolean requireTouch) throws IOException, ApduException {
+        protocol.sendAndReceive(putCredentialApdu(credentialData, requireTouch));
+        Logger.info(logger, "Credential imported");
+        return new Credential(deviceId, credentialData.getId(), credentialData.getOathType(), requireTouch);
+    }
+
+    /*
+     * Builds the PUT command for a credential.
+     */
+    private Apdu putCredentialApdu(CredentialData credentialData, boolean requireTouch) throws IOException {
         if (credentialData.getHashAlgorithm() == HashAlgorithm.SHA512) {
             require(FEATURE_SHA512);
         }
@@ -579,9 +592,35 @@ public class OathSession extends ApplicationSession<OathSession> {
                 credentialData.getDigits(), credentialData.getPeriod(),
                 credentialData.getCounter(), requireTouch);
 
-        protocol.sendAndReceive(new Apdu(0x00, INS_PUT, 0, 0, output.toByteArray()));
-        Logger.info(logger, "Credential imported");
-        return new Credential(deviceId, credentialData.getId(), credentialData.getOathType(), requireTouch);
+        return new Apdu(0x00, INS_PUT, 0, 0, output.toByteArray());
+    }
+
+    /**
+     * Adds several new Credentials to the YubiKey, sending the commands back-to-back.
+     * <p>
+     * This behaves like calling {@link #putCredential(CredentialData, boolean)} for each credential, but
+     * avoids waiting on the session between commands. The commands are sent in order, stopping at the
+     * first failure, in which case the preceding credentials have already been added.
+     *
+     * @param credentials  credential data to add
+     * @param requireTouch true if the credentials should require touch to be used
+     * @return the newly added Credentials, in the same order
+     * @throws IOException   in case of connection error
+     * @throws ApduException in case of communication error
+     */
+    public List<Credential> putCredentials(List<CredentialData> credentials, boolean requireTouch) throws IOException, ApduException {
+        List<Apdu> commands = new ArrayList<>(credentials.size());
+        for (CredentialData credentialData : credentials) {
+            commands.add(putCredentialApdu(credentialData, requireTouch));
+        }
+        protocol.sendBatch(commands);
+        Logger.info(logger, "{} credentials imported", credentials.size());
+
+        List<Credential> result = new ArrayList<>(credentials.size());
+        for (CredentialData credentialData : credentials) {
+            result.add(new Credential(deviceId, credentialData.getId(), credentialData.getOathType(), requireTouch));
+        }
+        return result;
     }
 
     /**
@@ -740,11 +779,12 @@ public class OathSession extends ApplicationSession<OathSession> {
         final OathType oathType;
         final HashAlgorithm hashAlgorithm;
 
-        private ListResponse(Tlv tlv) {
-            byte[] value = tlv.getValue();
-            id = Arrays.copyOfRange(value, 1, value.length);
-            oathType = OathType.fromValue((byte) (0xf0 & value[0]));
-            hashAlgorithm = HashAlgorithm.fromValue((byte) (0x0f & value[0]));
+        private ListResponse(TlvReader tlv) {
+            byte[] data = tlv.getArray();
+            int offset = tlv.getValueOffset();
+            id = Arrays.copyOfRange(data, offset + 1, offset + tlv.getLength());
+            oathType = OathType.fromValue((byte) (0xf0 & data[offset]));
+            hashAlgorithm = HashAlgorithm.fromValue((byte) (0x0f & data[offset]));
         }
     }
 
@@ -753,11 +793,12 @@ public class OathSession extends ApplicationSession<OathSession> {
         final int digits;
         final byte[] response;
 
-        private CalculateResponse(Tlv tlv) {
+        private CalculateResponse(TlvReader tlv) {
             responseType = (byte) tlv.getTag();
-            byte[] value = tlv.getValue();
-            digits = value[0];
-            response = Arrays.copyOfRange(value, 1, value.length);
+            byte[] data = tlv.getArray();
+            int offset = tlv.getValueOffset();
+            digits = data[offset];
+            response = Arrays.copyOfRange(data, offset + 1, offset + tlv.getLength());
         }
     }
 
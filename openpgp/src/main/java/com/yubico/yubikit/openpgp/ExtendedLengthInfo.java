@@ -17,11 +17,7 @@
 package com.yubico.yubikit.openpgp;
 
 import com.yubico.yubikit.core.application.BadResponseException;
-import com.yubico.yubikit.core.util.Tlv;
-import com.yubico.yubikit.core.util.Tlvs;
-
-import java.nio.ByteBuffer;
-import java.util.List;
+import com.yubico.yubikit.core.util.TlvReader;
 
 public class ExtendedLengthInfo {
     private final int requestMaxBytes;
@@ -41,11 +37,11 @@ public class ExtendedLengthInfo {
     }
 
     static ExtendedLengthInfo parse(byte[] encoded) {
-        List<Tlv> tlvs = Tlvs.decodeList(encoded);
+        TlvReader reader = new TlvReader(encoded);
         try {
             return new ExtendedLengthInfo(
-                    0xffff & ByteBuffer.wrap(Tlvs.unpackValue(0x02, tlvs.get(0).getBytes())).getShort(),
-                    0xffff & ByteBuffer.wrap(Tlvs.unpackValue(0x02, tlvs.get(1).getBytes())).getShort()
+                    0xffff & reader.expect(0x02).getValue().getShort(),
+                    0xffff & reader.expect(0x02).getValue().getShort()
             );
         } catch (BadResponseException e) {
             throw new IllegalArgumentException(e);
@@ -36,6 +36,7 @@ import com.yubico.yubikit.core.smartcard.SmartCardConnection;
 import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
 import com.yubico.yubikit.core.smartcard.scp.ScpKeyParams;
 import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvReader;
 import com.yubico.yubikit.core.util.Tlvs;
 
 import org.slf4j.LoggerFactory;
@@ -761,12 +762,13 @@ public class OpenPgpSession extends ApplicationSession<OpenPgpSession> {
             for (KeyRef ref : KeyRef.values()) {
                 refs.put(ref.getAlgorithmAttributes(), ref);
             }
-            for (Tlv tlv : Tlvs.decodeList(buf)) {
-                KeyRef ref = refs.get(tlv.getTag());
+            TlvReader reader = new TlvReader(buf);
+            while (reader.hasNext()) {
+                KeyRef ref = refs.get(reader.next());
                 if (!data.containsKey(ref)) {
                     data.put(ref, new ArrayList<>());
                 }
-                data.get(ref).add(AlgorithmAttributes.parse(tlv.getValue()));
+                data.get(ref).add(AlgorithmAttributes.parse(reader.getValueBytes()));
             }
 
             if (version.isLessThan(5, 6, 1)) {
@@ -35,8 +35,9 @@ import com.yubico.yubikit.core.smartcard.SmartCardConnection;
 import com.yubico.yubikit.core.smartcard.SmartCardProtocol;
 import com.yubico.yubikit.core.smartcard.scp.ScpKeyParams;
 import com.yubico.yubikit.core.util.RandomUtils;
-import com.yubico.yubikit.core.util.StringUtils;
 import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvReader;
+import com.yubico.yubikit.core.util.TlvWriter;
 import com.yubico.yubikit.core.util.Tlvs;
 
 import org.slf4j.LoggerFactory;
@@ -45,6 +46,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -62,8 +64,10 @@ import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.ECPoint;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -207,6 +211,7 @@ public class PivSession extends ApplicationSession<PivSession> {
     private int currentPinAttempts = 3;  // Internal guess as to number of PIN retries.
     private int maxPinAttempts = 3; // Internal guess as to max number of PIN retries.
     private ManagementKeyType managementKeyType;
+    private int modificationCount = 0;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PivSession.class);
 
@@ -259,6 +264,18 @@ public class PivSession extends ApplicationSession<PivSession> {
         protocol.close();
     }
 
+    /**
+     * Get a counter of the commands sent through this session which change keys or data objects on the YubiKey.
+     * <p>
+     * This can be used to tell when data read from the YubiKey and cached may be stale. Changes made outside of
+     * this session are not counted.
+     *
+     * @return the number of modifying commands sent so far
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Get the PIV application version from the YubiKey.
      * For YubiKey 4 and later this will match the YubiKey firmware version.
@@ -306,6 +323,7 @@ public class PivSession extends ApplicationSession<PivSession> {
         blockPin();
         blockPuk();
         Logger.debug(logger, "Sending reset");
+        modificationCount++;
         protocol.sendAndReceive(new Apdu(0, INS_RESET, 0, 0, null));
         currentPinAttempts = 3;
         maxPinAttempts = 3;
@@ -381,8 +399,8 @@ public class PivSession extends ApplicationSession<PivSession> {
             byte[] expectedData = cipher.doFinal(challenge);
             if (!MessageDigest.isEqual(encryptedData, expectedData)) {
                 Logger.trace(logger, "Expected response: {} and actual response {}",
-                        StringUtils.bytesToHex(expectedData),
-                        StringUtils.bytesToHex(encryptedData));
+                        Logger.hex(expectedData),
+                        Logger.hex(encryptedData));
                 throw new BadResponseException("Calculated response for challenge is incorrect");
             }
         } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException |
@@ -795,6 +813,31 @@ public class PivSession extends ApplicationSession<PivSession> {
         }
     }
 
+    /**
+     * Check if the PIN has been verified in this session.
+     * <p>
+     * This sends a VERIFY command without data, which does not use up any PIN attempts.
+     * The PIN metadata does not reflect the verification state, so it can't be used for this.
+     *
+     * @return true if the PIN is currently verified, false if it needs to be verified
+     * @throws IOException   in case of connection error
+     * @throws ApduException in case of an error response from the YubiKey
+     */
+    public boolean isPinVerified() throws IOException, ApduException {
+        Logger.debug(logger, "Checking PIN verification state");
+        try {
+            protocol.sendAndReceive(new Apdu(0, INS_VERIFY, 0, PIN_P2, null));
+            return true;
+        } catch (ApduException e) {
+            int retries = getRetriesFromCode(e.getSw());
+            if (retries >= 0) {
+                currentPinAttempts = retries;
+                return false;
+            }
+            throw e;
+        }
+    }
+
     /**
      * Change PIN.
      *
@@ -961,23 +1004,36 @@ public class PivSession extends ApplicationSession<PivSession> {
      */
     public X509Certificate getCertificate(Slot slot) throws IOException, ApduException, BadResponseException {
         Logger.debug(logger, "Reading certificate in slot {}", slot);
-        byte[] objectData = getObject(slot.objectId);
-
-        Map<Integer, byte[]> certData = Tlvs.decodeMap(objectData);
-        byte[] certInfo = certData.get(TAG_CERT_INFO);
-        byte[] cert = certData.get(TAG_CERTIFICATE);
+        TlvReader reader = readObject(slot.objectId).nested();
+        byte[] data = reader.getArray();
+        int certOffset = -1;
+        int certLength = 0;
+        boolean isCompressed = false;
+        while (reader.hasNext()) {
+            int tag = reader.next();
+            if (tag == TAG_CERT_INFO) {
+                isCompressed = reader.getLength() > 0 && data[reader.getValueOffset()] != 0;
+            } else if (tag == TAG_CERTIFICATE) {
+                certOffset = reader.getValueOffset();
+                certLength = reader.getLength();
+            }
+        }
+        if (certOffset < 0) {
+            throw new BadResponseException("Missing certificate data");
+        }
 
-        boolean isCompressed = certInfo != null && certInfo.length > 0 && certInfo[0] != 0;
         if (isCompressed) {
             try {
-                cert = GzipUtils.decompress(cert);
+                data = GzipUtils.decompress(Arrays.copyOfRange(data, certOffset, certOffset + certLength));
+                certOffset = 0;
+                certLength = data.length;
             } catch (IOException e) {
                 throw new BadResponseException("Failed to decompress certificate", e);
             }
         }
 
         try {
-            return parseCertificate(cert);
+            return parseCertificate(data, certOffset, certLength);
         } catch (CertificateException e) {
             throw new BadResponseException("Failed to parse certificate: ", e);
         }
@@ -1177,6 +1233,7 @@ public class PivSession extends ApplicationSession<PivSession> {
         }
 
         Logger.debug(logger, "Generating key with pin_policy={}, touch_policy={}", pinPolicy, touchPolicy);
+        modificationCount++;
         byte[] response = protocol.sendAndReceive(new Apdu(0, INS_GENERATE_ASYMMETRIC, 0, slot.value, new Tlv((byte) 0xac, Tlvs.encodeMap(tlvs)).getBytes()));
         Logger.info(logger, "Private key generated in slot {} of type {}", slot, keyType);
         // Tag '7F49' contains data objects for RSA or ECC
@@ -1266,6 +1323,7 @@ public class PivSession extends ApplicationSession<PivSession> {
         }
 
         Logger.debug(logger, "Importing key with pin_policy={}, touch_policy={}", pinPolicy, touchPolicy);
+        modificationCount++;
         protocol.sendAndReceive(new Apdu(0, INS_IMPORT_KEY, keyType.value, slot.value, Tlvs.encodeMap(tlvs)));
         Logger.info(logger, "Private key imported in slot {} of type {}", slot, keyType);
         return keyType;
@@ -1311,6 +1369,7 @@ public class PivSession extends ApplicationSession<PivSession> {
             throw new IllegalArgumentException("Can't move Attestation key (F9)");
         }
         Logger.debug(logger, "Move key from {} to {}", sourceSlot.getStringAlias(), destinationSlot.getStringAlias());
+        modificationCount++;
         protocol.sendAndReceive(new Apdu(0, INS_MOVE_KEY, destinationSlot.value, sourceSlot.value, null));
         Logger.info(logger, "Moved key from {} to {}", sourceSlot.getStringAlias(), destinationSlot.getStringAlias());
     }
@@ -1326,6 +1385,7 @@ public class PivSession extends ApplicationSession<PivSession> {
     public void deleteKey(Slot slot) throws IOException, ApduException {
         require(FEATURE_MOVE_KEY);
         Logger.debug(logger, "Delete key from {}", slot.getStringAlias());
+        modificationCount++;
         protocol.sendAndReceive(new Apdu(0, INS_MOVE_KEY, 0xff, slot.value, null));
         Logger.info(logger, "Deleted key from {}", slot.getStringAlias());
     }
@@ -1340,10 +1400,21 @@ public class PivSession extends ApplicationSession<PivSession> {
      * @throws BadResponseException in case of incorrect YubiKey response
      */
     public byte[] getObject(int objectId) throws IOException, ApduException, BadResponseException {
+        return readObject(objectId).getValueBytes();
+    }
+
+    /*
+     * Reads a data object, returning a reader positioned at its contents, sharing the response buffer.
+     */
+    private TlvReader readObject(int objectId) throws IOException, ApduException, BadResponseException {
         Logger.debug(logger, "Reading data from object slot {}", Integer.toString(objectId, 16));
         byte[] requestData = new Tlv(TAG_OBJ_ID, ObjectId.getBytes(objectId)).getBytes();
         byte[] responseData = protocol.sendAndReceive(new Apdu(0, INS_GET_DATA, 0x3f, 0xff, requestData));
-        return Tlvs.unpackValue(TAG_OBJ_DATA, responseData);
+        TlvReader reader = new TlvReader(responseData).expect(TAG_OBJ_DATA);
+        if (reader.hasNext()) {
+            throw new IllegalArgumentException("Extra data remaining");
+        }
+        return reader;
     }
 
     /**
@@ -1355,18 +1426,69 @@ public class PivSession extends ApplicationSession<PivSession> {
      * @throws ApduException in case of an error response from the YubiKey
      */
     public void putObject(int objectId, @Nullable byte[] objectData) throws IOException, ApduException {
+        modificationCount++;
+        protocol.sendAndReceive(putObjectApdu(objectId, objectData));
+    }
+
+    /**
+     * Write a data object to the YubiKey, reading its contents from a stream.
+     * <p>
+     * When short APDUs are used, such as over NFC or with a YubiKey NEO, the contents are read and sent one
+     * chunk at a time, so that a large object is never held in memory in full.
+     *
+     * @param objectId   the ID of the object to write, see {@link ObjectId}.
+     * @param objectData a stream holding the data object contents to write, which is not closed
+     * @param length     the number of bytes of object contents to read from the stream
+     * @throws IOException   in case of connection error, or if the stream ends early
+     * @throws ApduException in case of an error response from the YubiKey
+     */
+    public void putObject(int objectId, InputStream objectData, int length) throws IOException, ApduException {
+        Logger.debug(logger, "Writing data to object slot {}", Integer.toString(objectId, 16));
+        byte[] header = new TlvWriter()
+                .put(TAG_OBJ_ID, ObjectId.getBytes(objectId))
+                .putHeader(TAG_OBJ_DATA, length)
+                .toByteArray();
+        InputStream data = new SequenceInputStream(new ByteArrayInputStream(header), objectData);
+        modificationCount++;
+        protocol.sendAndReceive(0, INS_PUT_DATA, 0x3f, 0xff, data, header.length + length);
+    }
+
+    /**
+     * Write several data objects to the YubiKey, sending the commands back-to-back.
+     * <p>
+     * The objects are written in iteration order, stopping at the first failure, in which case the
+     * preceding objects have already been written.
+     *
+     * @param objects a map of object IDs (see {@link ObjectId}) to the object contents to write
+     * @throws IOException   in case of connection error
+     * @throws ApduException in case of an error response from the YubiKey
+     */
+    public void putObjects(Map<Integer, byte[]> objects) throws IOException, ApduException {
+        List<Apdu> commands = new ArrayList<>(objects.size());
+        for (Map.Entry<Integer, byte[]> entry : objects.entrySet()) {
+            commands.add(putObjectApdu(entry.getKey(), entry.getValue()));
+        }
+        modificationCount++;
+        protocol.sendBatch(commands);
+    }
+
+    private Apdu putObjectApdu(int objectId, @Nullable byte[] objectData) {
         Logger.debug(logger, "Writing data to object slot {}", Integer.toString(objectId, 16));
         Map<Integer, byte[]> tlvs = new LinkedHashMap<>();
         tlvs.put(TAG_OBJ_ID, ObjectId.getBytes(objectId));
         tlvs.put(TAG_OBJ_DATA, objectData);
-        protocol.sendAndReceive(new Apdu(0, INS_PUT_DATA, 0x3f, 0xff, Tlvs.encodeMap(tlvs)));
+        return new Apdu(0, INS_PUT_DATA, 0x3f, 0xff, Tlvs.encodeMap(tlvs));
     }
 
     /*
      * Parses x509 certificate object from byte array
      */
     private X509Certificate parseCertificate(byte[] data) throws CertificateException {
-        InputStream stream = new ByteArrayInputStream(data);
+        return parseCertificate(data, 0, data.length);
+    }
+
+    private X509Certificate parseCertificate(byte[] data, int offset, int length) throws CertificateException {
+        InputStream stream = new ByteArrayInputStream(data, offset, length);
         CertificateFactory cf = CertificateFactory.getInstance("X.509");
         return (X509Certificate) cf.generateCertificate(stream);
     }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+/**
+ * Decides when a {@link PivPrivateKey} with a PIN set verifies the PIN before a key operation.
+ * <p>
+ * Keys with a PIN policy of {@link com.yubico.yubikit.piv.PinPolicy#ALWAYS} or
+ * {@link com.yubico.yubikit.piv.PinPolicy#MATCH_ALWAYS} always verify the PIN, and keys with a PIN policy of
+ * {@link com.yubico.yubikit.piv.PinPolicy#NEVER} never do, regardless of this setting.
+ */
+public enum PinVerification {
+    /**
+     * The PIN is verified before every key operation.
+     */
+    ALWAYS,
+
+    /**
+     * The PIN verification state of the session is read from the YubiKey before every key operation, and the PIN
+     * is only verified when needed. This avoids sending the PIN more than needed, but not the extra command.
+     * Note that a PIN verified by another key or application is accepted, so a wrong PIN set on this key is not
+     * noticed while the session stays verified.
+     */
+    CHECK,
+
+    /**
+     * Each key remembers the sessions where it has verified its own PIN, and only verifies the PIN in sessions not
+     * in that set. Setting a new PIN on the key forgets them all. If the YubiKey rejects the key operation because the
+     * PIN is not verified, for example because another application was selected in between, the PIN is verified and
+     * the operation is retried once.
+     */
+    CACHED
+}
@@ -29,11 +29,13 @@ import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
-import java.security.KeyPair;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
-import java.util.Map;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 import javax.crypto.BadPaddingException;
@@ -43,33 +45,70 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 
+/**
+ * RSA encryption and decryption with NoPadding, PKCS1Padding or OAEP padding, which is applied and removed here
+ * around the raw RSA operation performed by the YubiKey.
+ * <p>
+ * As the key is private, encryption uses PKCS#1 v1.5 block type 1 padding, as for signatures. OAEP can only
+ * be used for decryption. For {@code OAEPWith<digest>AndMGF1Padding}, MGF1 uses SHA-1, matching the defaults
+ * of the JDK and Android Providers.
+ */
 public class PivCipherSpi extends CipherSpi {
+    private static final Pattern OAEP_PADDING_PATTERN = Pattern.compile("^OAEPWITH(.+)ANDMGF1PADDING$");
+
     private final Callback<Callback<Result<PivSession, Exception>>> provider;
-    private final Map<KeyType, KeyPair> dummyKeys;
     private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
     @Nullable
     private PivPrivateKey privateKey;
     @Nullable
     private String mode;
+    private String padding = "PKCS1PADDING";
+    // The digests used by OAEP padding, null for other paddings
     @Nullable
-    private String padding;
+    private MessageDigest oaepDigest;
+    @Nullable
+    private MessageDigest mgfDigest;
     private int opmode = -1;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PivCipherSpi.class);
 
-    PivCipherSpi(Callback<Callback<Result<PivSession, Exception>>> provider, Map<KeyType, KeyPair> dummyKeys) throws NoSuchPaddingException {
+    PivCipherSpi(Callback<Callback<Result<PivSession, Exception>>> provider) {
         this.provider = provider;
-        this.dummyKeys = dummyKeys;
     }
 
     @Override
     protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        if (!"ECB".equalsIgnoreCase(mode) && !"NONE".equalsIgnoreCase(mode)) {
+            throw new NoSuchAlgorithmException("Unsupported mode: " + mode);
+        }
         this.mode = mode;
     }
 
     @Override
     protected void engineSetPadding(String padding) throws NoSuchPaddingException {
-        this.padding = padding;
+        String name = padding.toUpperCase(Locale.ROOT);
+        MessageDigest digest = null;
+        if (name.equals("OAEPPADDING")) {
+            digest = getDigest("SHA-1");
+        } else {
+            Matcher matcher = OAEP_PADDING_PATTERN.matcher(name);
+            if (matcher.matches()) {
+                digest = getDigest(matcher.group(1));
+            } else if (!name.equals("NOPADDING") && !name.equals("PKCS1PADDING")) {
+                throw new NoSuchPaddingException("Unsupported padding: " + padding);
+            }
+        }
+        this.padding = name;
+        this.oaepDigest = digest;
+        this.mgfDigest = digest != null ? getDigest("SHA-1") : null;
+    }
+
+    private static MessageDigest getDigest(String name) throws NoSuchPaddingException {
+        try {
+            return RsaPadding.getDigest(name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new NoSuchPaddingException("Unsupported digest: " + name);
+        }
     }
 
     @Override
@@ -103,6 +142,12 @@ public class PivCipherSpi extends CipherSpi {
             if (!KeyType.Algorithm.RSA.name().equals(key.getAlgorithm())) {
                 throw new InvalidKeyException("Cipher only supports RSA.");
             }
+            if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE) {
+                throw new InvalidKeyException("Only encryption and decryption are supported");
+            }
+            if (opmode == Cipher.ENCRYPT_MODE && oaepDigest != null) {
+                throw new InvalidKeyException("OAEP padding can only be used for decryption");
+            }
             privateKey = (PivPrivateKey) key;
             this.opmode = opmode;
             buffer.reset();
@@ -147,32 +192,51 @@ public class PivCipherSpi extends CipherSpi {
         if (inputLen > 0) {
             buffer.write(input, inputOffset, inputLen);
         }
-        byte[] cipherText = buffer.toByteArray();
-        try {
-            KeyPair dummy = dummyKeys.get(privateKey.keyType);
-            Cipher rawRsa = Cipher.getInstance("RSA/ECB/NoPadding");
-            rawRsa.init(opmode, dummy.getPublic());
-            Cipher delegate = Cipher.getInstance("RSA/" + mode + "/" + padding);
-            delegate.init(opmode, dummy.getPrivate());
-            switch (opmode) {
-                case Cipher.DECRYPT_MODE:  // Decrypt, unpad
-                    return delegate.doFinal(rawRsa.doFinal(privateKey.rawSignOrDecrypt(provider, cipherText)));
-                case Cipher.ENCRYPT_MODE:  // Pad, decrypt
-                    try {
-                        return privateKey.rawSignOrDecrypt(provider, rawRsa.doFinal(delegate.doFinal(cipherText)));
-                    } catch (BadPaddingException | IllegalBlockSizeException e) {
-                        throw new IllegalStateException(e); // Shouldn't happen
-                    }
-                default:
-                    throw new UnsupportedOperationException();
+        byte[] data = buffer.toByteArray();
+        buffer.reset();
+        int keyLength = privateKey.keyType.params.bitLength / 8;
+        boolean noPadding = padding.equals("NOPADDING");
+        if (opmode == Cipher.DECRYPT_MODE || noPadding) {
+            if (data.length > keyLength) {
+                throw new IllegalBlockSizeException("Data must not be longer than " + keyLength + " bytes");
             }
-        } catch (NoSuchPaddingException e) {
-            throw new UnsupportedOperationException("SecurityProvider doesn't support RSA without padding", e);
+            byte[] decrypted = rawSignOrDecrypt(leftPad(data, keyLength));
+            if (noPadding) {
+                return decrypted;
+            } else if (oaepDigest != null && mgfDigest != null) {
+                return RsaPadding.unpadOaep(decrypted, oaepDigest, mgfDigest, null);
+            } else {
+                return RsaPadding.unpadPkcs1v15(decrypted);
+            }
+        }
+
+        // Encrypting with a private key, pad as for a signature
+        if (data.length > keyLength - 11) {
+            throw new IllegalBlockSizeException("Data must not be longer than " + (keyLength - 11) + " bytes");
+        }
+        return rawSignOrDecrypt(RsaPadding.padPkcs1v15(data, keyLength));
+    }
+
+    private byte[] rawSignOrDecrypt(byte[] payload) {
+        if (privateKey == null) {
+            throw new IllegalStateException("Cipher not initialized");
+        }
+        try {
+            return privateKey.rawSignOrDecrypt(provider, payload);
         } catch (Exception e) {
             throw new IllegalStateException(e);
         }
     }
 
+    private static byte[] leftPad(byte[] data, int length) {
+        if (data.length == length) {
+            return data;
+        }
+        byte[] padded = new byte[length];
+        System.arraycopy(data, 0, padded, length - data.length, data.length);
+        return padded;
+    }
+
     @Override
     protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
         byte[] result = engineDoFinal(input, inputOffset, inputLen);
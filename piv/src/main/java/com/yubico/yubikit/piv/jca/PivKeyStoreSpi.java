@@ -17,6 +17,7 @@
 package com.yubico.yubikit.piv.jca;
 
 import com.yubico.yubikit.core.application.BadResponseException;
+import com.yubico.yubikit.core.internal.Logger;
 import com.yubico.yubikit.core.keys.PrivateKeyValues;
 import com.yubico.yubikit.core.smartcard.ApduException;
 import com.yubico.yubikit.core.smartcard.SW;
@@ -28,6 +29,9 @@ import com.yubico.yubikit.piv.Slot;
 import com.yubico.yubikit.piv.SlotMetadata;
 import com.yubico.yubikit.piv.TouchPolicy;
 
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.InvalidParameterException;
@@ -36,21 +40,47 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.KeyStoreSpi;
 import java.security.PrivateKey;
-import java.security.PublicKey;
 import java.security.UnrecoverableEntryException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 import javax.annotation.Nullable;
 
+/**
+ * A KeyStore of the keys and certificates in the PIV slots of a YubiKey, using the slot string aliases, such as "9a".
+ * <p>
+ * Slot metadata and certificates are cached once read, per YubiKey serial number, so that repeated lookups don't
+ * need to talk to the YubiKey. When the serial number can't be read, the cache is kept per PivSession instead, and
+ * dropped along with the session. The cache of a YubiKey is cleared when keys or data objects are written through any
+ * PivSession which the KeyStore has used with that YubiKey, and a slot is refreshed when it is written through the
+ * KeyStore. Changes made by other means, such as through a PivSession the KeyStore has not used, another
+ * application, or another KeyStore instance, are not noticed. Calling
+ * {@link KeyStore#load(KeyStore.LoadStoreParameter)} with null clears the cache.
+ * <p>
+ * Listing the aliases, or looking up the alias of a certificate, reads all slots at once and lists the slots which
+ * hold a key or a certificate.
+ */
 public class PivKeyStoreSpi extends KeyStoreSpi {
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PivKeyStoreSpi.class);
+
     private final Callback<Callback<Result<PivSession, Exception>>> provider;
 
+    // Cached slot contents per YubiKey serial number, and the state of each session seen
+    private final Map<Integer, Map<Slot, SlotEntry>> deviceSlots = new HashMap<>();
+    private final Map<PivSession, SessionState> sessionStates = new WeakHashMap<>();
+
     PivKeyStoreSpi(Callback<Callback<Result<PivSession, Exception>>> provider) {
         this.provider = provider;
     }
@@ -59,41 +89,179 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
         BlockingQueue<Result<Boolean, Exception>> queue = new ArrayBlockingQueue<>(1);
         provider.invoke(result -> queue.add(Result.of(() -> {
             PivSession piv = result.getValue();
-            if (key != null) {
-                piv.putKey(slot, PrivateKeyValues.fromPrivateKey(key), pinPolicy, touchPolicy);
-            }
-            if (certificate != null) {
-                piv.putCertificate(slot, certificate);
+            synchronized (deviceSlots) {
+                getSlots(piv);
+                if (key != null) {
+                    piv.putKey(slot, PrivateKeyValues.fromPrivateKey(key), pinPolicy, touchPolicy);
+                }
+                if (certificate != null) {
+                    piv.putCertificate(slot, certificate);
+                }
+                invalidate(piv, slot);
             }
             return true;
         })));
         queue.take().getValue();
     }
 
+    /*
+     * Reads a slot, using the cache. With needKey, the metadata is read, or the certificate if there is no metadata.
+     */
+    private SlotEntry readSlot(Slot slot, boolean needKey, boolean needCertificate) throws Exception {
+        BlockingQueue<Result<SlotEntry, Exception>> queue = new ArrayBlockingQueue<>(1);
+        provider.invoke(result -> queue.add(Result.of(() -> {
+            PivSession session = result.getValue();
+            synchronized (deviceSlots) {
+                SlotEntry entry = getEntry(getSlots(session), slot);
+                if (needKey) {
+                    if (session.supports(PivSession.FEATURE_METADATA)) {
+                        entry.readMetadata(session, slot);
+                    } else {
+                        entry.readCertificate(session, slot);
+                    }
+                }
+                if (needCertificate) {
+                    entry.readCertificate(session, slot);
+                }
+                return entry;
+            }
+        })));
+        return queue.take().getValue();
+    }
+
+    /*
+     * Reads all slots, using the cache, and returns the ones holding a key or a certificate.
+     */
+    private Map<Slot, SlotEntry> readAllSlots() {
+        BlockingQueue<Result<Map<Slot, SlotEntry>, Exception>> queue = new ArrayBlockingQueue<>(1);
+        provider.invoke(result -> queue.add(Result.of(() -> {
+            PivSession session = result.getValue();
+            synchronized (deviceSlots) {
+                Map<Slot, SlotEntry> slots = getSlots(session);
+                Map<Slot, SlotEntry> populated = new EnumMap<>(Slot.class);
+                for (Slot slot : Slot.values()) {
+                    SlotEntry entry = getEntry(slots, slot);
+                    if (session.supports(PivSession.FEATURE_METADATA)) {
+                        entry.readMetadata(session, slot);
+                    }
+                    try {
+                        entry.readCertificate(session, slot);
+                    } catch (BadResponseException e) {
+                        // Malformed certificate, not cached
+                    }
+                    if (entry.metadata != null || entry.certificate != null) {
+                        populated.put(slot, entry);
+                    }
+                }
+                return populated;
+            }
+        })));
+        try {
+            return queue.take().getValue();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Returns the cached slots of the YubiKey of a session, after checking that they are still valid.
+     */
+    private Map<Slot, SlotEntry> getSlots(PivSession session) throws IOException {
+        SessionState state = sessionStates.get(session);
+        if (state == null) {
+            state = new SessionState(getSerial(session), session.getModificationCount());
+            sessionStates.put(session, state);
+        }
+        if (state.serial == null) {
+            if (state.modificationCount != session.getModificationCount()) {
+                Logger.debug(logger, "YubiKey modified through the session, clearing cached slots");
+                state.slots.clear();
+                state.modificationCount = session.getModificationCount();
+            }
+            return state.slots;
+        }
+        if (isModified(state.serial)) {
+            Logger.debug(logger, "YubiKey modified through a session, clearing cached slots");
+            deviceSlots.remove(state.serial);
+        }
+        Map<Slot, SlotEntry> slots = deviceSlots.get(state.serial);
+        if (slots == null) {
+            slots = new EnumMap<>(Slot.class);
+            deviceSlots.put(state.serial, slots);
+        }
+        return slots;
+    }
+
+    /*
+     * Checks all sessions seen with a YubiKey for writes made since they were last checked.
+     */
+    private boolean isModified(int serial) {
+        boolean modified = false;
+        for (Map.Entry<PivSession, SessionState> entry : sessionStates.entrySet()) {
+            SessionState state = entry.getValue();
+            int modificationCount = entry.getKey().getModificationCount();
+            if (state.serial != null && state.serial == serial && state.modificationCount != modificationCount) {
+                state.modificationCount = modificationCount;
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
+    /*
+     * Drops the cached contents of a slot after writing it through a session.
+     */
+    private void invalidate(PivSession session, Slot slot) {
+        SessionState state = sessionStates.get(session);
+        if (state != null) {
+            Map<Slot, SlotEntry> slots = state.serial != null ? deviceSlots.get(state.serial) : state.slots;
+            if (slots != null) {
+                slots.remove(slot);
+            }
+            state.modificationCount = session.getModificationCount();
+        }
+    }
+
+    private static SlotEntry getEntry(Map<Slot, SlotEntry> slots, Slot slot) {
+        SlotEntry entry = slots.get(slot);
+        if (entry == null) {
+            entry = new SlotEntry();
+            slots.put(slot, entry);
+        }
+        return entry;
+    }
+
+    /*
+     * Identifies the YubiKey of a session by its serial number, or returns null if it isn't readable.
+     */
+    @Nullable
+    private static Integer getSerial(PivSession session) throws IOException {
+        if (session.supports(PivSession.FEATURE_SERIAL)) {
+            try {
+                return session.getSerialNumber();
+            } catch (ApduException e) {
+                Logger.debug(logger, "Serial number not available, caching slots for this session only");
+            }
+        }
+        return null;
+    }
+
     @Override
     @Nullable
     public Key engineGetKey(String alias, char[] password) throws UnrecoverableKeyException {
         Slot slot = Slot.fromStringAlias(alias);
         try {
-            BlockingQueue<Result<PivPrivateKey, Exception>> queue = new ArrayBlockingQueue<>(1);
-            provider.invoke(result -> queue.add(Result.of(() -> {
-                PivSession session = result.getValue();
-                if (session.supports(PivSession.FEATURE_METADATA)) {
-                    SlotMetadata data = session.getSlotMetadata(slot);
-                    return PivPrivateKey.from(data.getPublicKeyValues().toPublicKey(), slot, data.getPinPolicy(), data.getTouchPolicy(), password);
-                } else {
-                    PublicKey publicKey = session.getCertificate(slot).getPublicKey();
-                    return PivPrivateKey.from(publicKey, slot, null, null, password);
-                }
-            })));
-            return queue.take().getValue();
+            SlotEntry entry = readSlot(slot, true, false);
+            SlotMetadata data = entry.metadata;
+            if (data != null) {
+                return PivPrivateKey.from(data.getPublicKeyValues().toPublicKey(), slot, data.getPinPolicy(), data.getTouchPolicy(), password);
+            } else if (!entry.metadataRead && entry.certificate != null) {
+                return PivPrivateKey.from(entry.certificate.getPublicKey(), slot, null, null, password);
+            }
+            // Empty slot
+            return null;
         } catch (BadResponseException e) {
             throw new UnrecoverableKeyException("No way to infer KeyType, make sure the matching certificate is stored");
-        } catch (ApduException e) {
-            if (e.getSw() == SW.FILE_NOT_FOUND) {
-                return null;
-            }
-            throw new RuntimeException(e);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -108,20 +276,11 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
     @Nullable
     public Certificate engineGetCertificate(String alias) {
         Slot slot = Slot.fromStringAlias(alias);
-        BlockingQueue<Result<X509Certificate, Exception>> queue = new ArrayBlockingQueue<>(1);
-        provider.invoke(result -> queue.add(Result.of(() -> result.getValue().getCertificate(slot))));
-
         try {
-            return queue.take().getValue();
+            return readSlot(slot, false, true).certificate;
         } catch (BadResponseException e) {
             // Malformed certificate?
             return null;
-        } catch (ApduException e) {
-            if (e.getSw() == SW.FILE_NOT_FOUND) {
-                // Empty slot
-                return null;
-            }
-            throw new RuntimeException(e);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -133,33 +292,29 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
             UnrecoverableEntryException {
         Slot slot = Slot.fromStringAlias(alias);
         try {
-            BlockingQueue<Result<KeyStore.Entry, Exception>> queue = new ArrayBlockingQueue<>(1);
-            provider.invoke(result -> queue.add(Result.of(() -> {
-                PivSession session = result.getValue();
-                Certificate certificate = session.getCertificate(slot);
-                char[] pin = null;
-                if (protParam instanceof KeyStore.PasswordProtection) {
-                    pin = ((KeyStore.PasswordProtection) protParam).getPassword();
-                }
-                PrivateKey key;
-                if (session.supports(PivSession.FEATURE_METADATA)) {
-                    SlotMetadata data = session.getSlotMetadata(slot);
-                    key = PivPrivateKey.from(data.getPublicKeyValues().toPublicKey(), slot, data.getPinPolicy(), data.getTouchPolicy(), pin);
-                } else {
-                    PublicKey publicKey = certificate.getPublicKey();
-                    key = PivPrivateKey.from(publicKey, slot, null, null, pin);
-                }
-                return new KeyStore.PrivateKeyEntry(key, new Certificate[]{certificate});
-            })));
-            return queue.take().getValue();
-        } catch (BadResponseException e) {
-            throw new UnrecoverableEntryException("Make sure the matching certificate is stored");
-        } catch (ApduException e) {
-            if (e.getSw() == SW.FILE_NOT_FOUND) {
+            SlotEntry entry = readSlot(slot, true, true);
+            X509Certificate certificate = entry.certificate;
+            if (certificate == null) {
                 // Empty slot
                 return null;
             }
-            throw new RuntimeException(e);
+            char[] pin = null;
+            if (protParam instanceof KeyStore.PasswordProtection) {
+                pin = ((KeyStore.PasswordProtection) protParam).getPassword();
+            }
+            PrivateKey key;
+            SlotMetadata data = entry.metadata;
+            if (data != null) {
+                key = PivPrivateKey.from(data.getPublicKeyValues().toPublicKey(), slot, data.getPinPolicy(), data.getTouchPolicy(), pin);
+            } else if (entry.metadataRead) {
+                // A certificate without a private key
+                return new KeyStore.TrustedCertificateEntry(certificate);
+            } else {
+                key = PivPrivateKey.from(certificate.getPublicKey(), slot, null, null, pin);
+            }
+            return new KeyStore.PrivateKeyEntry(key, new Certificate[]{certificate});
+        } catch (BadResponseException e) {
+            throw new UnrecoverableEntryException("Make sure the matching certificate is stored");
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -266,7 +421,12 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
 
         BlockingQueue<Result<Boolean, Exception>> queue = new ArrayBlockingQueue<>(1);
         provider.invoke(result -> queue.add(Result.of(() -> {
-            result.getValue().deleteCertificate(slot);
+            PivSession session = result.getValue();
+            synchronized (deviceSlots) {
+                getSlots(session);
+                session.deleteCertificate(slot);
+                invalidate(session, slot);
+            }
             return true;
         })));
 
@@ -279,7 +439,11 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
 
     @Override
     public Enumeration<String> engineAliases() {
-        throw new UnsupportedOperationException();
+        List<String> aliases = new ArrayList<>();
+        for (Slot slot : readAllSlots().keySet()) {
+            aliases.add(slot.getStringAlias());
+        }
+        return Collections.enumeration(aliases);
     }
 
     @Override
@@ -310,10 +474,9 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
     @Override
     @Nullable
     public String engineGetCertificateAlias(Certificate cert) {
-        for (Slot slot : Slot.values()) {
-            String alias = slot.getStringAlias();
-            if (cert.equals(engineGetCertificate(alias))) {
-                return alias;
+        for (Map.Entry<Slot, SlotEntry> entry : readAllSlots().entrySet()) {
+            if (cert.equals(entry.getValue().certificate)) {
+                return entry.getKey().getStringAlias();
             }
         }
         return null;
@@ -334,5 +497,60 @@ public class PivKeyStoreSpi extends KeyStoreSpi {
         if (param != null) {
             throw new InvalidParameterException("KeyStore must be loaded with null");
         }
+        synchronized (deviceSlots) {
+            deviceSlots.clear();
+            sessionStates.clear();
+        }
+    }
+
+    private static class SessionState {
+        @Nullable
+        private final Integer serial;
+        // The cached slots of a session without a serial number, dropped along with the session
+        private final Map<Slot, SlotEntry> slots = new EnumMap<>(Slot.class);
+        private int modificationCount;
+
+        private SessionState(@Nullable Integer serial, int modificationCount) {
+            this.serial = serial;
+            this.modificationCount = modificationCount;
+        }
+    }
+
+    /*
+     * The cached contents of a slot. Empty slots are cached as read, with null values.
+     */
+    private static class SlotEntry {
+        private boolean metadataRead = false;
+        @Nullable
+        private SlotMetadata metadata;
+        private boolean certificateRead = false;
+        @Nullable
+        private X509Certificate certificate;
+
+        private void readMetadata(PivSession session, Slot slot) throws IOException, ApduException {
+            if (!metadataRead) {
+                try {
+                    metadata = session.getSlotMetadata(slot);
+                } catch (ApduException e) {
+                    if (e.getSw() != SW.REFERENCED_DATA_NOT_FOUND && e.getSw() != SW.FILE_NOT_FOUND) {
+                        throw e;
+                    }
+                }
+                metadataRead = true;
+            }
+        }
+
+        private void readCertificate(PivSession session, Slot slot) throws IOException, ApduException, BadResponseException {
+            if (!certificateRead) {
+                try {
+                    certificate = session.getCertificate(slot);
+                } catch (ApduException e) {
+                    if (e.getSw() != SW.FILE_NOT_FOUND) {
+                        throw e;
+                    }
+                }
+                certificateRead = true;
+            }
+        }
     }
 }
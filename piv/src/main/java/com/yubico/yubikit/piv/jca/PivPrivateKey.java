@@ -16,7 +16,10 @@
 
 package com.yubico.yubikit.piv.jca;
 
+import com.yubico.yubikit.core.internal.Logger;
 import com.yubico.yubikit.core.keys.PublicKeyValues;
+import com.yubico.yubikit.core.smartcard.ApduException;
+import com.yubico.yubikit.core.smartcard.SW;
 import com.yubico.yubikit.core.util.Callback;
 import com.yubico.yubikit.core.util.Result;
 import com.yubico.yubikit.piv.KeyType;
@@ -25,6 +28,8 @@ import com.yubico.yubikit.piv.PivSession;
 import com.yubico.yubikit.piv.Slot;
 import com.yubico.yubikit.piv.TouchPolicy;
 
+import org.slf4j.LoggerFactory;
+
 import java.math.BigInteger;
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -34,6 +39,9 @@ import java.security.interfaces.RSAKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.ECParameterSpec;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
@@ -50,6 +58,12 @@ public abstract class PivPrivateKey implements PrivateKey, Destroyable {
     @Nullable
     protected char[] pin;
     private boolean destroyed = false;
+    private volatile PinVerification pinVerification = PinVerification.CACHED;
+
+    // Sessions where this key has verified its own PIN, used by PinVerification.CACHED
+    private final Set<PivSession> verifiedSessions = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PivPrivateKey.class);
 
     static PivPrivateKey from(PublicKey publicKey, Slot slot, @Nullable PinPolicy pinPolicy, @Nullable TouchPolicy touchPolicy, @Nullable char[] pin) {
         KeyType keyType = KeyType.fromKey(publicKey);
@@ -73,20 +87,96 @@ public abstract class PivPrivateKey implements PrivateKey, Destroyable {
     }
 
     byte[] rawSignOrDecrypt(Callback<Callback<Result<PivSession, Exception>>> provider, byte[] payload) throws Exception {
+        return usePrivateKey(provider, session -> session.rawSignOrDecrypt(slot, keyType, payload));
+    }
+
+    /*
+     * Runs a key operation in a session, verifying the PIN first if needed.
+     */
+    <T> T usePrivateKey(Callback<Callback<Result<PivSession, Exception>>> provider, KeyOperation<T> operation) throws Exception {
         if (destroyed) {
             throw new IllegalStateException("PivPrivateKey has been destroyed");
         }
-        BlockingQueue<Result<byte[], Exception>> queue = new ArrayBlockingQueue<>(1);
-        provider.invoke(result -> queue.add(Result.of(() -> {
-            PivSession session = result.getValue();
-            if (pin != null) {
-                session.verifyPin(pin);
-            }
-            return session.rawSignOrDecrypt(slot, keyType, payload);
-        })));
+        if (provider instanceof PivSessionPool) {
+            // Let the pool retry the operation with another YubiKey if one fails
+            return ((PivSessionPool) provider).run(session -> withPin(session, operation));
+        }
+        BlockingQueue<Result<T, Exception>> queue = new ArrayBlockingQueue<>(1);
+        provider.invoke(result -> queue.add(Result.of(() -> withPin(result.getValue(), operation))));
         return queue.take().getValue();
     }
 
+    private <T> T withPin(PivSession session, KeyOperation<T> operation) throws Exception {
+        char[] pin = this.pin;
+        if (pin == null || pinPolicy == PinPolicy.NEVER) {
+            return operation.invoke(session);
+        }
+        if (pinPolicy == PinPolicy.ALWAYS || pinPolicy == PinPolicy.MATCH_ALWAYS) {
+            // The YubiKey may clear the verified state once the key has been used, so don't remember it
+            forgetVerified(session);
+            session.verifyPin(pin);
+            return operation.invoke(session);
+        }
+        switch (pinVerification) {
+            case CHECK:
+                if (!session.isPinVerified()) {
+                    verifyPin(session, pin);
+                }
+                break;
+            case CACHED:
+                if (isVerified(session)) {
+                    try {
+                        return operation.invoke(session);
+                    } catch (ApduException e) {
+                        if (e.getSw() != SW.SECURITY_CONDITION_NOT_SATISFIED) {
+                            throw e;
+                        }
+                        Logger.debug(logger, "PIN no longer verified, verifying again");
+                    }
+                }
+                verifyPin(session, pin);
+                break;
+            default:
+                verifyPin(session, pin);
+        }
+        return operation.invoke(session);
+    }
+
+    private void verifyPin(PivSession session, char[] pin) throws Exception {
+        forgetVerified(session);
+        session.verifyPin(pin);
+        synchronized (verifiedSessions) {
+            verifiedSessions.add(session);
+        }
+    }
+
+    private boolean isVerified(PivSession session) {
+        synchronized (verifiedSessions) {
+            return verifiedSessions.contains(session);
+        }
+    }
+
+    private void forgetVerified(PivSession session) {
+        synchronized (verifiedSessions) {
+            verifiedSessions.remove(session);
+        }
+    }
+
+    /**
+     * Get the policy used to decide when the PIN is verified before a key operation.
+     */
+    public PinVerification getPinVerification() {
+        return pinVerification;
+    }
+
+    /**
+     * Sets the policy used to decide when the PIN is verified before a key operation.
+     * The default is {@link PinVerification#CACHED}.
+     */
+    public void setPinVerification(PinVerification pinVerification) {
+        this.pinVerification = pinVerification;
+    }
+
     /**
      * Get the PIV slot where the private key is stored.
      */
@@ -123,6 +213,10 @@ public abstract class PivPrivateKey implements PrivateKey, Destroyable {
             Arrays.fill(this.pin, (char) 0);
         }
         this.pin = pin != null ? Arrays.copyOf(pin, pin.length) : null;
+        // The new PIN has not been verified in any session yet
+        synchronized (verifiedSessions) {
+            verifiedSessions.clear();
+        }
     }
 
     @Override
@@ -166,15 +260,7 @@ public abstract class PivPrivateKey implements PrivateKey, Destroyable {
         byte[] keyAgreement(
                 Callback<Callback<Result<PivSession, Exception>>> provider,
                 PublicKeyValues peerPublicKeyValues) throws Exception {
-            BlockingQueue<Result<byte[], Exception>> queue = new ArrayBlockingQueue<>(1);
-            provider.invoke(result -> queue.add(Result.of(() -> {
-                PivSession session = result.getValue();
-                if (pin != null) {
-                    session.verifyPin(pin);
-                }
-                return session.calculateSecret(slot, peerPublicKeyValues);
-            })));
-            return queue.take().getValue();
+            return usePrivateKey(provider, session -> session.calculateSecret(slot, peerPublicKeyValues));
         }
 
         @Override
@@ -216,15 +302,14 @@ public abstract class PivPrivateKey implements PrivateKey, Destroyable {
         byte[] keyAgreement(
                 Callback<Callback<Result<PivSession, Exception>>> provider,
                 PublicKeyValues peerPublicKeyValues) throws Exception {
-            BlockingQueue<Result<byte[], Exception>> queue = new ArrayBlockingQueue<>(1);
-            provider.invoke(result -> queue.add(Result.of(() -> {
-                PivSession session = result.getValue();
-                if (pin != null) {
-                    session.verifyPin(pin);
-                }
-                return session.calculateSecret(slot, peerPublicKeyValues);
-            })));
-            return queue.take().getValue();
+            return usePrivateKey(provider, session -> session.calculateSecret(slot, peerPublicKeyValues));
         }
     }
+
+    /*
+     * An operation using the private key in a session.
+     */
+    interface KeyOperation<T> {
+        T invoke(PivSession session) throws Exception;
+    }
 }
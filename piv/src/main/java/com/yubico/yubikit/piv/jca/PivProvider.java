@@ -19,24 +19,19 @@ package com.yubico.yubikit.piv.jca;
 import com.yubico.yubikit.core.internal.Logger;
 import com.yubico.yubikit.core.util.Callback;
 import com.yubico.yubikit.core.util.Result;
-import com.yubico.yubikit.piv.KeyType;
 import com.yubico.yubikit.piv.PivSession;
 
 import org.slf4j.LoggerFactory;
 
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.Security;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
-import javax.crypto.NoSuchPaddingException;
 
 public class PivProvider extends Provider {
     private static final Map<String, String> ecAttributes = Collections.singletonMap("SupportedKeyClasses", PivPrivateKey.EcKey.class.getName());
@@ -45,7 +40,6 @@ public class PivProvider extends Provider {
     private static final Map<String, String> x25519Attributes = Collections.singletonMap("SupportedKeyClasses", PivPrivateKey.X25519Key.class.getName());
 
     private final Callback<Callback<Result<PivSession, Exception>>> sessionRequester;
-    private final Map<KeyType, KeyPair> rsaDummyKeys = new HashMap<>();
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PivProvider.class);
 
@@ -60,6 +54,17 @@ public class PivProvider extends Provider {
         this(callback -> callback.invoke(Result.success(session)));
     }
 
+    /**
+     * Creates a Security Provider using a pool of PivSessions, which can safely be used by multiple threads.
+     * <p>
+     * The PivSessionPool must be open for as long as the Provider will be used.
+     *
+     * @param pool A PivSessionPool to use for YubiKey interaction.
+     */
+    public PivProvider(PivSessionPool pool) {
+        this((Callback<Callback<Result<PivSession, Exception>>>) pool);
+    }
+
     /**
      * Creates a Security Provider capable of using a PivSession with a YubiKey to perform key operations.
      *
@@ -95,21 +100,8 @@ public class PivProvider extends Provider {
             }
         });
 
-        try {
-            KeyPairGenerator rsaGen = KeyPairGenerator.getInstance("RSA");
-            long start = System.currentTimeMillis();
-            for (KeyType keyType : new KeyType[]{KeyType.RSA1024, KeyType.RSA2048, KeyType.RSA3072, KeyType.RSA4096}) {
-                //TODO: import static keys to avoid slow generation?
-                rsaGen.initialize(keyType.params.bitLength);
-                rsaDummyKeys.put(keyType, rsaGen.generateKeyPair());
-            }
-            long end = System.currentTimeMillis();
-            Logger.debug(logger, "Time taken to generate dummy RSA keys: {}ms", (end - start));
-
-            putService(new PivRsaCipherService());
-        } catch (NoSuchAlgorithmException e) {
-            Logger.error(logger, "Unable to support RSA, no underlying Provider with RSA capability", e);
-        }
+        // RSA padding is done by RsaPadding, so no underlying Provider with RSA capability is needed
+        putService(new PivRsaCipherService());
 
         Set<String> digests = Security.getAlgorithms("MessageDigest");
         for (String signatureOrig : Security.getAlgorithms("Signature")) {
@@ -124,10 +116,14 @@ public class PivProvider extends Provider {
                 if (digests.contains(digest)) {
                     putService(new PivEcSignatureService(signature, digest, null));
                 }
-            } else if (!rsaDummyKeys.isEmpty() && signature.endsWith("WITHRSA")) {
-                putService(new PivRsaSignatureService(signature));
-            } else if (!rsaDummyKeys.isEmpty() && signature.endsWith("PSS")) {
-                putService(new PivRsaSignatureService(signature));
+            } else if (signature.endsWith("WITHRSA") || signature.endsWith("PSS")) {
+                try {
+                    // Only register algorithms with a digest the padding can handle
+                    new PivRsaSignatureSpi(sessionRequester, signature);
+                    putService(new PivRsaSignatureService(signature));
+                } catch (NoSuchAlgorithmException e) {
+                    Logger.debug(logger, "Not supporting {}: {}", signature, e.getMessage());
+                }
             } else if (signature.equals("ECDSA")) {
                 putService(new PivEcSignatureService("ECDSA", "SHA-1", Collections.singletonList("SHA1withECDSA")));
             }
@@ -188,11 +184,7 @@ public class PivProvider extends Provider {
 
         @Override
         public Object newInstance(Object constructorParameter) throws NoSuchAlgorithmException {
-            try {
-                return new PivRsaSignatureSpi(sessionRequester, rsaDummyKeys, getAlgorithm());
-            } catch (NoSuchPaddingException e) {
-                throw new NoSuchAlgorithmException("No underlying Provider supporting " + getAlgorithm() + " available.");
-            }
+            return new PivRsaSignatureSpi(sessionRequester, getAlgorithm());
         }
     }
 
@@ -202,12 +194,8 @@ public class PivProvider extends Provider {
         }
 
         @Override
-        public Object newInstance(Object constructorParameter) throws NoSuchAlgorithmException {
-            try {
-                return new PivCipherSpi(sessionRequester, rsaDummyKeys);
-            } catch (NoSuchPaddingException e) {
-                throw new NoSuchAlgorithmException(e);
-            }
+        public Object newInstance(Object constructorParameter) {
+            return new PivCipherSpi(sessionRequester);
         }
     }
 }
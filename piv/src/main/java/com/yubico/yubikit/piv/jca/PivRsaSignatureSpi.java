@@ -18,58 +18,96 @@ package com.yubico.yubikit.piv.jca;
 
 import com.yubico.yubikit.core.util.Callback;
 import com.yubico.yubikit.core.util.Result;
-import com.yubico.yubikit.piv.KeyType;
 import com.yubico.yubikit.piv.PivSession;
 
+import java.io.ByteArrayOutputStream;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
-import java.security.KeyPair;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.Signature;
+import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.security.SignatureSpi;
 import java.security.spec.AlgorithmParameterSpec;
-import java.util.Map;
+import java.security.spec.InvalidParameterSpecException;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.Locale;
 
 import javax.annotation.Nullable;
-import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
 
+/**
+ * RSA signatures using PKCS#1 v1.5 or PSS padding, which is applied here before the raw RSA operation is performed
+ * by the YubiKey.
+ * <p>
+ * Supported algorithms are {@code <digest>withRSA}, {@code <digest>withRSA/PSS}, {@code RSASSA-PSS} and
+ * {@code RAWRSASSA-PSS}, where the latter two require a PSSParameterSpec, and the last one takes the hash of the
+ * message instead of the message.
+ */
 public class PivRsaSignatureSpi extends SignatureSpi {
     private final Callback<Callback<Result<PivSession, Exception>>> provider;
-    private final Map<KeyType, KeyPair> dummyKeys;
-    private final String signature;
-
+    private final boolean pss;
+    // Set for algorithms where the input is hashed, and for PSS once the parameters are known
     @Nullable
-    private PivPrivateKey.RsaKey privateKey;
+    private MessageDigest digest;
+    // Used for algorithms where the input is not hashed
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final boolean hashInput;
+    @Nullable
+    private PSSParameterSpec pssParameters;
+    @Nullable
+    private MessageDigest mgfDigest;
 
     @Nullable
-    private Signature delegate;
+    private PivPrivateKey.RsaKey privateKey;
 
-    PivRsaSignatureSpi(Callback<Callback<Result<PivSession, Exception>>> provider, Map<KeyType, KeyPair> dummyKeys, String signature) throws NoSuchPaddingException {
+    PivRsaSignatureSpi(Callback<Callback<Result<PivSession, Exception>>> provider, String signature) throws NoSuchAlgorithmException {
         this.provider = provider;
-        this.dummyKeys = dummyKeys;
-        this.signature = signature;
-    }
-
-    private Signature getDelegate(boolean init) throws NoSuchAlgorithmException {
-        if (delegate == null) {
-            delegate = Signature.getInstance(signature);
-            // If parameters are set before initSign is called we need to initialize the delegate to choose Provider.
-            if (init) {
-                try {
-                    // Key size may be wrong, but that will get fixes once initSign is called.
-                    delegate.initSign(dummyKeys.get(KeyType.RSA2048).getPrivate());
-                } catch (InvalidKeyException e) {
-                    throw new NoSuchAlgorithmException();
+        String name = signature.toUpperCase(Locale.ROOT);
+        if (name.equals("RSASSA-PSS")) {
+            pss = true;
+            hashInput = true;
+        } else if (name.equals("RAWRSASSA-PSS")) {
+            pss = true;
+            hashInput = false;
+        } else if (name.endsWith("WITHRSA/PSS")) {
+            pss = true;
+            hashInput = true;
+            String digestName = name.substring(0, name.length() - 11);
+            MessageDigest messageDigest = RsaPadding.getDigest(digestName);
+            setPssParameters(new PSSParameterSpec(messageDigest.getAlgorithm(), "MGF1",
+                    new MGF1ParameterSpec(messageDigest.getAlgorithm()), messageDigest.getDigestLength(), 1));
+        } else if (name.endsWith("WITHRSA")) {
+            pss = false;
+            String digestName = name.substring(0, name.length() - 7);
+            hashInput = !digestName.equals("NONE");
+            if (hashInput) {
+                digest = RsaPadding.getDigest(digestName);
+                if (!RsaPadding.hasDigestInfo(digest)) {
+                    throw new NoSuchAlgorithmException("Unsupported digest: " + digestName);
                 }
             }
+        } else {
+            throw new NoSuchAlgorithmException("Unsupported signature algorithm: " + signature);
         }
-        return delegate;
+    }
+
+    private void setPssParameters(PSSParameterSpec params) throws NoSuchAlgorithmException {
+        if (!"MGF1".equalsIgnoreCase(params.getMGFAlgorithm())
+                || !(params.getMGFParameters() instanceof MGF1ParameterSpec)) {
+            throw new NoSuchAlgorithmException("Only MGF1 is supported");
+        }
+        if (params.getTrailerField() != 1) {
+            throw new NoSuchAlgorithmException("Unsupported trailer field");
+        }
+        MessageDigest messageDigest = RsaPadding.getDigest(params.getDigestAlgorithm());
+        mgfDigest = RsaPadding.getDigest(((MGF1ParameterSpec) params.getMGFParameters()).getDigestAlgorithm());
+        digest = messageDigest;
+        pssParameters = params;
     }
 
     @Override
@@ -81,12 +119,10 @@ public class PivRsaSignatureSpi extends SignatureSpi {
     protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
         if (privateKey instanceof PivPrivateKey.RsaKey) {
             this.privateKey = (PivPrivateKey.RsaKey) privateKey;
-            KeyPair dummyPair = dummyKeys.get(this.privateKey.keyType);
-            try {
-                getDelegate(false).initSign(dummyPair.getPrivate());
-            } catch (NoSuchAlgorithmException e) {
-                throw new InvalidKeyException(e);
+            if (digest != null) {
+                digest.reset();
             }
+            buffer.reset();
         } else {
             throw new InvalidKeyException("Unsupported key type");
         }
@@ -94,31 +130,55 @@ public class PivRsaSignatureSpi extends SignatureSpi {
 
     @Override
     protected void engineUpdate(byte b) throws SignatureException {
-        if (delegate != null) {
-            delegate.update(b);
-        } else {
-            throw new SignatureException("Not initialized");
-        }
+        engineUpdate(new byte[]{b}, 0, 1);
     }
 
     @Override
     protected void engineUpdate(byte[] b, int off, int len) throws SignatureException {
-        if (delegate != null) {
-            delegate.update(b, off, len);
-        } else {
+        if (privateKey == null) {
             throw new SignatureException("Not initialized");
         }
+        if (hashInput) {
+            if (digest == null) {
+                throw new SignatureException("PSS parameters must be set");
+            }
+            digest.update(b, off, len);
+        } else {
+            buffer.write(b, off, len);
+        }
     }
 
     @Override
     protected byte[] engineSign() throws SignatureException {
-        if (privateKey == null || delegate == null) {
+        if (privateKey == null) {
             throw new SignatureException("Not initialized");
         }
+        int keyBits = privateKey.keyType.params.bitLength;
+        byte[] padded;
+        try {
+            if (pss) {
+                if (digest == null || mgfDigest == null || pssParameters == null) {
+                    throw new SignatureException("PSS parameters must be set");
+                }
+                byte[] mHash = hashInput ? digest.digest() : buffer.toByteArray();
+                if (mHash.length != digest.getDigestLength()) {
+                    throw new SignatureException("Invalid hash length");
+                }
+                padded = RsaPadding.encodePss(mHash, keyBits, digest, mgfDigest,
+                        pssParameters.getSaltLength(), new SecureRandom());
+            } else {
+                byte[] message = digest != null
+                        ? RsaPadding.encodeDigestInfo(digest, digest.digest())
+                        : buffer.toByteArray();
+                padded = RsaPadding.padPkcs1v15(message, keyBits / 8);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new SignatureException(e);
+        } finally {
+            buffer.reset();
+        }
+
         try {
-            Cipher rawRsa = Cipher.getInstance("RSA/ECB/NoPadding");
-            rawRsa.init(Cipher.ENCRYPT_MODE, dummyKeys.get(this.privateKey.keyType).getPublic());
-            byte[] padded = rawRsa.doFinal(delegate.sign());
             return privateKey.rawSignOrDecrypt(provider, padded);
         } catch (Exception e) {
             throw new SignatureException(e);
@@ -133,40 +193,39 @@ public class PivRsaSignatureSpi extends SignatureSpi {
     @SuppressWarnings("deprecation")
     @Override
     protected void engineSetParameter(String param, Object value) throws InvalidParameterException {
-        try {
-            //noinspection deprecation
-            getDelegate(true).setParameter(param, value);
-        } catch (NoSuchAlgorithmException e) {
-            throw new InvalidParameterException("Not initialized");
-        }
+        throw new InvalidParameterException("Not supported");
     }
 
     @SuppressWarnings("deprecation")
     @Override
     protected Object engineGetParameter(String param) throws InvalidParameterException {
-        if (delegate != null) {
-            //noinspection deprecation
-            return delegate.getParameter(param);
-        } else {
-            throw new InvalidParameterException("Not initialized");
-        }
+        throw new InvalidParameterException("Not supported");
     }
 
     @Override
     protected void engineSetParameter(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+        if (!pss || !(params instanceof PSSParameterSpec)) {
+            throw new InvalidAlgorithmParameterException("Unsupported parameters");
+        }
         try {
-            getDelegate(true).setParameter(params);
+            setPssParameters((PSSParameterSpec) params);
         } catch (NoSuchAlgorithmException e) {
-            throw new InvalidParameterException("Not initialized");
+            throw new InvalidAlgorithmParameterException(e);
         }
     }
 
     @Override
+    @Nullable
     protected AlgorithmParameters engineGetParameters() {
-        if (delegate != null) {
-            return delegate.getParameters();
-        } else {
-            throw new InvalidParameterException("Not initialized");
+        if (pssParameters == null) {
+            return null;
+        }
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("RSASSA-PSS");
+            parameters.init(pssParameters);
+            return parameters;
+        } catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+            return null;
         }
     }
 }
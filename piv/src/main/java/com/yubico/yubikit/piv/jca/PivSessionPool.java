@@ -0,0 +1,642 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+import com.yubico.yubikit.core.internal.Logger;
+import com.yubico.yubikit.core.metrics.LatencyHistogram;
+import com.yubico.yubikit.core.smartcard.ApduException;
+import com.yubico.yubikit.core.util.Callback;
+import com.yubico.yubikit.core.util.Result;
+import com.yubico.yubikit.piv.PivSession;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A pool of long-lived PivSessions, which can be shared by many threads.
+ * <p>
+ * Each session, typically one per YubiKey, is used by a single worker thread, which takes requests from a queue
+ * shared by all sessions. Requests are served in the order they were made, each by the first session to become
+ * free, so that work is spread over several YubiKeys according to how busy they are. A request which does not get
+ * a session within its timeout fails with a {@link TimeoutException}. Once a request has started it runs to
+ * completion, as commands sent to a YubiKey can't be aborted.
+ * <p>
+ * When sessions for several YubiKeys are used, they must all hold the same keys, as any of them may serve a request.
+ * If a key operation made through {@link PivProvider} fails with an IOException, the session is taken out of use and
+ * the operation is retried with another session. Sessions which have been idle or out of use for the health check
+ * interval are checked by reading the serial number, or the number of PIN attempts, and are put back in use once
+ * they respond again. A session which failed because its YubiKey was removed does not respond again, even once the
+ * YubiKey is back, so a pool created with {@link #open} instead replaces it with a session from its
+ * {@link SessionFactory}.
+ * <p>
+ * The pool can be used directly with {@link PivProvider}, letting all the JCA classes share the sessions:
+ * <pre>{@code
+ * PivSessionPool pool = new PivSessionPool(sessions, 5, TimeUnit.SECONDS);
+ * Security.addProvider(new PivProvider(pool));
+ * }</pre>
+ * The pool takes ownership of the sessions, and closes them when it is closed.
+ * <p>
+ * To have failed sessions reopened, give the pool a factory for each YubiKey instead:
+ * <pre>{@code
+ * PivSessionPool pool = PivSessionPool.open(Collections.singletonList(() -> {
+ *     PivSession session = new PivSession(device.openConnection(SmartCardConnection.class));
+ *     session.authenticate(managementKey);
+ *     return session;
+ * }), 5, TimeUnit.SECONDS);
+ * }</pre>
+ */
+public class PivSessionPool implements Callback<Callback<Result<PivSession, Exception>>>, Closeable {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // How often a request which is running past its deadline is checked for having been put back in the queue
+    private static final long RECHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final AtomicInteger poolCount = new AtomicInteger();
+    private static final Request STOP = new CallbackRequest(result -> {
+    }, 0);
+
+    private final List<Member> members = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final BlockingDeque<Request> queue = new LinkedBlockingDeque<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long defaultTimeoutNanos;
+    private volatile long healthCheckIntervalNanos = DEFAULT_HEALTH_CHECK_INTERVAL_NANOS;
+    private volatile boolean closed = false;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+    private final LatencyHistogram waitLatency = new LatencyHistogram();
+    private final LatencyHistogram runLatency = new LatencyHistogram();
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PivSessionPool.class);
+
+    /**
+     * Creates a pool using the given sessions, starting one worker thread per session.
+     *
+     * @param sessions the sessions to use, which must not be used outside of the pool
+     * @param timeout  the maximum time a request waits for a session, when not given in the request
+     * @param unit     the unit of timeout
+     */
+    public PivSessionPool(List<PivSession> sessions, long timeout, TimeUnit unit) {
+        this(sessions, Collections.<SessionFactory>nCopies(sessions.size(), null), timeout, unit);
+    }
+
+    /**
+     * Creates a pool with one session from each factory, starting one worker thread per session.
+     * <p>
+     * A session which fails a health check is closed, and replaced with a new session from the same factory.
+     *
+     * @param factories the factories to open sessions with, typically one for each YubiKey
+     * @param timeout   the maximum time a request waits for a session, when not given in the request
+     * @param unit      the unit of timeout
+     * @return a new pool
+     * @throws Exception if a factory fails to open a session
+     */
+    public static PivSessionPool open(List<SessionFactory> factories, long timeout, TimeUnit unit) throws Exception {
+        List<PivSession> sessions = new ArrayList<>();
+        try {
+            for (SessionFactory factory : factories) {
+                sessions.add(factory.openSession());
+            }
+        } catch (Exception e) {
+            for (PivSession session : sessions) {
+                closeQuietly(session);
+            }
+            throw e;
+        }
+        return new PivSessionPool(sessions, factories, timeout, unit);
+    }
+
+    private PivSessionPool(List<PivSession> sessions, List<SessionFactory> factories, long timeout, TimeUnit unit) {
+        if (sessions.isEmpty()) {
+            throw new IllegalArgumentException("At least one session is required");
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.defaultTimeoutNanos = unit.toNanos(timeout);
+
+        int poolId = poolCount.incrementAndGet();
+        for (int i = 0; i < sessions.size(); i++) {
+            Member member = new Member(sessions.get(i), factories.get(i));
+            members.add(member);
+            Thread worker = new Thread(() -> work(member), "PivSessionPool-" + poolId + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Logger.debug(logger, "Started pool with {} sessions", members.size());
+    }
+
+    /**
+     * Sets how long a session may stay idle, or out of use after a failure, before its health is checked.
+     * The default is 30 seconds.
+     *
+     * @param interval the health check interval
+     * @param unit     the unit of interval
+     */
+    public void setHealthCheckInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        healthCheckIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Runs the callback with a session from the pool, blocking until it has completed.
+     * <p>
+     * The callback is given a failed Result if no session becomes available within the default timeout.
+     *
+     * @param callback the callback to invoke with a session
+     */
+    @Override
+    public void invoke(Callback<Result<PivSession, Exception>> callback) {
+        invoke(callback, defaultTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the callback with a session from the pool, blocking until it has completed.
+     *
+     * @param callback the callback to invoke with a session, or with a failed Result if no session becomes
+     *                 available within the timeout
+     * @param timeout  the maximum time to wait for a session
+     * @param unit     the unit of timeout
+     */
+    public void invoke(Callback<Result<PivSession, Exception>> callback, long timeout, TimeUnit unit) {
+        submit(new CallbackRequest(callback, unit.toNanos(timeout)));
+    }
+
+    /*
+     * Runs a key operation with a session from the pool, retrying it with another session if the YubiKey fails.
+     */
+    <T> T run(PivPrivateKey.KeyOperation<T> operation) throws Exception {
+        OperationRequest<T> request = new OperationRequest<>(operation, defaultTimeoutNanos);
+        submit(request);
+        return request.result.getValue();
+    }
+
+    /**
+     * @return the number of sessions in the pool
+     */
+    public int getSessionCount() {
+        return members.size();
+    }
+
+    /**
+     * @return the number of sessions currently in use, which have not failed
+     */
+    public int getHealthySessionCount() {
+        int count = 0;
+        for (Member member : members) {
+            if (member.healthy) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return statistics for each session, in the order the sessions were given
+     */
+    public List<SessionStats> getSessionStats() {
+        List<SessionStats> stats = new ArrayList<>();
+        for (Member member : members) {
+            stats.add(new SessionStats(member.healthy, member.completed.get(), member.failures.get()));
+        }
+        return Collections.unmodifiableList(stats);
+    }
+
+    /**
+     * @return the number of requests currently waiting for a session
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the largest number of requests which have been waiting for a session at the same time
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of requests which timed out waiting for a session
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return the number of key operations which were retried with another session after a failure
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    /**
+     * @return a histogram of the time requests waited for a session, in nanoseconds
+     */
+    public LatencyHistogram getWaitLatency() {
+        return waitLatency;
+    }
+
+    /**
+     * @return a histogram of the time requests used a session, in nanoseconds
+     */
+    public LatencyHistogram getRunLatency() {
+        return runLatency;
+    }
+
+    /**
+     * Stops the pool and closes all sessions. Requests still waiting for a session fail with an IOException.
+     * Requests which are running are completed before the sessions are closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        stopped.countDown();
+        Request request;
+        while ((request = queue.poll()) != null) {
+            if (request.state.compareAndSet(QUEUED, DONE)) {
+                request.fail(new IOException("PivSessionPool is closed"));
+            }
+        }
+        // Workers are stopped with a marker request rather than by interruption, which could break a running command
+        for (int i = 0; i < workers.size(); i++) {
+            queue.add(STOP);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        IOException error = null;
+        for (Member member : members) {
+            try {
+                member.session.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        Logger.debug(logger, "Closed pool");
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void submit(Request request) {
+        if (closed) {
+            request.fail(new IOException("PivSessionPool is closed"));
+            return;
+        }
+        queue.add(request);
+        // The pool may have been closed, and its queue drained, after the check above
+        if (closed && request.state.compareAndSet(QUEUED, DONE)) {
+            queue.remove(request);
+            request.fail(new IOException("PivSessionPool is closed"));
+            return;
+        }
+        updateMaxQueueDepth();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                // A request running past its deadline is either completed, or put back in the queue after its
+                // session failed, in which case it is timed out here
+                long remaining = Math.max(request.deadline - System.nanoTime(), RECHECK_INTERVAL_NANOS);
+                if (request.done.await(remaining, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+                if (System.nanoTime() - request.deadline >= 0 && expire(request)) {
+                    queue.remove(request);
+                    break;
+                }
+            } catch (InterruptedException e) {
+                if (!interrupted && request.state.compareAndSet(QUEUED, DONE)) {
+                    queue.remove(request);
+                    request.fail(e);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work(Member member) {
+        while (true) {
+            try {
+                if (!member.healthy) {
+                    // Sessions out of use don't take requests, until a health check succeeds
+                    if (stopped.await(healthCheckIntervalNanos, TimeUnit.NANOSECONDS)) {
+                        return;
+                    }
+                    checkHealth(member);
+                    continue;
+                }
+                Request request = queue.pollFirst(healthCheckIntervalNanos, TimeUnit.NANOSECONDS);
+                if (request == STOP) {
+                    return;
+                } else if (request == null) {
+                    checkHealth(member);
+                } else if (System.nanoTime() - request.deadline >= 0) {
+                    // The waiting thread may not have noticed the deadline yet
+                    expire(request);
+                } else if (request.state.compareAndSet(QUEUED, RUNNING)) {
+                    serve(member, request);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Member member, Request request) {
+        long start = System.nanoTime();
+        waitLatency.record(start - request.queuedAt);
+        boolean completed = true;
+        try {
+            completed = request.run(member.session);
+        } catch (RuntimeException e) {
+            Logger.error(logger, "Unhandled exception in PivSessionPool callback: ", e);
+        } finally {
+            runLatency.record(System.nanoTime() - start);
+        }
+        if (completed) {
+            member.completed.incrementAndGet();
+            request.state.set(DONE);
+            request.done.countDown();
+            return;
+        }
+
+        member.failures.incrementAndGet();
+        member.healthy = false;
+        Logger.info(logger, "Session failed, taking it out of use: {}", request.error != null ? request.error.getMessage() : null);
+        if (request.attempts < members.size() && System.nanoTime() - request.deadline < 0
+                && request.state.compareAndSet(RUNNING, QUEUED)) {
+            // Retry with another session, ahead of newer requests
+            failovers.incrementAndGet();
+            queue.addFirst(request);
+            if (closed && request.state.compareAndSet(QUEUED, DONE)) {
+                queue.remove(request);
+                request.fail(new IOException("PivSessionPool is closed"));
+            }
+        } else if (request.state.compareAndSet(RUNNING, DONE)) {
+            request.fail(request.error != null ? request.error : new IOException("PivSession failed"));
+        }
+    }
+
+    /*
+     * Fails a request which is still queued after its deadline, returning false if it was already taken.
+     */
+    private boolean expire(Request request) {
+        if (!request.state.compareAndSet(QUEUED, DONE)) {
+            return false;
+        }
+        timeouts.incrementAndGet();
+        Logger.debug(logger, "Request timed out waiting for a session");
+        request.fail(new TimeoutException("Timed out waiting for a PivSession"));
+        return true;
+    }
+
+    private void checkHealth(Member member) {
+        boolean healthy = ping(member.session);
+        if (!healthy && member.factory != null) {
+            // A connection broken by removing the YubiKey stays broken, so open a new session
+            try {
+                PivSession session = member.factory.openSession();
+                closeQuietly(member.session);
+                member.session = session;
+                healthy = true;
+                Logger.info(logger, "Session reopened");
+            } catch (Exception e) {
+                Logger.debug(logger, "Failed to reopen session: {}", e.getMessage());
+            }
+        }
+        if (healthy != member.healthy) {
+            Logger.info(logger, healthy ? "Session is healthy, putting it back in use" : "Session failed health check, taking it out of use");
+            member.healthy = healthy;
+        }
+    }
+
+    private static boolean ping(PivSession session) {
+        try {
+            if (session.supports(PivSession.FEATURE_SERIAL)) {
+                session.getSerialNumber();
+            } else {
+                session.getPinAttempts();
+            }
+            return true;
+        } catch (ApduException e) {
+            // The YubiKey responded, which is all that matters here
+            return true;
+        } catch (IOException e) {
+            Logger.debug(logger, "Health check failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static void closeQuietly(PivSession session) {
+        try {
+            session.close();
+        } catch (IOException e) {
+            Logger.debug(logger, "Failed to close session: {}", e.getMessage());
+        }
+    }
+
+    private void updateMaxQueueDepth() {
+        int depth = queue.size();
+        int current;
+        while (depth > (current = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(current, depth)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Opens a new session for a pool, for use when a session has failed.
+     */
+    public interface SessionFactory {
+        /**
+         * Opens a session, ready to use for key operations.
+         *
+         * @return a new session, owned by the pool
+         * @throws Exception if the session could not be opened, for example because the YubiKey is not connected
+         */
+        PivSession openSession() throws Exception;
+    }
+
+    /**
+     * Statistics of a single session in a pool.
+     */
+    public static class SessionStats {
+        private final boolean healthy;
+        private final long completed;
+        private final long failures;
+
+        private SessionStats(boolean healthy, long completed, long failures) {
+            this.healthy = healthy;
+            this.completed = completed;
+            this.failures = failures;
+        }
+
+        /**
+         * @return true if the session is in use, false if it has failed and is waiting for a health check
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return the number of requests served by the session
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return the number of key operations which failed with the session, and were retried
+         */
+        public long getFailures() {
+            return failures;
+        }
+    }
+
+    private static class Member {
+        // Only replaced by the worker of the member
+        private volatile PivSession session;
+        @Nullable
+        private final SessionFactory factory;
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile boolean healthy = true;
+
+        private Member(PivSession session, @Nullable SessionFactory factory) {
+            this.session = session;
+            this.factory = factory;
+        }
+    }
+
+    private abstract static class Request {
+        private final long queuedAt = System.nanoTime();
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final CountDownLatch done = new CountDownLatch(1);
+        int attempts = 0;
+        @Nullable
+        IOException error;
+
+        private Request(long timeoutNanos) {
+            this.deadline = queuedAt + timeoutNanos;
+        }
+
+        /*
+         * Runs the request with a session, returning false if the session failed and the request may be retried.
+         */
+        abstract boolean run(PivSession session);
+
+        /*
+         * Completes the request with an error.
+         */
+        void fail(Exception e) {
+            complete(e);
+            done.countDown();
+        }
+
+        abstract void complete(Exception e);
+    }
+
+    private static class CallbackRequest extends Request {
+        private final Callback<Result<PivSession, Exception>> callback;
+
+        private CallbackRequest(Callback<Result<PivSession, Exception>> callback, long timeoutNanos) {
+            super(timeoutNanos);
+            this.callback = callback;
+        }
+
+        @Override
+        boolean run(PivSession session) {
+            // The outcome isn't visible through a callback, so it can't be retried
+            callback.invoke(Result.success(session));
+            return true;
+        }
+
+        @Override
+        void complete(Exception e) {
+            callback.invoke(Result.failure(e));
+        }
+    }
+
+    private static class OperationRequest<T> extends Request {
+        private final PivPrivateKey.KeyOperation<T> operation;
+        private Result<T, Exception> result = Result.failure(new IllegalStateException("Request not completed"));
+
+        private OperationRequest(PivPrivateKey.KeyOperation<T> operation, long timeoutNanos) {
+            super(timeoutNanos);
+            this.operation = operation;
+        }
+
+        @Override
+        boolean run(PivSession session) {
+            attempts++;
+            try {
+                result = Result.success(operation.invoke(session));
+            } catch (IOException e) {
+                error = e;
+                return false;
+            } catch (Exception e) {
+                result = Result.failure(e);
+            }
+            return true;
+        }
+
+        @Override
+        void complete(Exception e) {
+            result = Result.failure(e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+import javax.crypto.BadPaddingException;
+
+/**
+ * RSA padding and unpadding, as defined by PKCS#1 v2.2 (RFC 8017), working only on the modulus length.
+ * <p>
+ * The YubiKey performs raw RSA operations, so the Provider pads messages before signing, and removes padding
+ * after decrypting. Doing this here, rather than by running another Provider with a dummy key of the same size,
+ * avoids generating RSA keys.
+ */
+final class RsaPadding {
+    // DER encoded OIDs of the digests usable in PKCS#1 v1.5 signatures, by MessageDigest algorithm name
+    private static final Map<String, byte[]> DIGEST_OIDS = new HashMap<>();
+    private static final Pattern SHA_PATTERN = Pattern.compile("^SHA(1|224|256|384|512|512/224|512/256)$",
+            Pattern.CASE_INSENSITIVE);
+
+    static {
+        DIGEST_OIDS.put("MD2", new byte[]{0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x02, 0x02});
+        DIGEST_OIDS.put("MD5", new byte[]{0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x02, 0x05});
+        DIGEST_OIDS.put("SHA-1", new byte[]{0x2b, 0x0e, 0x03, 0x02, 0x1a});
+        String[] nistDigests = {
+                "SHA-256", "SHA-384", "SHA-512", "SHA-224", "SHA-512/224", "SHA-512/256",
+                "SHA3-224", "SHA3-256", "SHA3-384", "SHA3-512"
+        };
+        for (int i = 0; i < nistDigests.length; i++) {
+            DIGEST_OIDS.put(nistDigests[i],
+                    new byte[]{0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, (byte) (i + 1)});
+        }
+    }
+
+    private RsaPadding() {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Gets a MessageDigest from a digest name as used in signature algorithm names, such as SHA256 or SHA3-256.
+     *
+     * @param name the digest name
+     * @return a new MessageDigest
+     * @throws NoSuchAlgorithmException if no Provider supports the digest
+     */
+    static MessageDigest getDigest(String name) throws NoSuchAlgorithmException {
+        // SHA names don't quite match between Signature and MessageDigest.
+        Matcher matcher = SHA_PATTERN.matcher(name);
+        return MessageDigest.getInstance(matcher.matches() ? "SHA-" + matcher.group(1) : name);
+    }
+
+    /**
+     * Checks if a digest can be used in PKCS#1 v1.5 signatures.
+     *
+     * @param digest the digest to check
+     * @return true if the OID of the digest is known
+     */
+    static boolean hasDigestInfo(MessageDigest digest) {
+        return DIGEST_OIDS.containsKey(digest.getAlgorithm().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Encodes a hash as a DER DigestInfo.
+     *
+     * @param digest the digest used to compute the hash
+     * @param hash   the hash
+     * @return the DigestInfo
+     */
+    static byte[] encodeDigestInfo(MessageDigest digest, byte[] hash) {
+        byte[] oid = DIGEST_OIDS.get(digest.getAlgorithm().toUpperCase(Locale.ROOT));
+        if (oid == null) {
+            throw new IllegalArgumentException("Unsupported digest: " + digest.getAlgorithm());
+        }
+        // SEQUENCE { SEQUENCE { OID, NULL }, OCTET STRING }, all lengths fit in a single byte
+        int algorithmLength = 2 + oid.length + 2;
+        byte[] digestInfo = new byte[2 + 2 + algorithmLength + 2 + hash.length];
+        int offset = 0;
+        digestInfo[offset++] = 0x30;
+        digestInfo[offset++] = (byte) (digestInfo.length - 2);
+        digestInfo[offset++] = 0x30;
+        digestInfo[offset++] = (byte) algorithmLength;
+        digestInfo[offset++] = 0x06;
+        digestInfo[offset++] = (byte) oid.length;
+        System.arraycopy(oid, 0, digestInfo, offset, oid.length);
+        offset += oid.length;
+        digestInfo[offset++] = 0x05;
+        digestInfo[offset++] = 0x00;
+        digestInfo[offset++] = 0x04;
+        digestInfo[offset++] = (byte) hash.length;
+        System.arraycopy(hash, 0, digestInfo, offset, hash.length);
+        return digestInfo;
+    }
+
+    /**
+     * Pads a message using PKCS#1 v1.5 block type 1, as used for signatures.
+     *
+     * @param message   the message, such as a DigestInfo
+     * @param keyLength the length of the RSA modulus, in bytes
+     * @return the padded message
+     * @throws IllegalArgumentException if the message is too long for the key
+     */
+    static byte[] padPkcs1v15(byte[] message, int keyLength) {
+        if (message.length > keyLength - 11) {
+            throw new IllegalArgumentException("Message too long for key");
+        }
+        byte[] padded = new byte[keyLength];
+        padded[1] = 0x01;
+        Arrays.fill(padded, 2, keyLength - message.length - 1, (byte) 0xff);
+        System.arraycopy(message, 0, padded, keyLength - message.length, message.length);
+        return padded;
+    }
+
+    /**
+     * Removes PKCS#1 v1.5 block type 2 padding, as used for encryption.
+     *
+     * @param padded the decrypted, padded message
+     * @return the message
+     * @throws BadPaddingException if the padding is invalid
+     */
+    static byte[] unpadPkcs1v15(byte[] padded) throws BadPaddingException {
+        // Check the whole block before failing, to not reveal which part of the padding is invalid
+        int separator = 0;
+        boolean valid = padded.length >= 11 && padded[0] == 0x00 && padded[1] == 0x02;
+        for (int i = 2; i < padded.length; i++) {
+            if (padded[i] == 0x00 && separator == 0) {
+                separator = i;
+            }
+        }
+        if (!valid || separator < 10) {
+            throw new BadPaddingException("Invalid PKCS#1 v1.5 padding");
+        }
+        return Arrays.copyOfRange(padded, separator + 1, padded.length);
+    }
+
+    /**
+     * Encodes a hash using EMSA-PSS.
+     *
+     * @param mHash      the hash of the message
+     * @param keyBits    the length of the RSA modulus, in bits
+     * @param digest     the digest used to compute the hash
+     * @param mgfDigest  the digest used by MGF1
+     * @param saltLength the length of the salt
+     * @param random     the source of the salt
+     * @return the encoded message, of the same length as the modulus
+     * @throws IllegalArgumentException if the key is too small for the hash and salt
+     */
+    static byte[] encodePss(
+            byte[] mHash,
+            int keyBits,
+            MessageDigest digest,
+            MessageDigest mgfDigest,
+            int saltLength,
+            SecureRandom random) {
+        int emBits = keyBits - 1;
+        int emLength = (emBits + 7) / 8;
+        int hashLength = mHash.length;
+        if (emLength < hashLength + saltLength + 2) {
+            throw new IllegalArgumentException("Key too small for hash and salt");
+        }
+
+        byte[] salt = new byte[saltLength];
+        random.nextBytes(salt);
+        digest.reset();
+        digest.update(new byte[8]);
+        digest.update(mHash);
+        digest.update(salt);
+        byte[] h = digest.digest();
+
+        // DB = PS || 0x01 || salt, masked with MGF1(H)
+        byte[] db = new byte[emLength - hashLength - 1];
+        db[db.length - saltLength - 1] = 0x01;
+        System.arraycopy(salt, 0, db, db.length - saltLength, saltLength);
+        xorMgf1(mgfDigest, h, db);
+        db[0] &= (byte) (0xff >>> (8 * emLength - emBits));
+
+        byte[] em = new byte[keyBits / 8];
+        int offset = em.length - emLength;
+        System.arraycopy(db, 0, em, offset, db.length);
+        System.arraycopy(h, 0, em, offset + db.length, hashLength);
+        em[em.length - 1] = (byte) 0xbc;
+        return em;
+    }
+
+    /**
+     * Decodes a message encrypted using RSAES-OAEP.
+     *
+     * @param padded    the decrypted, padded message
+     * @param digest    the digest used to hash the label
+     * @param mgfDigest the digest used by MGF1
+     * @param label     the label, or null for an empty label
+     * @return the message
+     * @throws BadPaddingException if the padding is invalid
+     */
+    static byte[] unpadOaep(byte[] padded, MessageDigest digest, MessageDigest mgfDigest, @Nullable byte[] label)
+            throws BadPaddingException {
+        int hashLength = digest.getDigestLength();
+        if (padded.length < 2 * hashLength + 2) {
+            throw new BadPaddingException("Invalid OAEP padding");
+        }
+        digest.reset();
+        byte[] lHash = digest.digest(label != null ? label : new byte[0]);
+
+        byte[] seed = Arrays.copyOfRange(padded, 1, 1 + hashLength);
+        byte[] db = Arrays.copyOfRange(padded, 1 + hashLength, padded.length);
+        xorMgf1(mgfDigest, db, seed);
+        xorMgf1(mgfDigest, seed, db);
+
+        // Check the whole block before failing, to not reveal which part of the padding is invalid
+        boolean valid = padded[0] == 0x00 && MessageDigest.isEqual(lHash, Arrays.copyOf(db, hashLength));
+        int separator = 0;
+        for (int i = hashLength; i < db.length; i++) {
+            if (separator == 0) {
+                if (db[i] == 0x01) {
+                    separator = i;
+                } else if (db[i] != 0x00) {
+                    valid = false;
+                }
+            }
+        }
+        if (!valid || separator == 0) {
+            throw new BadPaddingException("Invalid OAEP padding");
+        }
+        return Arrays.copyOfRange(db, separator + 1, db.length);
+    }
+
+    /*
+     * XORs the output of MGF1 with the given seed into the target.
+     */
+    private static void xorMgf1(MessageDigest mgfDigest, byte[] seed, byte[] target) {
+        byte[] counter = new byte[4];
+        int offset = 0;
+        for (int i = 0; offset < target.length; i++) {
+            counter[0] = (byte) (i >>> 24);
+            counter[1] = (byte) (i >>> 16);
+            counter[2] = (byte) (i >>> 8);
+            counter[3] = (byte) i;
+            mgfDigest.reset();
+            mgfDigest.update(seed);
+            byte[] mask = mgfDigest.digest(counter);
+            for (int j = 0; j < mask.length && offset < target.length; j++) {
+                target[offset++] ^= mask[j];
+            }
+        }
+    }
+}
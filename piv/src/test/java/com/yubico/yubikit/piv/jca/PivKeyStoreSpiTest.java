@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.Version;
+import com.yubico.yubikit.core.metrics.HistogramTransportMetrics;
+import com.yubico.yubikit.core.metrics.MetricsRegistry;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.core.util.Result;
+import com.yubico.yubikit.piv.KeyType;
+import com.yubico.yubikit.piv.PinPolicy;
+import com.yubico.yubikit.piv.PivSession;
+import com.yubico.yubikit.piv.Slot;
+import com.yubico.yubikit.piv.TouchPolicy;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PivKeyStoreSpiTest {
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+    private static final String AUTHENTICATION = Slot.AUTHENTICATION.getStringAlias();
+    private static final String SIGNATURE = Slot.SIGNATURE.getStringAlias();
+
+    private final HistogramTransportMetrics metrics = new HistogramTransportMetrics();
+    private final HistogramTransportMetrics.CommandKey metadataKey =
+            new HistogramTransportMetrics.CommandKey(Transport.USB, "a000000308", 0xf7);
+    private final HistogramTransportMetrics.CommandKey getDataKey =
+            new HistogramTransportMetrics.CommandKey(Transport.USB, "a000000308", 0xcb);
+
+    // The session used by the KeyStore, which tests may switch
+    private PivSession current;
+
+    @Before
+    public void setUp() {
+        MetricsRegistry.setTransportMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        MetricsRegistry.setTransportMetrics(null);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        PivSession session = openSession(new SimulatedYubiKey());
+        session.generateKey(Slot.AUTHENTICATION, KeyType.ECCP256, PinPolicy.DEFAULT, TouchPolicy.DEFAULT);
+        KeyStore keyStore = KeyStore.getInstance("YKPiv", new PivProvider(session));
+        keyStore.load(null);
+
+        // Repeated lookups are served from the cache, including empty slots
+        metrics.reset();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotNull(keyStore.getKey(AUTHENTICATION, null));
+            Assert.assertNull(keyStore.getCertificate(AUTHENTICATION));
+            Assert.assertNull(keyStore.getKey(SIGNATURE, null));
+        }
+        Assert.assertEquals(2, getCount(metadataKey));
+        Assert.assertEquals(1, getCount(getDataKey));
+
+        // Listing the aliases reads all slots once
+        Assert.assertEquals(Collections.singletonList(AUTHENTICATION), Collections.list(keyStore.aliases()));
+        long metadataCount = getCount(metadataKey);
+        Assert.assertEquals(Slot.values().length, metadataCount);
+        Assert.assertEquals(Collections.singletonList(AUTHENTICATION), Collections.list(keyStore.aliases()));
+        Assert.assertEquals(metadataCount, getCount(metadataKey));
+
+        // Writing through the session clears the cache
+        session.generateKey(Slot.SIGNATURE, KeyType.ECCP256, PinPolicy.DEFAULT, TouchPolicy.DEFAULT);
+        Assert.assertNotNull(keyStore.getKey(SIGNATURE, null));
+        Assert.assertEquals(Arrays.asList(AUTHENTICATION, SIGNATURE), Collections.list(keyStore.aliases()));
+
+        metrics.reset();
+        session.putObject(0x5fc105, new byte[10]);
+        keyStore.getKey(AUTHENTICATION, null);
+        Assert.assertEquals(1, getCount(metadataKey));
+
+        // Loading the KeyStore again clears the cache
+        keyStore.load(null);
+        keyStore.getKey(AUTHENTICATION, null);
+        Assert.assertEquals(2, getCount(metadataKey));
+    }
+
+    @Test
+    public void testCacheSharedBetweenSessions() throws Exception {
+        SimulatedYubiKey device = new SimulatedYubiKey();
+        PivSession first = openSession(device);
+        PivSession second = openSession(device);
+        KeyStore keyStore = getKeyStore();
+
+        // Sessions with the same YubiKey share the cache
+        current = first;
+        Assert.assertNull(keyStore.getKey(AUTHENTICATION, null));
+        current = second;
+        metrics.reset();
+        Assert.assertNull(keyStore.getKey(AUTHENTICATION, null));
+        Assert.assertNull(metrics.getStats().get(metadataKey));
+
+        // Writing through either session clears the cache, whichever session is used next
+        second.generateKey(Slot.AUTHENTICATION, KeyType.ECCP256, PinPolicy.DEFAULT, TouchPolicy.DEFAULT);
+        current = first;
+        Assert.assertNotNull(keyStore.getKey(AUTHENTICATION, null));
+
+        first.putObject(0x5fc105, new byte[10]);
+        current = second;
+        metrics.reset();
+        keyStore.getKey(AUTHENTICATION, null);
+        Assert.assertEquals(1, getCount(metadataKey));
+    }
+
+    @Test
+    public void testCacheWithoutSerial() throws Exception {
+        // YubiKey 4 doesn't give the serial number or metadata over PIV, so slots are cached per session
+        SimulatedYubiKey device = new SimulatedYubiKey(Transport.USB, new Version(4, 3, 7), SimulatedYubiKey.DEFAULT_SERIAL);
+        PivSession first = openSession(device);
+        PivSession second = openSession(device);
+        KeyStore keyStore = getKeyStore();
+
+        metrics.reset();
+        current = first;
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(keyStore.getCertificate(AUTHENTICATION));
+        }
+        Assert.assertEquals(1, getCount(getDataKey));
+
+        current = second;
+        Assert.assertNull(keyStore.getCertificate(AUTHENTICATION));
+        Assert.assertEquals(2, getCount(getDataKey));
+
+        // Writing through the session clears its cache
+        second.putObject(0x5fc105, new byte[10]);
+        Assert.assertNull(keyStore.getCertificate(AUTHENTICATION));
+        Assert.assertEquals(3, getCount(getDataKey));
+    }
+
+    private KeyStore getKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("YKPiv", new PivProvider(callback -> callback.invoke(Result.success(current))));
+        keyStore.load(null);
+        return keyStore;
+    }
+
+    private long getCount(HistogramTransportMetrics.CommandKey key) {
+        return metrics.getStats().get(key).getCount();
+    }
+
+    private static PivSession openSession(SimulatedYubiKey device) throws Exception {
+        PivSession session = new PivSession(device.openConnection(SmartCardConnection.class));
+        session.authenticate(DEFAULT_MANAGEMENT_KEY);
+        return session;
+    }
+}
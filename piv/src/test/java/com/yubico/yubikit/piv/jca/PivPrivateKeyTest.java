@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.metrics.HistogramTransportMetrics;
+import com.yubico.yubikit.core.metrics.MetricsRegistry;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.piv.InvalidPinException;
+import com.yubico.yubikit.piv.KeyType;
+import com.yubico.yubikit.piv.PinPolicy;
+import com.yubico.yubikit.piv.PivSession;
+import com.yubico.yubikit.piv.Slot;
+import com.yubico.yubikit.piv.TouchPolicy;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Signature;
+import java.security.SignatureException;
+
+public class PivPrivateKeyTest {
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+    private static final char[] PIN = "123456".toCharArray();
+    private static final char[] WRONG_PIN = "654321".toCharArray();
+
+    private final HistogramTransportMetrics metrics = new HistogramTransportMetrics();
+    private final HistogramTransportMetrics.CommandKey verifyKey =
+            new HistogramTransportMetrics.CommandKey(Transport.USB, "a000000308", 0x20);
+
+    private SmartCardConnection connection;
+    private PivSession session;
+    private PivProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        MetricsRegistry.setTransportMetrics(metrics);
+        connection = new SimulatedYubiKey().openConnection(SmartCardConnection.class);
+        session = new PivSession(connection);
+        session.authenticate(DEFAULT_MANAGEMENT_KEY);
+        provider = new PivProvider(session);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MetricsRegistry.setTransportMetrics(null);
+        connection.close();
+    }
+
+    @Test
+    public void testPinVerification() throws Exception {
+        PivPrivateKey privateKey = generateKey(PinPolicy.ONCE, PIN);
+        Assert.assertEquals(PinVerification.CACHED, privateKey.getPinVerification());
+        Assert.assertFalse(session.isPinVerified());
+
+        Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+        signer.initSign(privateKey);
+        metrics.reset();
+        for (int i = 0; i < 3; i++) {
+            sign(signer);
+        }
+        // The PIN is verified once, for the first signature
+        Assert.assertEquals(1, getVerifyCount());
+        Assert.assertTrue(session.isPinVerified());
+
+        // Selecting the application again clears the verified state, which is noticed when signing
+        new PivSession(connection);
+        metrics.reset();
+        sign(signer);
+        Assert.assertEquals(1, getVerifyCount());
+
+        // CHECK reads the state, and finds the PIN verified
+        metrics.reset();
+        privateKey.setPinVerification(PinVerification.CHECK);
+        sign(signer);
+        Assert.assertEquals(1, getVerifyCount());
+
+        metrics.reset();
+        privateKey.setPinVerification(PinVerification.ALWAYS);
+        sign(signer);
+        Assert.assertEquals(1, getVerifyCount());
+    }
+
+    @Test
+    public void testWrongPinOnAnotherKey() throws Exception {
+        PivPrivateKey privateKey = generateKey(PinPolicy.ONCE, PIN);
+        Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+        signer.initSign(privateKey);
+        sign(signer);
+        Assert.assertTrue(session.isPinVerified());
+
+        // Another key for the same slot and session verifies its own PIN, and fails
+        PivPrivateKey otherKey = getKey(WRONG_PIN);
+        signer.initSign(otherKey);
+        assertInvalidPin(signer);
+        Assert.assertFalse(session.isPinVerified());
+
+        // Signing with the first key verifies its PIN again
+        signer.initSign(privateKey);
+        metrics.reset();
+        sign(signer);
+        Assert.assertEquals(1, getVerifyCount());
+    }
+
+    @Test
+    public void testSetPinForgetsVerifiedSessions() throws Exception {
+        PivPrivateKey privateKey = generateKey(PinPolicy.ONCE, PIN);
+        Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+        signer.initSign(privateKey);
+        sign(signer);
+
+        privateKey.setPin(WRONG_PIN);
+        assertInvalidPin(signer);
+
+        privateKey.setPin(PIN);
+        metrics.reset();
+        sign(signer);
+        Assert.assertEquals(1, getVerifyCount());
+    }
+
+    @Test
+    public void testPinPolicyNever() throws Exception {
+        // The PIN is not needed for the key, so it is not verified, and a wrong PIN is not noticed
+        PivPrivateKey privateKey = generateKey(PinPolicy.NEVER, WRONG_PIN);
+        Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+        signer.initSign(privateKey);
+        metrics.reset();
+        sign(signer);
+        Assert.assertNull(metrics.getStats().get(verifyKey));
+        Assert.assertEquals(3, session.getPinAttempts());
+    }
+
+    @Test
+    public void testPinPolicyAlways() throws Exception {
+        PivPrivateKey privateKey = generateKey(PinPolicy.ALWAYS, PIN);
+        Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+        signer.initSign(privateKey);
+        metrics.reset();
+        for (int i = 0; i < 3; i++) {
+            sign(signer);
+        }
+        Assert.assertEquals(3, getVerifyCount());
+    }
+
+    private PivPrivateKey generateKey(PinPolicy pinPolicy, char[] pin) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("YKPivEC", provider);
+        generator.initialize(new PivAlgorithmParameterSpec(Slot.AUTHENTICATION, KeyType.ECCP256, pinPolicy, TouchPolicy.DEFAULT, pin));
+        KeyPair keyPair = generator.generateKeyPair();
+        return (PivPrivateKey) keyPair.getPrivate();
+    }
+
+    private PivPrivateKey getKey(char[] pin) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("YKPiv", provider);
+        keyStore.load(null);
+        return (PivPrivateKey) keyStore.getKey(Slot.AUTHENTICATION.getStringAlias(), pin);
+    }
+
+    private long getVerifyCount() {
+        return metrics.getStats().get(verifyKey).getCount();
+    }
+
+    private static void sign(Signature signer) throws Exception {
+        signer.update(new byte[]{0});
+        signer.sign();
+    }
+
+    private static void assertInvalidPin(Signature signer) throws Exception {
+        try {
+            sign(signer);
+            Assert.fail("Expected InvalidPinException");
+        } catch (SignatureException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidPinException);
+        }
+    }
+}
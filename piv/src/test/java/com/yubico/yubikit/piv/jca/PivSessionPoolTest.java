@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+import com.yubico.yubikit.core.keys.PrivateKeyValues;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.core.util.Result;
+import com.yubico.yubikit.piv.KeyType;
+import com.yubico.yubikit.piv.PinPolicy;
+import com.yubico.yubikit.piv.PivSession;
+import com.yubico.yubikit.piv.Slot;
+import com.yubico.yubikit.piv.TouchPolicy;
+import com.yubico.yubikit.simulator.SimulatedYubiKey;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PivSessionPoolTest {
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+
+    private final SimulatedYubiKey device = new SimulatedYubiKey();
+    private PivSessionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new PivSessionPool(Collections.singletonList(openSession(device)), 5, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrentSigning() throws Exception {
+        PivProvider provider = new PivProvider(pool);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("YKPivEC", provider);
+        generator.initialize(new PivAlgorithmParameterSpec(Slot.SIGNATURE, KeyType.ECCP256, PinPolicy.NEVER, TouchPolicy.DEFAULT, null));
+        KeyPair keyPair = generator.generateKeyPair();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                byte[] message = {(byte) i};
+                results.add(executor.submit(() -> {
+                    Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+                    signer.initSign(keyPair.getPrivate());
+                    signer.update(message);
+                    Signature verifier = Signature.getInstance("SHA256withECDSA");
+                    verifier.initVerify(keyPair.getPublic());
+                    verifier.update(message);
+                    return verifier.verify(signer.sign());
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(0, pool.getQueueDepth());
+        Assert.assertEquals(21, pool.getWaitLatency().getCount());
+        Assert.assertEquals(21, pool.getRunLatency().getCount());
+        Assert.assertEquals(21, pool.getSessionStats().get(0).getCompleted());
+        Assert.assertEquals(0, pool.getTimeouts());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CountDownLatch release = hold();
+        List<Result<PivSession, Exception>> results = new ArrayList<>();
+        pool.invoke(results::add, 20, TimeUnit.MILLISECONDS);
+        release.countDown();
+
+        Assert.assertEquals(1, results.size());
+        try {
+            results.get(0).getValue();
+            Assert.fail("Expected TimeoutException");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, pool.getTimeouts());
+        Assert.assertEquals(1, pool.getMaxQueueDepth());
+        Assert.assertEquals(0, pool.getQueueDepth());
+
+        // The session is still usable once free
+        List<Result<PivSession, Exception>> next = new ArrayList<>();
+        pool.invoke(next::add);
+        Assert.assertNotNull(next.get(0).getValue());
+    }
+
+    @Test
+    public void testRunningRequestIsNotTimedOut() throws Exception {
+        List<Result<PivSession, Exception>> results = new ArrayList<>();
+        pool.invoke(result -> {
+            results.add(result);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(1, results.size());
+        Assert.assertNotNull(results.get(0).getValue());
+        Assert.assertEquals(0, pool.getTimeouts());
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        CountDownLatch release = hold();
+        List<Result<PivSession, Exception>> results = Collections.synchronizedList(new ArrayList<>());
+        boolean[] interrupted = {false};
+        Thread waiter = new Thread(() -> {
+            pool.invoke(results::add);
+            interrupted[0] = Thread.currentThread().isInterrupted();
+        });
+        waiter.start();
+        awaitQueueDepth(1);
+        waiter.interrupt();
+        waiter.join();
+
+        // The request is removed from the queue, and the interrupt is kept
+        Assert.assertEquals(0, pool.getQueueDepth());
+        Assert.assertTrue(interrupted[0]);
+        Assert.assertEquals(1, results.size());
+        try {
+            results.get(0).getValue();
+            Assert.fail("Expected InterruptedException");
+        } catch (InterruptedException e) {
+            // Expected
+        }
+
+        // The session is not given to the interrupted request once free
+        release.countDown();
+        List<Result<PivSession, Exception>> next = new ArrayList<>();
+        pool.invoke(next::add);
+        Assert.assertNotNull(next.get(0).getValue());
+        Assert.assertEquals(1, results.size());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CountDownLatch release = hold();
+        List<Result<PivSession, Exception>> queued = Collections.synchronizedList(new ArrayList<>());
+        Thread waiter = new Thread(() -> pool.invoke(queued::add));
+        waiter.start();
+        awaitQueueDepth(1);
+
+        // Closing fails the queued request, but waits for the running one
+        Thread closer = new Thread(() -> {
+            try {
+                pool.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closer.start();
+        waiter.join();
+        Assert.assertEquals(1, queued.size());
+        assertClosed(queued.get(0));
+        Assert.assertTrue(closer.isAlive());
+
+        release.countDown();
+        closer.join();
+
+        // Requests made after closing fail at once
+        List<Result<PivSession, Exception>> results = new ArrayList<>();
+        pool.invoke(results::add);
+        Assert.assertEquals(1, results.size());
+        assertClosed(results.get(0));
+
+        // Closing again does nothing
+        pool.close();
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        SimulatedYubiKey[] devices = {device, new SimulatedYubiKey()};
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        List<PivSession> sessions = new ArrayList<>();
+        for (SimulatedYubiKey yubiKey : devices) {
+            PivSession session = openSession(yubiKey);
+            session.putKey(Slot.AUTHENTICATION, PrivateKeyValues.fromPrivateKey(keyPair.getPrivate()), PinPolicy.NEVER, TouchPolicy.DEFAULT);
+            sessions.add(session);
+        }
+
+        PivSessionPool failoverPool = new PivSessionPool(sessions, 5, TimeUnit.SECONDS);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            PivProvider provider = new PivProvider(failoverPool);
+            KeyStore keyStore = KeyStore.getInstance("YKPiv", provider);
+            keyStore.load(null);
+            PrivateKey privateKey = (PrivateKey) keyStore.getKey(Slot.AUTHENTICATION.getStringAlias(), null);
+
+            // Keep one YubiKey busy and remove the other one, which fails when asked to sign
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            List<PivSession> busy = new ArrayList<>();
+            Thread busyThread = new Thread(() -> failoverPool.invoke(result -> {
+                try {
+                    busy.add(result.getValue());
+                    started.countDown();
+                    release.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            busyThread.start();
+            started.await();
+            int failing = 1 - sessions.indexOf(busy.get(0));
+            devices[failing].setConnected(false);
+
+            byte[] message = "message".getBytes(StandardCharsets.UTF_8);
+            Future<byte[]> signature = executor.submit(() -> {
+                Signature signer = Signature.getInstance("SHA256withRSA", provider);
+                signer.initSign(privateKey);
+                signer.update(message);
+                return signer.sign();
+            });
+            while (failoverPool.getFailovers() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            busyThread.join();
+
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(message);
+            Assert.assertTrue(verifier.verify(signature.get()));
+            Assert.assertEquals(1, failoverPool.getHealthySessionCount());
+            Assert.assertFalse(failoverPool.getSessionStats().get(failing).isHealthy());
+            Assert.assertEquals(1, failoverPool.getSessionStats().get(failing).getFailures());
+        } finally {
+            executor.shutdown();
+            failoverPool.close();
+        }
+    }
+
+    @Test
+    public void testHealthCheckWithoutFactory() throws Exception {
+        SimulatedYubiKey other = new SimulatedYubiKey();
+        PivSessionPool checkedPool = new PivSessionPool(Arrays.asList(openSession(device), openSession(other)), 5, TimeUnit.SECONDS);
+        try {
+            checkedPool.setHealthCheckInterval(5, TimeUnit.MILLISECONDS);
+            other.setConnected(false);
+            awaitHealthySessionCount(checkedPool, 1);
+            Assert.assertFalse(checkedPool.getSessionStats().get(1).isHealthy());
+
+            // The connection of the session stays broken once the YubiKey is back
+            other.setConnected(true);
+            Thread.sleep(50);
+            Assert.assertEquals(1, checkedPool.getHealthySessionCount());
+        } finally {
+            checkedPool.close();
+        }
+    }
+
+    @Test
+    public void testAllSessionsFailWithoutFactory() throws Exception {
+        SimulatedYubiKey other = new SimulatedYubiKey();
+        PivSessionPool failingPool = new PivSessionPool(
+                Arrays.asList(openSession(device), openSession(other)), 200, TimeUnit.MILLISECONDS);
+        try {
+            failingPool.setHealthCheckInterval(5, TimeUnit.MILLISECONDS);
+            other.setConnected(false);
+            awaitHealthySessionCount(failingPool, 1);
+
+            // The last session fails while serving the request, which is queued again but can't be served
+            device.setConnected(false);
+            try {
+                failingPool.run(PivSession::getSerialNumber);
+                Assert.fail("Expected TimeoutException");
+            } catch (TimeoutException e) {
+                // Expected
+            }
+            Assert.assertEquals(0, failingPool.getHealthySessionCount());
+            Assert.assertEquals(1, failingPool.getFailovers());
+            Assert.assertEquals(1, failingPool.getTimeouts());
+            Assert.assertEquals(0, failingPool.getQueueDepth());
+
+            // Requests made while no session is in use time out as well
+            List<Result<PivSession, Exception>> results = new ArrayList<>();
+            failingPool.invoke(results::add, 20, TimeUnit.MILLISECONDS);
+            try {
+                results.get(0).getValue();
+                Assert.fail("Expected TimeoutException");
+            } catch (TimeoutException e) {
+                // Expected
+            }
+        } finally {
+            failingPool.close();
+        }
+    }
+
+    @Test
+    public void testHealthCheckReopensSession() throws Exception {
+        SimulatedYubiKey other = new SimulatedYubiKey();
+        AtomicInteger opened = new AtomicInteger();
+        PivSessionPool checkedPool = PivSessionPool.open(Arrays.asList(
+                () -> openSession(device),
+                () -> {
+                    PivSession session = openSession(other);
+                    opened.incrementAndGet();
+                    return session;
+                }), 5, TimeUnit.SECONDS);
+        try {
+            Assert.assertEquals(1, opened.get());
+            checkedPool.setHealthCheckInterval(5, TimeUnit.MILLISECONDS);
+            other.setConnected(false);
+            awaitHealthySessionCount(checkedPool, 1);
+            Assert.assertFalse(checkedPool.getSessionStats().get(1).isHealthy());
+
+            // A new session is opened once the YubiKey is back
+            other.setConnected(true);
+            awaitHealthySessionCount(checkedPool, 2);
+            Assert.assertEquals(2, opened.get());
+
+            // Both sessions are used again
+            List<PivSession> used = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch release = new CountDownLatch(1);
+            Thread busy = new Thread(() -> checkedPool.invoke(result -> {
+                try {
+                    used.add(result.getValue());
+                    release.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            busy.start();
+            while (used.isEmpty()) {
+                Thread.sleep(1);
+            }
+            checkedPool.invoke(result -> {
+                try {
+                    used.add(result.getValue());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            release.countDown();
+            busy.join();
+            Assert.assertEquals(2, used.size());
+            Assert.assertNotSame(used.get(0), used.get(1));
+            for (PivSession session : used) {
+                Assert.assertEquals(SimulatedYubiKey.DEFAULT_SERIAL, session.getSerialNumber());
+            }
+        } finally {
+            checkedPool.close();
+        }
+    }
+
+    @Test
+    public void testOpenFailure() throws Exception {
+        SimulatedYubiKey other = new SimulatedYubiKey();
+        other.setConnected(false);
+        try {
+            PivSessionPool.open(Arrays.asList(() -> openSession(device), () -> openSession(other)), 5, TimeUnit.SECONDS);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // The YubiKey is not connected
+        }
+    }
+
+    /*
+     * Keeps the session of the pool busy until the returned latch is released.
+     */
+    private CountDownLatch hold() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread busy = new Thread(() -> pool.invoke(result -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        busy.start();
+        started.await();
+        return release;
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+        while (pool.getQueueDepth() != depth) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static PivSession openSession(SimulatedYubiKey yubiKey) throws Exception {
+        PivSession session = new PivSession(yubiKey.openConnection(SmartCardConnection.class));
+        session.authenticate(DEFAULT_MANAGEMENT_KEY);
+        return session;
+    }
+
+    private static void awaitHealthySessionCount(PivSessionPool pool, int count) throws InterruptedException {
+        while (pool.getHealthySessionCount() != count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void assertClosed(Result<PivSession, Exception> result) throws Exception {
+        try {
+            result.getValue();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertEquals("PivSessionPool is closed", e.getMessage());
+        }
+    }
+}
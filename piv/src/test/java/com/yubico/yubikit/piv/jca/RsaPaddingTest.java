@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yubico.yubikit.piv.jca;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+
+public class RsaPaddingTest {
+    private static final byte[] MESSAGE = "Hello world!".getBytes(StandardCharsets.UTF_8);
+    private static final KeyPair KEY_PAIR = generateKeyPair();
+
+    private static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(1024);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] rawRsa(byte[] payload) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, KEY_PAIR.getPrivate());
+        return cipher.doFinal(payload);
+    }
+
+    @Test
+    public void testPkcs1v15Signature() throws Exception {
+        MessageDigest digest = RsaPadding.getDigest("SHA256");
+        byte[] padded = RsaPadding.padPkcs1v15(RsaPadding.encodeDigestInfo(digest, digest.digest(MESSAGE)), 128);
+
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(KEY_PAIR.getPublic());
+        verifier.update(MESSAGE);
+        Assert.assertTrue(verifier.verify(rawRsa(padded)));
+    }
+
+    @Test
+    public void testPssSignature() throws Exception {
+        PSSParameterSpec params = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
+        MessageDigest digest = RsaPadding.getDigest("SHA-256");
+        byte[] padded = RsaPadding.encodePss(digest.digest(MESSAGE), 1024, digest, RsaPadding.getDigest("SHA-256"),
+                32, new SecureRandom());
+
+        Signature verifier = Signature.getInstance("RSASSA-PSS");
+        verifier.initVerify(KEY_PAIR.getPublic());
+        verifier.setParameter(params);
+        verifier.update(MESSAGE);
+        Assert.assertTrue(verifier.verify(rawRsa(padded)));
+    }
+
+    @Test
+    public void testPkcs1v15Decryption() throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, KEY_PAIR.getPublic());
+        byte[] padded = rawRsa(cipher.doFinal(MESSAGE));
+        Assert.assertArrayEquals(MESSAGE, RsaPadding.unpadPkcs1v15(padded));
+
+        padded[1] = 0x01;
+        try {
+            RsaPadding.unpadPkcs1v15(padded);
+            Assert.fail();
+        } catch (BadPaddingException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testOaepDecryption() throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-256AndMGF1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, KEY_PAIR.getPublic());
+        byte[] padded = rawRsa(cipher.doFinal(MESSAGE));
+        Assert.assertArrayEquals(MESSAGE, RsaPadding.unpadOaep(padded, RsaPadding.getDigest("SHA-256"),
+                RsaPadding.getDigest("SHA-1"), null));
+
+        try {
+            RsaPadding.unpadOaep(padded, RsaPadding.getDigest("SHA-256"), RsaPadding.getDigest("SHA-256"), null);
+            Assert.fail();
+        } catch (BadPaddingException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.smartcard.SW;
+import com.yubico.yubikit.core.util.Tlvs;
+
+import java.nio.BufferUnderflowException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A smart card application of a {@link SimulatedYubiKey}.
+ * <p>
+ * An applet keeps its persistent state for the lifetime of the device. Transient state, such as a verified PIN,
+ * is cleared whenever the applet is selected.
+ */
+abstract class Applet {
+    static final byte INS_GET_RESPONSE = (byte) 0xc0;
+
+    private final byte[] aid;
+
+    Applet(byte[] aid) {
+        this.aid = aid;
+    }
+
+    /**
+     * Returns true if a SELECT for the given AID should select this applet, which is the case if the AID
+     * starts with the AID of the applet.
+     */
+    boolean matches(byte[] requested) {
+        return requested.length >= aid.length && Arrays.equals(aid, Arrays.copyOf(requested, aid.length));
+    }
+
+    /**
+     * The INS used to read the remainder of a response which did not fit in a single APDU.
+     */
+    byte getSendRemainingIns() {
+        return INS_GET_RESPONSE;
+    }
+
+    /**
+     * Selects the applet, clearing any transient state.
+     *
+     * @return the response data of the SELECT command
+     */
+    abstract byte[] select();
+
+    /**
+     * Processes a command sent to the applet while it is selected.
+     *
+     * @param apdu the command, with any command chaining already resolved
+     * @return the response data
+     * @throws StatusWordException to respond with an error status
+     */
+    abstract byte[] process(CommandApdu apdu) throws StatusWordException;
+
+    /**
+     * Restores the factory default state of the applet.
+     */
+    abstract void reset();
+
+    static Map<Integer, byte[]> decodeMap(byte[] data) throws StatusWordException {
+        try {
+            return Tlvs.decodeMap(data);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+    }
+
+    static byte[] require(Map<Integer, byte[]> data, int tag) throws StatusWordException {
+        byte[] value = data.get(tag);
+        if (value == null) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.smartcard.SW;
+
+import java.util.Arrays;
+
+/**
+ * A command APDU as received by the simulated card, in short or extended format.
+ */
+class CommandApdu {
+    static final int SHORT_MAX_LE = 256;
+    static final int EXTENDED_MAX_LE = 65536;
+
+    final byte cla;
+    final byte ins;
+    final byte p1;
+    final byte p2;
+    final byte[] data;
+    // The maximum response length, with an absent or zero Le meaning the maximum for the format
+    final int le;
+
+    private CommandApdu(byte cla, byte ins, byte p1, byte p2, byte[] data, int le) {
+        this.cla = cla;
+        this.ins = ins;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.data = data;
+        this.le = le;
+    }
+
+    private CommandApdu(byte[] apdu, byte[] data, int le) {
+        this(apdu[0], apdu[1], apdu[2], apdu[3], data, le);
+    }
+
+    /**
+     * Returns a copy of this APDU with other data, used to join the data of chained commands.
+     */
+    CommandApdu withData(byte[] data) {
+        return new CommandApdu(cla, ins, p1, p2, data, le);
+    }
+
+    boolean isChained() {
+        return (cla & 0x10) != 0;
+    }
+
+    /**
+     * Parses a command APDU, as formatted by the short and extended APDU processors.
+     *
+     * @param apdu the encoded APDU
+     * @return the parsed APDU
+     * @throws StatusWordException with {@link SW#WRONG_LENGTH} if the encoding is invalid
+     */
+    static CommandApdu parse(byte[] apdu) throws StatusWordException {
+        if (apdu.length < 4) {
+            throw new StatusWordException(SW.WRONG_LENGTH);
+        }
+        if (apdu.length == 4) {
+            return new CommandApdu(apdu, new byte[0], SHORT_MAX_LE);
+        }
+        if (apdu.length == 5) {
+            return new CommandApdu(apdu, new byte[0], shortLe(apdu[4]));
+        }
+        if (apdu[4] != 0) {
+            int lc = apdu[4] & 0xff;
+            if (apdu.length == 5 + lc) {
+                return new CommandApdu(apdu, Arrays.copyOfRange(apdu, 5, 5 + lc), SHORT_MAX_LE);
+            } else if (apdu.length == 6 + lc) {
+                return new CommandApdu(apdu, Arrays.copyOfRange(apdu, 5, 5 + lc), shortLe(apdu[5 + lc]));
+            }
+            throw new StatusWordException(SW.WRONG_LENGTH);
+        }
+        if (apdu.length == 7) {
+            return new CommandApdu(apdu, new byte[0], extendedLe(apdu, 5));
+        }
+        int lc = ((apdu[5] & 0xff) << 8) | (apdu[6] & 0xff);
+        if (apdu.length == 7 + lc) {
+            return new CommandApdu(apdu, Arrays.copyOfRange(apdu, 7, 7 + lc), EXTENDED_MAX_LE);
+        } else if (apdu.length == 9 + lc) {
+            return new CommandApdu(apdu, Arrays.copyOfRange(apdu, 7, 7 + lc), extendedLe(apdu, 7 + lc));
+        }
+        throw new StatusWordException(SW.WRONG_LENGTH);
+    }
+
+    private static int shortLe(byte le) {
+        return le == 0 ? SHORT_MAX_LE : le & 0xff;
+    }
+
+    private static int extendedLe(byte[] apdu, int offset) {
+        int le = ((apdu[offset] & 0xff) << 8) | (apdu[offset + 1] & 0xff);
+        return le == 0 ? EXTENDED_MAX_LE : le;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.fido.Cbor;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The CTAPHID command layer of a {@link SimulatedYubiKey}, shared by all FIDO connections to the device.
+ * <p>
+ * Supports INIT, PING, WINK, LOCK and CANCEL, the CTAP2 getInfo command, the getKeyAgreement subcommand of
+ * clientPin, the largeBlobs command, and reading the device info. U2F messages and all other CTAP2 commands are
+ * rejected. As no PIN can be set, writing large blobs needs no pinUvAuthParam, and any given one is ignored.
+ */
+class FidoApplication {
+    static final int BROADCAST_CID = 0xffffffff;
+
+    static final byte TYPE_INIT = (byte) 0x80;
+    static final byte CTAPHID_PING = TYPE_INIT | 0x01;
+    static final byte CTAPHID_MSG = TYPE_INIT | 0x03;
+    static final byte CTAPHID_LOCK = TYPE_INIT | 0x04;
+    static final byte CTAPHID_INIT = TYPE_INIT | 0x06;
+    static final byte CTAPHID_WINK = TYPE_INIT | 0x08;
+    static final byte CTAPHID_CBOR = TYPE_INIT | 0x10;
+    static final byte CTAPHID_CANCEL = TYPE_INIT | 0x11;
+    static final byte CTAPHID_ERROR = TYPE_INIT | 0x3f;
+    private static final byte CTAP_YUBIKEY_DEVICE_CONFIG = TYPE_INIT | 0x40;
+    private static final byte CTAP_READ_CONFIG = TYPE_INIT | 0x42;
+    private static final byte CTAP_WRITE_CONFIG = TYPE_INIT | 0x43;
+
+    static final byte ERR_INVALID_CMD = 0x01;
+    static final byte ERR_INVALID_LEN = 0x03;
+    static final byte ERR_INVALID_SEQ = 0x04;
+    private static final byte ERR_CHANNEL_BUSY = 0x06;
+    private static final byte ERR_INVALID_CHANNEL = 0x0b;
+
+    private static final byte CTAPHID_VERSION = 2;
+    private static final byte CAPABILITY_WINK = 0x01;
+    private static final byte CAPABILITY_CBOR = 0x04;
+    private static final byte CAPABILITY_NMSG = 0x08;
+
+    private static final byte CMD_GET_INFO = 0x04;
+    private static final byte CMD_CLIENT_PIN = 0x06;
+    private static final byte CMD_LARGE_BLOBS = 0x0c;
+    private static final int CLIENT_PIN_SUBCOMMAND = 0x02;
+    private static final int CLIENT_PIN_GET_KEY_AGREEMENT = 0x02;
+    private static final int RESULT_KEY_AGREEMENT = 0x01;
+    private static final int LARGE_BLOBS_GET = 0x01;
+    private static final int LARGE_BLOBS_SET = 0x02;
+    private static final int LARGE_BLOBS_OFFSET = 0x03;
+    private static final int LARGE_BLOBS_LENGTH = 0x04;
+    private static final int RESULT_CONFIG = 0x01;
+    private static final byte CTAP2_OK = 0x00;
+    private static final byte CTAP1_ERR_INVALID_COMMAND = 0x01;
+    private static final byte CTAP1_ERR_INVALID_PARAMETER = 0x02;
+    private static final byte CTAP1_ERR_INVALID_LENGTH = 0x03;
+    private static final byte CTAP1_ERR_INVALID_SEQ = 0x04;
+    private static final byte CTAP2_ERR_LARGE_BLOB_STORAGE_FULL = 0x18;
+    private static final byte CTAP2_ERR_INTEGRITY_FAILURE = 0x3d;
+    private static final byte CTAP2_ERR_INVALID_CBOR = 0x12;
+    private static final byte CTAP2_ERR_INVALID_SUBCOMMAND = 0x3e;
+
+    private static final int MAX_MSG_SIZE = 1200;
+    private static final int MAX_SERIALIZED_LARGE_BLOB_ARRAY = 4096;
+    // An empty CBOR array, followed by the first 16 bytes of its SHA-256
+    private static final byte[] EMPTY_LARGE_BLOB_ARRAY = {
+            (byte) 0x80, 0x76, (byte) 0xbe, (byte) 0x8b, 0x52, (byte) 0x8d, 0x00, 0x75, (byte) 0xf7,
+            (byte) 0xaa, (byte) 0xe9, (byte) 0x8d, 0x6f, (byte) 0xa5, 0x7a, 0x6d, 0x3c
+    };
+
+    private static final byte[] AAGUID = {
+            0x2f, (byte) 0xc0, 0x57, (byte) 0x9f, (byte) 0x81, 0x13, 0x47, (byte) 0xea,
+            (byte) 0xb1, 0x16, (byte) 0xbb, 0x5a, (byte) 0x8d, (byte) 0xb9, 0x20, 0x2a
+    };
+
+    private final SimulatedYubiKey device;
+    private int lastChannelId = 0;
+    private int lockChannelId = 0;
+    private long lockDeadline;
+    @Nullable
+    private KeyPair keyAgreementKey;
+    private byte[] largeBlobArray = EMPTY_LARGE_BLOB_ARRAY;
+    // A write in progress, and the offset expected for its next fragment
+    @Nullable
+    private byte[] pendingLargeBlobArray;
+    private int pendingLargeBlobOffset;
+
+    FidoApplication(SimulatedYubiKey device) {
+        this.device = device;
+    }
+
+    /**
+     * A CTAPHID response, or null for commands without a response.
+     */
+    static class Response {
+        final byte cmd;
+        final byte[] payload;
+
+        Response(byte cmd, byte[] payload) {
+            this.cmd = cmd;
+            this.payload = payload;
+        }
+
+        static Response error(byte code) {
+            return new Response(CTAPHID_ERROR, new byte[]{code});
+        }
+    }
+
+    /**
+     * Processes a complete CTAPHID message.
+     *
+     * @param channelId the channel the message was sent on
+     * @param cmd       the CTAPHID command
+     * @param payload   the message payload
+     * @return the response, or null if the command has no response
+     */
+    @Nullable
+    Response process(int channelId, byte cmd, byte[] payload) {
+        if (cmd == CTAPHID_INIT) {
+            return init(channelId, payload);
+        }
+        if (channelId == BROADCAST_CID || channelId == 0 || Integer.compareUnsigned(channelId, lastChannelId) > 0) {
+            return Response.error(ERR_INVALID_CHANNEL);
+        }
+        if (lockChannelId != 0 && lockChannelId != channelId && System.nanoTime() - lockDeadline < 0) {
+            return Response.error(ERR_CHANNEL_BUSY);
+        }
+
+        switch (cmd) {
+            case CTAPHID_PING:
+                return new Response(cmd, payload);
+            case CTAPHID_WINK:
+                return new Response(cmd, new byte[0]);
+            case CTAPHID_LOCK:
+                if (payload.length != 1 || (payload[0] & 0xff) > 10) {
+                    return Response.error(ERR_INVALID_LEN);
+                }
+                lockChannelId = payload[0] == 0 ? 0 : channelId;
+                lockDeadline = System.nanoTime() + payload[0] * 1_000_000_000L;
+                return new Response(cmd, new byte[0]);
+            case CTAPHID_CANCEL:
+                return null;
+            case CTAPHID_CBOR:
+                return new Response(cmd, processCbor(payload));
+            case CTAP_READ_CONFIG:
+                return new Response(cmd, device.readDeviceInfo(payload.length > 0 ? payload[0] & 0xff : 0));
+            case CTAP_WRITE_CONFIG:
+            case CTAP_YUBIKEY_DEVICE_CONFIG:
+                return new Response(cmd, new byte[0]);
+            case CTAPHID_MSG:
+            default:
+                return Response.error(ERR_INVALID_CMD);
+        }
+    }
+
+    private Response init(int channelId, byte[] nonce) {
+        if (nonce.length != 8) {
+            return Response.error(ERR_INVALID_LEN);
+        }
+        // INIT on the broadcast channel allocates a new channel, INIT on an allocated channel resynchronizes it
+        int allocated = channelId == BROADCAST_CID ? ++lastChannelId : channelId;
+        byte[] version = device.getVersion().getBytes();
+        return new Response(CTAPHID_INIT, ByteBuffer.allocate(17)
+                .put(nonce)
+                .putInt(allocated)
+                .put(CTAPHID_VERSION)
+                .put(version)
+                .put((byte) (CAPABILITY_WINK | CAPABILITY_CBOR | CAPABILITY_NMSG))
+                .array());
+    }
+
+    void reset() {
+        // The key agreement key is regenerated on reset, as by a real authenticator
+        keyAgreementKey = null;
+        largeBlobArray = EMPTY_LARGE_BLOB_ARRAY;
+        pendingLargeBlobArray = null;
+    }
+
+    private byte[] processCbor(byte[] request) {
+        if (request.length == 0) {
+            return new byte[]{CTAP1_ERR_INVALID_COMMAND};
+        }
+        switch (request[0]) {
+            case CMD_GET_INFO:
+                return ok(getInfo());
+            case CMD_CLIENT_PIN:
+                return clientPin(request);
+            case CMD_LARGE_BLOBS:
+                return largeBlobs(request);
+            default:
+                return new byte[]{CTAP1_ERR_INVALID_COMMAND};
+        }
+    }
+
+    private byte[] clientPin(byte[] request) {
+        Map<?, ?> params;
+        try {
+            params = (Map<?, ?>) Cbor.decode(request, 1, request.length - 1);
+        } catch (RuntimeException e) {
+            return new byte[]{CTAP2_ERR_INVALID_CBOR};
+        }
+        if (!Integer.valueOf(CLIENT_PIN_GET_KEY_AGREEMENT).equals(params.get(CLIENT_PIN_SUBCOMMAND))) {
+            return new byte[]{CTAP2_ERR_INVALID_SUBCOMMAND};
+        }
+        if (keyAgreementKey == null) {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+                keyAgreementKey = generator.generateKeyPair();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        ECPoint point = ((ECPublicKey) keyAgreementKey.getPublic()).getW();
+        Map<Integer, Object> coseKey = new LinkedHashMap<>();
+        coseKey.put(1, 2);
+        coseKey.put(3, -25);
+        coseKey.put(-1, 1);
+        coseKey.put(-2, toCoordinate(point.getAffineX()));
+        coseKey.put(-3, toCoordinate(point.getAffineY()));
+        return ok(Collections.singletonMap(RESULT_KEY_AGREEMENT, coseKey));
+    }
+
+    private byte[] largeBlobs(byte[] request) {
+        Map<?, ?> params;
+        try {
+            params = (Map<?, ?>) Cbor.decode(request, 1, request.length - 1);
+        } catch (RuntimeException e) {
+            return new byte[]{CTAP2_ERR_INVALID_CBOR};
+        }
+        Integer get = (Integer) params.get(LARGE_BLOBS_GET);
+        byte[] set = (byte[]) params.get(LARGE_BLOBS_SET);
+        Integer offset = (Integer) params.get(LARGE_BLOBS_OFFSET);
+        Integer length = (Integer) params.get(LARGE_BLOBS_LENGTH);
+        if (offset == null || (get == null) == (set == null)) {
+            return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+        }
+
+        if (get != null) {
+            if (length != null) {
+                return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+            }
+            if (get > MAX_MSG_SIZE - 64) {
+                return new byte[]{CTAP1_ERR_INVALID_LENGTH};
+            }
+            if (offset > largeBlobArray.length) {
+                return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+            }
+            int end = Math.min(largeBlobArray.length, offset + get);
+            return ok(Collections.singletonMap(RESULT_CONFIG, Arrays.copyOfRange(largeBlobArray, offset, end)));
+        }
+
+        if (set.length > MAX_MSG_SIZE - 64) {
+            return new byte[]{CTAP1_ERR_INVALID_LENGTH};
+        }
+        if (offset == 0) {
+            if (length == null) {
+                return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+            }
+            if (length > MAX_SERIALIZED_LARGE_BLOB_ARRAY) {
+                return new byte[]{CTAP2_ERR_LARGE_BLOB_STORAGE_FULL};
+            }
+            if (length < 17) {
+                return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+            }
+            pendingLargeBlobArray = new byte[length];
+            pendingLargeBlobOffset = 0;
+        } else if (length != null) {
+            return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+        }
+        byte[] pending = pendingLargeBlobArray;
+        if (pending == null || offset != pendingLargeBlobOffset) {
+            return new byte[]{CTAP1_ERR_INVALID_SEQ};
+        }
+        if (offset + set.length > pending.length) {
+            return new byte[]{CTAP1_ERR_INVALID_PARAMETER};
+        }
+        System.arraycopy(set, 0, pending, offset, set.length);
+        pendingLargeBlobOffset += set.length;
+
+        if (pendingLargeBlobOffset == pending.length) {
+            pendingLargeBlobArray = null;
+            byte[] hash;
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(pending, 0, pending.length - 16);
+                hash = Arrays.copyOf(digest.digest(), 16);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            if (!MessageDigest.isEqual(hash, Arrays.copyOfRange(pending, pending.length - 16, pending.length))) {
+                return new byte[]{CTAP2_ERR_INTEGRITY_FAILURE};
+            }
+            largeBlobArray = pending;
+        }
+        return new byte[]{CTAP2_OK};
+    }
+
+    private Map<Integer, Object> getInfo() {
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("rk", true);
+        options.put("up", true);
+        options.put("plat", false);
+        options.put("clientPin", false);
+        options.put("largeBlobs", true);
+
+        byte[] version = device.getVersion().getBytes();
+        Map<Integer, Object> info = new LinkedHashMap<>();
+        info.put(0x01, Arrays.asList("U2F_V2", "FIDO_2_0", "FIDO_2_1"));
+        info.put(0x02, Arrays.asList("credProtect", "hmac-secret", "largeBlobKey"));
+        info.put(0x03, AAGUID);
+        info.put(0x04, options);
+        info.put(0x05, MAX_MSG_SIZE);
+        info.put(0x06, Arrays.asList(2, 1));
+        info.put(0x07, 8);
+        info.put(0x08, 128);
+        info.put(0x09, Collections.singletonList("usb"));
+        info.put(0x0b, MAX_SERIALIZED_LARGE_BLOB_ARRAY);
+        info.put(0x0e, (version[0] << 16) | (version[1] << 8) | version[2]);
+        return info;
+    }
+
+    private static byte[] ok(Object value) {
+        byte[] encoded = Cbor.encode(value);
+
+        byte[] response = new byte[1 + encoded.length];
+        response[0] = CTAP2_OK;
+        System.arraycopy(encoded, 0, response, 1, encoded.length);
+        return response;
+    }
+
+    /*
+     * Encodes a P-256 coordinate in exactly 32 bytes, as used in a COSE key.
+     */
+    private static byte[] toCoordinate(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] coordinate = new byte[32];
+        int copy = Math.min(bytes.length, coordinate.length);
+        System.arraycopy(bytes, bytes.length - copy, coordinate, coordinate.length - copy, copy);
+        return coordinate;
+    }
+}
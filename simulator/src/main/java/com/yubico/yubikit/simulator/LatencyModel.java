@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides how long a {@link SimulatedYubiKey} takes to process each command.
+ * <p>
+ * Each command takes a fixed latency, plus a random jitter uniformly distributed between 0 and the
+ * configured jitter. Commands are identified the same way as in
+ * {@link com.yubico.yubikit.core.metrics.TransportMetrics}: by INS for APDUs, by CTAPHID command for
+ * FIDO packets, and by slot for OTP frames. Commands without a specific setting use the default one.
+ * <p>
+ * The random source is seeded, so that a benchmark can be repeated with the same sequence of delays.
+ */
+public class LatencyModel {
+    private final Map<Integer, long[]> commandLatencies = new ConcurrentHashMap<>();
+    private final Random random;
+    private volatile long[] defaultLatency = {0, 0};
+
+    /**
+     * Creates a LatencyModel with no latency, using the given seed for jitter.
+     *
+     * @param seed the seed of the random jitter
+     */
+    public LatencyModel(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Creates a LatencyModel with no latency.
+     */
+    public LatencyModel() {
+        this(0);
+    }
+
+    /**
+     * Sets the latency used for commands which have no specific latency set.
+     *
+     * @param latency the fixed latency of each command
+     * @param jitter  the maximum random latency added to each command
+     * @param unit    the unit of latency and jitter
+     * @return this LatencyModel, for chaining
+     */
+    public LatencyModel setDefaultLatency(long latency, long jitter, TimeUnit unit) {
+        defaultLatency = toNanos(latency, jitter, unit);
+        return this;
+    }
+
+    /**
+     * Sets the latency of a specific command.
+     *
+     * @param command the command, see {@link LatencyModel}
+     * @param latency the fixed latency of the command
+     * @param jitter  the maximum random latency added to the command
+     * @param unit    the unit of latency and jitter
+     * @return this LatencyModel, for chaining
+     */
+    public LatencyModel setCommandLatency(int command, long latency, long jitter, TimeUnit unit) {
+        commandLatencies.put(command, toNanos(latency, jitter, unit));
+        return this;
+    }
+
+    /**
+     * Returns the delay to use for the next invocation of a command.
+     *
+     * @param command the command, see {@link LatencyModel}
+     * @return the delay, in nanoseconds
+     */
+    public long nextDelayNanos(int command) {
+        long[] latency = commandLatencies.get(command);
+        if (latency == null) {
+            latency = defaultLatency;
+        }
+        if (latency[1] == 0) {
+            return latency[0];
+        }
+        double jitter;
+        synchronized (random) {
+            jitter = random.nextDouble();
+        }
+        return latency[0] + (long) (jitter * latency[1]);
+    }
+
+    /*
+     * Blocks the calling thread for the delay of a command.
+     */
+    void await(int command) {
+        long delay = nextDelayNanos(command);
+        if (delay <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + delay;
+        long remaining = delay;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    private static long[] toNanos(long latency, long jitter, TimeUnit unit) {
+        if (latency < 0 || jitter < 0) {
+            throw new IllegalArgumentException("Latency and jitter must not be negative");
+        }
+        return new long[]{unit.toNanos(latency), unit.toNanos(jitter)};
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.smartcard.AppId;
+import com.yubico.yubikit.core.smartcard.SW;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Management application: reads the device info, and performs a device reset.
+ * Configuration changes are acknowledged but not applied.
+ */
+class ManagementApplet extends Applet {
+    private static final byte INS_WRITE_CONFIG = 0x1c;
+    private static final byte INS_READ_CONFIG = 0x1d;
+    private static final byte INS_SET_MODE = 0x16;
+    private static final byte INS_DEVICE_RESET = 0x1f;
+
+    private final SimulatedYubiKey device;
+
+    ManagementApplet(SimulatedYubiKey device) {
+        super(AppId.MANAGEMENT);
+        this.device = device;
+    }
+
+    @Override
+    byte[] select() {
+        return ("YubiKey Simulator - FW version " + device.getVersion()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    byte[] process(CommandApdu apdu) throws StatusWordException {
+        switch (apdu.ins) {
+            case INS_READ_CONFIG:
+                return device.readDeviceInfo(apdu.p1 & 0xff);
+            case INS_WRITE_CONFIG:
+            case INS_SET_MODE:
+                return new byte[0];
+            case INS_DEVICE_RESET:
+                device.reset();
+                return new byte[0];
+            default:
+                throw new StatusWordException(SW.INVALID_INSTRUCTION);
+        }
+    }
+
+    @Override
+    void reset() {
+    }
+}
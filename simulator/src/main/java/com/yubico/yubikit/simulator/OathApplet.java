@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.smartcard.AppId;
+import com.yubico.yubikit.core.smartcard.SW;
+import com.yubico.yubikit.core.util.RandomUtils;
+import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvWriter;
+import com.yubico.yubikit.core.util.Tlvs;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The OATH application: stores credentials and calculates HOTP and TOTP codes.
+ * Access keys are not supported, and credentials requiring touch are calculated without waiting.
+ */
+class OathApplet extends Applet {
+    private static final int MAX_CREDENTIALS = 64;
+
+    private static final int TAG_NAME = 0x71;
+    private static final int TAG_NAME_LIST = 0x72;
+    private static final int TAG_KEY = 0x73;
+    private static final int TAG_CHALLENGE = 0x74;
+    private static final int TAG_RESPONSE = 0x75;
+    private static final int TAG_TRUNCATED = 0x76;
+    private static final int TAG_HOTP = 0x77;
+    private static final int TAG_PROPERTY = 0x78;
+    private static final int TAG_VERSION = 0x79;
+    private static final int TAG_IMF = 0x7a;
+    private static final int TAG_TOUCH = 0x7c;
+
+    private static final byte INS_PUT = 0x01;
+    private static final byte INS_DELETE = 0x02;
+    private static final byte INS_RESET = 0x04;
+    private static final byte INS_RENAME = 0x05;
+    private static final byte INS_LIST = (byte) 0xa1;
+    private static final byte INS_CALCULATE = (byte) 0xa2;
+    private static final byte INS_CALCULATE_ALL = (byte) 0xa4;
+    private static final byte INS_SEND_REMAINING = (byte) 0xa5;
+
+    private static final byte TYPE_MASK = (byte) 0xf0;
+    private static final byte TYPE_HOTP = 0x10;
+    private static final byte ALGORITHM_MASK = 0x0f;
+    private static final byte PROPERTY_REQUIRE_TOUCH = 0x02;
+
+    private final SimulatedYubiKey device;
+    // Keyed by the credential ID, as a read-only ByteBuffer
+    private final Map<ByteBuffer, OathCredential> credentials = new LinkedHashMap<>();
+    private byte[] salt = RandomUtils.getRandomBytes(8);
+
+    OathApplet(SimulatedYubiKey device) {
+        super(AppId.OATH);
+        this.device = device;
+    }
+
+    @Override
+    byte getSendRemainingIns() {
+        return INS_SEND_REMAINING;
+    }
+
+    @Override
+    byte[] select() {
+        return new TlvWriter()
+                .put(TAG_VERSION, device.getVersion().getBytes())
+                .put(TAG_NAME, salt)
+                .toByteArray();
+    }
+
+    @Override
+    byte[] process(CommandApdu apdu) throws StatusWordException {
+        switch (apdu.ins) {
+            case INS_PUT:
+                put(apdu.data);
+                return new byte[0];
+            case INS_DELETE:
+                remove(require(decodeMap(apdu.data), TAG_NAME));
+                return new byte[0];
+            case INS_RENAME:
+                rename(apdu.data);
+                return new byte[0];
+            case INS_RESET:
+                if (apdu.p1 != (byte) 0xde || apdu.p2 != (byte) 0xad) {
+                    throw new StatusWordException(SW.WRONG_PARAMETERS_P1P2);
+                }
+                reset();
+                return new byte[0];
+            case INS_LIST:
+                return list();
+            case INS_CALCULATE:
+                return calculate(apdu.data, apdu.p2 == 1);
+            case INS_CALCULATE_ALL:
+                return calculateAll(apdu.data, apdu.p2 == 1);
+            default:
+                throw new StatusWordException(SW.INVALID_INSTRUCTION);
+        }
+    }
+
+    @Override
+    void reset() {
+        credentials.clear();
+        salt = RandomUtils.getRandomBytes(8);
+    }
+
+    /*
+     * The PUT command is not a plain list of TLVs, as the property tag is followed by its value without a length.
+     */
+    private void put(byte[] data) throws StatusWordException {
+        byte[] name = null;
+        byte[] key = null;
+        byte properties = 0;
+        int counter = 0;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                int tag = buffer.get() & 0xff;
+                if (tag == TAG_PROPERTY) {
+                    properties = buffer.get();
+                    continue;
+                }
+                int length = buffer.get() & 0xff;
+                if (length == 0x81) {
+                    length = buffer.get() & 0xff;
+                }
+                byte[] value = new byte[length];
+                buffer.get(value);
+                if (tag == TAG_NAME) {
+                    name = value;
+                } else if (tag == TAG_KEY) {
+                    key = value;
+                } else if (tag == TAG_IMF) {
+                    counter = ByteBuffer.wrap(value).getInt();
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new StatusWordException(SW.WRONG_LENGTH);
+        }
+        if (name == null || key == null || key.length < 2) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        ByteBuffer id = ByteBuffer.wrap(name).asReadOnlyBuffer();
+        if (!credentials.containsKey(id) && credentials.size() >= MAX_CREDENTIALS) {
+            throw new StatusWordException(SW.NO_SPACE);
+        }
+        credentials.put(id, new OathCredential(name, key[0], key[1], Arrays.copyOfRange(key, 2, key.length),
+                (properties & PROPERTY_REQUIRE_TOUCH) != 0, counter));
+    }
+
+    private OathCredential get(byte[] name) throws StatusWordException {
+        OathCredential credential = credentials.get(ByteBuffer.wrap(name));
+        if (credential == null) {
+            throw new StatusWordException(SW.DATA_INVALID);
+        }
+        return credential;
+    }
+
+    private void remove(byte[] name) throws StatusWordException {
+        if (credentials.remove(ByteBuffer.wrap(name)) == null) {
+            throw new StatusWordException(SW.DATA_INVALID);
+        }
+    }
+
+    private void rename(byte[] data) throws StatusWordException {
+        List<Tlv> names;
+        try {
+            names = Tlvs.decodeList(data);
+        } catch (RuntimeException e) {
+            throw new StatusWordException(SW.WRONG_LENGTH);
+        }
+        if (names.size() != 2 || names.get(0).getTag() != TAG_NAME || names.get(1).getTag() != TAG_NAME) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        byte[] newName = names.get(1).getValue();
+        if (credentials.containsKey(ByteBuffer.wrap(newName))) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        OathCredential credential = get(names.get(0).getValue());
+        remove(credential.name);
+        credentials.put(ByteBuffer.wrap(newName).asReadOnlyBuffer(), credential.withName(newName));
+    }
+
+    private byte[] list() {
+        TlvWriter writer = new TlvWriter();
+        for (OathCredential credential : credentials.values()) {
+            byte[] value = new byte[1 + credential.name.length];
+            value[0] = credential.typeAndAlgorithm;
+            System.arraycopy(credential.name, 0, value, 1, credential.name.length);
+            writer.put(TAG_NAME_LIST, value);
+        }
+        return writer.toByteArray();
+    }
+
+    private byte[] calculate(byte[] data, boolean truncate) throws StatusWordException {
+        Map<Integer, byte[]> request = decodeMap(data);
+        OathCredential credential = get(require(request, TAG_NAME));
+        byte[] challenge = credential.isHotp()
+                ? ByteBuffer.allocate(8).putLong(credential.counter++).array()
+                : require(request, TAG_CHALLENGE);
+        TlvWriter writer = new TlvWriter();
+        putResponse(writer, credential, challenge, truncate);
+        return writer.toByteArray();
+    }
+
+    private byte[] calculateAll(byte[] data, boolean truncate) throws StatusWordException {
+        byte[] challenge = require(decodeMap(data), TAG_CHALLENGE);
+        TlvWriter writer = new TlvWriter();
+        for (OathCredential credential : credentials.values()) {
+            writer.put(TAG_NAME, credential.name);
+            if (credential.isHotp()) {
+                writer.put(TAG_HOTP, new byte[]{credential.digits});
+            } else if (credential.requireTouch) {
+                writer.put(TAG_TOUCH, new byte[]{credential.digits});
+            } else {
+                putResponse(writer, credential, challenge, truncate);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    private static void putResponse(TlvWriter writer, OathCredential credential, byte[] challenge, boolean truncate) {
+        byte[] hmac = credential.hmac(challenge);
+        if (truncate) {
+            int offset = hmac[hmac.length - 1] & 0x0f;
+            int code = ByteBuffer.wrap(hmac, offset, 4).getInt() & 0x7fffffff;
+            writer.put(TAG_TRUNCATED, ByteBuffer.allocate(5).put(credential.digits).putInt(code).array());
+        } else {
+            writer.put(TAG_RESPONSE, ByteBuffer.allocate(1 + hmac.length).put(credential.digits).put(hmac).array());
+        }
+    }
+
+    private static class OathCredential {
+        private final byte[] name;
+        private final byte typeAndAlgorithm;
+        private final byte digits;
+        private final byte[] secret;
+        private final boolean requireTouch;
+        private int counter;
+
+        private OathCredential(byte[] name, byte typeAndAlgorithm, byte digits, byte[] secret, boolean requireTouch, int counter) {
+            this.name = name;
+            this.typeAndAlgorithm = typeAndAlgorithm;
+            this.digits = digits;
+            this.secret = secret;
+            this.requireTouch = requireTouch;
+            this.counter = counter;
+        }
+
+        private OathCredential withName(byte[] newName) {
+            return new OathCredential(newName, typeAndAlgorithm, digits, secret, requireTouch, counter);
+        }
+
+        private boolean isHotp() {
+            return (typeAndAlgorithm & TYPE_MASK) == TYPE_HOTP;
+        }
+
+        private byte[] hmac(byte[] challenge) {
+            String algorithm;
+            switch (typeAndAlgorithm & ALGORITHM_MASK) {
+                case 2:
+                    algorithm = "HmacSHA256";
+                    break;
+                case 3:
+                    algorithm = "HmacSHA512";
+                    break;
+                default:
+                    algorithm = "HmacSHA1";
+            }
+            try {
+                Mac mac = Mac.getInstance(algorithm);
+                // An empty secret is not a valid key, but is equivalent to a single zero byte for HMAC
+                mac.init(new SecretKeySpec(secret.length == 0 ? new byte[1] : secret, algorithm));
+                return mac.doFinal(challenge);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.otp.ChecksumUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * The OTP command layer of a {@link SimulatedYubiKey}, shared by all OTP connections to the device.
+ * <p>
+ * Reports the serial number and device info. Slot configuration commands are acknowledged by updating the
+ * programming sequence and the configured slot flags, but the configuration itself is not kept.
+ */
+class OtpApplication {
+    private static final byte CMD_CONFIG_1 = 0x01;
+    private static final byte CMD_CONFIG_2 = 0x03;
+    private static final byte CMD_UPDATE_1 = 0x04;
+    private static final byte CMD_UPDATE_2 = 0x05;
+    private static final byte CMD_SWAP = 0x06;
+    private static final byte CMD_NDEF_1 = 0x08;
+    private static final byte CMD_NDEF_2 = 0x09;
+    private static final byte CMD_DEVICE_SERIAL = 0x10;
+    private static final byte CMD_DEVICE_CONFIG = 0x11;
+    private static final byte CMD_YK4_CAPABILITIES = 0x13;
+    private static final byte CMD_YK4_SET_DEVICE_INFO = 0x15;
+
+    private static final int CONFIG1_VALID = 0x01;
+    private static final int CONFIG2_VALID = 0x02;
+
+    private final SimulatedYubiKey device;
+    private byte programmingSequence = 0;
+    private short touchLevel = 0;
+
+    OtpApplication(SimulatedYubiKey device) {
+        this.device = device;
+    }
+
+    /**
+     * Returns the 6 byte status: firmware version, programming sequence and touch level.
+     */
+    byte[] getStatus() {
+        return ByteBuffer.allocate(6)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put(device.getVersion().getBytes())
+                .put(programmingSequence)
+                .putShort(touchLevel)
+                .array();
+    }
+
+    /**
+     * Processes a command frame.
+     *
+     * @param slot    the command slot
+     * @param payload the 64 byte payload of the frame
+     * @return response data, or null if the command responds with the status only
+     */
+    @Nullable
+    byte[] process(byte slot, byte[] payload) {
+        switch (slot) {
+            case CMD_DEVICE_SERIAL:
+                return withCrc(ByteBuffer.allocate(4).putInt(device.getSerialNumber()).array());
+            case CMD_YK4_CAPABILITIES:
+                return withCrc(device.readDeviceInfo(payload[0] & 0xff));
+            case CMD_CONFIG_1:
+            case CMD_CONFIG_2:
+                boolean delete = isEmpty(payload);
+                int flag = slot == CMD_CONFIG_1 ? CONFIG1_VALID : CONFIG2_VALID;
+                touchLevel = (short) (delete ? touchLevel & ~flag : touchLevel | flag);
+                // The programming sequence is reset when no slot remains configured
+                programmingSequence = (touchLevel & (CONFIG1_VALID | CONFIG2_VALID)) == 0 ? 0 : (byte) (programmingSequence + 1);
+                return null;
+            case CMD_SWAP:
+                int valid = touchLevel & (CONFIG1_VALID | CONFIG2_VALID);
+                if (valid == CONFIG1_VALID || valid == CONFIG2_VALID) {
+                    touchLevel ^= CONFIG1_VALID | CONFIG2_VALID;
+                }
+                programmingSequence++;
+                return null;
+            case CMD_UPDATE_1:
+            case CMD_UPDATE_2:
+            case CMD_NDEF_1:
+            case CMD_NDEF_2:
+            case CMD_DEVICE_CONFIG:
+            case CMD_YK4_SET_DEVICE_INFO:
+                programmingSequence++;
+                return null;
+            default:
+                // Unsupported commands leave the status unchanged, which the host reads as a rejection
+                return null;
+        }
+    }
+
+    void reset() {
+        programmingSequence = 0;
+        touchLevel = 0;
+    }
+
+    private static boolean isEmpty(byte[] payload) {
+        for (byte b : payload) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Appends the one's complement of the CRC, which makes the CRC of the result equal the OK residual.
+     */
+    private static byte[] withCrc(byte[] data) {
+        short crc = (short) ~ChecksumUtils.calculateCrc(data, data.length);
+        byte[] result = Arrays.copyOf(data, data.length + 2);
+        result[data.length] = (byte) crc;
+        result[data.length + 1] = (byte) (crc >> 8);
+        return result;
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.smartcard.AppId;
+import com.yubico.yubikit.core.smartcard.SW;
+import com.yubico.yubikit.core.util.RandomUtils;
+import com.yubico.yubikit.core.util.Tlv;
+import com.yubico.yubikit.core.util.TlvWriter;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The PIV application: PIN and PUK handling, a 3DES management key, data objects, EC keys on the
+ * P-256 and P-384 curves, and RSA1024 and RSA2048 keys. Imported keys must be RSA keys.
+ * <p>
+ * The PIN policy ALWAYS is enforced by clearing the verified PIN after each private key operation. Touch
+ * policies are stored, but touch is always granted.
+ */
+class PivApplet extends Applet {
+    private static final byte[] DEFAULT_PIN = {'1', '2', '3', '4', '5', '6', (byte) 0xff, (byte) 0xff};
+    private static final byte[] DEFAULT_PUK = {'1', '2', '3', '4', '5', '6', '7', '8'};
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+    private static final int PIN_LEN = 8;
+    private static final int DEFAULT_RETRIES = 3;
+
+    private static final byte INS_VERIFY = 0x20;
+    private static final byte INS_CHANGE_REFERENCE = 0x24;
+    private static final byte INS_GENERATE_ASYMMETRIC = 0x47;
+    private static final byte INS_AUTHENTICATE = (byte) 0x87;
+    private static final byte INS_GET_DATA = (byte) 0xcb;
+    private static final byte INS_PUT_DATA = (byte) 0xdb;
+    private static final byte INS_GET_METADATA = (byte) 0xf7;
+    private static final byte INS_GET_SERIAL = (byte) 0xf8;
+    private static final byte INS_RESET = (byte) 0xfb;
+    private static final byte INS_GET_VERSION = (byte) 0xfd;
+    private static final byte INS_IMPORT_KEY = (byte) 0xfe;
+    private static final byte INS_SET_MGMKEY = (byte) 0xff;
+
+    private static final byte PIN_P2 = (byte) 0x80;
+    private static final byte PUK_P2 = (byte) 0x81;
+    private static final byte SLOT_CARD_MANAGEMENT = (byte) 0x9b;
+    private static final byte SLOT_SIGNATURE = (byte) 0x9c;
+
+    private static final byte ALGORITHM_TDES = 0x03;
+    private static final byte KEY_TYPE_RSA1024 = 0x06;
+    private static final byte KEY_TYPE_RSA2048 = 0x07;
+    private static final byte KEY_TYPE_ECCP256 = 0x11;
+    private static final byte KEY_TYPE_ECCP384 = 0x14;
+
+    private static final int TAG_AUTH_WITNESS = 0x80;
+    private static final int TAG_AUTH_CHALLENGE = 0x81;
+    private static final int TAG_AUTH_RESPONSE = 0x82;
+    private static final int TAG_AUTH_EXPONENTIATION = 0x85;
+    private static final int TAG_GEN_ALGORITHM = 0x80;
+    private static final int TAG_GEN_TEMPLATE = 0xac;
+    private static final int TAG_PUBLIC_KEY = 0x7f49;
+    private static final int TAG_RSA_MODULUS = 0x81;
+    private static final int TAG_RSA_EXPONENT = 0x82;
+    private static final int TAG_EC_POINT = 0x86;
+    private static final int TAG_RSA_P = 0x01;
+    private static final int TAG_RSA_Q = 0x02;
+    private static final int TAG_RSA_DP = 0x03;
+    private static final int TAG_RSA_DQ = 0x04;
+    private static final int TAG_RSA_QINV = 0x05;
+    private static final int TAG_OBJ_DATA = 0x53;
+    private static final int TAG_OBJ_ID = 0x5c;
+    private static final int TAG_DYN_AUTH = 0x7c;
+    private static final int TAG_PIN_POLICY = 0xaa;
+    private static final int TAG_TOUCH_POLICY = 0xab;
+    private static final int TAG_MANAGEMENT_KEY = 0x9b;
+
+    private static final int TAG_METADATA_ALGO = 0x01;
+    private static final int TAG_METADATA_POLICY = 0x02;
+    private static final int TAG_METADATA_ORIGIN = 0x03;
+    private static final int TAG_METADATA_PUBLIC_KEY = 0x04;
+    private static final int TAG_METADATA_IS_DEFAULT = 0x05;
+    private static final int TAG_METADATA_RETRIES = 0x06;
+
+    private static final byte PIN_POLICY_DEFAULT = 0;
+    private static final byte PIN_POLICY_NEVER = 1;
+    private static final byte PIN_POLICY_ONCE = 2;
+    private static final byte PIN_POLICY_ALWAYS = 3;
+    private static final byte TOUCH_POLICY_DEFAULT = 0;
+    private static final byte TOUCH_POLICY_NEVER = 1;
+    private static final byte TOUCH_POLICY_ALWAYS = 2;
+    private static final byte ORIGIN_GENERATED = 1;
+    private static final byte ORIGIN_IMPORTED = 2;
+
+    private final SimulatedYubiKey device;
+    private final PinReference pin = new PinReference(DEFAULT_PIN);
+    private final PinReference puk = new PinReference(DEFAULT_PUK);
+    private final Map<Integer, byte[]> objects = new HashMap<>();
+    private final Map<Byte, SlotKey> keys = new HashMap<>();
+    private byte[] managementKey = DEFAULT_MANAGEMENT_KEY;
+    private byte managementKeyTouchPolicy = TOUCH_POLICY_NEVER;
+
+    // Transient state
+    private boolean pinVerified;
+    private boolean authenticated;
+    @Nullable
+    private byte[] witness;
+
+    PivApplet(SimulatedYubiKey device) {
+        super(AppId.PIV);
+        this.device = device;
+    }
+
+    @Override
+    byte[] select() {
+        pinVerified = false;
+        authenticated = false;
+        witness = null;
+        return new TlvWriter().put(0x4f, AppId.PIV).toByteArray();
+    }
+
+    @Override
+    void reset() {
+        pin.reset(DEFAULT_PIN);
+        puk.reset(DEFAULT_PUK);
+        objects.clear();
+        keys.clear();
+        managementKey = DEFAULT_MANAGEMENT_KEY;
+        managementKeyTouchPolicy = TOUCH_POLICY_NEVER;
+        select();
+    }
+
+    @Override
+    byte[] process(CommandApdu apdu) throws StatusWordException {
+        switch (apdu.ins) {
+            case INS_GET_VERSION:
+                return device.getVersion().getBytes();
+            case INS_GET_SERIAL:
+                return ByteBuffer.allocate(4).putInt(device.getSerialNumber()).array();
+            case INS_VERIFY:
+                verify(apdu);
+                return new byte[0];
+            case INS_CHANGE_REFERENCE:
+                changeReference(apdu);
+                return new byte[0];
+            case INS_GET_METADATA:
+                return getMetadata(apdu.p2);
+            case INS_GET_DATA:
+                return getData(apdu.data);
+            case INS_PUT_DATA:
+                putData(apdu.data);
+                return new byte[0];
+            case INS_AUTHENTICATE:
+                if (apdu.p2 == SLOT_CARD_MANAGEMENT) {
+                    return authenticateManagementKey(apdu);
+                }
+                return usePrivateKey(apdu);
+            case INS_GENERATE_ASYMMETRIC:
+                return generate(apdu);
+            case INS_IMPORT_KEY:
+                importKey(apdu);
+                return new byte[0];
+            case INS_SET_MGMKEY:
+                setManagementKey(apdu);
+                return new byte[0];
+            case INS_RESET:
+                if (!pin.isBlocked() || !puk.isBlocked()) {
+                    throw new StatusWordException(SW.CONDITIONS_NOT_SATISFIED);
+                }
+                reset();
+                return new byte[0];
+            default:
+                throw new StatusWordException(SW.INVALID_INSTRUCTION);
+        }
+    }
+
+    private PinReference getReference(byte p2) throws StatusWordException {
+        if (p2 == PIN_P2) {
+            return pin;
+        } else if (p2 == PUK_P2) {
+            return puk;
+        }
+        throw new StatusWordException(SW.REFERENCED_DATA_NOT_FOUND);
+    }
+
+    private void verify(CommandApdu apdu) throws StatusWordException {
+        if (apdu.p2 != PIN_P2) {
+            throw new StatusWordException(SW.REFERENCED_DATA_NOT_FOUND);
+        }
+        if (apdu.data.length == 0) {
+            // An empty VERIFY reports the PIN state without using an attempt
+            if (!pinVerified) {
+                throw pin.retriesStatus();
+            }
+            return;
+        }
+        pinVerified = false;
+        pin.verify(apdu.data);
+        pinVerified = true;
+    }
+
+    private void changeReference(CommandApdu apdu) throws StatusWordException {
+        PinReference reference = getReference(apdu.p2);
+        if (apdu.data.length != 2 * PIN_LEN) {
+            throw new StatusWordException(SW.WRONG_LENGTH);
+        }
+        reference.verify(Arrays.copyOf(apdu.data, PIN_LEN));
+        reference.value = Arrays.copyOfRange(apdu.data, PIN_LEN, 2 * PIN_LEN);
+        reference.isDefault = false;
+    }
+
+    private byte[] getMetadata(byte slot) throws StatusWordException {
+        TlvWriter writer = new TlvWriter();
+        if (slot == PIN_P2 || slot == PUK_P2) {
+            PinReference reference = getReference(slot);
+            writer.put(TAG_METADATA_IS_DEFAULT, new byte[]{(byte) (reference.isDefault ? 1 : 0)})
+                    .put(TAG_METADATA_RETRIES, new byte[]{(byte) reference.total, (byte) reference.remaining});
+        } else if (slot == SLOT_CARD_MANAGEMENT) {
+            boolean isDefault = Arrays.equals(managementKey, DEFAULT_MANAGEMENT_KEY);
+            writer.put(TAG_METADATA_ALGO, new byte[]{ALGORITHM_TDES})
+                    .put(TAG_METADATA_POLICY, new byte[]{PIN_POLICY_NEVER, managementKeyTouchPolicy})
+                    .put(TAG_METADATA_IS_DEFAULT, new byte[]{(byte) (isDefault ? 1 : 0)});
+        } else {
+            SlotKey key = getKey(slot);
+            writer.put(TAG_METADATA_ALGO, new byte[]{key.keyType})
+                    .put(TAG_METADATA_POLICY, new byte[]{key.pinPolicy, key.touchPolicy})
+                    .put(TAG_METADATA_ORIGIN, new byte[]{key.origin})
+                    .put(TAG_METADATA_PUBLIC_KEY, key.getEncodedPublicKey());
+        }
+        return writer.toByteArray();
+    }
+
+    private byte[] getData(byte[] data) throws StatusWordException {
+        byte[] object = objects.get(toObjectId(require(decodeMap(data), TAG_OBJ_ID)));
+        if (object == null) {
+            throw new StatusWordException(SW.FILE_NOT_FOUND);
+        }
+        return new Tlv(TAG_OBJ_DATA, object).getBytes();
+    }
+
+    private void putData(byte[] data) throws StatusWordException {
+        requireAuthenticated();
+        Map<Integer, byte[]> request = decodeMap(data);
+        int objectId = toObjectId(require(request, TAG_OBJ_ID));
+        byte[] object = require(request, TAG_OBJ_DATA);
+        if (object.length == 0) {
+            objects.remove(objectId);
+        } else {
+            objects.put(objectId, object);
+        }
+    }
+
+    private static int toObjectId(byte[] encoded) throws StatusWordException {
+        if (encoded.length == 0 || encoded.length > 3) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        int objectId = 0;
+        for (byte b : encoded) {
+            objectId = (objectId << 8) | (b & 0xff);
+        }
+        return objectId;
+    }
+
+    private void requireAuthenticated() throws StatusWordException {
+        if (!authenticated) {
+            throw new StatusWordException(SW.SECURITY_CONDITION_NOT_SATISFIED);
+        }
+    }
+
+    /*
+     * Mutual authentication: the card sends an encrypted witness, which the host decrypts and returns together
+     * with a challenge for the card to encrypt.
+     */
+    private byte[] authenticateManagementKey(CommandApdu apdu) throws StatusWordException {
+        if (apdu.p1 != ALGORITHM_TDES) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        Map<Integer, byte[]> request = decodeMap(require(decodeMap(apdu.data), TAG_DYN_AUTH));
+        byte[] response = require(request, TAG_AUTH_WITNESS);
+        if (response.length == 0) {
+            authenticated = false;
+            witness = RandomUtils.getRandomBytes(8);
+            return new Tlv(TAG_DYN_AUTH, new Tlv(TAG_AUTH_WITNESS, tdes(Cipher.ENCRYPT_MODE, witness)).getBytes()).getBytes();
+        }
+
+        byte[] expected = witness;
+        witness = null;
+        if (expected == null || !MessageDigest.isEqual(expected, response)) {
+            throw new StatusWordException(SW.SECURITY_CONDITION_NOT_SATISFIED);
+        }
+        authenticated = true;
+        byte[] challenge = require(request, TAG_AUTH_CHALLENGE);
+        return new Tlv(TAG_DYN_AUTH, new Tlv(TAG_AUTH_RESPONSE, tdes(Cipher.ENCRYPT_MODE, challenge)).getBytes()).getBytes();
+    }
+
+    private byte[] tdes(int mode, byte[] data) throws StatusWordException {
+        if (data.length != 8) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        try {
+            Cipher cipher = Cipher.getInstance("DESede/ECB/NoPadding");
+            cipher.init(mode, new SecretKeySpec(managementKey, "DESede"));
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void setManagementKey(CommandApdu apdu) throws StatusWordException {
+        requireAuthenticated();
+        byte[] data = apdu.data;
+        if (data.length != 3 + DEFAULT_MANAGEMENT_KEY.length || data[0] != ALGORITHM_TDES
+                || (data[1] & 0xff) != TAG_MANAGEMENT_KEY || data[2] != DEFAULT_MANAGEMENT_KEY.length) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        managementKey = Arrays.copyOfRange(data, 3, data.length);
+        managementKeyTouchPolicy = apdu.p2 == (byte) 0xfe ? TOUCH_POLICY_ALWAYS : TOUCH_POLICY_NEVER;
+    }
+
+    private SlotKey getKey(byte slot) throws StatusWordException {
+        SlotKey key = keys.get(slot);
+        if (key == null) {
+            throw new StatusWordException(SW.REFERENCED_DATA_NOT_FOUND);
+        }
+        return key;
+    }
+
+    private byte[] generate(CommandApdu apdu) throws StatusWordException {
+        requireAuthenticated();
+        Map<Integer, byte[]> template = decodeMap(require(decodeMap(apdu.data), TAG_GEN_TEMPLATE));
+        byte keyType = require(template, TAG_GEN_ALGORITHM)[0];
+        AlgorithmParameterSpec keyParams;
+        if (keyType == KEY_TYPE_ECCP256) {
+            keyParams = new ECGenParameterSpec("secp256r1");
+        } else if (keyType == KEY_TYPE_ECCP384) {
+            keyParams = new ECGenParameterSpec("secp384r1");
+        } else if (keyType == KEY_TYPE_RSA1024) {
+            keyParams = new RSAKeyGenParameterSpec(1024, RSAKeyGenParameterSpec.F4);
+        } else if (keyType == KEY_TYPE_RSA2048) {
+            keyParams = new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4);
+        } else {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+
+        KeyPair keyPair;
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(
+                    keyParams instanceof RSAKeyGenParameterSpec ? "RSA" : "EC");
+            generator.initialize(keyParams);
+            keyPair = generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        SlotKey key = new SlotKey(keyType, getPinPolicy(template, apdu.p2), getTouchPolicy(template), keyPair, ORIGIN_GENERATED);
+        keys.put(apdu.p2, key);
+        return new Tlv(TAG_PUBLIC_KEY, key.getEncodedPublicKey()).getBytes();
+    }
+
+    /*
+     * Imports an RSA key, given as its CRT parameters.
+     */
+    private void importKey(CommandApdu apdu) throws StatusWordException {
+        requireAuthenticated();
+        int bitLength;
+        if (apdu.p1 == KEY_TYPE_RSA1024) {
+            bitLength = 1024;
+        } else if (apdu.p1 == KEY_TYPE_RSA2048) {
+            bitLength = 2048;
+        } else {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        Map<Integer, byte[]> tlvs = decodeMap(apdu.data);
+        BigInteger p = new BigInteger(1, require(tlvs, TAG_RSA_P));
+        BigInteger q = new BigInteger(1, require(tlvs, TAG_RSA_Q));
+        BigInteger dp = new BigInteger(1, require(tlvs, TAG_RSA_DP));
+        BigInteger dq = new BigInteger(1, require(tlvs, TAG_RSA_DQ));
+        BigInteger qInv = new BigInteger(1, require(tlvs, TAG_RSA_QINV));
+        BigInteger modulus = p.multiply(q);
+        if (modulus.bitLength() != bitLength) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+
+        KeyPair keyPair;
+        try {
+            // The public exponent isn't sent, but it is the inverse of dp modulo p - 1, as it is smaller than p - 1
+            BigInteger exponent = dp.modInverse(p.subtract(BigInteger.ONE));
+            BigInteger d = exponent.modInverse(p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE)));
+            KeyFactory factory = KeyFactory.getInstance("RSA");
+            keyPair = new KeyPair(
+                    factory.generatePublic(new RSAPublicKeySpec(modulus, exponent)),
+                    factory.generatePrivate(new RSAPrivateCrtKeySpec(modulus, exponent, d, p, q, dp, dq, qInv)));
+        } catch (ArithmeticException | GeneralSecurityException e) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        keys.put(apdu.p2, new SlotKey(apdu.p1, getPinPolicy(tlvs, apdu.p2), getTouchPolicy(tlvs), keyPair, ORIGIN_IMPORTED));
+    }
+
+    private static byte getPinPolicy(Map<Integer, byte[]> tlvs, byte slot) {
+        byte pinPolicy = tlvs.containsKey(TAG_PIN_POLICY) ? tlvs.get(TAG_PIN_POLICY)[0] : PIN_POLICY_DEFAULT;
+        if (pinPolicy == PIN_POLICY_DEFAULT) {
+            pinPolicy = slot == SLOT_SIGNATURE ? PIN_POLICY_ALWAYS : PIN_POLICY_ONCE;
+        }
+        return pinPolicy;
+    }
+
+    private static byte getTouchPolicy(Map<Integer, byte[]> tlvs) {
+        byte touchPolicy = tlvs.containsKey(TAG_TOUCH_POLICY) ? tlvs.get(TAG_TOUCH_POLICY)[0] : TOUCH_POLICY_DEFAULT;
+        return touchPolicy == TOUCH_POLICY_DEFAULT ? TOUCH_POLICY_NEVER : touchPolicy;
+    }
+
+    private byte[] usePrivateKey(CommandApdu apdu) throws StatusWordException {
+        SlotKey key = keys.get(apdu.p2);
+        if (key == null || key.keyType != apdu.p1) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        if (key.pinPolicy != PIN_POLICY_NEVER) {
+            if (!pinVerified) {
+                throw new StatusWordException(SW.SECURITY_CONDITION_NOT_SATISFIED);
+            }
+            if (key.pinPolicy == PIN_POLICY_ALWAYS) {
+                pinVerified = false;
+            }
+        }
+
+        Map<Integer, byte[]> request = decodeMap(require(decodeMap(apdu.data), TAG_DYN_AUTH));
+        byte[] result;
+        try {
+            if (request.containsKey(TAG_AUTH_CHALLENGE) && key.isRsa()) {
+                // Raw RSA, for both signing and decryption
+                Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, key.keyPair.getPrivate());
+                result = cipher.doFinal(request.get(TAG_AUTH_CHALLENGE));
+            } else if (request.containsKey(TAG_AUTH_CHALLENGE)) {
+                Signature signature = Signature.getInstance("NONEwithECDSA");
+                signature.initSign(key.keyPair.getPrivate());
+                signature.update(request.get(TAG_AUTH_CHALLENGE));
+                result = signature.sign();
+            } else if (request.containsKey(TAG_AUTH_EXPONENTIATION)) {
+                KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+                agreement.init(key.keyPair.getPrivate());
+                agreement.doPhase(key.decodePoint(request.get(TAG_AUTH_EXPONENTIATION)), true);
+                result = agreement.generateSecret();
+            } else {
+                throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new StatusWordException(SW.INCORRECT_PARAMETERS);
+        }
+        return new Tlv(TAG_DYN_AUTH, new Tlv(TAG_AUTH_RESPONSE, result).getBytes()).getBytes();
+    }
+
+    private static class PinReference {
+        private byte[] value;
+        private boolean isDefault = true;
+        private final int total = DEFAULT_RETRIES;
+        private int remaining = DEFAULT_RETRIES;
+
+        private PinReference(byte[] value) {
+            this.value = value;
+        }
+
+        private void reset(byte[] defaultValue) {
+            value = defaultValue;
+            isDefault = true;
+            remaining = total;
+        }
+
+        private boolean isBlocked() {
+            return remaining == 0;
+        }
+
+        private StatusWordException retriesStatus() {
+            return new StatusWordException((short) (SW.VERIFY_FAIL_NO_RETRY | remaining));
+        }
+
+        private void verify(byte[] attempt) throws StatusWordException {
+            if (isBlocked()) {
+                throw new StatusWordException(SW.AUTH_METHOD_BLOCKED);
+            }
+            if (!MessageDigest.isEqual(value, attempt)) {
+                remaining--;
+                throw retriesStatus();
+            }
+            remaining = total;
+        }
+    }
+
+    private static class SlotKey {
+        private final byte keyType;
+        private final byte pinPolicy;
+        private final byte touchPolicy;
+        private final KeyPair keyPair;
+        private final byte origin;
+
+        private SlotKey(byte keyType, byte pinPolicy, byte touchPolicy, KeyPair keyPair, byte origin) {
+            this.keyType = keyType;
+            this.pinPolicy = pinPolicy;
+            this.touchPolicy = touchPolicy;
+            this.keyPair = keyPair;
+            this.origin = origin;
+        }
+
+        private boolean isRsa() {
+            return keyType == KEY_TYPE_RSA1024 || keyType == KEY_TYPE_RSA2048;
+        }
+
+        /*
+         * Returns the public key as in the response to GENERATE ASYMMETRIC, without the outer tag.
+         */
+        private byte[] getEncodedPublicKey() {
+            if (isRsa()) {
+                RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+                return new TlvWriter()
+                        .put(TAG_RSA_MODULUS, toFixedLength(publicKey.getModulus(), publicKey.getModulus().bitLength() / 8))
+                        .put(TAG_RSA_EXPONENT, publicKey.getPublicExponent().toByteArray())
+                        .toByteArray();
+            }
+            return new Tlv(TAG_EC_POINT, getEncodedPoint()).getBytes();
+        }
+
+        private int getFieldSize() {
+            return (((ECPrivateKey) keyPair.getPrivate()).getParams().getCurve().getField().getFieldSize() + 7) / 8;
+        }
+
+        private byte[] getEncodedPoint() {
+            ECPoint point = ((ECPublicKey) keyPair.getPublic()).getW();
+            int size = getFieldSize();
+            return ByteBuffer.allocate(1 + 2 * size)
+                    .put((byte) 0x04)
+                    .put(toFixedLength(point.getAffineX(), size))
+                    .put(toFixedLength(point.getAffineY(), size))
+                    .array();
+        }
+
+        private PublicKey decodePoint(byte[] encoded) throws GeneralSecurityException {
+            int size = getFieldSize();
+            if (encoded.length != 1 + 2 * size || encoded[0] != 0x04) {
+                throw new GeneralSecurityException("Invalid EC point");
+            }
+            ECPoint point = new ECPoint(
+                    new BigInteger(1, Arrays.copyOfRange(encoded, 1, 1 + size)),
+                    new BigInteger(1, Arrays.copyOfRange(encoded, 1 + size, encoded.length)));
+            return KeyFactory.getInstance("EC").generatePublic(
+                    new ECPublicKeySpec(point, ((ECPrivateKey) keyPair.getPrivate()).getParams()));
+        }
+
+        private static byte[] toFixedLength(BigInteger value, int length) {
+            byte[] bytes = value.toByteArray();
+            if (bytes.length == length) {
+                return bytes;
+            }
+            byte[] fixed = new byte[length];
+            int copy = Math.min(bytes.length, length);
+            System.arraycopy(bytes, bytes.length - copy, fixed, length - copy, copy);
+            return fixed;
+        }
+    }
+}
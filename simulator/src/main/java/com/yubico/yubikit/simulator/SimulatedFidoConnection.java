@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.fido.FidoConnection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import javax.annotation.Nullable;
+
+/**
+ * A FidoConnection to a {@link SimulatedYubiKey}.
+ * <p>
+ * Reassembles CTAPHID messages from the packets sent, and queues the packets of the response to be received.
+ */
+class SimulatedFidoConnection implements FidoConnection {
+    private static final int INIT_HEADER_SIZE = 7;
+    private static final int CONT_HEADER_SIZE = 5;
+
+    private final SimulatedYubiKey device;
+    private final int removals;
+    private final Queue<byte[]> responsePackets = new ArrayDeque<>();
+    @Nullable
+    private ByteBuffer message;
+    private int messageChannelId;
+    private byte messageCmd;
+    private int nextSeq;
+    private boolean closed;
+
+    SimulatedFidoConnection(SimulatedYubiKey device) {
+        this.device = device;
+        this.removals = device.getRemovals();
+    }
+
+    @Override
+    public void send(byte[] packet) throws IOException {
+        if (packet.length != PACKET_SIZE) {
+            throw new IOException("Invalid packet size");
+        }
+        synchronized (device.lock) {
+            ensureOpen();
+            ByteBuffer buffer = ByteBuffer.wrap(packet);
+            int channelId = buffer.getInt();
+            byte type = buffer.get();
+            if ((type & FidoApplication.TYPE_INIT) != 0) {
+                if (type == FidoApplication.CTAPHID_CANCEL) {
+                    // CANCEL has no response, and does not interrupt the message being received
+                    return;
+                }
+                int length = buffer.getShort() & 0xffff;
+                if (length > PACKET_SIZE - INIT_HEADER_SIZE + 128 * (PACKET_SIZE - CONT_HEADER_SIZE)) {
+                    queueResponse(channelId, FidoApplication.Response.error(FidoApplication.ERR_INVALID_LEN));
+                    return;
+                }
+                message = ByteBuffer.allocate(length);
+                messageChannelId = channelId;
+                messageCmd = type;
+                nextSeq = 0;
+            } else if (message == null || channelId != messageChannelId || type != nextSeq++) {
+                message = null;
+                queueResponse(channelId, FidoApplication.Response.error(FidoApplication.ERR_INVALID_SEQ));
+                return;
+            }
+
+            message.put(packet, buffer.position(), Math.min(buffer.remaining(), message.remaining()));
+            if (!message.hasRemaining()) {
+                byte[] payload = message.array();
+                message = null;
+                device.getLatencyModel().await(messageCmd & 0xff);
+                FidoApplication.Response response = device.getFidoApplication().process(messageChannelId, messageCmd, payload);
+                if (response != null) {
+                    queueResponse(messageChannelId, response);
+                }
+            }
+        }
+    }
+
+    private void queueResponse(int channelId, FidoApplication.Response response) {
+        ByteBuffer payload = ByteBuffer.wrap(response.payload);
+        byte[] packet = new byte[PACKET_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(packet)
+                .putInt(channelId)
+                .put(response.cmd)
+                .putShort((short) payload.remaining());
+        byte seq = 0;
+        while (true) {
+            int length = Math.min(payload.remaining(), buffer.remaining());
+            payload.get(packet, buffer.position(), length);
+            responsePackets.add(packet);
+            if (!payload.hasRemaining()) {
+                break;
+            }
+            packet = new byte[PACKET_SIZE];
+            buffer = ByteBuffer.wrap(packet).putInt(channelId).put(seq++);
+        }
+    }
+
+    @Override
+    public void receive(byte[] packet) throws IOException {
+        synchronized (device.lock) {
+            ensureOpen();
+            byte[] next = responsePackets.poll();
+            if (next == null) {
+                throw new IOException("No response pending");
+            }
+            System.arraycopy(next, 0, packet, 0, PACKET_SIZE);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+        device.ensureConnected(removals);
+    }
+
+    @Override
+    public void close() {
+        synchronized (device.lock) {
+            closed = true;
+            responsePackets.clear();
+        }
+    }
+}
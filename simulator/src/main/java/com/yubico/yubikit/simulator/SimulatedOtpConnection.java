@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.otp.ChecksumUtils;
+import com.yubico.yubikit.core.otp.OtpConnection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * An OtpConnection to a {@link SimulatedYubiKey}.
+ * <p>
+ * Reassembles the 70 byte frame written as a sequence of feature reports, and queues the feature reports
+ * of the response to be read. When no response is queued, reading returns the status report.
+ */
+class SimulatedOtpConnection implements OtpConnection {
+    private static final int FEATURE_RPT_DATA_SIZE = FEATURE_REPORT_SIZE - 1;
+    private static final int SLOT_DATA_SIZE = 64;
+    private static final int FRAME_SIZE = SLOT_DATA_SIZE + 6;
+    private static final int LAST_SEQUENCE = (FRAME_SIZE + FEATURE_RPT_DATA_SIZE - 1) / FEATURE_RPT_DATA_SIZE - 1;
+
+    private static final int SLOT_WRITE_FLAG = 0x80;
+    private static final int RESP_PENDING_FLAG = 0x40;
+    private static final int DUMMY_REPORT_WRITE = 0x8f;
+    private static final int SEQUENCE_MASK = 0x1f;
+
+    private final SimulatedYubiKey device;
+    private final int removals;
+    private final byte[] frame = new byte[FRAME_SIZE];
+    private final Queue<byte[]> responseReports = new ArrayDeque<>();
+    private boolean closed;
+
+    SimulatedOtpConnection(SimulatedYubiKey device) {
+        this.device = device;
+        this.removals = device.getRemovals();
+    }
+
+    @Override
+    public void send(byte[] report) throws IOException {
+        if (report.length != FEATURE_REPORT_SIZE) {
+            throw new IOException("Invalid report size");
+        }
+        synchronized (device.lock) {
+            ensureOpen();
+            int status = report[FEATURE_RPT_DATA_SIZE] & 0xff;
+            if (status == DUMMY_REPORT_WRITE) {
+                responseReports.clear();
+                return;
+            }
+            if ((status & SLOT_WRITE_FLAG) == 0) {
+                return;
+            }
+            int seq = status & SEQUENCE_MASK;
+            if (seq > LAST_SEQUENCE) {
+                return;
+            }
+            if (seq == 0) {
+                // All-zero reports are not sent, so start from an empty frame
+                Arrays.fill(frame, (byte) 0);
+                responseReports.clear();
+            }
+            int offset = seq * FEATURE_RPT_DATA_SIZE;
+            System.arraycopy(report, 0, frame, offset, Math.min(FEATURE_RPT_DATA_SIZE, FRAME_SIZE - offset));
+            if (seq == LAST_SEQUENCE) {
+                processFrame();
+            }
+        }
+    }
+
+    private void processFrame() {
+        ByteBuffer buffer = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] payload = new byte[SLOT_DATA_SIZE];
+        buffer.get(payload);
+        byte slot = buffer.get();
+        if (buffer.getShort() != ChecksumUtils.calculateCrc(payload, payload.length)) {
+            return;
+        }
+
+        device.getLatencyModel().await(slot & 0xff);
+        byte[] response = device.getOtpApplication().process(slot, payload);
+        if (response != null) {
+            int seq = 0;
+            for (int offset = 0; offset < response.length; offset += FEATURE_RPT_DATA_SIZE) {
+                byte[] report = new byte[FEATURE_REPORT_SIZE];
+                System.arraycopy(response, offset, report, 0, Math.min(FEATURE_RPT_DATA_SIZE, response.length - offset));
+                report[FEATURE_RPT_DATA_SIZE] = (byte) (RESP_PENDING_FLAG | seq++);
+                responseReports.add(report);
+            }
+            byte[] done = new byte[FEATURE_REPORT_SIZE];
+            done[FEATURE_RPT_DATA_SIZE] = RESP_PENDING_FLAG;
+            responseReports.add(done);
+        }
+    }
+
+    @Override
+    public void receive(byte[] report) throws IOException {
+        synchronized (device.lock) {
+            ensureOpen();
+            byte[] next = responseReports.poll();
+            if (next == null) {
+                next = new byte[FEATURE_REPORT_SIZE];
+                byte[] status = device.getOtpApplication().getStatus();
+                System.arraycopy(status, 0, next, 1, status.length);
+            }
+            System.arraycopy(next, 0, report, 0, FEATURE_REPORT_SIZE);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+        device.ensureConnected(removals);
+    }
+
+    @Override
+    public void close() {
+        synchronized (device.lock) {
+            closed = true;
+            responseReports.clear();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.smartcard.SW;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * A SmartCardConnection to a {@link SimulatedYubiKey}.
+ * <p>
+ * Handles SELECT, command chaining, and splitting long responses into chunks read with GET RESPONSE, and
+ * passes all other commands to the selected applet.
+ */
+class SimulatedSmartCardConnection implements SmartCardConnection {
+    // ATR of a YubiKey 5 over USB, ending in "YubiKey@"
+    private static final byte[] ATR = {
+            0x3b, (byte) 0xfd, 0x13, 0x00, 0x00, (byte) 0x81, 0x31, (byte) 0xfe, 0x15, (byte) 0x80, 0x73, (byte) 0xc0,
+            0x21, (byte) 0xc0, 0x57, 0x59, 0x75, 0x62, 0x69, 0x4b, 0x65, 0x79, 0x40
+    };
+    private static final byte INS_SELECT = (byte) 0xa4;
+    private static final byte P1_SELECT_BY_AID = 0x04;
+    private static final byte SW1_HAS_MORE_DATA = 0x61;
+
+    private final SimulatedYubiKey device;
+    private final int removals;
+    private final ByteArrayOutputStream chainedData = new ByteArrayOutputStream();
+    @Nullable
+    private Applet selected;
+    @Nullable
+    private byte[] pendingResponse;
+    private int pendingOffset;
+    private boolean closed;
+
+    SimulatedSmartCardConnection(SimulatedYubiKey device) {
+        this.device = device;
+        this.removals = device.getRemovals();
+    }
+
+    @Override
+    public byte[] sendAndReceive(byte[] apdu) throws IOException {
+        synchronized (device.lock) {
+            if (closed) {
+                throw new IOException("Connection is closed");
+            }
+            device.ensureConnected(removals);
+            try {
+                CommandApdu command = CommandApdu.parse(apdu);
+                device.getLatencyModel().await(command.ins & 0xff);
+                return process(command);
+            } catch (StatusWordException e) {
+                chainedData.reset();
+                return statusWord(e.getSw());
+            }
+        }
+    }
+
+    private byte[] process(CommandApdu command) throws StatusWordException {
+        if (pendingResponse != null) {
+            if (command.ins == Applet.INS_GET_RESPONSE || (selected != null && command.ins == selected.getSendRemainingIns())) {
+                return respond(command.le);
+            }
+            pendingResponse = null;
+        }
+
+        if (command.isChained()) {
+            chainedData.write(command.data, 0, command.data.length);
+            return statusWord(SW.OK);
+        }
+        if (chainedData.size() > 0) {
+            chainedData.write(command.data, 0, command.data.length);
+            command = command.withData(chainedData.toByteArray());
+            chainedData.reset();
+        }
+
+        byte[] response;
+        if (command.ins == INS_SELECT && command.p1 == P1_SELECT_BY_AID) {
+            Applet applet = device.findApplet(command.data);
+            if (applet == null) {
+                throw new StatusWordException(SW.FILE_NOT_FOUND);
+            }
+            selected = applet;
+            response = applet.select();
+        } else if (selected == null) {
+            throw new StatusWordException(SW.INVALID_INSTRUCTION);
+        } else {
+            response = selected.process(command);
+        }
+
+        pendingResponse = response;
+        pendingOffset = 0;
+        return respond(command.le);
+    }
+
+    /*
+     * Returns the next chunk of the pending response, followed by SW 61XX if more data remains.
+     */
+    private byte[] respond(int le) {
+        byte[] response = pendingResponse;
+        if (response == null) {
+            return statusWord(SW.OK);
+        }
+        int length = Math.min(le, response.length - pendingOffset);
+        byte[] chunk = Arrays.copyOfRange(response, pendingOffset, pendingOffset + length + 2);
+        pendingOffset += length;
+        int remaining = response.length - pendingOffset;
+        if (remaining > 0) {
+            chunk[length] = SW1_HAS_MORE_DATA;
+            chunk[length + 1] = (byte) (remaining >= CommandApdu.SHORT_MAX_LE ? 0 : remaining);
+        } else {
+            chunk[length] = (byte) (SW.OK >> 8);
+            chunk[length + 1] = (byte) SW.OK;
+            pendingResponse = null;
+        }
+        return chunk;
+    }
+
+    private static byte[] statusWord(short sw) {
+        return new byte[]{(byte) (sw >> 8), (byte) sw};
+    }
+
+    @Override
+    public Transport getTransport() {
+        return device.getTransport();
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return device.isExtendedLengthApduSupported();
+    }
+
+    @Override
+    public byte[] getAtr() {
+        return Arrays.copyOf(ATR, ATR.length);
+    }
+
+    @Override
+    public void close() {
+        synchronized (device.lock) {
+            closed = true;
+            selected = null;
+            pendingResponse = null;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.Version;
+import com.yubico.yubikit.core.YubiKeyConnection;
+import com.yubico.yubikit.core.YubiKeyDevice;
+import com.yubico.yubikit.core.util.Callback;
+import com.yubico.yubikit.core.util.Result;
+import com.yubico.yubikit.core.util.TlvWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A software YubiKey, keeping all of its state in memory.
+ * <p>
+ * The simulator implements enough of the Management, OATH and PIV applications, and of the CTAPHID and OTP
+ * HID protocols, to drive the corresponding sessions without hardware, for tests and benchmarks:
+ * <ul>
+ * <li>Management: reading the device info, over all connection types.</li>
+ * <li>OATH: adding, listing, calculating, renaming and deleting credentials, and reset. Access keys are not supported.</li>
+ * <li>PIV: PIN and PUK handling, 3DES management key authentication, data objects, EC P-256 and P-384
+ * key generation, signing and ECDH, and RSA1024 and RSA2048 key generation, import, signing and decryption.
+ * EC key import and attestation are not supported.</li>
+ * <li>FIDO: CTAPHID framing with INIT, PING, WINK, LOCK and CANCEL, the CTAP2 getInfo command, the
+ * clientPin key agreement, and reading and writing the large-blob array. PINs, credentials and assertions are
+ * not supported.</li>
+ * <li>OTP: the status report, reading the serial number, and acknowledging slot configuration.</li>
+ * </ul>
+ * The device processes one command at a time, so connections may be used from different threads. Each command
+ * takes the time given by the device {@link LatencyModel}, which is empty by default. Touch is always granted
+ * immediately.
+ */
+public class SimulatedYubiKey implements YubiKeyDevice {
+    public static final Version DEFAULT_VERSION = new Version(5, 7, 2);
+    public static final int DEFAULT_SERIAL = 12345678;
+
+    // Capabilities of the simulated applications, using the bit values of the Management Capability enum
+    private static final int CAPABILITIES = 0x0001 | 0x0002 | 0x0010 | 0x0020 | 0x0200;
+    private static final byte FORM_FACTOR_USB_A_KEYCHAIN = 0x01;
+
+    private static final int TAG_USB_SUPPORTED = 0x01;
+    private static final int TAG_SERIAL_NUMBER = 0x02;
+    private static final int TAG_USB_ENABLED = 0x03;
+    private static final int TAG_FORMFACTOR = 0x04;
+    private static final int TAG_FIRMWARE_VERSION = 0x05;
+    private static final int TAG_CONFIG_LOCKED = 0x0a;
+    private static final int TAG_NFC_SUPPORTED = 0x0d;
+    private static final int TAG_NFC_ENABLED = 0x0e;
+
+    final Object lock = new Object();
+
+    private final Transport transport;
+    private final Version version;
+    private final int serial;
+    private final List<Applet> applets;
+    private final FidoApplication fidoApplication;
+    private final OtpApplication otpApplication;
+    private LatencyModel latencyModel = new LatencyModel();
+    private boolean extendedLengthApduSupported = true;
+    private volatile boolean connected = true;
+    // Counts removals, as connections opened before a removal stay broken
+    private volatile int removals = 0;
+
+    /**
+     * Creates a simulated YubiKey.
+     *
+     * @param transport the transport the YubiKey is connected over, which decides the supported connection types
+     * @param version   the firmware version to report
+     * @param serial    the serial number to report
+     */
+    public SimulatedYubiKey(Transport transport, Version version, int serial) {
+        this.transport = transport;
+        this.version = version;
+        this.serial = serial;
+        applets = Arrays.asList(new ManagementApplet(this), new OathApplet(this), new PivApplet(this));
+        fidoApplication = new FidoApplication(this);
+        otpApplication = new OtpApplication(this);
+    }
+
+    /**
+     * Creates a simulated YubiKey connected over USB, with the default version and serial number.
+     */
+    public SimulatedYubiKey() {
+        this(Transport.USB, DEFAULT_VERSION, DEFAULT_SERIAL);
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    public int getSerialNumber() {
+        return serial;
+    }
+
+    public LatencyModel getLatencyModel() {
+        return latencyModel;
+    }
+
+    /**
+     * Sets the model deciding how long each command takes.
+     *
+     * @param latencyModel the LatencyModel to use
+     */
+    public void setLatencyModel(LatencyModel latencyModel) {
+        this.latencyModel = latencyModel;
+    }
+
+    /**
+     * Sets whether SmartCardConnections report support for extended length APDUs, true by default.
+     *
+     * @param supported true to allow extended length APDUs, false to only allow short APDUs
+     */
+    public void setExtendedLengthApduSupported(boolean supported) {
+        extendedLengthApduSupported = supported;
+    }
+
+    boolean isExtendedLengthApduSupported() {
+        return extendedLengthApduSupported;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Sets whether the YubiKey is connected, true by default. While disconnected, opening a connection fails with
+     * an IOException. As with a real YubiKey, removing it breaks all open connections for good: sending data over
+     * them keeps failing once the YubiKey is back, and new connections must be opened.
+     *
+     * @param connected false to simulate removing the YubiKey, true to put it back
+     */
+    public synchronized void setConnected(boolean connected) {
+        if (this.connected && !connected) {
+            removals++;
+        }
+        this.connected = connected;
+    }
+
+    void ensureConnected() throws IOException {
+        if (!connected) {
+            throw new IOException("The YubiKey is disconnected");
+        }
+    }
+
+    /*
+     * Returns a value which changes each time the YubiKey is removed, to be given to ensureConnected.
+     */
+    int getRemovals() {
+        return removals;
+    }
+
+    /*
+     * Fails if the YubiKey is disconnected, or has been removed since a connection was opened.
+     */
+    void ensureConnected(int removals) throws IOException {
+        ensureConnected();
+        if (removals != this.removals) {
+            throw new IOException("The connection was broken by removing the YubiKey");
+        }
+    }
+
+    @Override
+    public Transport getTransport() {
+        return transport;
+    }
+
+    @Override
+    public boolean supportsConnection(Class<? extends YubiKeyConnection> connectionType) {
+        if (connectionType.isAssignableFrom(SimulatedSmartCardConnection.class)) {
+            return true;
+        }
+        return transport == Transport.USB && (connectionType.isAssignableFrom(SimulatedFidoConnection.class)
+                || connectionType.isAssignableFrom(SimulatedOtpConnection.class));
+    }
+
+    /**
+     * Opens a connection and invokes the callback with it, on the calling thread. The connection is closed
+     * once the callback returns.
+     */
+    @Override
+    public <T extends YubiKeyConnection> void requestConnection(Class<T> connectionType, Callback<Result<T, IOException>> callback) {
+        try (T connection = openConnection(connectionType)) {
+            callback.invoke(Result.success(connection));
+        } catch (IOException e) {
+            callback.invoke(Result.failure(e));
+        }
+    }
+
+    @Override
+    public <T extends YubiKeyConnection> T openConnection(Class<T> connectionType) throws IOException {
+        if (!supportsConnection(connectionType)) {
+            throw new IllegalStateException("The connection type is not supported by this device");
+        }
+        ensureConnected();
+        if (connectionType.isAssignableFrom(SimulatedSmartCardConnection.class)) {
+            return connectionType.cast(new SimulatedSmartCardConnection(this));
+        } else if (connectionType.isAssignableFrom(SimulatedFidoConnection.class)) {
+            return connectionType.cast(new SimulatedFidoConnection(this));
+        } else {
+            return connectionType.cast(new SimulatedOtpConnection(this));
+        }
+    }
+
+    /**
+     * Resets all applications to their factory default state.
+     */
+    public void reset() {
+        synchronized (lock) {
+            for (Applet applet : applets) {
+                applet.reset();
+            }
+            fidoApplication.reset();
+            otpApplication.reset();
+        }
+    }
+
+    @Nullable
+    Applet findApplet(byte[] aid) {
+        for (Applet applet : applets) {
+            if (applet.matches(aid)) {
+                return applet;
+            }
+        }
+        return null;
+    }
+
+    FidoApplication getFidoApplication() {
+        return fidoApplication;
+    }
+
+    OtpApplication getOtpApplication() {
+        return otpApplication;
+    }
+
+    /*
+     * Returns a page of device info, as a length prefixed list of TLVs.
+     */
+    byte[] readDeviceInfo(int page) {
+        TlvWriter writer = new TlvWriter();
+        if (page == 0) {
+            byte[] capabilities = ByteBuffer.allocate(2).putShort((short) CAPABILITIES).array();
+            writer.put(TAG_USB_SUPPORTED, capabilities)
+                    .put(TAG_SERIAL_NUMBER, ByteBuffer.allocate(4).putInt(serial).array())
+                    .put(TAG_USB_ENABLED, capabilities)
+                    .put(TAG_FORMFACTOR, new byte[]{FORM_FACTOR_USB_A_KEYCHAIN})
+                    .put(TAG_FIRMWARE_VERSION, version.getBytes())
+                    .put(TAG_CONFIG_LOCKED, new byte[]{0})
+                    .put(TAG_NFC_SUPPORTED, capabilities)
+                    .put(TAG_NFC_ENABLED, capabilities);
+        }
+        byte[] tlvs = writer.toByteArray();
+        byte[] response = new byte[1 + tlvs.length];
+        response[0] = (byte) tlvs.length;
+        System.arraycopy(tlvs, 0, response, 1, tlvs.length);
+        return response;
+    }
+}
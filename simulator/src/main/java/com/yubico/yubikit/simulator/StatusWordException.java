@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+/**
+ * Thrown by a simulated applet to respond with an error status word.
+ */
+class StatusWordException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final short sw;
+
+    StatusWordException(short sw) {
+        super(String.format("SW=%04x", sw));
+        this.sw = sw;
+    }
+
+    short getSw() {
+        return sw;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2024 Yubico.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yubico.yubikit.simulator;
+
+import com.yubico.yubikit.core.Transport;
+import com.yubico.yubikit.core.fido.CtapException;
+import com.yubico.yubikit.core.fido.FidoConnection;
+import com.yubico.yubikit.core.fido.FidoProtocol;
+import com.yubico.yubikit.core.metrics.HistogramTransportMetrics;
+import com.yubico.yubikit.core.metrics.MetricsRegistry;
+import com.yubico.yubikit.core.metrics.TransportMetrics;
+import com.yubico.yubikit.core.otp.OtpConnection;
+import com.yubico.yubikit.core.smartcard.ApduException;
+import com.yubico.yubikit.core.smartcard.SW;
+import com.yubico.yubikit.core.smartcard.SmartCardConnection;
+import com.yubico.yubikit.fido.Cbor;
+import com.yubico.yubikit.fido.ctap.Ctap2Session;
+import com.yubico.yubikit.fido.ctap.InfoDataCache;
+import com.yubico.yubikit.fido.ctap.LargeBlobs;
+import com.yubico.yubikit.fido.ctap.MemoryInfoDataCache;
+import com.yubico.yubikit.management.ManagementSession;
+import com.yubico.yubikit.oath.Code;
+import com.yubico.yubikit.oath.Credential;
+import com.yubico.yubikit.oath.CredentialData;
+import com.yubico.yubikit.oath.HashAlgorithm;
+import com.yubico.yubikit.oath.OathSession;
+import com.yubico.yubikit.oath.OathType;
+import com.yubico.yubikit.piv.KeyType;
+import com.yubico.yubikit.piv.ManagementKeyType;
+import com.yubico.yubikit.piv.PinPolicy;
+import com.yubico.yubikit.piv.PivSession;
+import com.yubico.yubikit.piv.Slot;
+import com.yubico.yubikit.piv.TouchPolicy;
+import com.yubico.yubikit.piv.jca.PivAlgorithmParameterSpec;
+import com.yubico.yubikit.piv.jca.PivProvider;
+import com.yubico.yubikit.yubiotp.YubiOtpSession;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+public class SimulatedYubiKeyTest {
+    private static final byte[] DEFAULT_MANAGEMENT_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8
+    };
+
+    private static final byte CTAPHID_PING = (byte) 0x81;
+
+    private final SimulatedYubiKey device = new SimulatedYubiKey();
+
+    @Test
+    public void testManagementOverAllConnections() throws Exception {
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            ManagementSession session = new ManagementSession(connection);
+            Assert.assertEquals(SimulatedYubiKey.DEFAULT_VERSION, session.getVersion());
+            Assert.assertEquals(Integer.valueOf(SimulatedYubiKey.DEFAULT_SERIAL), session.getDeviceInfo().getSerialNumber());
+        }
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            ManagementSession session = new ManagementSession(connection);
+            Assert.assertEquals(Integer.valueOf(SimulatedYubiKey.DEFAULT_SERIAL), session.getDeviceInfo().getSerialNumber());
+        }
+        try (OtpConnection connection = device.openConnection(OtpConnection.class)) {
+            ManagementSession session = new ManagementSession(connection);
+            Assert.assertEquals(Integer.valueOf(SimulatedYubiKey.DEFAULT_SERIAL), session.getDeviceInfo().getSerialNumber());
+        }
+    }
+
+    @Test
+    public void testOtpSerial() throws Exception {
+        try (OtpConnection connection = device.openConnection(OtpConnection.class)) {
+            Assert.assertEquals(SimulatedYubiKey.DEFAULT_SERIAL, new YubiOtpSession(connection).getSerialNumber());
+        }
+    }
+
+    @Test
+    public void testCtap2Info() throws Exception {
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            Ctap2Session session = new Ctap2Session(connection);
+            Assert.assertTrue(session.getCachedInfo().getVersions().contains("FIDO_2_1"));
+            Assert.assertEquals(16, session.getCachedInfo().getAaguid().length);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCtap2InfoCache() throws Exception {
+        MemoryInfoDataCache cache = new MemoryInfoDataCache();
+        byte[] aaguid;
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            aaguid = new Ctap2Session(connection).getCachedInfo().getAaguid();
+        }
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            new Ctap2Session(connection, cache, aaguid, SimulatedYubiKey.DEFAULT_SERIAL);
+        }
+        InfoDataCache.Key key = new InfoDataCache.Key(aaguid, SimulatedYubiKey.DEFAULT_VERSION, SimulatedYubiKey.DEFAULT_SERIAL);
+        Ctap2Session.InfoData cached = cache.get(key);
+        Assert.assertNotNull(cached);
+
+        // Replace the cached InfoData with an outdated one, lacking an option
+        Map<Integer, Object> data = (Map<Integer, Object>) Cbor.decode(cached.getBytes());
+        Map<String, Object> options = new HashMap<>((Map<String, Object>) data.get(0x04));
+        options.remove("largeBlobs");
+        data.put(0x04, options);
+        cache.put(key, Ctap2Session.InfoData.fromBytes(Cbor.encode(data)));
+
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            Ctap2Session session = new Ctap2Session(connection, cache, aaguid, SimulatedYubiKey.DEFAULT_SERIAL);
+            Assert.assertFalse(LargeBlobs.isSupported(session.getCachedInfo()));
+
+            // An unsupported command makes the session read the InfoData again
+            try {
+                session.selection(null);
+                Assert.fail();
+            } catch (CtapException e) {
+                Assert.assertEquals(CtapException.ERR_INVALID_COMMAND, e.getCtapError());
+            }
+            Assert.assertTrue(LargeBlobs.isSupported(session.getCachedInfo()));
+            Assert.assertTrue(LargeBlobs.isSupported(Objects.requireNonNull(cache.get(key))));
+        }
+    }
+
+    @Test
+    public void testLargeBlobs() throws Exception {
+        byte[] key = new byte[32];
+        byte[] blob = new byte[2000];
+        Random random = new Random(0);
+        random.nextBytes(key);
+        random.nextBytes(blob);
+
+        HistogramTransportMetrics metrics = new HistogramTransportMetrics();
+        MetricsRegistry.setTransportMetrics(metrics);
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            LargeBlobs largeBlobs = new LargeBlobs(new Ctap2Session(connection), null, null);
+            Assert.assertTrue(largeBlobs.readBlobArray().isEmpty());
+            Assert.assertNull(largeBlobs.getBlob(key));
+
+            // The array spans several fragments, and is read back from the authenticator
+            largeBlobs.putBlob(key, blob);
+            largeBlobs.clearCache();
+            Assert.assertArrayEquals(blob, largeBlobs.getBlob(key));
+
+            // An unchanged array is only checked by reading its hash
+            HistogramTransportMetrics.CommandStats stats = metrics.getStats().get(
+                    new HistogramTransportMetrics.CommandKey(Transport.USB, TransportMetrics.APPLICATION_FIDO, 0x90));
+            long packets = stats.getPackets();
+            Assert.assertArrayEquals(blob, largeBlobs.getBlob(key));
+            Assert.assertTrue(stats.getPackets() - packets <= 2);
+
+            // A change made by another client is detected
+            new LargeBlobs(new Ctap2Session(connection), null, null).deleteBlob(key);
+            Assert.assertNull(largeBlobs.getBlob(key));
+        } finally {
+            MetricsRegistry.setTransportMetrics(null);
+        }
+    }
+
+    @Test
+    public void testFidoChannelsAndLock() throws Exception {
+        try (FidoConnection connection = device.openConnection(FidoConnection.class)) {
+            FidoProtocol protocol = new FidoProtocol(connection);
+            int other = protocol.openChannel();
+            Assert.assertNotEquals(protocol.getChannelId(), other);
+
+            byte[] payload = new byte[1024];
+            new Random(0).nextBytes(payload);
+            Assert.assertArrayEquals(payload, protocol.sendAndReceive(other, CTAPHID_PING, payload, null));
+
+            protocol.lock(other, 5);
+            try {
+                protocol.sendAndReceive(CTAPHID_PING, payload, null);
+                Assert.fail("Expected the locked authenticator to reject the default channel");
+            } catch (IOException e) {
+                Assert.assertEquals("CTAPHID error: 06", e.getMessage());
+            }
+            protocol.lock(other, 0);
+            Assert.assertArrayEquals(payload, protocol.sendAndReceive(CTAPHID_PING, payload, null));
+        }
+    }
+
+    @Test
+    public void testOathCodes() throws Exception {
+        // Test vectors from RFC 4226 and RFC 6238
+        byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            OathSession session = new OathSession(connection);
+            Credential totp = session.putCredential(new CredentialData("totp", OathType.TOTP, HashAlgorithm.SHA1, secret, 8, 30, 0, null), false);
+            Credential hotp = session.putCredential(new CredentialData("hotp", OathType.HOTP, HashAlgorithm.SHA1, secret, 6, 0, 0, null), false);
+
+            Map<Credential, Code> codes = session.calculateCodes(59000);
+            Assert.assertEquals("94287082", codes.get(totp).getValue());
+            Assert.assertNull(codes.get(hotp));
+
+            Assert.assertEquals("755224", session.calculateCode(hotp).getValue());
+            Assert.assertEquals("287082", session.calculateCode(hotp).getValue());
+
+            session.deleteCredential(hotp);
+            Assert.assertEquals(1, session.getCredentials().size());
+        }
+    }
+
+    @Test
+    public void testOathLongListWithShortApdus() throws Exception {
+        device.setExtendedLengthApduSupported(false);
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            OathSession session = new OathSession(connection);
+            for (int i = 0; i < 40; i++) {
+                session.putCredential(new CredentialData("account-" + i, OathType.TOTP, HashAlgorithm.SHA256,
+                        new byte[32], 6, 30, 0, "Issuer"), false);
+            }
+            // The response is longer than a short APDU, and needs SEND REMAINING
+            List<Credential> credentials = session.getCredentials();
+            Assert.assertEquals(40, credentials.size());
+            Assert.assertEquals("account-39", credentials.get(39).getAccountName());
+        }
+    }
+
+    @Test
+    public void testPivSignAndObjects() throws Exception {
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            PivSession session = new PivSession(connection);
+            Assert.assertEquals(ManagementKeyType.TDES, session.getManagementKeyType());
+            Assert.assertEquals(SimulatedYubiKey.DEFAULT_SERIAL, session.getSerialNumber());
+
+            try {
+                session.putObject(0x5fc105, new byte[10]);
+                Assert.fail("Expected ApduException");
+            } catch (ApduException e) {
+                Assert.assertEquals(SW.SECURITY_CONDITION_NOT_SATISFIED, e.getSw());
+            }
+
+            session.authenticate(DEFAULT_MANAGEMENT_KEY);
+            byte[] object = new byte[1500];
+            for (int i = 0; i < object.length; i++) {
+                object[i] = (byte) i;
+            }
+            session.putObject(0x5fc105, object);
+            Assert.assertArrayEquals(object, session.getObject(0x5fc105));
+
+            PublicKey publicKey = session.generateKey(Slot.AUTHENTICATION, KeyType.ECCP256, PinPolicy.DEFAULT, TouchPolicy.DEFAULT);
+            session.verifyPin("123456".toCharArray());
+            byte[] message = "message".getBytes(StandardCharsets.UTF_8);
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(message);
+            byte[] signature = session.rawSignOrDecrypt(Slot.AUTHENTICATION, KeyType.ECCP256, hash);
+
+            Signature verifier = Signature.getInstance("SHA256withECDSA");
+            verifier.initVerify(publicKey);
+            verifier.update(message);
+            Assert.assertTrue(verifier.verify(signature));
+            Assert.assertEquals(3, session.getPinAttempts());
+        }
+    }
+
+    @Test
+    public void testPivProviderRsa() throws Exception {
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            PivSession session = new PivSession(connection);
+            session.authenticate(DEFAULT_MANAGEMENT_KEY);
+            PivProvider provider = new PivProvider(session);
+
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("YKPivRSA", provider);
+            generator.initialize(new PivAlgorithmParameterSpec(Slot.AUTHENTICATION, KeyType.RSA1024, PinPolicy.NEVER, TouchPolicy.DEFAULT, null));
+            KeyPair keyPair = generator.generateKeyPair();
+            byte[] message = "message".getBytes(StandardCharsets.UTF_8);
+
+            PSSParameterSpec pssParams = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
+            for (String algorithm : new String[]{"SHA256withRSA", "SHA1withRSA", "RSASSA-PSS"}) {
+                Signature signer = Signature.getInstance(algorithm, provider);
+                Signature verifier = Signature.getInstance(algorithm);
+                signer.initSign(keyPair.getPrivate());
+                verifier.initVerify(keyPair.getPublic());
+                if (algorithm.equals("RSASSA-PSS")) {
+                    signer.setParameter(pssParams);
+                    verifier.setParameter(pssParams);
+                }
+                signer.update(message);
+                verifier.update(message);
+                Assert.assertTrue(algorithm, verifier.verify(signer.sign()));
+            }
+
+            for (String transformation : new String[]{"RSA/ECB/PKCS1Padding", "RSA/ECB/OAEPWithSHA-256AndMGF1Padding"}) {
+                Cipher encrypter = Cipher.getInstance(transformation);
+                Cipher decrypter = Cipher.getInstance(transformation, provider);
+                encrypter.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+                decrypter.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+                Assert.assertArrayEquals(transformation, message, decrypter.doFinal(encrypter.doFinal(message)));
+            }
+        }
+    }
+
+    @Test
+    public void testPivStreamedObjectWithShortApdus() throws Exception {
+        device.setExtendedLengthApduSupported(false);
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            PivSession session = new PivSession(connection);
+            session.authenticate(DEFAULT_MANAGEMENT_KEY);
+            byte[] object = new byte[3000];
+            for (int i = 0; i < object.length; i++) {
+                object[i] = (byte) i;
+            }
+            session.putObject(0x5fc105, new ByteArrayInputStream(object), object.length);
+            Assert.assertArrayEquals(object, session.getObject(0x5fc105));
+        }
+    }
+
+    @Test
+    public void testDisconnectBreaksOpenConnections() throws Exception {
+        SmartCardConnection connection = device.openConnection(SmartCardConnection.class);
+        ManagementSession session = new ManagementSession(connection);
+        device.setConnected(false);
+        Assert.assertFalse(device.isConnected());
+        try {
+            device.openConnection(SmartCardConnection.class);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // Connections opened before the YubiKey was removed stay broken
+        device.setConnected(true);
+        try {
+            session.getDeviceInfo();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        try (SmartCardConnection reopened = device.openConnection(SmartCardConnection.class)) {
+            Assert.assertEquals(SimulatedYubiKey.DEFAULT_SERIAL, (int) new ManagementSession(reopened).getDeviceInfo().getSerialNumber());
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        device.setLatencyModel(new LatencyModel(1).setDefaultLatency(2, 1, TimeUnit.MILLISECONDS));
+        try (SmartCardConnection connection = device.openConnection(SmartCardConnection.class)) {
+            long start = System.nanoTime();
+            new OathSession(connection).getCredentials();
+            // SELECT and LIST
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(4));
+        }
+
+        LatencyModel model = new LatencyModel(1)
+                .setDefaultLatency(10, 0, TimeUnit.MICROSECONDS)
+                .setCommandLatency(0xa1, 1, 1, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(10000, model.nextDelayNanos(0xa4));
+        for (int i = 0; i < 100; i++) {
+            long delay = model.nextDelayNanos(0xa1);
+            Assert.assertTrue(delay >= 1000000 && delay < 2000000);
+        }
+    }
+}